@@ -0,0 +1,89 @@
+#!/usr/bin/env python
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+# Compares two JMH result files written with '-rf json' by the hbase-benchmarks
+# module and reports every benchmark whose score moved in the wrong direction
+# by more than the given threshold. Exits non-zero if any regression is found,
+# so it can gate a pre-commit or nightly job.
+#
+#   $ ./dev-support/compare_jmh_results.py baseline.json current.json
+#   $ ./dev-support/compare_jmh_results.py --threshold 0.05 baseline.json current.json
+
+import argparse
+import json
+import sys
+
+
+def load(path):
+    """Returns a dict of (benchmark, sorted params) -> (mode, score, error)."""
+    with open(path) as f:
+        results = json.load(f)
+    scores = {}
+    for r in results:
+        params = tuple(sorted((r.get("params") or {}).items()))
+        metric = r["primaryMetric"]
+        scores[(r["benchmark"], params)] = (r["mode"], metric["score"], metric["scoreError"])
+    return scores
+
+
+def describe(key):
+    benchmark, params = key
+    if not params:
+        return benchmark
+    return "%s(%s)" % (benchmark, ", ".join("%s=%s" % p for p in params))
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Compare two JMH json result files.")
+    parser.add_argument("--threshold", type=float, default=0.10,
+                        help="relative change treated as a regression (default 0.10)")
+    parser.add_argument("baseline")
+    parser.add_argument("current")
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    current = load(args.current)
+    regressions = 0
+    for key in sorted(baseline):
+        if key not in current:
+            print("MISSING    %s" % describe(key))
+            continue
+        mode, old, old_err = baseline[key]
+        _, new, new_err = current[key]
+        if old == 0:
+            continue
+        change = (new - old) / old
+        # Throughput modes are better when higher, time modes when lower
+        worse = -change if mode == "thrpt" else change
+        # Differences within the combined confidence intervals are noise
+        significant = abs(new - old) > (old_err or 0) + (new_err or 0)
+        status = "OK"
+        if worse > args.threshold and significant:
+            status = "REGRESSION"
+            regressions += 1
+        elif -worse > args.threshold and significant:
+            status = "IMPROVED"
+        print("%-10s %s %.3f -> %.3f (%+.1f%%)" % (status, describe(key), old, new, change * 100))
+    for key in sorted(set(current) - set(baseline)):
+        print("NEW        %s" % describe(key))
+    return 1 if regressions else 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Deterministic cell generation shared by the microbenchmarks so that every run, and every
+ * commit, measures exactly the same data set.
+ */
+@InterfaceAudience.Private
+public final class BenchmarkData {
+
+  public static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Row keys are zero padded so that lexicographic and numeric order agree; the common prefix
+   * mimics the composite keys seen in production tables.
+   */
+  public static byte[] row(int i) {
+    return Bytes.toBytes(String.format("user%012d", i));
+  }
+
+  public static byte[] qualifier(int i) {
+    return Bytes.toBytes(String.format("q%04d", i));
+  }
+
+  /**
+   * @return rows * columnsPerRow on-heap KeyValues, already sorted by
+   *         {@link CellComparatorImpl#COMPARATOR}.
+   */
+  public static List<Cell> createKeyValues(int rows, int columnsPerRow, int valueLength,
+      long seed) {
+    Random rand = new Random(seed);
+    List<Cell> cells = new ArrayList<>(rows * columnsPerRow);
+    for (int r = 0; r < rows; r++) {
+      byte[] row = row(r);
+      for (int c = 0; c < columnsPerRow; c++) {
+        byte[] value = new byte[valueLength];
+        rand.nextBytes(value);
+        cells.add(new KeyValue(row, FAMILY, qualifier(c), 1L + r, value));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * @return a copy of the given KeyValue backed by a direct ByteBuffer, the shape cells have when
+   *         they are read out of an off-heap BucketCache or an off-heap MSLAB chunk.
+   */
+  public static Cell toOffheap(KeyValue kv) {
+    ByteBuffer bb = ByteBuffer.allocateDirect(kv.getLength());
+    bb.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+    return new ByteBufferKeyValue(bb, 0, kv.getLength());
+  }
+}
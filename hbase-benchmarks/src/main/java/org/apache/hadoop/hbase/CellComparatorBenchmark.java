@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CellComparatorImpl#compare(Cell, Cell)} for pairs of cells that first differ in
+ * the row, the qualifier or the timestamp, for both on-heap and off-heap cells.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CellComparatorBenchmark {
+
+  @Param({ "ROW", "QUALIFIER", "TIMESTAMP" })
+  public String differsIn;
+
+  @Param({ "true", "false" })
+  public boolean offheap;
+
+  private final CellComparator comparator = CellComparatorImpl.COMPARATOR;
+  private Cell left;
+  private Cell right;
+
+  @Setup
+  public void setup() {
+    byte[] value = new byte[64];
+    KeyValue l = new KeyValue(BenchmarkData.row(1000), BenchmarkData.FAMILY,
+        BenchmarkData.qualifier(1), 100L, value);
+    KeyValue r;
+    switch (differsIn) {
+      case "ROW":
+        r = new KeyValue(BenchmarkData.row(1001), BenchmarkData.FAMILY,
+            BenchmarkData.qualifier(1), 100L, value);
+        break;
+      case "QUALIFIER":
+        r = new KeyValue(BenchmarkData.row(1000), BenchmarkData.FAMILY,
+            BenchmarkData.qualifier(2), 100L, value);
+        break;
+      case "TIMESTAMP":
+        r = new KeyValue(BenchmarkData.row(1000), BenchmarkData.FAMILY,
+            BenchmarkData.qualifier(1), 99L, value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown differsIn " + differsIn);
+    }
+    if (offheap) {
+      left = BenchmarkData.toOffheap(l);
+      right = BenchmarkData.toOffheap(r);
+    } else {
+      left = l;
+      right = r;
+    }
+    if (comparator.compare(left, right) >= 0) {
+      throw new IllegalStateException("Bad setup, " + left + " should sort before " + right);
+    }
+  }
+
+  @Benchmark
+  public int compare() {
+    return comparator.compare(left, right);
+  }
+
+  @Benchmark
+  public int compareRows() {
+    return comparator.compareRows(left, right);
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.BenchmarkData;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures decoding of one ~64KB HFile data block for each {@link DataBlockEncoding}: a full
+ * sequential pass through the block, and a single seek to a random key inside it, both through
+ * the same {@link DataBlockEncoder.EncodedSeeker} the HFile reader uses.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DataBlockDecodingBenchmark {
+
+  private static final int ROWS = 500;
+  private static final int COLUMNS = 2;
+  private static final int ENCODED_DATA_OFFSET =
+      HConstants.HFILEBLOCK_HEADER_SIZE + DataBlockEncoding.ID_SIZE;
+
+  @Param({ "PREFIX", "DIFF", "FAST_DIFF", "ROW_INDEX_V1", "ROW_TRIE" })
+  public DataBlockEncoding encoding;
+
+  @Param({ "true", "false" })
+  public boolean offheap;
+
+  private ByteBuffer encodedBlock;
+  private DataBlockEncoder.EncodedSeeker seeker;
+  private Cell[] seekKeys;
+  private int nextSeekKey;
+
+  @Setup
+  public void setup() throws IOException {
+    List<Cell> cells = BenchmarkData.createKeyValues(ROWS, COLUMNS, 32, 42L);
+    DataBlockEncoder encoder = encoding.getEncoder();
+    HFileContext meta = new HFileContextBuilder().withHBaseCheckSum(false)
+        .withIncludesMvcc(true).withIncludesTags(false)
+        .withCompression(Compression.Algorithm.NONE).build();
+    HFileBlockEncodingContext encodingCtx =
+        encoder.newDataBlockEncodingContext(encoding, HConstants.HFILEBLOCK_DUMMY_HEADER, meta);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(HConstants.HFILEBLOCK_DUMMY_HEADER);
+    DataOutputStream dos = new DataOutputStream(baos);
+    encoder.startBlockEncoding(encodingCtx, dos);
+    for (Cell cell : cells) {
+      encoder.encode(cell, encodingCtx, dos);
+    }
+    encoder.endBlockEncoding(encodingCtx, dos, baos.getBuffer());
+    int length = baos.size() - ENCODED_DATA_OFFSET;
+    encodedBlock = offheap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+    encodedBlock.put(baos.getBuffer(), ENCODED_DATA_OFFSET, length);
+    encodedBlock.rewind();
+
+    seeker = encoder.createSeeker(CellComparatorImpl.COMPARATOR,
+        encoder.newDataBlockDecodingContext(meta));
+    Random rand = new Random(42L);
+    seekKeys = new Cell[1024];
+    for (int i = 0; i < seekKeys.length; i++) {
+      seekKeys[i] = KeyValueUtil.createFirstOnRow(BenchmarkData.row(rand.nextInt(ROWS)));
+    }
+  }
+
+  @Benchmark
+  public void scanBlock(Blackhole bh) {
+    seeker.setCurrentBuffer(new SingleByteBuff(encodedBlock));
+    do {
+      bh.consume(seeker.getCell());
+    } while (seeker.next());
+  }
+
+  @Benchmark
+  public Cell seekInBlock() {
+    seeker.setCurrentBuffer(new SingleByteBuff(encodedBlock));
+    Cell key = seekKeys[nextSeekKey++ & (seekKeys.length - 1)];
+    seeker.seekToKeyInBlock(key, false);
+    return seeker.getCell();
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.util.ChecksumType;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BucketCache#getBlock(BlockCacheKey, boolean, boolean, boolean)} hits for data
+ * blocks that have already been drained from the RAM queue into the IOEngine. Run with -t to
+ * measure contention on the offset locks and the backing map.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BucketCacheBenchmark {
+
+  private static final int NUM_BLOCKS = 1024;
+  private static final long CAPACITY = 256L * 1024 * 1024;
+  private static final int WRITER_THREADS = 3;
+  private static final int WRITER_QUEUE_ITEMS = 64;
+
+  @Param({ "offheap", "file" })
+  public String ioEngine;
+
+  @Param({ "65536" })
+  public int blockSize;
+
+  private File cacheFile;
+  private BucketCache cache;
+  private BlockCacheKey[] keys;
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private final Random rand = new Random();
+
+    int next(int bound) {
+      return rand.nextInt(bound);
+    }
+  }
+
+  @Setup
+  public void setup() throws IOException, InterruptedException {
+    String engine = ioEngine;
+    if ("file".equals(ioEngine)) {
+      cacheFile = File.createTempFile("bucket", ".cache");
+      engine = "file:" + cacheFile.getAbsolutePath();
+    }
+    cache = new BucketCache(engine, CAPACITY, blockSize, null,
+        WRITER_THREADS, WRITER_QUEUE_ITEMS, null);
+    keys = new BlockCacheKey[NUM_BLOCKS];
+    Random rand = new Random(42L);
+    for (int i = 0; i < NUM_BLOCKS; i++) {
+      keys[i] = new BlockCacheKey("hfile-" + (i % 16), (long) i * blockSize);
+      cache.cacheBlockWithWait(keys[i], createBlock(rand, i), false, true);
+    }
+    // Only measure reads served by the IOEngine, not by the RAM queue
+    while (countBackingMapEntries() < NUM_BLOCKS) {
+      Thread.sleep(10);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    cache.shutdown();
+    if (cacheFile != null) {
+      cacheFile.delete();
+    }
+  }
+
+  private int countBackingMapEntries() {
+    int count = 0;
+    for (Iterator<CachedBlock> iter = cache.iterator(); iter.hasNext(); iter.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  private HFileBlock createBlock(Random rand, int index) {
+    // Header followed by random payload; the header fields are filled in by the constructor
+    ByteBuffer buf = ByteBuffer.allocate(HConstants.HFILEBLOCK_HEADER_SIZE + blockSize);
+    rand.nextBytes(buf.array());
+    HFileContext meta = new HFileContextBuilder().withHBaseCheckSum(false)
+        .withIncludesMvcc(true).withIncludesTags(false)
+        .withCompression(Compression.Algorithm.NONE).withBytesPerCheckSum(0)
+        .withChecksumType(ChecksumType.NULL).build();
+    return new HFileBlock(BlockType.DATA, blockSize, blockSize, -1, buf, HFileBlock.FILL_HEADER,
+        (long) index * blockSize, -1, blockSize + HConstants.HFILEBLOCK_HEADER_SIZE, meta);
+  }
+
+  @Benchmark
+  public Cacheable getBlock(Cursor cursor) {
+    BlockCacheKey key = keys[cursor.next(NUM_BLOCKS)];
+    Cacheable block = cache.getBlock(key, true, false, true);
+    if (block == null) {
+      throw new IllegalStateException("Block " + key + " fell out of the cache");
+    }
+    cache.returnBlock(key, block);
+    return block;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.BenchmarkData;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the flattening step of a {@link CompactingMemStore} in-memory flush: turning a
+ * skip-list based {@link CSLMImmutableSegment} into a {@link CellArrayImmutableSegment} or a
+ * {@link CellChunkImmutableSegment}. Each invocation flattens a freshly populated segment, the
+ * population itself is not measured.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SegmentFlatteningBenchmark {
+
+  private static final int ROWS = 50000;
+  private static final int COLUMNS = 2;
+
+  @Param({ "CHUNK_MAP", "ARRAY_MAP" })
+  public CompactingMemStore.IndexType indexType;
+
+  @Param({ "true", "false" })
+  public boolean offheap;
+
+  private Configuration conf;
+  private List<Cell> cells;
+  private CSLMImmutableSegment toFlatten;
+  private ImmutableSegment flattened;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    conf = HBaseConfiguration.create();
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+    ChunkCreator.initialize(MemStoreLABImpl.CHUNK_SIZE_DEFAULT, offheap,
+        2L * 1024 * 1024 * 1024, 0.5f, 0.2f, null);
+    cells = BenchmarkData.createKeyValues(ROWS, COLUMNS, 32, 42L);
+  }
+
+  @Setup(Level.Invocation)
+  public void populate() {
+    MutableSegment active =
+        SegmentFactory.instance().createMutableSegment(conf, CellComparatorImpl.COMPARATOR);
+    MemStoreSizing sizing = new MemStoreSizing();
+    for (Cell cell : cells) {
+      Cell toAdd = active.maybeCloneWithAllocator(cell, false);
+      active.add(toAdd, toAdd != cell, sizing);
+    }
+    toFlatten = (CSLMImmutableSegment) SegmentFactory.instance().createImmutableSegment(active);
+  }
+
+  @TearDown(Level.Invocation)
+  public void release() {
+    // Closing hands the MSLAB chunks back to the pool for the next invocation
+    if (flattened != null) {
+      flattened.close();
+      flattened = null;
+    }
+  }
+
+  @Benchmark
+  public ImmutableSegment flatten() {
+    flattened = SegmentFactory.instance().createImmutableSegmentByFlattening(toFlatten, indexType,
+        new MemStoreSizing(), MemStoreCompactionStrategy.Action.FLATTEN);
+    return flattened;
+  }
+}
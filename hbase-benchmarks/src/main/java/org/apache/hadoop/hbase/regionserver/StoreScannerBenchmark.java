@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.BenchmarkData;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeepDeletedCells;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a full user scan through {@link StoreScanner} over in-memory
+ * {@link CollectionBackedScanner}s, either returning every column or a single explicit column
+ * (which exercises the reseek path of the query matcher).
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StoreScannerBenchmark {
+
+  private static final int ROWS = 10000;
+  private static final int COLUMNS = 8;
+
+  @Param({ "1", "4" })
+  public int numScanners;
+
+  @Param({ "true", "false" })
+  public boolean allColumns;
+
+  private final CellComparator comparator = CellComparatorImpl.COMPARATOR;
+  private List<NavigableSet<Cell>> sources;
+  private ScanInfo scanInfo;
+  private NavigableSet<byte[]> columns;
+
+  @Setup
+  public void setup() {
+    Configuration conf = HBaseConfiguration.create();
+    scanInfo = new ScanInfo(conf, BenchmarkData.FAMILY, 0, 1, Long.MAX_VALUE,
+        KeepDeletedCells.FALSE, HConstants.DEFAULT_BLOCKSIZE, 0, comparator, false);
+    if (!allColumns) {
+      columns = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+      columns.add(BenchmarkData.qualifier(COLUMNS / 2));
+    }
+    sources = new ArrayList<>(numScanners);
+    for (int i = 0; i < numScanners; i++) {
+      sources.add(new TreeSet<>(comparator));
+    }
+    List<Cell> cells = BenchmarkData.createKeyValues(ROWS, COLUMNS, 32, 42L);
+    for (int i = 0; i < cells.size(); i++) {
+      sources.get(i % numScanners).add(cells.get(i));
+    }
+  }
+
+  @Benchmark
+  public void scanAll(Blackhole bh) throws IOException {
+    List<KeyValueScanner> scanners = new ArrayList<>(numScanners);
+    for (NavigableSet<Cell> source : sources) {
+      scanners.add(new CollectionBackedScanner(source, comparator));
+    }
+    List<Cell> results = new ArrayList<>();
+    try (StoreScanner scanner = new StoreScanner(new Scan(), scanInfo, columns, scanners)) {
+      boolean more;
+      do {
+        more = scanner.next(results);
+        bh.consume(results);
+        results.clear();
+      } while (more);
+    }
+  }
+}
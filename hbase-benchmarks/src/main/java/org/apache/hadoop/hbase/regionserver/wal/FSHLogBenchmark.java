@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.BenchmarkData;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConcurrencyControl;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.wal.WALEdit;
+import org.apache.hadoop.hbase.wal.WALKeyImpl;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FSHLog} append followed by a sync against the local file system. One operation
+ * is editsPerSync appends and a single sync; run with -t to see how well concurrent handlers get
+ * grouped into shared syncs.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class FSHLogBenchmark {
+
+  @Param({ "1", "16" })
+  public int editsPerSync;
+
+  @Param({ "100", "1000" })
+  public int valueSize;
+
+  private FileSystem fs;
+  private Path rootDir;
+  private FSHLog wal;
+  private RegionInfo regionInfo;
+  private final NavigableMap<byte[], Integer> scopes = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+  private final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+  private byte[] value;
+
+  @Setup
+  public void setup() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    fs = FileSystem.getLocal(conf);
+    rootDir = new Path(Files.createTempDirectory("fshlog-benchmark").toUri());
+    TableName tableName = TableName.valueOf("FSHLogBenchmark");
+    regionInfo = RegionInfoBuilder.newBuilder(tableName).build();
+    scopes.put(BenchmarkData.FAMILY, HConstants.REPLICATION_SCOPE_LOCAL);
+    wal = new FSHLog(fs, rootDir, HConstants.HREGION_LOGDIR_NAME, conf);
+    value = new byte[valueSize];
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    wal.close();
+    fs.delete(rootDir, true);
+  }
+
+  @Benchmark
+  public long appendAndSync() throws IOException {
+    long txid = 0;
+    WALKeyImpl[] keys = new WALKeyImpl[editsPerSync];
+    for (int i = 0; i < editsPerSync; i++) {
+      long now = System.currentTimeMillis();
+      WALEdit edit = new WALEdit();
+      edit.add(new KeyValue(BenchmarkData.row(i), BenchmarkData.FAMILY,
+          BenchmarkData.qualifier(0), now, value));
+      keys[i] = new WALKeyImpl(regionInfo.getEncodedNameAsBytes(), regionInfo.getTable(), now,
+          mvcc, scopes);
+      txid = wal.append(regionInfo, keys[i], edit, true);
+    }
+    wal.sync(txid);
+    // Keep the mvcc write queue from growing without bound across invocations
+    for (WALKeyImpl key : keys) {
+      mvcc.complete(key.getWriteEntry());
+    }
+    return txid;
+  }
+}
@@ -34,5 +34,16 @@ public enum BloomType {
   /**
    * Bloom enabled with Table row &amp; column (family+qualifier) as Key
    */
-  ROWCOL
+  ROWCOL,
+  /**
+   * Bloom enabled with a fixed length prefix of the Table row as Key. The length is set with the
+   * "hbase.bloomfilter.rowprefix.length" configuration of the column family.
+   */
+  ROWPREFIX_FIXED_LENGTH,
+  /**
+   * Bloom enabled with the Table row up to and including the first delimiter as Key, or the whole
+   * row if it has none. The delimiter is set with the "hbase.bloomfilter.rowprefix.delimiter"
+   * configuration of the column family.
+   */
+  ROWPREFIX_DELIMITED
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A codec that compresses a whole block in one call, between buffers, instead of going through
+ * the stream API of a Hadoop codec. The compressed form is the raw output of the codec without
+ * any framing, the sizes are kept by the caller, like the HFile block header does.
+ * <p>
+ * Implementations are pure Java and thread safe, any state they need is kept per thread.
+ * All methods take an optional dictionary, which must be the same for compression and
+ * decompression.
+ */
+@InterfaceAudience.Private
+public interface BlockCodec {
+
+  /**
+   * @return the largest size the compressed form of the given number of bytes can have
+   */
+  int maxCompressedLength(int length);
+
+  /**
+   * Compresses <code>src[srcOffset, srcOffset + length)</code> into <code>dst</code>, which must
+   * have room for {@link #maxCompressedLength(int)} bytes after <code>dstOffset</code>.
+   * @param dict the dictionary to compress with, or null
+   * @return the compressed size
+   */
+  int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, byte[] dict)
+      throws IOException;
+
+  /**
+   * Decompresses from <code>src</code>, starting at the absolute <code>srcOffset</code>, until
+   * <code>dstLength</code> bytes were written to <code>dst</code>. Bytes of <code>src</code>
+   * after the compressed data, like the checksums of an HFile block, are not read.
+   * @param srcLength the number of bytes available in <code>src</code>
+   * @param dict the dictionary the data was compressed with, or null
+   * @throws IOException if the data is corrupt or does not decompress to
+   *           <code>dstLength</code> bytes
+   */
+  void decompress(ByteBuff src, int srcOffset, int srcLength, byte[] dst, int dstOffset,
+      int dstLength, byte[] dict) throws IOException;
+
+  /**
+   * Decompresses data of an unknown decompressed size. This is for the stream API and tools,
+   * the block read path knows the size and uses
+   * {@link #decompress(ByteBuff, int, int, byte[], int, int, byte[])}.
+   * @param dict the dictionary the data was compressed with, or null
+   * @return the decompressed bytes
+   */
+  byte[] decompress(byte[] src, int srcOffset, int srcLength, byte[] dict) throws IOException;
+}
@@ -17,14 +17,19 @@
 package org.apache.hadoop.hbase.io.compress;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -74,6 +79,55 @@ public final class Compression {
     }
   }
 
+  /**
+   * Collects what is written and compresses it as one block with a {@link BlockCodec} on
+   * {@link #finish()}.
+   */
+  static class BlockCompressionOutputStream extends CompressionOutputStream {
+    private final BlockCodec codec;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private byte[] compressed = HConstants.EMPTY_BYTE_ARRAY;
+    // Finishing again, like on close() after flush(), does not write another block
+    private boolean finished;
+
+    BlockCompressionOutputStream(OutputStream out, BlockCodec codec) {
+      super(out);
+      this.codec = codec;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      buffer.write(b);
+      finished = false;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      buffer.write(b, off, len);
+      finished = false;
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (finished) {
+        return;
+      }
+      int maxLength = codec.maxCompressedLength(buffer.size());
+      if (compressed.length < maxLength) {
+        compressed = new byte[maxLength];
+      }
+      int length = codec.compress(buffer.getBuffer(), 0, buffer.size(), compressed, 0, null);
+      out.write(compressed, 0, length);
+      buffer.reset();
+      finished = true;
+    }
+
+    @Override
+    public void resetState() throws IOException {
+      buffer.reset();
+    }
+  }
+
   /**
    * Returns the classloader to load the Codec class from.
    */
@@ -287,6 +341,28 @@ public final class Compression {
           throw new RuntimeException(e);
         }
       }
+    },
+    LZ4_BLOCK("lz4_block") {
+      @Override
+      CompressionCodec getCodec(Configuration conf) {
+        return null;
+      }
+
+      @Override
+      public BlockCodec getBlockCodec() {
+        return Lz4BlockCodec.INSTANCE;
+      }
+    },
+    DEFLATE_BLOCK("deflate_block") {
+      @Override
+      CompressionCodec getCodec(Configuration conf) {
+        return null;
+      }
+
+      @Override
+      public BlockCodec getBlockCodec() {
+        return DeflateBlockCodec.INSTANCE;
+      }
     };
 
     private final Configuration conf;
@@ -304,9 +380,27 @@ public final class Compression {
 
     abstract CompressionCodec getCodec(Configuration conf);
 
+    /**
+     * The pure Java codecs compress a block in one call instead of through a Hadoop codec. They
+     * need no native library and no {@link Compressor} or {@link Decompressor}; the block read
+     * and write paths use them directly, the stream methods of this class wrap them.
+     * @return the block codec of this algorithm, or null if it is a Hadoop codec
+     */
+    public BlockCodec getBlockCodec() {
+      return null;
+    }
+
     public InputStream createDecompressionStream(
         InputStream downStream, Decompressor decompressor,
         int downStreamBufferSize) throws IOException {
+      BlockCodec blockCodec = getBlockCodec();
+      if (blockCodec != null) {
+        // The stream holds one block, decompress all of it at once
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        IOUtils.copyBytes(downStream, compressed, DATA_IBUF_SIZE);
+        return new ByteArrayInputStream(
+            blockCodec.decompress(compressed.getBuffer(), 0, compressed.size(), null));
+      }
       CompressionCodec codec = getCodec(conf);
       // Set the internal buffer size to read from down stream.
       if (downStreamBufferSize > 0) {
@@ -344,6 +438,10 @@ public final class Compression {
      */
     public CompressionOutputStream createPlainCompressionStream(
         OutputStream downStream, Compressor compressor) throws IOException {
+      BlockCodec blockCodec = getBlockCodec();
+      if (blockCodec != null) {
+        return new BlockCompressionOutputStream(downStream, blockCodec);
+      }
       CompressionCodec codec = getCodec(conf);
       ((Configurable)codec).getConf().setInt("io.file.buffer.size", 32 * 1024);
       return codec.createOutputStream(downStream, compressor);
@@ -469,6 +567,15 @@ public final class Compression {
               + (dest.length - destOffset));
     }
 
+    BlockCodec blockCodec = compressAlgo.getBlockCodec();
+    if (blockCodec != null) {
+      byte[] compressed = new byte[compressedSize];
+      IOUtils.readFully(bufferedBoundedStream, compressed, 0, compressedSize);
+      blockCodec.decompress(new SingleByteBuff(ByteBuffer.wrap(compressed)), 0, compressedSize,
+        dest, destOffset, uncompressedSize, null);
+      return;
+    }
+
     Decompressor decompressor = null;
     try {
       decompressor = compressAlgo.getDecompressor();
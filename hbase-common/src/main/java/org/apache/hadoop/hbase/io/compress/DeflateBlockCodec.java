@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.ObjectIntPair;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A {@link BlockCodec} writing raw deflate data with the zlib of the JDK, so it does not need the
+ * native Hadoop library. It compresses better than {@link Lz4BlockCodec} at a higher cost, and
+ * gains the most from a dictionary on small blocks. The deflater and inflater are kept per
+ * thread.
+ */
+@InterfaceAudience.Private
+public final class DeflateBlockCodec implements BlockCodec {
+
+  public static final DeflateBlockCodec INSTANCE = new DeflateBlockCodec();
+
+  private static final class Context {
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    // The compressed bytes of a block that is not on heap are copied here for the inflater
+    private byte[] input = HConstants.EMPTY_BYTE_ARRAY;
+    private final ObjectIntPair<ByteBuffer> pair = new ObjectIntPair<>();
+
+    private byte[] input(int length) {
+      if (input.length < length) {
+        input = new byte[length];
+      }
+      return input;
+    }
+  }
+
+  private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+  private DeflateBlockCodec() {
+  }
+
+  @Override
+  public int maxCompressedLength(int length) {
+    // The bound of zlib for any settings
+    return length + ((length + 7) >> 3) + ((length + 63) >> 6) + 5;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset,
+      byte[] dict) throws IOException {
+    Deflater deflater = contexts.get().deflater;
+    deflater.reset();
+    if (dict != null && dict.length > 0) {
+      deflater.setDictionary(dict);
+    }
+    deflater.setInput(src, srcOffset, length);
+    deflater.finish();
+    int dstEnd = dstOffset + maxCompressedLength(length);
+    int op = dstOffset;
+    while (!deflater.finished()) {
+      if (op == dstEnd) {
+        throw new IOException("Deflated data is larger than " + maxCompressedLength(length));
+      }
+      op += deflater.deflate(dst, op, dstEnd - op);
+    }
+    return op - dstOffset;
+  }
+
+  @Override
+  public void decompress(ByteBuff src, int srcOffset, int srcLength, byte[] dst, int dstOffset,
+      int dstLength, byte[] dict) throws IOException {
+    Context context = contexts.get();
+    Inflater inflater = context.inflater;
+    inflater.reset();
+    src.asSubByteBuffer(srcOffset, srcLength, context.pair);
+    ByteBuffer buf = context.pair.getFirst();
+    if (buf.hasArray()) {
+      inflater.setInput(buf.array(), buf.arrayOffset() + context.pair.getSecond(), srcLength);
+    } else {
+      byte[] input = context.input(srcLength);
+      src.get(srcOffset, input, 0, srcLength);
+      inflater.setInput(input, 0, srcLength);
+    }
+    if (dict != null && dict.length > 0) {
+      inflater.setDictionary(dict);
+    }
+    int op = dstOffset;
+    int dstEnd = dstOffset + dstLength;
+    try {
+      while (op < dstEnd) {
+        int n = inflater.inflate(dst, op, dstEnd - op);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IOException("Deflated block is truncated, got " + (op - dstOffset)
+              + " of " + dstLength + " bytes");
+        }
+        op += n;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public byte[] decompress(byte[] src, int srcOffset, int srcLength, byte[] dict)
+      throws IOException {
+    if (srcLength == 0) {
+      return HConstants.EMPTY_BYTE_ARRAY;
+    }
+    Inflater inflater = contexts.get().inflater;
+    inflater.reset();
+    inflater.setInput(src, srcOffset, srcLength);
+    if (dict != null && dict.length > 0) {
+      inflater.setDictionary(dict);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(srcLength * 2);
+    byte[] chunk = new byte[4096];
+    try {
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n == 0 && inflater.needsInput() && !inflater.finished()) {
+          throw new IOException("Deflated data is truncated");
+        }
+        out.write(chunk, 0, n);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    return out.toByteArray();
+  }
+}
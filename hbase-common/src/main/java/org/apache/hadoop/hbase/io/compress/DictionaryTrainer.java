@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Trains a compression dictionary for the {@link BlockCodec}s from samples of uncompressed data
+ * blocks, so that small blocks, which compress poorly on their own, can refer to the content that
+ * is common to all blocks of a column family.
+ * <p>
+ * Blocks are offered with {@link #sample(byte[], int, int)} while files are written and a
+ * reservoir of them, bounded to {@link #SAMPLE_RATIO} times the dictionary size, is kept.
+ * {@link #train()} builds a dictionary from the reservoir the way the COVER algorithm does: the
+ * samples are cut into as many epochs as the dictionary has segments and from every epoch the
+ * segment whose 8 byte substrings occur in the most samples is picked. The substrings of a picked
+ * segment no longer count for the next ones. The best segments are put at the end of the
+ * dictionary, where they are the cheapest to refer to.
+ * <p>
+ * The reservoir outlives a training, new blocks replace the old samples at the rate they come,
+ * so the dictionary follows the data as it changes.
+ */
+@InterfaceAudience.Private
+public class DictionaryTrainer {
+
+  /** The reservoir holds this many times the dictionary size of samples */
+  public static final int SAMPLE_RATIO = 32;
+
+  private static final int DMER_LENGTH = 8;
+  private static final int SEGMENT_LENGTH = 64;
+  private static final int COUNTS_LOG = 18;
+
+  private final int dictionarySize;
+  private final long maxSampleBytes;
+
+  private final List<byte[]> samples = new ArrayList<>();
+  private long sampleBytes;
+  /** Blocks offered since the reservoir was last trained on, counting the ones it holds */
+  private long seen;
+  private boolean changed;
+
+  public DictionaryTrainer(int dictionarySize) {
+    if (dictionarySize <= 0) {
+      throw new IllegalArgumentException("Dictionary size must be positive: " + dictionarySize);
+    }
+    this.dictionarySize = dictionarySize;
+    this.maxSampleBytes = (long) dictionarySize * SAMPLE_RATIO;
+  }
+
+  public int getDictionarySize() {
+    return dictionarySize;
+  }
+
+  /**
+   * Offers a block to the reservoir. The bytes are copied if the block is kept.
+   */
+  public synchronized void sample(byte[] data, int offset, int length) {
+    if (length < SEGMENT_LENGTH) {
+      return;
+    }
+    seen++;
+    if (sampleBytes + length <= maxSampleBytes) {
+      add(samples.size(), data, offset, length);
+      return;
+    }
+    long index = ThreadLocalRandom.current().nextLong(seen);
+    if (index < samples.size()) {
+      int i = (int) index;
+      byte[] old = samples.get(i);
+      if (sampleBytes - old.length + length <= maxSampleBytes) {
+        sampleBytes -= old.length;
+        add(i, data, offset, length);
+      }
+    }
+  }
+
+  private void add(int index, byte[] data, int offset, int length) {
+    byte[] sample = Arrays.copyOfRange(data, offset, offset + length);
+    if (index == samples.size()) {
+      samples.add(sample);
+    } else {
+      samples.set(index, sample);
+    }
+    sampleBytes += length;
+    changed = true;
+  }
+
+  /**
+   * Trains a dictionary from the samples kept so far.
+   * @return the dictionary, or null if there are no new samples since the last training, or
+   *         not enough of them to make a dictionary from
+   */
+  public byte[] train() {
+    List<byte[]> snapshot;
+    synchronized (this) {
+      if (!changed || sampleBytes < dictionarySize) {
+        return null;
+      }
+      changed = false;
+      seen = samples.size();
+      snapshot = new ArrayList<>(samples);
+    }
+    return train(snapshot, dictionarySize);
+  }
+
+  /**
+   * Builds a dictionary of at most the given size from the given samples.
+   */
+  @VisibleForTesting
+  static byte[] train(List<byte[]> samples, int dictionarySize) {
+    int total = 0;
+    for (byte[] sample : samples) {
+      total += sample.length;
+    }
+    byte[] data = new byte[total];
+    int pos = 0;
+    for (byte[] sample : samples) {
+      System.arraycopy(sample, 0, data, pos, sample.length);
+      pos += sample.length;
+    }
+    if (total <= dictionarySize) {
+      return data;
+    }
+
+    // The hash of the substring starting at every position, and the number of samples every
+    // hash is found in. A substring is not worth a place in the dictionary if only one sample
+    // has it, the codec finds it in the block itself.
+    int[] hashes = new int[total];
+    int[] counts = new int[1 << COUNTS_LOG];
+    int[] lastSample = new int[1 << COUNTS_LOG];
+    Arrays.fill(lastSample, -1);
+    Arrays.fill(hashes, -1);
+    pos = 0;
+    for (int s = 0; s < samples.size(); s++) {
+      byte[] sample = samples.get(s);
+      long dmer = 0;
+      for (int i = 0; i < sample.length; i++) {
+        dmer = (dmer << 8) | (sample[i] & 0xff);
+        if (i >= DMER_LENGTH - 1) {
+          int hash = hash(dmer);
+          hashes[pos + i - DMER_LENGTH + 1] = hash;
+          if (lastSample[hash] != s) {
+            lastSample[hash] = s;
+            counts[hash]++;
+          }
+        }
+      }
+      pos += sample.length;
+    }
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == 1) {
+        counts[i] = 0;
+      }
+    }
+
+    int segments = Math.max(1, dictionarySize / SEGMENT_LENGTH);
+    int epochLength = total / segments;
+    int[] starts = new int[segments];
+    long[] scores = new long[segments];
+    int picked = 0;
+    for (int epoch = 0; epoch < segments; epoch++) {
+      int start = epoch * epochLength;
+      int last = Math.min(start + epochLength, total) - SEGMENT_LENGTH;
+      if (last < start) {
+        continue;
+      }
+      long score = 0;
+      for (int i = start; i < start + SEGMENT_LENGTH - DMER_LENGTH + 1; i++) {
+        score += count(counts, hashes[i]);
+      }
+      long bestScore = score;
+      int best = start;
+      for (int i = start + 1; i <= last; i++) {
+        score += count(counts, hashes[i + SEGMENT_LENGTH - DMER_LENGTH])
+            - count(counts, hashes[i - 1]);
+        if (score > bestScore) {
+          bestScore = score;
+          best = i;
+        }
+      }
+      if (bestScore == 0) {
+        continue;
+      }
+      for (int i = best; i < best + SEGMENT_LENGTH - DMER_LENGTH + 1; i++) {
+        if (hashes[i] >= 0) {
+          counts[hashes[i]] = 0;
+        }
+      }
+      starts[picked] = best;
+      scores[picked] = bestScore;
+      picked++;
+    }
+    if (picked == 0) {
+      return null;
+    }
+
+    // Sort the segments by score, the best last
+    Integer[] order = new Integer[picked];
+    for (int i = 0; i < picked; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(scores[a], scores[b]));
+    byte[] dictionary = new byte[picked * SEGMENT_LENGTH];
+    for (int i = 0; i < picked; i++) {
+      System.arraycopy(data, starts[order[i]], dictionary, i * SEGMENT_LENGTH, SEGMENT_LENGTH);
+    }
+    return dictionary;
+  }
+
+  private static int count(int[] counts, int hash) {
+    return hash < 0 ? 0 : counts[hash];
+  }
+
+  private static int hash(long dmer) {
+    return (int) ((dmer * 0x9E3779B97F4A7C15L) >>> (64 - COUNTS_LOG));
+  }
+}
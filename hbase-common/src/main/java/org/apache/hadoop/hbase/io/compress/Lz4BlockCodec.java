@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A pure Java {@link BlockCodec} writing the LZ4 block format, so it does not need the native
+ * Hadoop library. A dictionary is used the way the LZ4 format defines it, as data that precedes
+ * the block, so matches can point into its last 64 KB.
+ * <p>
+ * The compressor is the greedy single hash table one of the reference implementation. Its hash
+ * table is kept per thread.
+ */
+@InterfaceAudience.Private
+public final class Lz4BlockCodec implements BlockCodec {
+
+  public static final Lz4BlockCodec INSTANCE = new Lz4BlockCodec();
+
+  private static final int MIN_MATCH = 4;
+  /** The last bytes of a block are always literals */
+  private static final int LAST_LITERALS = 5;
+  /** A match must start at least this many bytes before the end of the block */
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 65535;
+  private static final int ML_BITS = 4;
+  private static final int ML_MASK = (1 << ML_BITS) - 1;
+  private static final int RUN_MASK = (1 << (8 - ML_BITS)) - 1;
+  private static final int HASH_LOG = 12;
+  /** The search step grows by one every 2^SKIP_TRIGGER misses, to get over incompressible data */
+  private static final int SKIP_TRIGGER = 6;
+
+  private static final class Context {
+    private final int[] table = new int[1 << HASH_LOG];
+    private byte[] window = HConstants.EMPTY_BYTE_ARRAY;
+
+    private byte[] window(int length) {
+      if (window.length < length) {
+        window = new byte[length];
+      }
+      return window;
+    }
+  }
+
+  private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+  private Lz4BlockCodec() {
+  }
+
+  @Override
+  public int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset,
+      byte[] dict) {
+    Context context = contexts.get();
+    int[] table = context.table;
+    Arrays.fill(table, -1);
+    if (dict == null || dict.length == 0) {
+      return compress(src, srcOffset, srcOffset, srcOffset + length, dst, dstOffset, table);
+    }
+    // Put the input after the dictionary so that a match into the dictionary is just a match
+    int dictLength = Math.min(dict.length, MAX_DISTANCE);
+    byte[] window = context.window(dictLength + length);
+    System.arraycopy(dict, dict.length - dictLength, window, 0, dictLength);
+    System.arraycopy(src, srcOffset, window, dictLength, length);
+    for (int i = 0; i + MIN_MATCH <= dictLength; i++) {
+      table[hash(readInt(window, i))] = i;
+    }
+    return compress(window, 0, dictLength, dictLength + length, dst, dstOffset, table);
+  }
+
+  /**
+   * Compresses <code>in[start, end)</code>. Matches may start as low as <code>lowLimit</code>.
+   */
+  private static int compress(byte[] in, int lowLimit, int start, int end, byte[] dst,
+      int dstOffset, int[] table) {
+    int ip = start;
+    int anchor = start;
+    int op = dstOffset;
+    int mfLimit = end - MF_LIMIT;
+    int matchLimit = end - LAST_LITERALS;
+    if (end - start > MF_LIMIT) {
+      table[hash(readInt(in, ip))] = ip;
+      ip++;
+      search:
+      while (true) {
+        int ref;
+        int forwardIp = ip;
+        int misses = 1 << SKIP_TRIGGER;
+        do {
+          ip = forwardIp;
+          forwardIp = ip + (misses++ >>> SKIP_TRIGGER);
+          if (forwardIp > mfLimit) {
+            break search;
+          }
+          int h = hash(readInt(in, ip));
+          ref = table[h];
+          table[h] = ip;
+        } while (ref < 0 || ip - ref > MAX_DISTANCE || readInt(in, ref) != readInt(in, ip));
+
+        while (ip > anchor && ref > lowLimit && in[ip - 1] == in[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int token = op++;
+        int literals = ip - anchor;
+        if (literals >= RUN_MASK) {
+          dst[token] = (byte) (RUN_MASK << ML_BITS);
+          op = writeLength(literals - RUN_MASK, dst, op);
+        } else {
+          dst[token] = (byte) (literals << ML_BITS);
+        }
+        System.arraycopy(in, anchor, dst, op, literals);
+        op += literals;
+
+        while (true) {
+          int offset = ip - ref;
+          dst[op++] = (byte) offset;
+          dst[op++] = (byte) (offset >>> 8);
+          ip += MIN_MATCH;
+          ref += MIN_MATCH;
+          int matchStart = ip;
+          while (ip < matchLimit && in[ip] == in[ref]) {
+            ip++;
+            ref++;
+          }
+          int matchLength = ip - matchStart;
+          if (matchLength >= ML_MASK) {
+            dst[token] |= ML_MASK;
+            op = writeLength(matchLength - ML_MASK, dst, op);
+          } else {
+            dst[token] |= matchLength;
+          }
+          anchor = ip;
+          if (ip > mfLimit) {
+            break search;
+          }
+          table[hash(readInt(in, ip - 2))] = ip - 2;
+          // A match right away is written with no literals
+          int h = hash(readInt(in, ip));
+          ref = table[h];
+          table[h] = ip;
+          if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(in, ref) != readInt(in, ip)) {
+            ip++;
+            break;
+          }
+          token = op++;
+          dst[token] = 0;
+        }
+      }
+    }
+    int literals = end - anchor;
+    int token = op++;
+    if (literals >= RUN_MASK) {
+      dst[token] = (byte) (RUN_MASK << ML_BITS);
+      op = writeLength(literals - RUN_MASK, dst, op);
+    } else {
+      dst[token] = (byte) (literals << ML_BITS);
+    }
+    System.arraycopy(in, anchor, dst, op, literals);
+    op += literals;
+    return op - dstOffset;
+  }
+
+  @Override
+  public void decompress(ByteBuff src, int srcOffset, int srcLength, byte[] dst, int dstOffset,
+      int dstLength, byte[] dict) throws IOException {
+    if (dstLength == 0) {
+      return;
+    }
+    int ip = srcOffset;
+    int srcEnd = srcOffset + srcLength;
+    int op = dstOffset;
+    int dstEnd = dstOffset + dstLength;
+    while (true) {
+      if (ip >= srcEnd) {
+        throw corrupt("truncated");
+      }
+      int token = src.get(ip++) & 0xff;
+      int literals = token >>> ML_BITS;
+      if (literals == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw corrupt("truncated literal length");
+          }
+          b = src.get(ip++) & 0xff;
+          literals += b;
+        } while (b == 255);
+      }
+      if (literals > dstEnd - op || literals > srcEnd - ip) {
+        throw corrupt("literals out of bounds");
+      }
+      src.get(ip, dst, op, literals);
+      ip += literals;
+      op += literals;
+      if (op == dstEnd) {
+        // The last sequence only has literals
+        return;
+      }
+
+      if (srcEnd - ip < 2) {
+        throw corrupt("truncated offset");
+      }
+      int offset = (src.get(ip) & 0xff) | ((src.get(ip + 1) & 0xff) << 8);
+      ip += 2;
+      int matchLength = token & ML_MASK;
+      if (matchLength == ML_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw corrupt("truncated match length");
+          }
+          b = src.get(ip++) & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (offset == 0 || matchLength > dstEnd - op) {
+        throw corrupt("match out of bounds");
+      }
+      int ref = op - offset;
+      if (ref < dstOffset) {
+        // The match starts in the dictionary
+        int fromDict = dstOffset - ref;
+        if (dict == null || fromDict > dict.length) {
+          throw corrupt("match before the start of the block");
+        }
+        int length = Math.min(fromDict, matchLength);
+        System.arraycopy(dict, dict.length - fromDict, dst, op, length);
+        op += length;
+        matchLength -= length;
+        ref = dstOffset;
+      }
+      if (op - ref >= matchLength) {
+        System.arraycopy(dst, ref, dst, op, matchLength);
+        op += matchLength;
+      } else {
+        // The match overlaps the bytes it produces, copy byte by byte
+        for (int end = op + matchLength; op < end;) {
+          dst[op++] = dst[ref++];
+        }
+      }
+    }
+  }
+
+  @Override
+  public byte[] decompress(byte[] src, int srcOffset, int srcLength, byte[] dict)
+      throws IOException {
+    // Walk the sequences to find the size
+    int length = 0;
+    int ip = srcOffset;
+    int srcEnd = srcOffset + srcLength;
+    while (ip < srcEnd) {
+      int token = src[ip++] & 0xff;
+      int literals = token >>> ML_BITS;
+      if (literals == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw corrupt("truncated literal length");
+          }
+          b = src[ip++] & 0xff;
+          literals += b;
+        } while (b == 255);
+      }
+      length += literals;
+      ip += literals;
+      if (ip >= srcEnd) {
+        break;
+      }
+      ip += 2;
+      int matchLength = token & ML_MASK;
+      if (matchLength == ML_MASK) {
+        int b;
+        do {
+          if (ip >= srcEnd) {
+            throw corrupt("truncated match length");
+          }
+          b = src[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      length += matchLength + MIN_MATCH;
+    }
+    byte[] dst = new byte[length];
+    decompress(new SingleByteBuff(ByteBuffer.wrap(src)), srcOffset, srcLength, dst, 0, length,
+      dict);
+    return dst;
+  }
+
+  private static IOException corrupt(String reason) {
+    return new IOException("Corrupt LZ4 block: " + reason);
+  }
+
+  private static int writeLength(int length, byte[] dst, int op) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16)
+        | ((b[i + 3] & 0xff) << 24);
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+}
@@ -204,6 +204,13 @@ abstract class BufferedDataBlockEncoder extends AbstractDataBlockEncoder {
       }
     }
 
+    /**
+     * Builds a cell over the value and tags in the block, with its own copy of the key. The key is
+     * copied rather than read from a view reused across cells because the cell outlives the seeker
+     * state: KeyValueHeap returns the cell a scanner peeked after moving the scanner on, and the
+     * query matcher, the column and delete trackers and StoreScanner keep the cells they look at.
+     * The value and tags are not copied, the block stays referenced until the scanner is shipped.
+     */
     public Cell toCell() {
       // Buffer backing the value and tags part from the HFileBlock's buffer
       // When tag compression in use, this will be only the value bytes area.
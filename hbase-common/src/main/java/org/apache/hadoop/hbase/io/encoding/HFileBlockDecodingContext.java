@@ -18,6 +18,7 @@ package org.apache.hadoop.hbase.io.encoding;
 
 import java.io.IOException;
 
+import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -55,6 +56,18 @@ public interface HFileBlockDecodingContext {
     ByteBuff onDiskBlock
   ) throws IOException;
 
+  /**
+   * Like {@link #prepareDecoding(int, int, ByteBuff, ByteBuff)}, for a block of the given type.
+   * Data blocks are decompressed with the {@link HFileContext#getCompressionDictionary()} of the
+   * file, if there is one.
+   */
+  default void prepareDecoding(BlockType blockType, int onDiskSizeWithoutHeader,
+      int uncompressedSizeWithoutHeader, ByteBuff blockBufferWithoutHeader, ByteBuff onDiskBlock)
+      throws IOException {
+    prepareDecoding(onDiskSizeWithoutHeader, uncompressedSizeWithoutHeader,
+      blockBufferWithoutHeader, onDiskBlock);
+  }
+
   /**
    * @return HFile meta information
    */
@@ -23,10 +23,12 @@ import java.io.InputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.hbase.io.ByteBuffInputStream;
 import org.apache.hadoop.hbase.io.TagCompressionContext;
+import org.apache.hadoop.hbase.io.compress.BlockCodec;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.crypto.Cipher;
 import org.apache.hadoop.hbase.io.crypto.Decryptor;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -52,6 +54,31 @@ public class HFileBlockDefaultDecodingContext implements
   @Override
   public void prepareDecoding(int onDiskSizeWithoutHeader, int uncompressedSizeWithoutHeader,
       ByteBuff blockBufferWithoutHeader, ByteBuff onDiskBlock) throws IOException {
+    prepareDecoding(onDiskSizeWithoutHeader, uncompressedSizeWithoutHeader,
+      blockBufferWithoutHeader, onDiskBlock, null);
+  }
+
+  @Override
+  public void prepareDecoding(BlockType blockType, int onDiskSizeWithoutHeader,
+      int uncompressedSizeWithoutHeader, ByteBuff blockBufferWithoutHeader, ByteBuff onDiskBlock)
+      throws IOException {
+    prepareDecoding(onDiskSizeWithoutHeader, uncompressedSizeWithoutHeader,
+      blockBufferWithoutHeader, onDiskBlock,
+      blockType.isData() ? fileContext.getCompressionDictionary() : null);
+  }
+
+  private void prepareDecoding(int onDiskSizeWithoutHeader, int uncompressedSizeWithoutHeader,
+      ByteBuff blockBufferWithoutHeader, ByteBuff onDiskBlock, byte[] dictionary)
+      throws IOException {
+    BlockCodec blockCodec = fileContext.getCompression().getBlockCodec();
+    if (blockCodec != null && fileContext.getEncryptionContext() == Encryption.Context.NONE) {
+      // Decompress straight from the on disk block, there is no stream to copy it through
+      assert blockBufferWithoutHeader.hasArray();
+      blockCodec.decompress(onDiskBlock, onDiskBlock.position(), onDiskSizeWithoutHeader,
+        blockBufferWithoutHeader.array(), blockBufferWithoutHeader.arrayOffset(),
+        uncompressedSizeWithoutHeader, dictionary);
+      return;
+    }
     final ByteBuffInputStream byteBuffInputStream = new ByteBuffInputStream(onDiskBlock);
     InputStream dataInputStream = new DataInputStream(byteBuffInputStream);
 
@@ -24,9 +24,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
 
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
 import org.apache.hadoop.hbase.io.TagCompressionContext;
+import org.apache.hadoop.hbase.io.compress.BlockCodec;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.compress.DictionaryTrainer;
 import org.apache.hadoop.hbase.io.crypto.Cipher;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.crypto.Encryptor;
@@ -62,6 +65,10 @@ public class HFileBlockDefaultEncodingContext implements
   private CompressionOutputStream compressionStream;
   /** Underlying stream to write compressed bytes to */
   private ByteArrayOutputStream compressedByteStream;
+  /** Codec of the pure Java algorithms, they compress without a stream */
+  private BlockCodec blockCodec;
+  /** Header and compressed bytes of the block when compressed with the block codec */
+  private byte[] blockCodecBuffer = HConstants.EMPTY_BYTE_ARRAY;
 
   private HFileContext fileContext;
   private TagCompressionContext tagCompressionContext;
@@ -86,7 +93,8 @@ public class HFileBlockDefaultEncodingContext implements
     this.fileContext = fileContext;
     Compression.Algorithm compressionAlgorithm =
         fileContext.getCompression() == null ? NONE : fileContext.getCompression();
-    if (compressionAlgorithm != NONE) {
+    blockCodec = compressionAlgorithm.getBlockCodec();
+    if (compressionAlgorithm != NONE && blockCodec == null) {
       compressor = compressionAlgorithm.getCompressor();
       compressedByteStream = new ByteArrayOutputStream();
       try {
@@ -154,7 +162,12 @@ public class HFileBlockDefaultEncodingContext implements
       InputStream in;
       int plaintextLength;
       // Run any compression before encryption
-      if (fileContext.getCompression() != Compression.Algorithm.NONE) {
+      if (blockCodec != null) {
+        plaintextLength = compressWithBlockCodec(uncompressedBytesWithHeaderBuffer,
+          headerBytes.length + uncompressedBytesWithHeaderOffset,
+          uncompressedBytesWithHeaderLength - headerBytes.length, 0);
+        in = new ByteArrayInputStream(blockCodecBuffer, 0, plaintextLength);
+      } else if (fileContext.getCompression() != Compression.Algorithm.NONE) {
         compressedByteStream.reset();
         compressionStream.resetState();
         compressionStream.write(uncompressedBytesWithHeaderBuffer,
@@ -200,7 +213,25 @@ public class HFileBlockDefaultEncodingContext implements
 
     } else {
 
-      if (this.fileContext.getCompression() != NONE) {
+      if (blockCodec != null) {
+        int dataOffset = headerBytes.length + uncompressedBytesWithHeaderOffset;
+        int dataLength = uncompressedBytesWithHeaderLength - headerBytes.length;
+        byte[] dictionary = null;
+        if (blockType != null && blockType.isData()) {
+          // Only data blocks use the dictionary, the reader needs the other ones to find it
+          dictionary = fileContext.getCompressionDictionary();
+          DictionaryTrainer trainer = fileContext.getDictionaryTrainer();
+          if (trainer != null) {
+            trainer.sample(uncompressedBytesWithHeaderBuffer, dataOffset, dataLength);
+          }
+        }
+        byte[] buffer = blockCodecBuffer(headerBytes.length
+            + blockCodec.maxCompressedLength(dataLength));
+        int compressedLength = blockCodec.compress(uncompressedBytesWithHeaderBuffer, dataOffset,
+          dataLength, buffer, headerBytes.length, dictionary);
+        System.arraycopy(headerBytes, 0, blockCodecBuffer, 0, headerBytes.length);
+        return new Bytes(blockCodecBuffer, 0, headerBytes.length + compressedLength);
+      } else if (this.fileContext.getCompression() != NONE) {
         compressedByteStream.reset();
         compressedByteStream.write(headerBytes);
         compressionStream.resetState();
@@ -216,6 +247,23 @@ public class HFileBlockDefaultEncodingContext implements
     }
   }
 
+  private byte[] blockCodecBuffer(int length) {
+    if (blockCodecBuffer.length < length) {
+      blockCodecBuffer = new byte[length];
+    }
+    return blockCodecBuffer;
+  }
+
+  /**
+   * Compresses into {@link #blockCodecBuffer}, after the given number of bytes.
+   * @return the compressed size
+   */
+  private int compressWithBlockCodec(byte[] data, int offset, int length, int bufferOffset)
+      throws IOException {
+    byte[] buffer = blockCodecBuffer(bufferOffset + blockCodec.maxCompressedLength(length));
+    return blockCodec.compress(data, offset, length, buffer, bufferOffset, null);
+  }
+
   @Override
   public BlockType getBlockType() {
     return blockType;
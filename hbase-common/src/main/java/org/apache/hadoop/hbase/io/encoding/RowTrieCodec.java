@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Stores the rows of a block as a flattened prefix trie, the families and qualifiers in a
+ * dictionary and the timestamps as deltas, so that the seeker can binary search to a row in the
+ * encoded block instead of walking it.
+ *
+ * The rows are front coded: every row keeps the prefix it shares with the row before it and
+ * only stores the rest, except one row in every {@link RowTrieEncoder#RESTART_INTERVAL} which is
+ * stored in full. The restart rows are the nodes a seek binary searches.
+ *
+ * Format:
+ * integer: number of rows
+ * integer: number of columns
+ * long: timestamp of the first cell, the base of the timestamp deltas
+ * integer: size of the row section
+ * integer: size of the column section
+ * integer: size of the cell section
+ * integer: restart0's offset in the row section, then one for every restart row
+ * integer: row0's offset in the cell section, then one for every row
+ * integer: column0's offset in the column section, then one for every column
+ * row section: per row, vint common prefix length, vint suffix length, suffix
+ * column section: per column, byte family length, family, qualifier
+ * cell section: per cell, vint column, vlong timestamp delta, byte type, vint value length,
+ * value, vint tags length and tags if the file includes tags, vlong mvcc if it includes mvcc
+ */
+@InterfaceAudience.Private
+public class RowTrieCodec extends AbstractDataBlockEncoder {
+
+  private static class RowTrieEncodingState extends EncodingState {
+    RowTrieEncoder encoder = null;
+  }
+
+  @Override
+  public void startBlockEncoding(HFileBlockEncodingContext blkEncodingCtx,
+      DataOutputStream out) throws IOException {
+    if (blkEncodingCtx.getClass() != HFileBlockDefaultEncodingContext.class) {
+      throw new IOException(this.getClass().getName() + " only accepts "
+          + HFileBlockDefaultEncodingContext.class.getName() + " as the "
+          + "encoding context.");
+    }
+
+    HFileBlockDefaultEncodingContext encodingCtx = (HFileBlockDefaultEncodingContext) blkEncodingCtx;
+    encodingCtx.prepareEncoding(out);
+
+    RowTrieEncodingState state = new RowTrieEncodingState();
+    state.encoder = new RowTrieEncoder(out, encodingCtx);
+    blkEncodingCtx.setEncodingState(state);
+  }
+
+  @Override
+  public int encode(Cell cell, HFileBlockEncodingContext encodingCtx,
+      DataOutputStream out) throws IOException {
+    RowTrieEncodingState state = (RowTrieEncodingState) encodingCtx.getEncodingState();
+    return state.encoder.write(cell);
+  }
+
+  @Override
+  public void endBlockEncoding(HFileBlockEncodingContext encodingCtx,
+      DataOutputStream out, byte[] uncompressedBytesWithHeader)
+      throws IOException {
+    RowTrieEncodingState state = (RowTrieEncodingState) encodingCtx.getEncodingState();
+    state.encoder.flush();
+    postEncoding(encodingCtx);
+  }
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      HFileBlockDecodingContext decodingCtx) throws IOException {
+    ByteBuffer sourceAsBuffer = ByteBufferUtils.drainInputStreamToBuffer(source);// waste
+    RowTrieSeeker seeker = new RowTrieSeeker(CellComparatorImpl.COMPARATOR, decodingCtx);
+    seeker.setCurrentBuffer(new SingleByteBuff(sourceAsBuffer));
+    boolean includesMvcc = decodingCtx.getHFileContext().isIncludesMvcc();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(sourceAsBuffer.remaining() * 2);
+    DataOutputStream out = new DataOutputStream(baos);
+    do {
+      Cell cell = seeker.getCell();
+      KeyValueUtil.oswrite(cell, out, true);
+      if (includesMvcc) {
+        WritableUtils.writeVLong(out, cell.getSequenceId());
+      }
+    } while (seeker.next());
+    out.flush();
+    return ByteBuffer.wrap(baos.getBuffer(), 0, baos.size());
+  }
+
+  @Override
+  public Cell getFirstKeyCellInBlock(ByteBuff block) {
+    return new RowTrieSeeker(CellComparatorImpl.COMPARATOR, null).getFirstKey(block);
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(CellComparator comparator,
+      HFileBlockDecodingContext decodingCtx) {
+    return new RowTrieSeeker(comparator, decodingCtx);
+  }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Collects the cells of a block in the sections of the {@link RowTrieCodec} format and writes
+ * them out on {@link #flush()}, once the sizes of all sections are known.
+ */
+@InterfaceAudience.Private
+public class RowTrieEncoder {
+
+  /** One row in every this many is stored in full, so that the rows can be binary searched. */
+  static final int RESTART_INTERVAL = 16;
+
+  /** rows, columns, base timestamp and the sizes of the row, column and cell sections */
+  static final int HEADER_SIZE = 5 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+
+  private final DataOutputStream out;
+  private final boolean includesTags;
+  private final boolean includesMvcc;
+
+  /** The Cell previously appended. */
+  private Cell lastCell = null;
+  private int lastColumn = -1;
+  private long baseTimestamp = 0;
+
+  private int numRows = 0;
+  private byte[] lastRow = HConstants.EMPTY_BYTE_ARRAY;
+  private final ByteArrayOutputStream restartOffsets = new ByteArrayOutputStream(16 * 4);
+  private final ByteArrayOutputStream rowCellOffsets = new ByteArrayOutputStream(64 * 4);
+  private final ByteArrayOutputStream rows = new ByteArrayOutputStream(1024);
+  private final DataOutputStream rowsOut = new DataOutputStream(rows);
+
+  private final Map<ByteBuffer, Integer> columnIds = new HashMap<>();
+  private final ByteArrayOutputStream columnOffsets = new ByteArrayOutputStream(16 * 4);
+  private final ByteArrayOutputStream columns = new ByteArrayOutputStream(256);
+
+  private final ByteArrayOutputStream cells = new ByteArrayOutputStream(4096);
+  private final DataOutputStream cellsOut = new DataOutputStream(cells);
+
+  public RowTrieEncoder(DataOutputStream out, HFileBlockDefaultEncodingContext encodingCtx) {
+    this.out = out;
+    this.includesTags = encodingCtx.getHFileContext().isIncludesTags();
+    this.includesMvcc = encodingCtx.getHFileContext().isIncludesMvcc();
+  }
+
+  /**
+   * @return the unencoded size of the cell, the same as {@link NoneEncoder} would write
+   */
+  public int write(Cell cell) throws IOException {
+    if (lastCell == null) {
+      baseTimestamp = cell.getTimestamp();
+    }
+    if (isNewRow(cell)) {
+      addRow(cell);
+    }
+    int column = lastCell != null && CellUtil.matchingColumn(lastCell, cell) ? lastColumn
+        : addColumn(cell);
+    int valueLength = cell.getValueLength();
+    WritableUtils.writeVInt(cellsOut, column);
+    WritableUtils.writeVLong(cellsOut, cell.getTimestamp() - baseTimestamp);
+    cellsOut.writeByte(cell.getTypeByte());
+    WritableUtils.writeVInt(cellsOut, valueLength);
+    PrivateCellUtil.writeValue(cellsOut, cell, valueLength);
+    int size = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + KeyValueUtil.keyLength(cell) + valueLength;
+    if (includesTags) {
+      int tagsLength = cell.getTagsLength();
+      WritableUtils.writeVInt(cellsOut, tagsLength);
+      if (tagsLength > 0) {
+        PrivateCellUtil.writeTags(cellsOut, cell, tagsLength);
+      }
+      size += tagsLength + KeyValue.TAGS_LENGTH_SIZE;
+    }
+    if (includesMvcc) {
+      WritableUtils.writeVLong(cellsOut, cell.getSequenceId());
+      size += WritableUtils.getVIntSize(cell.getSequenceId());
+    }
+    lastCell = cell;
+    lastColumn = column;
+    return size;
+  }
+
+  private boolean isNewRow(Cell cell) throws IOException {
+    if (cell == null) {
+      throw new IOException("Key cannot be null or empty");
+    }
+    if (lastCell == null) {
+      return true;
+    }
+    int keyComp = CellComparatorImpl.COMPARATOR.compareRows(lastCell, cell);
+    if (keyComp > 0) {
+      throw new IOException("Added a key not lexically larger than"
+          + " previous. Current cell = " + cell + ", lastCell = " + lastCell);
+    }
+    return keyComp != 0;
+  }
+
+  /**
+   * Front codes the row against the previous one, unless it starts a new restart interval.
+   */
+  private void addRow(Cell cell) throws IOException {
+    byte[] row = CellUtil.cloneRow(cell);
+    int prefix = 0;
+    if (numRows % RESTART_INTERVAL == 0) {
+      restartOffsets.writeInt(rows.size());
+    } else {
+      prefix = Bytes.findCommonPrefix(lastRow, row, lastRow.length, row.length, 0, 0);
+    }
+    WritableUtils.writeVInt(rowsOut, prefix);
+    WritableUtils.writeVInt(rowsOut, row.length - prefix);
+    rowsOut.write(row, prefix, row.length - prefix);
+    rowCellOffsets.writeInt(cells.size());
+    lastRow = row;
+    numRows++;
+  }
+
+  /**
+   * @return the id of the family and qualifier of the cell in the column dictionary
+   */
+  private int addColumn(Cell cell) {
+    byte familyLength = cell.getFamilyLength();
+    byte[] column = new byte[Bytes.SIZEOF_BYTE + familyLength + cell.getQualifierLength()];
+    column[0] = familyLength;
+    CellUtil.copyFamilyTo(cell, column, Bytes.SIZEOF_BYTE);
+    CellUtil.copyQualifierTo(cell, column, Bytes.SIZEOF_BYTE + familyLength);
+    ByteBuffer key = ByteBuffer.wrap(column);
+    Integer id = columnIds.get(key);
+    if (id == null) {
+      id = columnIds.size();
+      columnIds.put(key, id);
+      columnOffsets.writeInt(columns.size());
+      columns.write(column, 0, column.length);
+    }
+    return id;
+  }
+
+  public void flush() throws IOException {
+    out.writeInt(numRows);
+    out.writeInt(columnIds.size());
+    out.writeLong(baseTimestamp);
+    out.writeInt(rows.size());
+    out.writeInt(columns.size());
+    out.writeInt(cells.size());
+    write(restartOffsets);
+    write(rowCellOffsets);
+    write(columnOffsets);
+    write(rows);
+    write(columns);
+    write(cells);
+  }
+
+  private void write(ByteArrayOutputStream section) throws IOException {
+    if (section.size() > 0) {
+      out.write(section.getBuffer(), 0, section.size());
+    }
+  }
+}
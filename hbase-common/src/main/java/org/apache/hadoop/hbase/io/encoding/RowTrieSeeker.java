@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.SizeCachedKeyValue;
+import org.apache.hadoop.hbase.SizeCachedNoTagsKeyValue;
+import org.apache.hadoop.hbase.io.encoding.AbstractDataBlockEncoder.AbstractEncodedSeeker;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ObjectIntPair;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Seeker of {@link RowTrieCodec} blocks. A seek binary searches the rows stored in full at the
+ * restart points in place, in the encoded block, and then decodes at most one restart interval
+ * of rows and the cells of the rows it lands on. Only the key of the current cell is decoded,
+ * into a buffer reused for the whole block; cells are materialized by {@link #getCell()}.
+ */
+@InterfaceAudience.Private
+public class RowTrieSeeker extends AbstractEncodedSeeker {
+
+  // A temp pair object which will be reused by ByteBuff#asSubByteBuffer calls. This avoids too
+  // many object creations.
+  protected final ObjectIntPair<ByteBuffer> tmpPair = new ObjectIntPair<>();
+
+  private ByteBuff currentBuffer;
+  private int numRows;
+  private int numColumns;
+  private int numRestarts;
+  private long baseTimestamp;
+  // offsets of the sections in the block
+  private int restartOffsets;
+  private int rowCellOffsets;
+  private int columnOffsets;
+  private int rowSection;
+  private int columnSection;
+  private int cellSection;
+  private int cellSectionEnd;
+
+  // the current row
+  private int rowIndex;
+  private byte[] row = new byte[64];
+  private int rowLength;
+  private int nextRowOffset;
+  private int rowCellsStart;
+  private int rowCellsEnd;
+
+  // the current cell
+  private int cellOffset;
+  private int nextCellOffset;
+  private int valueOffset;
+  private int valueLength;
+  private int tagsOffset;
+  private int tagsLength;
+  private long memstoreTS;
+  private byte[] keyBuffer = new byte[128];
+  private int keyLength;
+  private final KeyValue.KeyOnlyKeyValue currentKey = new KeyValue.KeyOnlyKeyValue();
+
+  // the cell before the current one, if we came from there
+  private int previousRowIndex = -1;
+  private int previousCellOffset;
+
+  public RowTrieSeeker(CellComparator comparator, HFileBlockDecodingContext decodingCtx) {
+    super(comparator, decodingCtx);
+  }
+
+  @Override
+  public void setCurrentBuffer(ByteBuff buffer) {
+    init(buffer);
+    rewind();
+  }
+
+  private void init(ByteBuff buffer) {
+    ByteBuff dup = buffer.duplicate();
+    dup.position(buffer.position());
+    currentBuffer = dup.slice();
+    numRows = currentBuffer.getInt(0);
+    numColumns = currentBuffer.getInt(Bytes.SIZEOF_INT);
+    baseTimestamp = currentBuffer.getLong(2 * Bytes.SIZEOF_INT);
+    int rowsSize = currentBuffer.getInt(2 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+    int columnsSize = currentBuffer.getInt(3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+    int cellsSize = currentBuffer.getInt(4 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+    numRestarts = (numRows + RowTrieEncoder.RESTART_INTERVAL - 1)
+        / RowTrieEncoder.RESTART_INTERVAL;
+    restartOffsets = RowTrieEncoder.HEADER_SIZE;
+    rowCellOffsets = restartOffsets + numRestarts * Bytes.SIZEOF_INT;
+    columnOffsets = rowCellOffsets + numRows * Bytes.SIZEOF_INT;
+    rowSection = columnOffsets + numColumns * Bytes.SIZEOF_INT;
+    columnSection = rowSection + rowsSize;
+    cellSection = columnSection + columnsSize;
+    cellSectionEnd = cellSection + cellsSize;
+  }
+
+  /**
+   * @return the key of the first cell of the block, without decoding the rest of it
+   */
+  Cell getFirstKey(ByteBuff block) {
+    init(block);
+    positionAtRow(0);
+    decodeKey(rowCellsStart);
+    return getKey();
+  }
+
+  @Override
+  public Cell getKey() {
+    return new KeyValue.KeyOnlyKeyValue(Arrays.copyOf(keyBuffer, keyLength), 0, keyLength);
+  }
+
+  @Override
+  public ByteBuffer getValueShallowCopy() {
+    currentBuffer.asSubByteBuffer(valueOffset, valueLength, tmpPair);
+    ByteBuffer dup = tmpPair.getFirst().duplicate();
+    dup.position(tmpPair.getSecond());
+    dup.limit(tmpPair.getSecond() + valueLength);
+    return dup.slice();
+  }
+
+  @Override
+  public Cell getCell() {
+    int length = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + keyLength + valueLength;
+    if (tagsLength > 0) {
+      length += KeyValue.TAGS_LENGTH_SIZE + tagsLength;
+    }
+    byte[] bytes = new byte[length];
+    int pos = Bytes.putInt(bytes, 0, keyLength);
+    pos = Bytes.putInt(bytes, pos, valueLength);
+    pos = Bytes.putBytes(bytes, pos, keyBuffer, 0, keyLength);
+    currentBuffer.get(valueOffset, bytes, pos, valueLength);
+    if (tagsLength > 0) {
+      pos = Bytes.putAsShort(bytes, pos + valueLength, tagsLength);
+      currentBuffer.get(tagsOffset, bytes, pos, tagsLength);
+      return new SizeCachedKeyValue(bytes, 0, length, memstoreTS);
+    }
+    return new SizeCachedNoTagsKeyValue(bytes, 0, length, memstoreTS);
+  }
+
+  @Override
+  public void rewind() {
+    positionAtRow(0);
+    decodeCell(rowCellsStart);
+    previousRowIndex = -1;
+  }
+
+  @Override
+  public boolean next() {
+    if (nextCellOffset >= cellSectionEnd) {
+      return false;
+    }
+    previousRowIndex = rowIndex;
+    previousCellOffset = cellOffset;
+    if (nextCellOffset >= rowCellsEnd) {
+      decodeRow(rowIndex + 1, nextRowOffset);
+    }
+    decodeCell(nextCellOffset);
+    return true;
+  }
+
+  @Override
+  public int seekToKeyInBlock(Cell seekCell, boolean seekBefore) {
+    if (findRow(seekCell) < 0) {
+      rewind();
+      return HConstants.INDEX_KEY_MAGIC; // using optimized index key
+    }
+    decodeCell(rowCellsStart);
+    previousRowIndex = -1;
+    do {
+      int comp = PrivateCellUtil.compareKeyIgnoresMvcc(comparator, seekCell, currentKey);
+      if (comp == 0) { // exact match
+        if (seekBefore) {
+          if (isFirstCell()) {
+            // The caller (seekBefore) has to ensure that we are not at the
+            // first key in the block.
+            throw new IllegalStateException("Cannot seekBefore if "
+                + "positioned at the first key in the block: key="
+                + Bytes.toStringBinary(seekCell.getRowArray()));
+          }
+          moveToPrevious();
+          return 1;
+        }
+        return 0;
+      }
+      if (comp < 0) { // already too large, check previous
+        if (isFirstCell()) {
+          return HConstants.INDEX_KEY_MAGIC; // using optimized index key
+        }
+        moveToPrevious();
+        return 1;
+      }
+    } while (next());
+    // we hit the end of the block, not an exact match
+    return 1;
+  }
+
+  /**
+   * Positions the seeker on the last row not after the row of the given cell.
+   * @return the index of that row, or -1 if the first row of the block is after it
+   */
+  private int findRow(Cell seekCell) {
+    int low = 0;
+    int high = numRestarts - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compareRestartRow(mid, seekCell) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    int restart = low - 1;
+    if (restart < 0) {
+      return -1;
+    }
+    int first = restart * RowTrieEncoder.RESTART_INTERVAL;
+    decodeRow(first, rowSection + getRestartOffset(restart));
+    int last = Math.min(numRows, first + RowTrieEncoder.RESTART_INTERVAL) - 1;
+    while (rowIndex < last) {
+      decodeRow(rowIndex + 1, nextRowOffset);
+      int comp = compareRows(seekCell);
+      if (comp > 0) {
+        // one too far, the rows are front coded so decode again from the restart point
+        positionAtRow(rowIndex - 1);
+        break;
+      } else if (comp == 0) {
+        break;
+      }
+    }
+    return rowIndex;
+  }
+
+  /**
+   * Compares the full row at the given restart point, in place, with the row of the cell.
+   */
+  private int compareRestartRow(int restart, Cell seekCell) {
+    currentBuffer.position(rowSection + getRestartOffset(restart));
+    ByteBuff.readVLong(currentBuffer); // the common prefix of a restart row is empty
+    int length = (int) ByteBuff.readVLong(currentBuffer);
+    currentBuffer.asSubByteBuffer(currentBuffer.position(), length, tmpPair);
+    ByteBuffer restartRow = tmpPair.getFirst();
+    int offset = tmpPair.getSecond();
+    if (seekCell instanceof ByteBufferExtendedCell) {
+      return ByteBufferUtils.compareTo(restartRow, offset, length,
+          ((ByteBufferExtendedCell) seekCell).getRowByteBuffer(),
+          ((ByteBufferExtendedCell) seekCell).getRowPosition(), seekCell.getRowLength());
+    } else {
+      return ByteBufferUtils.compareTo(restartRow, offset, length, seekCell.getRowArray(),
+          seekCell.getRowOffset(), seekCell.getRowLength());
+    }
+  }
+
+  /**
+   * Compares the current row with the row of the cell.
+   */
+  private int compareRows(Cell seekCell) {
+    if (seekCell instanceof ByteBufferExtendedCell) {
+      return ByteBufferUtils.compareTo(row, 0, rowLength,
+          ((ByteBufferExtendedCell) seekCell).getRowByteBuffer(),
+          ((ByteBufferExtendedCell) seekCell).getRowPosition(), seekCell.getRowLength());
+    } else {
+      return Bytes.compareTo(row, 0, rowLength, seekCell.getRowArray(), seekCell.getRowOffset(),
+          seekCell.getRowLength());
+    }
+  }
+
+  private boolean isFirstCell() {
+    return cellOffset == cellSection;
+  }
+
+  private void moveToPrevious() {
+    if (previousRowIndex >= 0) {
+      if (previousRowIndex != rowIndex) {
+        positionAtRow(previousRowIndex);
+      }
+      decodeCell(previousCellOffset);
+    } else if (cellOffset > rowCellsStart) {
+      int current = cellOffset;
+      decodeCell(rowCellsStart);
+      while (nextCellOffset < current) {
+        decodeCell(nextCellOffset);
+      }
+    } else if (rowIndex > 0) {
+      positionAtRow(rowIndex - 1);
+      decodeCell(rowCellsStart);
+      while (nextCellOffset < rowCellsEnd) {
+        decodeCell(nextCellOffset);
+      }
+    } else {
+      throw new IllegalStateException("Can not move back from the first key in the block.");
+    }
+    previousRowIndex = -1;
+  }
+
+  @Override
+  public int compareKey(CellComparator comparator, Cell key) {
+    return PrivateCellUtil.compareKeyIgnoresMvcc(comparator, key, currentKey);
+  }
+
+  private int getRestartOffset(int restart) {
+    return currentBuffer.getInt(restartOffsets + restart * Bytes.SIZEOF_INT);
+  }
+
+  private void positionAtRow(int index) {
+    int restart = index / RowTrieEncoder.RESTART_INTERVAL;
+    decodeRow(restart * RowTrieEncoder.RESTART_INTERVAL,
+      rowSection + getRestartOffset(restart));
+    while (rowIndex < index) {
+      decodeRow(rowIndex + 1, nextRowOffset);
+    }
+  }
+
+  /**
+   * Decodes the row at the given offset of the row section. Unless it is a restart row, the
+   * current row has to be the one before it.
+   */
+  private void decodeRow(int index, int offset) {
+    currentBuffer.position(offset);
+    int prefix = (int) ByteBuff.readVLong(currentBuffer);
+    int suffix = (int) ByteBuff.readVLong(currentBuffer);
+    rowLength = prefix + suffix;
+    if (rowLength > row.length) {
+      row = Arrays.copyOf(row, Math.max(rowLength, 2 * row.length));
+    }
+    nextRowOffset = currentBuffer.position() + suffix;
+    currentBuffer.get(currentBuffer.position(), row, prefix, suffix);
+    rowIndex = index;
+    rowCellsStart = cellSection + currentBuffer.getInt(rowCellOffsets + index * Bytes.SIZEOF_INT);
+    rowCellsEnd = index + 1 < numRows
+        ? cellSection + currentBuffer.getInt(rowCellOffsets + (index + 1) * Bytes.SIZEOF_INT)
+        : cellSectionEnd;
+  }
+
+  /**
+   * Builds the key of the cell at the given offset from the current row and the column
+   * dictionary.
+   * @return the offset of the value length of the cell
+   */
+  private int decodeKey(int offset) {
+    currentBuffer.position(offset);
+    int column = (int) ByteBuff.readVLong(currentBuffer);
+    long timestamp = baseTimestamp + ByteBuff.readVLong(currentBuffer);
+    byte type = currentBuffer.get();
+    int next = currentBuffer.position();
+    // a column is the family length, the family and the qualifier, as they are in the key
+    int columnStart = columnSection
+        + currentBuffer.getInt(columnOffsets + column * Bytes.SIZEOF_INT);
+    int columnEnd = column + 1 < numColumns
+        ? columnSection + currentBuffer.getInt(columnOffsets + (column + 1) * Bytes.SIZEOF_INT)
+        : cellSection;
+    int columnLength = columnEnd - columnStart;
+    keyLength = Bytes.SIZEOF_SHORT + rowLength + columnLength + Bytes.SIZEOF_LONG
+        + Bytes.SIZEOF_BYTE;
+    if (keyLength > keyBuffer.length) {
+      keyBuffer = new byte[Math.max(keyLength, 2 * keyBuffer.length)];
+    }
+    int pos = Bytes.putShort(keyBuffer, 0, (short) rowLength);
+    pos = Bytes.putBytes(keyBuffer, pos, row, 0, rowLength);
+    currentBuffer.get(columnStart, keyBuffer, pos, columnLength);
+    pos = Bytes.putLong(keyBuffer, pos + columnLength, timestamp);
+    keyBuffer[pos] = type;
+    currentKey.setKey(keyBuffer, 0, keyLength);
+    return next;
+  }
+
+  private void decodeCell(int offset) {
+    cellOffset = offset;
+    currentBuffer.position(decodeKey(offset));
+    valueLength = (int) ByteBuff.readVLong(currentBuffer);
+    valueOffset = currentBuffer.position();
+    currentBuffer.skip(valueLength);
+    if (includesTags()) {
+      tagsLength = (int) ByteBuff.readVLong(currentBuffer);
+      tagsOffset = currentBuffer.position();
+      currentBuffer.skip(tagsLength);
+    } else {
+      tagsLength = 0;
+    }
+    if (includesMvcc()) {
+      memstoreTS = ByteBuff.readVLong(currentBuffer);
+    } else {
+      memstoreTS = 0;
+    }
+    nextCellOffset = currentBuffer.position();
+  }
+}
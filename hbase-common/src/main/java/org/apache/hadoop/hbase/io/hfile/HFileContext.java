@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.compress.DictionaryTrainer;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -58,6 +59,10 @@ public class HFileContext implements HeapSize, Cloneable {
   private Encryption.Context cryptoContext = Encryption.Context.NONE;
   private long fileCreateTime;
   private String hfileName;
+  /** Dictionary the data blocks are compressed with, if the compression takes one */
+  private byte[] compressionDictionary;
+  /** Where the written data blocks are sampled to train the next dictionary, if anywhere */
+  private DictionaryTrainer dictionaryTrainer;
 
   //Empty constructor.  Go with setters
   public HFileContext() {
@@ -80,12 +85,15 @@ public class HFileContext implements HeapSize, Cloneable {
     this.cryptoContext = context.cryptoContext;
     this.fileCreateTime = context.fileCreateTime;
     this.hfileName = context.hfileName;
+    this.compressionDictionary = context.compressionDictionary;
+    this.dictionaryTrainer = context.dictionaryTrainer;
   }
 
   HFileContext(boolean useHBaseChecksum, boolean includesMvcc, boolean includesTags,
       Compression.Algorithm compressAlgo, boolean compressTags, ChecksumType checksumType,
       int bytesPerChecksum, int blockSize, DataBlockEncoding encoding,
-      Encryption.Context cryptoContext, long fileCreateTime, String hfileName) {
+      Encryption.Context cryptoContext, long fileCreateTime, String hfileName,
+      byte[] compressionDictionary, DictionaryTrainer dictionaryTrainer) {
     this.usesHBaseChecksum = useHBaseChecksum;
     this.includesMvcc =  includesMvcc;
     this.includesTags = includesTags;
@@ -100,6 +108,8 @@ public class HFileContext implements HeapSize, Cloneable {
     this.cryptoContext = cryptoContext;
     this.fileCreateTime = fileCreateTime;
     this.hfileName = hfileName;
+    this.compressionDictionary = compressionDictionary;
+    this.dictionaryTrainer = dictionaryTrainer;
   }
 
   /**
@@ -187,6 +197,22 @@ public class HFileContext implements HeapSize, Cloneable {
     return this.hfileName;
   }
 
+  /**
+   * @return the dictionary data blocks are compressed with, or null if there is none. Only the
+   *         compression algorithms that have a block codec use it.
+   */
+  public byte[] getCompressionDictionary() {
+    return compressionDictionary;
+  }
+
+  public void setCompressionDictionary(byte[] compressionDictionary) {
+    this.compressionDictionary = compressionDictionary;
+  }
+
+  public DictionaryTrainer getDictionaryTrainer() {
+    return dictionaryTrainer;
+  }
+
   /**
    * HeapSize implementation
    * NOTE : The heapsize should be altered as and when new state variable are added
@@ -195,8 +221,9 @@ public class HFileContext implements HeapSize, Cloneable {
   @Override
   public long heapSize() {
     long size = ClassSize.align(ClassSize.OBJECT +
-        // Algorithm reference, encodingon, checksumtype, Encryption.Context reference
-        5 * ClassSize.REFERENCE +
+        // Algorithm reference, encodingon, checksumtype, Encryption.Context reference,
+        // compression dictionary and dictionary trainer
+        7 * ClassSize.REFERENCE +
         2 * Bytes.SIZEOF_INT +
         // usesHBaseChecksum, includesMvcc, includesTags and compressTags
         4 * Bytes.SIZEOF_BOOLEAN +
@@ -204,6 +231,9 @@ public class HFileContext implements HeapSize, Cloneable {
     if (this.hfileName != null) {
       size += ClassSize.STRING + this.hfileName.length();
     }
+    if (this.compressionDictionary != null) {
+      size += ClassSize.sizeOfByteArray(this.compressionDictionary.length);
+    }
     return size;
   }
 
@@ -230,6 +260,10 @@ public class HFileContext implements HeapSize, Cloneable {
     sb.append(", compressAlgo=");      sb.append(compressAlgo);
     sb.append(", compressTags=");      sb.append(compressTags);
     sb.append(", cryptoContext=[");   sb.append(cryptoContext);      sb.append("]");
+    if (compressionDictionary != null) {
+      sb.append(", compressionDictionaryLength=");
+      sb.append(compressionDictionary.length);
+    }
     if (hfileName != null) {
       sb.append(", name=");
       sb.append(hfileName);
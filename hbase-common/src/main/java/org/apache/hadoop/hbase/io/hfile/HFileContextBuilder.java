@@ -19,6 +19,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
+import org.apache.hadoop.hbase.io.compress.DictionaryTrainer;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.util.ChecksumType;
@@ -54,6 +55,8 @@ public class HFileContextBuilder {
   private long fileCreateTime = 0;
 
   private String hfileName = null;
+  private byte[] compressionDictionary = null;
+  private DictionaryTrainer dictionaryTrainer = null;
 
   public HFileContextBuilder() {}
 
@@ -73,6 +76,8 @@ public class HFileContextBuilder {
     this.cryptoContext = hfc.getEncryptionContext();
     this.fileCreateTime = hfc.getFileCreateTime();
     this.hfileName = hfc.getHFileName();
+    this.compressionDictionary = hfc.getCompressionDictionary();
+    this.dictionaryTrainer = hfc.getDictionaryTrainer();
   }
 
   public HFileContextBuilder withHBaseCheckSum(boolean useHBaseCheckSum) {
@@ -135,9 +140,26 @@ public class HFileContextBuilder {
     return this;
   }
 
+  /**
+   * Sets the dictionary to compress data blocks with, for the compression algorithms that have
+   * a block codec.
+   */
+  public HFileContextBuilder withCompressionDictionary(byte[] compressionDictionary) {
+    this.compressionDictionary = compressionDictionary;
+    return this;
+  }
+
+  /**
+   * Sets the trainer the written data blocks are offered to as samples.
+   */
+  public HFileContextBuilder withDictionaryTrainer(DictionaryTrainer dictionaryTrainer) {
+    this.dictionaryTrainer = dictionaryTrainer;
+    return this;
+  }
+
   public HFileContext build() {
     return new HFileContext(usesHBaseChecksum, includesMvcc, includesTags, compression,
         compressTags, checksumType, bytesPerChecksum, blocksize, encoding, cryptoContext,
-        fileCreateTime, hfileName);
+        fileCreateTime, hfileName, compressionDictionary, dictionaryTrainer);
   }
 }
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.MultiByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestBlockCodecs {
+
+  private static final BlockCodec[] CODECS =
+      { Lz4BlockCodec.INSTANCE, DeflateBlockCodec.INSTANCE };
+  private static final int[] SIZES = { 0, 1, 12, 13, 100, 4096, 65536, 70000 };
+
+  private final Random random = new Random(42);
+
+  private byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private byte[] compressibleBytes(int size) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < size) {
+      sb.append("row").append(random.nextInt(500)).append("family:qualifier")
+          .append(random.nextInt(10));
+    }
+    return Arrays.copyOf(Bytes.toBytes(sb.toString()), size);
+  }
+
+  private static ByteBuff direct(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+    buf.put(bytes);
+    buf.flip();
+    return new SingleByteBuff(buf);
+  }
+
+  private static ByteBuff split(byte[] bytes) {
+    int half = bytes.length / 2;
+    ByteBuffer first = ByteBuffer.allocateDirect(half);
+    first.put(bytes, 0, half);
+    first.flip();
+    return new MultiByteBuff(first, ByteBuffer.wrap(Arrays.copyOfRange(bytes, half,
+      bytes.length)));
+  }
+
+  private void assertRoundTrip(BlockCodec codec, byte[] data, byte[] dict) throws IOException {
+    byte[] compressed = new byte[codec.maxCompressedLength(data.length) + 3];
+    int length = codec.compress(data, 0, data.length, compressed, 3, dict);
+    // Bytes after the compressed data, like checksums, must not be read
+    byte[] onDisk = Arrays.copyOf(Arrays.copyOfRange(compressed, 3, 3 + length), length + 4);
+    for (ByteBuff src : new ByteBuff[] { new SingleByteBuff(ByteBuffer.wrap(onDisk)),
+        direct(onDisk), split(onDisk) }) {
+      byte[] decompressed = new byte[data.length + 1];
+      codec.decompress(src, 0, onDisk.length, decompressed, 1, data.length, dict);
+      assertArrayEquals(data, Arrays.copyOfRange(decompressed, 1, decompressed.length));
+    }
+    assertArrayEquals(data, codec.decompress(onDisk, 0, length, dict));
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (BlockCodec codec : CODECS) {
+      for (int size : SIZES) {
+        assertRoundTrip(codec, randomBytes(size), null);
+        assertRoundTrip(codec, new byte[size], null);
+        assertRoundTrip(codec, compressibleBytes(size), null);
+      }
+    }
+  }
+
+  @Test
+  public void testDictionary() throws IOException {
+    byte[] dict = compressibleBytes(16 * 1024);
+    for (BlockCodec codec : CODECS) {
+      for (int size : SIZES) {
+        assertRoundTrip(codec, compressibleBytes(size), dict);
+      }
+      // A dictionary of similar data makes small blocks smaller
+      byte[] data = compressibleBytes(1024);
+      byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+      int withoutDict = codec.compress(data, 0, data.length, compressed, 0, null);
+      int withDict = codec.compress(data, 0, data.length, compressed, 0, dict);
+      assertTrue(codec + ": " + withDict + " >= " + withoutDict, withDict < withoutDict);
+    }
+  }
+
+  @Test
+  public void testCorruptData() throws IOException {
+    for (BlockCodec codec : CODECS) {
+      byte[] data = compressibleBytes(4096);
+      byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+      int length = codec.compress(data, 0, data.length, compressed, 0, null);
+      try {
+        codec.decompress(new SingleByteBuff(ByteBuffer.wrap(compressed)), 0, length / 2,
+          new byte[data.length], 0, data.length, null);
+        fail(codec + " decompressed truncated data");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testStreams() throws IOException {
+    for (Algorithm algo : new Algorithm[] { Algorithm.LZ4_BLOCK, Algorithm.DEFLATE_BLOCK }) {
+      byte[] data = compressibleBytes(10000);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      OutputStream out = algo.createCompressionStream(compressed, algo.getCompressor(), 0);
+      out.write(data, 0, 5000);
+      out.write(data, 5000, 5000);
+      out.flush();
+      out.close();
+      InputStream in = algo.createDecompressionStream(
+        new ByteArrayInputStream(compressed.toByteArray()), algo.getDecompressor(), 0);
+      byte[] decompressed = new byte[data.length];
+      new DataInputStream(in).readFully(decompressed);
+      assertArrayEquals(data, decompressed);
+      assertTrue(in.read() < 0);
+
+      // The block path reads what the streams wrote
+      decompressed = new byte[data.length];
+      Compression.decompress(decompressed, 0, new ByteArrayInputStream(compressed.toByteArray()),
+        compressed.size(), data.length, algo);
+      assertArrayEquals(data, decompressed);
+    }
+  }
+}
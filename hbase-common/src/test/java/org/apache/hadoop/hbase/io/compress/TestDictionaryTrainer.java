@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, SmallTests.class})
+public class TestDictionaryTrainer {
+
+  private static final int BLOCK_SIZE = 4096;
+  private static final int DICTIONARY_SIZE = 8 * 1024;
+
+  private final Random random = new Random(42);
+
+  /**
+   * A block of cells that share their family, qualifiers and value layout, with random row keys
+   * and values, like the data blocks of a table.
+   */
+  private byte[] block() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (out.size() < BLOCK_SIZE) {
+      byte[] row = Bytes.toBytes("user" + random.nextInt(1000000));
+      for (String qualifier : new String[] { "email_address", "display_name", "last_login" }) {
+        out.write(row, 0, row.length);
+        byte[] rest = Bytes.toBytes("info:" + qualifier + "\u0004{\"state\":\"active\",\"v\":"
+            + random.nextInt(1000) + ",\"region\":\"eu-west\"}");
+        out.write(rest, 0, rest.length);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private int compressedSize(BlockCodec codec, byte[] data, byte[] dict) throws IOException {
+    byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+    int length = codec.compress(data, 0, data.length, compressed, 0, dict);
+    assertArrayEquals(data, codec.decompress(compressed, 0, length, dict));
+    return length;
+  }
+
+  @Test
+  public void testTrainedDictionaryHelps() throws IOException {
+    DictionaryTrainer trainer = new DictionaryTrainer(DICTIONARY_SIZE);
+    assertNull(trainer.train());
+    for (int i = 0; i < 200; i++) {
+      byte[] block = block();
+      trainer.sample(block, 0, block.length);
+    }
+    byte[] dict = trainer.train();
+    assertNotNull(dict);
+    assertTrue(dict.length <= DICTIONARY_SIZE);
+    // Nothing new to train on
+    assertNull(trainer.train());
+
+    for (BlockCodec codec : new BlockCodec[] { Lz4BlockCodec.INSTANCE,
+        DeflateBlockCodec.INSTANCE }) {
+      long plain = 0;
+      long withDict = 0;
+      for (int i = 0; i < 20; i++) {
+        byte[] block = block();
+        plain += compressedSize(codec, block, null);
+        withDict += compressedSize(codec, block, dict);
+      }
+      assertTrue(codec + ": " + withDict + " >= " + plain, withDict < plain);
+    }
+  }
+
+  @Test
+  public void testFewSamples() {
+    DictionaryTrainer trainer = new DictionaryTrainer(DICTIONARY_SIZE);
+    byte[] block = block();
+    trainer.sample(block, 0, block.length);
+    // Less than a dictionary worth of samples
+    assertNull(trainer.train());
+    trainer.sample(block, 0, block.length);
+    trainer.sample(block, 0, block.length);
+    byte[] dict = trainer.train();
+    assertNotNull(dict);
+    assertTrue(dict.length <= DICTIONARY_SIZE);
+  }
+}
@@ -240,6 +240,15 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String MIN_STORE_FILE_AGE_DESC = "Min age of store files hosted on this region server";
   String AVG_STORE_FILE_AGE_DESC = "Average age of store files hosted on this region server";
   String NUM_REFERENCE_FILES_DESC = "Number of reference file on this region server";
+  String MAX_STORE_WRITE_AMPLIFICATION = "maxStoreWriteAmplification";
+  String MAX_STORE_WRITE_AMPLIFICATION_DESC =
+      "Max write amplification of the stores, the data flushed and compacted over the data flushed";
+  String MAX_STORE_SPACE_AMPLIFICATION = "maxStoreSpaceAmplification";
+  String MAX_STORE_SPACE_AMPLIFICATION_DESC =
+      "Max space amplification of the stores, their size over the size of their largest file";
+  String MAX_STORE_TOMBSTONE_RATIO = "maxStoreTombstoneRatio";
+  String MAX_STORE_TOMBSTONE_RATIO_DESC =
+      "Max ratio of the cells of the stores which are delete markers, expired or extra versions";
   String STOREFILE_SIZE_DESC = "Size of storefiles being served.";
   String TOTAL_REQUEST_COUNT = "totalRequestCount";
   String TOTAL_REQUEST_COUNT_DESC =
@@ -291,6 +300,11 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
       + "larger than throttle threshold (2.5GB by default)";
   String SMALL_COMPACTION_QUEUE_LENGTH_DESC = "Length of the queue for compactions with input size "
       + "smaller than throttle threshold (2.5GB by default)";
+  String COMPACTION_QUEUED_SIZE = "compactionQueuedSize";
+  String COMPACTION_QUEUED_SIZE_DESC = "Size of the files selected by the queued compactions.";
+  String QUEUED_COMPACTIONS = "queuedCompactions";
+  String QUEUED_COMPACTIONS_DESC = "The first queued compactions, in the order they run, with "
+      + "their rank and order when a compaction prioritizer is set.";
   String FLUSH_QUEUE_LENGTH = "flushQueueLength";
   String FLUSH_QUEUE_LENGTH_DESC = "Length of the queue for region flushes";
   String BLOCK_CACHE_FREE_SIZE = "blockCacheFreeSize";
@@ -326,6 +340,13 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String BLOCK_CACHE_FAILED_INSERTION_COUNT = "blockCacheFailedInsertionCount";
   String BLOCK_CACHE_FAILED_INSERTION_COUNT_DESC = "Number of times that a block cache " +
       "insertion failed. Usually due to size restrictions.";
+  String BLOCK_CACHE_ADMITTED_COUNT = "blockCacheAdmittedCount";
+  String BLOCK_CACHE_ADMITTED_COUNT_DESC = "Number of blocks the block cache admission " +
+      "policy let into a full cache.";
+  String BLOCK_CACHE_REJECTED_COUNT = "blockCacheRejectedCount";
+  String BLOCK_CACHE_REJECTED_COUNT_DESC = "Number of blocks the block cache admission " +
+      "policy kept out of a full cache because they were accessed less than the blocks " +
+      "they would have displaced.";
   String BLOCK_CACHE_DATA_MISS_COUNT = "blockCacheDataMissCount";
   String BLOCK_CACHE_ENCODED_DATA_MISS_COUNT = "blockCacheEncodedDataMissCount";
   String BLOCK_CACHE_LEAF_INDEX_MISS_COUNT = "blockCacheLeafIndexMissCount";
@@ -202,6 +202,16 @@ public interface MetricsRegionServerWrapper {
 
   int getLargeCompactionQueueSize();
 
+  /**
+   * Get the size of the files selected by the queued compactions
+   */
+  long getCompactionQueuedSize();
+
+  /**
+   * Get the first queued compactions, in the order they run
+   */
+  String getQueuedCompactions();
+
   /**
    * Get the size of the flush queue.
    */
@@ -269,6 +279,16 @@ public interface MetricsRegionServerWrapper {
    */
   long getBlockCacheFailedInsertions();
 
+  /**
+   * Number of blocks the cache admission policy let into a full cache.
+   */
+  long getBlockCacheAdmittedCount();
+
+  /**
+   * Number of blocks the cache admission policy kept out of a full cache.
+   */
+  long getBlockCacheRejectedCount();
+
   /**
    * Hit count of L1 cache.
    */
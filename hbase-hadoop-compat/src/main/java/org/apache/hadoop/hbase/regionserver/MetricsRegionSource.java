@@ -36,6 +36,8 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
   String NUM_FILES_COMPACTED_COUNT = "numFilesCompactedCount";
   String FLUSHES_QUEUED_COUNT = "flushesQueuedCount";
   String MAX_FLUSH_QUEUE_SIZE = "maxFlushQueueSize";
+  String PREFETCH_PENDING_FILE_COUNT = "prefetchPendingFileCount";
+  String PREFETCHED_BYTES = "prefetchedBytes";
   String COMPACTIONS_COMPLETED_DESC = "Number of compactions that have completed.";
   String COMPACTIONS_FAILED_DESC = "Number of compactions that have failed.";
   String LAST_MAJOR_COMPACTION_DESC = "Age of the last major compaction in milliseconds.";
@@ -43,6 +45,10 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
   String MAX_COMPACTION_QUEUE_DESC = "Max number of compactions queued for this region";
   String FLUSHES_QUEUED_DESC = "Number flushes requested/queued for this region";
   String MAX_FLUSH_QUEUE_DESC = "Max number of flushes queued for this region";
+  String PREFETCH_PENDING_FILE_COUNT_DESC =
+      "Number of store files of this region waiting for or under prefetch into the block cache";
+  String PREFETCHED_BYTES_DESC =
+      "Number of bytes prefetched into the block cache for this region since it was opened";
   String  NUM_BYTES_COMPACTED_DESC =
       "Sum of filesize on all files entering a finished, successful or aborted, compaction";
   String NUM_FILES_COMPACTED_DESC =
@@ -94,6 +94,21 @@ public interface MetricsRegionWrapper {
    */
   long getNumReferenceFiles();
 
+  /**
+   *  @return Max write amplification of the stores under this region
+   */
+  double getMaxStoreWriteAmplification();
+
+  /**
+   *  @return Max space amplification of the stores under this region
+   */
+  double getMaxStoreSpaceAmplification();
+
+  /**
+   *  @return Max tombstone ratio of the stores under this region
+   */
+  double getMaxStoreTombstoneRatio();
+
   /**
    * Get the total number of mutations that have been issued against this region.
    */
@@ -143,6 +158,16 @@ public interface MetricsRegionWrapper {
    */
   long getMaxFlushQueueSize();
 
+  /**
+   * @return the number of store files of this region waiting for or under prefetch on open
+   */
+  long getPrefetchPendingFileCount();
+
+  /**
+   * @return the number of bytes prefetched on open for this region
+   */
+  long getPrefetchedBytes();
+
   int getRegionHashCode();
 
   /**
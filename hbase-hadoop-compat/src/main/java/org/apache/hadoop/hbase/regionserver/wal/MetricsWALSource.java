@@ -57,6 +57,13 @@ public interface MetricsWALSource extends BaseSource {
   String SLOW_APPEND_COUNT_DESC = "Number of appends that were slow.";
   String SYNC_TIME = "syncTime";
   String SYNC_TIME_DESC = "The time it took to sync the WAL to HDFS.";
+  String SYNC_BATCH_ENTRIES = "syncBatchEntries";
+  String SYNC_BATCH_ENTRIES_DESC = "Number of WAL entries made durable by one sync.";
+  String SYNC_BATCH_SIZE = "syncBatchSize";
+  String SYNC_BATCH_SIZE_DESC = "Size (in bytes) of the data made durable by one sync.";
+  String SYNC_BATCH_WAIT_TIME = "syncBatchWaitTime";
+  String SYNC_BATCH_WAIT_TIME_DESC =
+      "The time the first entry of a sync batch waited for the sync to be issued.";
   String ROLL_REQUESTED = "rollRequest";
   String ROLL_REQUESTED_DESC = "How many times a log roll has been requested total";
   String LOW_REPLICA_ROLL_REQUESTED = "lowReplicaRollRequest";
@@ -90,6 +97,11 @@ public interface MetricsWALSource extends BaseSource {
    */
   void incrementSyncTime(long time);
 
+  /**
+   * Add the number of entries, the size and the time waited for the sync of a sync batch.
+   */
+  void updateSyncBatch(int entries, long size, long waitTime);
+
   void incrementLogRollRequested();
 
   void incrementLowReplicationLogRoll();
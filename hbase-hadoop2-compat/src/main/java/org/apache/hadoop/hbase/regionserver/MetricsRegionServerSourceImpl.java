@@ -398,6 +398,8 @@ public class MetricsRegionServerSourceImpl
             rsWrap.getSmallCompactionQueueSize())
           .addGauge(Interns.info(LARGE_COMPACTION_QUEUE_LENGTH, LARGE_COMPACTION_QUEUE_LENGTH_DESC),
             rsWrap.getLargeCompactionQueueSize())
+          .addGauge(Interns.info(COMPACTION_QUEUED_SIZE, COMPACTION_QUEUED_SIZE_DESC),
+            rsWrap.getCompactionQueuedSize())
           .addGauge(Interns.info(FLUSH_QUEUE_LENGTH, FLUSH_QUEUE_LENGTH_DESC),
               rsWrap.getFlushQueueSize())
 
@@ -425,6 +427,10 @@ public class MetricsRegionServerSourceImpl
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC), rsWrap.getBlockCacheHitCachingPercent())
           .addCounter(Interns.info(BLOCK_CACHE_FAILED_INSERTION_COUNT,
               BLOCK_CACHE_FAILED_INSERTION_COUNT_DESC),rsWrap.getBlockCacheFailedInsertions())
+          .addCounter(Interns.info(BLOCK_CACHE_ADMITTED_COUNT, BLOCK_CACHE_ADMITTED_COUNT_DESC),
+              rsWrap.getBlockCacheAdmittedCount())
+          .addCounter(Interns.info(BLOCK_CACHE_REJECTED_COUNT, BLOCK_CACHE_REJECTED_COUNT_DESC),
+              rsWrap.getBlockCacheRejectedCount())
           .addCounter(Interns.info(BLOCK_CACHE_DATA_MISS_COUNT, ""), rsWrap.getDataMissCount())
           .addCounter(Interns.info(BLOCK_CACHE_LEAF_INDEX_MISS_COUNT, ""),
               rsWrap.getLeafIndexMissCount())
@@ -530,7 +536,9 @@ public class MetricsRegionServerSourceImpl
           .tag(Interns.info(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC),
               rsWrap.getZookeeperQuorum())
           .tag(Interns.info(SERVER_NAME_NAME, SERVER_NAME_DESC), rsWrap.getServerName())
-          .tag(Interns.info(CLUSTER_ID_NAME, CLUSTER_ID_DESC), rsWrap.getClusterId());
+          .tag(Interns.info(CLUSTER_ID_NAME, CLUSTER_ID_DESC), rsWrap.getClusterId())
+          .tag(Interns.info(QUEUED_COMPACTIONS, QUEUED_COMPACTIONS_DESC),
+              rsWrap.getQueuedCompactions());
 
     }
 
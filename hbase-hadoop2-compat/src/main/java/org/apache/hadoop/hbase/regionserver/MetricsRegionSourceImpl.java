@@ -233,6 +233,18 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
         regionNamePrefix + MetricsRegionServerSource.NUM_REFERENCE_FILES,
         MetricsRegionServerSource.NUM_REFERENCE_FILES_DESC),
         this.regionWrapper.getNumReferenceFiles());
+      mrb.addGauge(Interns.info(
+        regionNamePrefix + MetricsRegionServerSource.MAX_STORE_WRITE_AMPLIFICATION,
+        MetricsRegionServerSource.MAX_STORE_WRITE_AMPLIFICATION_DESC),
+        this.regionWrapper.getMaxStoreWriteAmplification());
+      mrb.addGauge(Interns.info(
+        regionNamePrefix + MetricsRegionServerSource.MAX_STORE_SPACE_AMPLIFICATION,
+        MetricsRegionServerSource.MAX_STORE_SPACE_AMPLIFICATION_DESC),
+        this.regionWrapper.getMaxStoreSpaceAmplification());
+      mrb.addGauge(Interns.info(
+        regionNamePrefix + MetricsRegionServerSource.MAX_STORE_TOMBSTONE_RATIO,
+        MetricsRegionServerSource.MAX_STORE_TOMBSTONE_RATIO_DESC),
+        this.regionWrapper.getMaxStoreTombstoneRatio());
       mrb.addGauge(Interns.info(
               regionNamePrefix + MetricsRegionServerSource.STOREFILE_SIZE,
               MetricsRegionServerSource.STOREFILE_SIZE_DESC),
@@ -289,6 +301,14 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
               regionNamePrefix + MetricsRegionSource.MAX_FLUSH_QUEUE_SIZE,
               MetricsRegionSource.MAX_FLUSH_QUEUE_DESC),
           this.regionWrapper.getMaxFlushQueueSize());
+      mrb.addGauge(Interns.info(
+              regionNamePrefix + MetricsRegionSource.PREFETCH_PENDING_FILE_COUNT,
+              MetricsRegionSource.PREFETCH_PENDING_FILE_COUNT_DESC),
+          this.regionWrapper.getPrefetchPendingFileCount());
+      mrb.addCounter(Interns.info(
+              regionNamePrefix + MetricsRegionSource.PREFETCHED_BYTES,
+              MetricsRegionSource.PREFETCHED_BYTES_DESC),
+          this.regionWrapper.getPrefetchedBytes());
     }
   }
 
@@ -36,6 +36,9 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
   private final MetricHistogram appendSizeHisto;
   private final MetricHistogram appendTimeHisto;
   private final MetricHistogram syncTimeHisto;
+  private final MetricHistogram syncBatchEntriesHisto;
+  private final MetricHistogram syncBatchSizeHisto;
+  private final MetricHistogram syncBatchWaitTimeHisto;
   private final MutableFastCounter appendCount;
   private final MutableFastCounter slowAppendCount;
   private final MutableFastCounter logRollRequested;
@@ -59,6 +62,12 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
     slowAppendCount =
         this.getMetricsRegistry().newCounter(SLOW_APPEND_COUNT, SLOW_APPEND_COUNT_DESC, 0l);
     syncTimeHisto = this.getMetricsRegistry().newTimeHistogram(SYNC_TIME, SYNC_TIME_DESC);
+    syncBatchEntriesHisto =
+        this.getMetricsRegistry().newHistogram(SYNC_BATCH_ENTRIES, SYNC_BATCH_ENTRIES_DESC);
+    syncBatchSizeHisto =
+        this.getMetricsRegistry().newSizeHistogram(SYNC_BATCH_SIZE, SYNC_BATCH_SIZE_DESC);
+    syncBatchWaitTimeHisto = this.getMetricsRegistry()
+        .newTimeHistogram(SYNC_BATCH_WAIT_TIME, SYNC_BATCH_WAIT_TIME_DESC);
     logRollRequested =
         this.getMetricsRegistry().newCounter(ROLL_REQUESTED, ROLL_REQUESTED_DESC, 0L);
     lowReplicationLogRollRequested = this.getMetricsRegistry()
@@ -91,6 +100,13 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
     syncTimeHisto.add(time);
   }
 
+  @Override
+  public void updateSyncBatch(int entries, long size, long waitTime) {
+    syncBatchEntriesHisto.add(entries);
+    syncBatchSizeHisto.add(size);
+    syncBatchWaitTimeHisto.add(waitTime);
+  }
+
   @Override
   public void incrementLogRollRequested() {
     logRollRequested.incr();
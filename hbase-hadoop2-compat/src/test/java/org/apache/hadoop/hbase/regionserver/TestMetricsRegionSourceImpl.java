@@ -132,6 +132,21 @@ public class TestMetricsRegionSourceImpl {
       return 0;
     }
 
+    @Override
+    public double getMaxStoreWriteAmplification() {
+      return 0;
+    }
+
+    @Override
+    public double getMaxStoreSpaceAmplification() {
+      return 0;
+    }
+
+    @Override
+    public double getMaxStoreTombstoneRatio() {
+      return 0;
+    }
+
     @Override
     public long getWriteRequestCount() {
       return 0;
@@ -194,5 +209,15 @@ public class TestMetricsRegionSourceImpl {
     public long getMaxFlushQueueSize() {
       return 0;
     }
+
+    @Override
+    public long getPrefetchPendingFileCount() {
+      return 0;
+    }
+
+    @Override
+    public long getPrefetchedBytes() {
+      return 0;
+    }
   }
 }
@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.io.hfile;
 
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
@@ -56,6 +57,19 @@ public interface BlockCache extends Iterable<CachedBlock> {
   Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
     boolean updateCacheMetrics);
 
+  /**
+   * Fetch block from cache without blocking on IO, so a caller can have many reads in flight.
+   * Implementations that serve blocks from memory complete the future right away; the default
+   * implementation just delegates to {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)}.
+   * A block obtained this way must be returned with {@link #returnBlock} like any other.
+   * @return future of the block, completed with null if the block is not in cache
+   */
+  default CompletableFuture<Cacheable> getBlockAsync(BlockCacheKey cacheKey, boolean caching,
+      boolean repeat, boolean updateCacheMetrics) {
+    return CompletableFuture.completedFuture(
+      getBlock(cacheKey, caching, repeat, updateCacheMetrics));
+  }
+
   /**
    * Evict block from cache.
    * @param cacheKey Block to evict
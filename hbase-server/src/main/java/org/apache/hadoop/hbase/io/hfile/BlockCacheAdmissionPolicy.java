@@ -0,0 +1,78 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Decides whether a block offered to a full {@link BlockCache} is worth the space of the blocks
+ * that have to be evicted to make room for it. Without a policy a cache admits every block, so
+ * a single large scan can flush out a working set that is read over and over again.
+ * <p>
+ * A cache reports every lookup with {@link #record(BlockCacheKey)} and every block it evicts to
+ * make room with {@link #onEviction(BlockCacheKey)}, and asks {@link #admit(BlockCacheKey)} before
+ * caching a block once it is full. Implementations are called concurrently from all handlers and
+ * must be cheap.
+ */
+@InterfaceAudience.Private
+public interface BlockCacheAdmissionPolicy {
+
+  /**
+   * Admission policy of the block caches: "none" to admit every block, "tinylfu" for
+   * {@link TinyLfuAdmissionPolicy}, or the name of a class implementing this interface with a
+   * (Configuration, long) constructor.
+   */
+  String ADMISSION_POLICY_KEY = "hbase.blockcache.admission.policy";
+  String DEFAULT_ADMISSION_POLICY = "none";
+
+  /**
+   * Records a request for the block, whether it was a hit or a miss.
+   */
+  void record(BlockCacheKey key);
+
+  /**
+   * Records that the cache evicted the block to make room for others.
+   */
+  void onEviction(BlockCacheKey key);
+
+  /**
+   * @return true if the block should be cached even though that evicts other blocks
+   */
+  boolean admit(BlockCacheKey key);
+
+  /**
+   * Creates the admission policy configured for a cache.
+   * @param conf configuration to read the policy and its settings from
+   * @param expectedBlocks about how many blocks the cache holds when full
+   * @return the policy, or null if the cache should admit every block
+   */
+  static BlockCacheAdmissionPolicy create(Configuration conf, long expectedBlocks) {
+    String policy = conf.get(ADMISSION_POLICY_KEY, DEFAULT_ADMISSION_POLICY);
+    if (policy.equalsIgnoreCase("none")) {
+      return null;
+    }
+    if (policy.equalsIgnoreCase("tinylfu")) {
+      return new TinyLfuAdmissionPolicy(conf, expectedBlocks);
+    }
+    return ReflectionUtils.instantiateWithCustomCtor(policy,
+        new Class[] { Configuration.class, long.class }, new Object[] { conf, expectedBlocks });
+  }
+}
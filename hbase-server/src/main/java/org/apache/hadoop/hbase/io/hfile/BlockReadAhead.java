@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex.BlockLocation;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex.CellBasedKeyBlockIndexReader;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the data blocks ahead of a scanner that goes through a file in order, so that a scan
+ * over a store file has more than one block read in flight.
+ * <p>
+ * Once the scanner has moved to the next block {@link #SEQUENTIAL_BLOCKS} times in a row, the
+ * locations of the blocks that follow are looked up in the block index and reads are issued for
+ * them, see {@link HFileReaderImpl#readBlockAsync}: the block cache is asked without waiting, so
+ * a bucket cache on an asynchronous IOEngine has all of them in flight at once, and the blocks
+ * which are not cached are read from the file system on the read ahead pool of the region
+ * server, see {@link CacheConfig#getReadAheadPool()}. The scanner then gets its next block from
+ * the oldest read, and the window is topped up as it drains. A seek discards the window and
+ * starts over; the blocks read for nothing are cached if the scanner caches blocks. When the pool
+ * is full, the blocks are not read ahead and the scanner reads them itself.
+ * <p>
+ * Not thread safe, it belongs to one scanner.
+ */
+@InterfaceAudience.Private
+public class BlockReadAhead {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BlockReadAhead.class);
+
+  /** The number of data blocks to read ahead of a scanner, 0 to not read ahead */
+  public static final String READ_AHEAD_BLOCKS_KEY = "hbase.hfile.readahead.blocks";
+  public static final int DEFAULT_READ_AHEAD_BLOCKS = 0;
+  /** Threads reading ahead for all the scanners of the server */
+  public static final String READ_AHEAD_THREADS_KEY = "hbase.hfile.readahead.threads";
+  public static final int DEFAULT_READ_AHEAD_THREADS = 16;
+
+  /** How many blocks in a row a scanner reads before reading ahead of it */
+  static final int SEQUENTIAL_BLOCKS = 2;
+
+  private static final class PendingBlock {
+    private final long offset;
+    private final CompletableFuture<HFileBlock> future;
+
+    private PendingBlock(long offset, CompletableFuture<HFileBlock> future) {
+      this.offset = offset;
+      this.future = future;
+    }
+  }
+
+  private final HFileReaderImpl.HFileScannerImpl scanner;
+  private final HFileReaderImpl reader;
+  private final CellBasedKeyBlockIndexReader indexReader;
+  private final ExecutorService executor;
+  private final int maxBlocks;
+
+  private final ArrayDeque<PendingBlock> pending = new ArrayDeque<>();
+  /** The key of the last block in {@link #pending}, to look up the ones after it */
+  private Cell lastPendingKey;
+  /** Whether the last data block of the file was read ahead */
+  private boolean exhausted;
+  /** The offset of the last block handed to the scanner */
+  private long lastOffset = -1;
+  private int sequentialBlocks;
+
+  BlockReadAhead(HFileReaderImpl reader, HFileReaderImpl.HFileScannerImpl scanner,
+      CellBasedKeyBlockIndexReader indexReader, int maxBlocks, ExecutorService executor) {
+    this.scanner = scanner;
+    this.reader = reader;
+    this.indexReader = indexReader;
+    this.executor = executor;
+    this.maxBlocks = maxBlocks;
+  }
+
+  /**
+   * Moves the scanner to the data block after the given one, from what was read ahead if it
+   * can, else by reading it.
+   * @return the next data block, or null if there are no more
+   */
+  HFileBlock next(HFileBlock current) throws IOException {
+    if (current == null) {
+      return null;
+    }
+    if (current.getOffset() != lastOffset) {
+      // The scanner seeked away from the blocks it was given, start over
+      discard();
+      sequentialBlocks = 0;
+    }
+    HFileBlock block = pending.isEmpty() ? null : take();
+    if (block == null) {
+      block = scanner.readNextDataBlock(current);
+    }
+    if (block == null) {
+      lastOffset = -1;
+      return null;
+    }
+    lastOffset = block.getOffset();
+    if (++sequentialBlocks >= SEQUENTIAL_BLOCKS) {
+      fill(block);
+    }
+    return block;
+  }
+
+  private HFileBlock take() throws IOException {
+    PendingBlock head = pending.poll();
+    try {
+      return head.future.get();
+    } catch (InterruptedException e) {
+      discard();
+      throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+    } catch (ExecutionException e) {
+      // Let the scanner read it itself, and fail there if it has to
+      LOG.debug("Failed to read ahead block at offset {} of {}", head.offset, reader.getName(),
+        e.getCause());
+      discard();
+      return null;
+    }
+  }
+
+  /**
+   * Issues reads for the blocks after the given one, up to the window size. Does nothing while
+   * the window is more than half full, so the index is only looked up every few blocks.
+   */
+  private void fill(HFileBlock block) throws IOException {
+    if (exhausted || pending.size() > maxBlocks / 2) {
+      return;
+    }
+    Cell key = pending.isEmpty() ? scanner.getFirstKeyCellInBlock(block) : lastPendingKey;
+    int wanted = maxBlocks - pending.size();
+    List<BlockLocation> locations = indexReader.getDataBlocksAfter(key, wanted, true,
+      scanner.isCompaction);
+    if (locations.size() < wanted) {
+      exhausted = true;
+    }
+    DataBlockEncoding encoding = scanner.getEffectiveDataBlockEncoding();
+    for (BlockLocation location : locations) {
+      CompletableFuture<HFileBlock> future = reader.readBlockAsync(location.getOffset(),
+        location.getOnDiskSize(), scanner.cacheBlocks, scanner.isCompaction, encoding, executor);
+      if (future.isCompletedExceptionally()) {
+        // The pool is busy, the scanner reads the rest itself and we try again on a later block
+        exhausted = false;
+        return;
+      }
+      pending.add(new PendingBlock(location.getOffset(), future));
+      lastPendingKey = location.getKey();
+    }
+  }
+
+  /**
+   * Drops the blocks read ahead, giving them back to the cache as they complete.
+   */
+  void discard() {
+    for (PendingBlock block : pending) {
+      block.future.whenComplete((b, t) -> {
+        if (b != null) {
+          reader.returnBlock(b);
+        }
+      });
+    }
+    pending.clear();
+    lastPendingKey = null;
+    exhausted = false;
+  }
+
+  void close() {
+    discard();
+    lastOffset = -1;
+  }
+}
@@ -21,6 +21,7 @@ import static org.apache.hadoop.hbase.HConstants.BUCKET_CACHE_IOENGINE_KEY;
 import static org.apache.hadoop.hbase.HConstants.BUCKET_CACHE_SIZE_KEY;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
@@ -210,6 +211,9 @@ public class CacheConfig {
 
   private final boolean dropBehindCompaction;
 
+  /** Pool reading data blocks ahead of scanners, null to not read ahead */
+  private ExecutorService readAheadPool;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -307,6 +311,7 @@ public class CacheConfig {
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
         cacheConf.cacheDataCompressed, cacheConf.prefetchOnOpen,
         cacheConf.dropBehindCompaction);
+    this.readAheadPool = cacheConf.readAheadPool;
   }
 
   private CacheConfig() {
@@ -414,6 +419,21 @@ public class CacheConfig {
     this.evictOnClose = evictOnClose;
   }
 
+  /**
+   * @return the pool reading data blocks ahead of scanners, or null if they are not read ahead
+   * @see BlockReadAhead
+   */
+  public ExecutorService getReadAheadPool() {
+    return readAheadPool;
+  }
+
+  /**
+   * @param readAheadPool the pool of the region server reading data blocks ahead of scanners
+   */
+  public void setReadAheadPool(ExecutorService readAheadPool) {
+    this.readAheadPool = readAheadPool;
+  }
+
   /**
    * @return true if data blocks should be compressed in the cache, false if not
    */
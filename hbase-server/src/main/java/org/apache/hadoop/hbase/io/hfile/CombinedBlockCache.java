@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.io.hfile;
 
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.hadoop.hbase.io.HeapSize;
@@ -85,6 +86,14 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
         l2Cache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
   }
 
+  @Override
+  public CompletableFuture<Cacheable> getBlockAsync(BlockCacheKey cacheKey, boolean caching,
+      boolean repeat, boolean updateCacheMetrics) {
+    return onHeapCache.containsBlock(cacheKey)?
+        onHeapCache.getBlockAsync(cacheKey, caching, repeat, updateCacheMetrics):
+        l2Cache.getBlockAsync(cacheKey, caching, repeat, updateCacheMetrics);
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     return onHeapCache.evictBlock(cacheKey) || l2Cache.evictBlock(cacheKey);
@@ -330,6 +339,16 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
       return lruCacheStats.getFailedInserts() + bucketCacheStats.getFailedInserts();
     }
 
+    @Override
+    public long getAdmittedCount() {
+      return lruCacheStats.getAdmittedCount() + bucketCacheStats.getAdmittedCount();
+    }
+
+    @Override
+    public long getRejectedCount() {
+      return lruCacheStats.getRejectedCount() + bucketCacheStats.getRejectedCount();
+    }
+
     @Override
     public long getSumHitCountsPastNPeriods() {
       return lruCacheStats.getSumHitCountsPastNPeriods()
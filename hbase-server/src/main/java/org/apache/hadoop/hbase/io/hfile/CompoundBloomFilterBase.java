@@ -40,6 +40,16 @@ public class CompoundBloomFilterBase implements BloomFilterBase {
    */
   public static final int VERSION = 3;
 
+  /**
+   * The version of the Bloom filters whose chunks are split in blocks of
+   * {@link org.apache.hadoop.hbase.util.BloomFilterUtil#BLOCK_BYTES}, each key setting all its
+   * bits in one of them. The metadata is the same as for {@link #VERSION}.
+   */
+  public static final int BLOCKED_VERSION = 4;
+
+  /** Whether the chunks are split in blocks, see {@link #BLOCKED_VERSION} */
+  protected boolean blocked;
+
   /** Target error rate for configuring the filter and for information */
   protected float errorRate;
 
@@ -53,6 +63,10 @@ public class CompoundBloomFilterBase implements BloomFilterBase {
   /** Comparator used to compare Bloom filter keys */
   protected CellComparator comparator;
 
+  public boolean isBlocked() {
+    return blocked;
+  }
+
   @Override
   public long getMaxKeys() {
     return totalMaxKeys;
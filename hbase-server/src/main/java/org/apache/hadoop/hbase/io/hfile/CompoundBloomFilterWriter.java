@@ -100,6 +100,28 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
   public CompoundBloomFilterWriter(int chunkByteSizeHint, float errorRate,
       int hashType, int maxFold, boolean cacheOnWrite,
       CellComparator comparator, BloomType bloomType) {
+    this(chunkByteSizeHint, errorRate, hashType, maxFold, cacheOnWrite, comparator, bloomType,
+        false);
+  }
+
+  /**
+   * @param chunkByteSizeHint
+   *          each chunk's size in bytes. The real chunk size might be different
+   *          as required by the fold factor.
+   * @param errorRate
+   *          target false positive rate
+   * @param hashType
+   *          hash function type to use
+   * @param maxFold
+   *          maximum degree of folding allowed
+   * @param bloomType
+   *          the bloom type
+   * @param blocked
+   *          whether to write a blocked Bloom filter, see {@link #BLOCKED_VERSION}
+   */
+  public CompoundBloomFilterWriter(int chunkByteSizeHint, float errorRate,
+      int hashType, int maxFold, boolean cacheOnWrite,
+      CellComparator comparator, BloomType bloomType, boolean blocked) {
     chunkByteSize = BloomFilterUtil.computeFoldableByteSize(
         chunkByteSizeHint * 8L, maxFold);
 
@@ -109,6 +131,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
     this.cacheOnWrite = cacheOnWrite;
     this.comparator = comparator;
     this.bloomType = bloomType;
+    this.blocked = blocked;
   }
 
   @Override
@@ -174,7 +197,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
             + Bytes.toStringBinary(firstKeyInChunk));
       }
       // This will be done only once per chunk
-      if (bloomType == BloomType.ROW) {
+      if (bloomType != BloomType.ROWCOL) {
         firstKeyInChunk = CellUtil.copyRow(cell);
       } else {
         firstKeyInChunk =
@@ -205,7 +228,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
     if (prevChunk == null) {
       // First chunk
       chunk = BloomFilterUtil.createBySize(chunkByteSize, errorRate,
-          hashType, maxFold, bloomType);
+          hashType, maxFold, bloomType, blocked);
     } else {
       // Use the same parameters as the last chunk, but a new array and
       // a zero key count.
@@ -258,7 +281,7 @@ public class CompoundBloomFilterWriter extends CompoundBloomFilterBase
      */
     @Override
     public void write(DataOutput out) throws IOException {
-      out.writeInt(VERSION);
+      out.writeInt(blocked ? BLOCKED_VERSION : VERSION);
 
       out.writeLong(getByteSize());
       out.writeInt(prevChunk.getHashCount());
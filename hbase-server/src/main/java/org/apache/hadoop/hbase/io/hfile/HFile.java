@@ -438,6 +438,12 @@ public class HFile {
 
     Optional<Cell> midKey() throws IOException;
 
+    /**
+     * @return the keys of the root level entries of the data block index, in order. Each entry
+     *         starts a part of the file of about the same size.
+     */
+    List<Cell> getRootIndexKeys();
+
     long length();
 
     long getEntries();
@@ -669,6 +675,8 @@ public class HFile {
     static final byte [] CREATE_TIME_TS = Bytes.toBytes(RESERVED_PREFIX + "CREATE_TIME_TS");
     static final byte [] COMPARATOR = Bytes.toBytes(RESERVED_PREFIX + "COMPARATOR");
     static final byte [] TAGS_COMPRESSED = Bytes.toBytes(RESERVED_PREFIX + "TAGS_COMPRESSED");
+    static final byte [] COMPRESSION_DICTIONARY =
+        Bytes.toBytes(RESERVED_PREFIX + "COMPRESSION_DICTIONARY");
     public static final byte [] MAX_TAGS_LEN = Bytes.toBytes(RESERVED_PREFIX + "MAX_TAGS_LEN");
     private final SortedMap<byte [], byte []> map = new TreeMap<>(Bytes.BYTES_COMPARATOR);
 
@@ -644,7 +644,7 @@ public class HFileBlock implements Cacheable {
     ByteBuff dup = this.buf.duplicate();
     dup.position(this.headerSize());
     dup = dup.slice();
-    ctx.prepareDecoding(unpacked.getOnDiskSizeWithoutHeader(),
+    ctx.prepareDecoding(blockType, unpacked.getOnDiskSizeWithoutHeader(),
       unpacked.getUncompressedSizeWithoutHeader(), unpacked.getBufferWithoutHeader(),
       dup);
     return unpacked;
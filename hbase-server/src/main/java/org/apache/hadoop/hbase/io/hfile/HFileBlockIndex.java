@@ -232,6 +232,33 @@ public class HFileBlockIndex {
 
   }
 
+  /**
+   * Where a block is in the file, and the key it is indexed with.
+   */
+  static class BlockLocation {
+    private final long offset;
+    private final int onDiskSize;
+    private final Cell key;
+
+    BlockLocation(long offset, int onDiskSize, Cell key) {
+      this.offset = offset;
+      this.onDiskSize = onDiskSize;
+      this.key = key;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    int getOnDiskSize() {
+      return onDiskSize;
+    }
+
+    Cell getKey() {
+      return key;
+    }
+  }
+
   /**
    * An implementation of the BlockIndexReader that deals with block keys which are the key
    * part of a cell like the Data block index or the ROW_COL bloom blocks
@@ -404,6 +431,74 @@ public class HFileBlockIndex {
       return blockWithScanInfo;
     }
 
+    /**
+     * Finds the data blocks that follow the one containing the given key, in file order, so
+     * they can be read ahead of a scanner. The non-root index blocks on the way are read
+     * through the block cache, and cached.
+     * @param key a key in the data block to start after
+     * @param maxBlocks the most data blocks to return
+     * @return the locations of the next data blocks, fewer than asked for only at the end of
+     *         the file
+     */
+    public List<BlockLocation> getDataBlocksAfter(Cell key, int maxBlocks, boolean pread,
+        boolean isCompaction) throws IOException {
+      List<BlockLocation> locations = new ArrayList<>(maxBlocks);
+      int rootLevelIndex = rootBlockContainingKey(key);
+      if (rootLevelIndex < 0 || rootLevelIndex >= blockOffsets.length) {
+        return locations;
+      }
+      if (searchTreeLevel == 1) {
+        // The root level indexes the data blocks
+        for (int i = rootLevelIndex + 1; i < blockOffsets.length
+            && locations.size() < maxBlocks; i++) {
+          locations.add(new BlockLocation(blockOffsets[i], blockDataSizes[i], blockKeys[i]));
+        }
+        return locations;
+      }
+      for (int i = rootLevelIndex; i < blockOffsets.length
+          && locations.size() < maxBlocks; i++) {
+        // Only the subtree of the key starts from the key, the next ones from their start
+        addDataBlocks(blockOffsets[i], blockDataSizes[i], 1, i == rootLevelIndex ? key : null,
+          maxBlocks, pread, isCompaction, locations);
+      }
+      return locations;
+    }
+
+    private void addDataBlocks(long offset, int onDiskSize, int level, Cell key, int maxBlocks,
+        boolean pread, boolean isCompaction, List<BlockLocation> locations) throws IOException {
+      boolean leaf = level == searchTreeLevel - 1;
+      HFileBlock block = cachingBlockReader.readBlock(offset, onDiskSize, true, pread,
+        isCompaction, true, leaf ? BlockType.LEAF_INDEX : BlockType.INTERMEDIATE_INDEX, null);
+      try {
+        ByteBuff buffer = block.getBufferWithoutHeader();
+        int numEntries = buffer.getInt(0);
+        int entriesOffset = Bytes.SIZEOF_INT * (numEntries + 2);
+        int start = 0;
+        if (key != null) {
+          start = Math.max(0, binarySearchNonRootIndex(key, buffer, comparator));
+          if (leaf) {
+            // Skip the data block holding the key
+            start++;
+          }
+        }
+        for (int i = start; i < numEntries && locations.size() < maxBlocks; i++) {
+          int entryOffset = entriesOffset + buffer.getInt(Bytes.SIZEOF_INT * (i + 1));
+          long childOffset = buffer.getLong(entryOffset);
+          int childOnDiskSize = buffer.getInt(entryOffset + Bytes.SIZEOF_LONG);
+          if (leaf) {
+            byte[] indexedKey = getNonRootIndexedKey(buffer, i);
+            locations.add(new BlockLocation(childOffset, childOnDiskSize,
+                new KeyValue.KeyOnlyKeyValue(indexedKey, 0, indexedKey.length)));
+          } else {
+            addDataBlocks(childOffset, childOnDiskSize, level + 1, i == start ? key : null,
+              maxBlocks, pread, isCompaction, locations);
+          }
+        }
+      } finally {
+        cachingBlockReader.returnBlock(block);
+      }
+    }
+
     @Override
     public Cell midkey() throws IOException {
       if (rootCount == 0)
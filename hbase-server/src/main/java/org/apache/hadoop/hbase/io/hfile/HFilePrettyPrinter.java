@@ -551,6 +551,8 @@ public class HFilePrettyPrinter extends Configured implements Tool {
         out.println(Bytes.toBoolean(e.getValue()));
       } else if (Bytes.equals(e.getKey(), FileInfo.LASTKEY)) {
         out.println(new KeyValue.KeyOnlyKeyValue(e.getValue()).toString());
+      } else if (Bytes.equals(e.getKey(), FileInfo.COMPRESSION_DICTIONARY)) {
+        out.println(e.getValue().length + " bytes");
       } else {
         out.println(Bytes.toStringBinary(e.getValue()));
       }
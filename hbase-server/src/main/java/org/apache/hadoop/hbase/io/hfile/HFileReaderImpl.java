@@ -24,6 +24,10 @@ import java.security.Key;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configurable;
@@ -128,6 +132,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
   /** Filesystem-level block reader. */
   private HFileBlock.FSReader fsBlockReader;
 
+  /** Data blocks the scanners read ahead of a sequential scan */
+  private final int readAheadBlocks;
+
   /**
    * A "sparse lock" implementation allowing to lock on a particular block
    * identified by offset. The purpose of this is to avoid two clients loading
@@ -196,6 +203,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     this.name = path.getName();
     this.conf = conf;
     this.primaryReplicaReader = primaryReplicaReader;
+    this.readAheadBlocks = conf == null ? BlockReadAhead.DEFAULT_READ_AHEAD_BLOCKS
+        : conf.getInt(BlockReadAhead.READ_AHEAD_BLOCKS_KEY,
+          BlockReadAhead.DEFAULT_READ_AHEAD_BLOCKS);
     checkFileVersion();
     this.hfileContext = createHFileContext(fsdis, fileSize, hfs, path, trailer);
     this.fsBlockReader = new HFileBlock.FSReaderImpl(fsdis, fileSize, hfs, path, hfileContext);
@@ -229,6 +239,8 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     byte[] creationTimeBytes = fileInfo.get(FileInfo.CREATE_TIME_TS);
     this.hfileContext.setFileCreateTime(creationTimeBytes == null?  0:
         Bytes.toLong(creationTimeBytes));
+    // Set before any data block is read, they are compressed with it
+    this.hfileContext.setCompressionDictionary(fileInfo.get(FileInfo.COMPRESSION_DICTIONARY));
     if (fileInfo.get(FileInfo.LASTKEY) != null) {
       lastKeyCell = new KeyValue.KeyOnlyKeyValue(fileInfo.get(FileInfo.LASTKEY));
     }
@@ -254,7 +266,7 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
 
     // Prefetch file blocks upon open if requested
     if (cacheConf.shouldPrefetchOnOpen()) {
-      PrefetchExecutor.request(path, new Runnable() {
+      PrefetchExecutor.request(path, hfileContext.getFileCreateTime(), new Runnable() {
         @Override
         public void run() {
           long offset = 0;
@@ -284,6 +296,8 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
               returnBlock(block);
               prevBlock = block;
               offset += block.getOnDiskSizeWithHeader();
+              // Throttle and give way to foreground reads
+              PrefetchExecutor.prefetched(path, block.getOnDiskSizeWithHeader());
             }
           } catch (IOException e) {
             // IOExceptions are probably due to region closes (relocation, etc.)
@@ -510,6 +524,8 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     protected HFileBlock curBlock;
     // Previous blocks that were used in the course of the read
     protected final ArrayList<HFileBlock> prevBlocks = new ArrayList<>();
+    // Reads the next data blocks ahead of a sequential scan, null if not enabled
+    private BlockReadAhead readAhead;
 
     public HFileScannerImpl(final HFile.Reader reader, final boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
@@ -519,6 +535,10 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
       this.isCompaction = isCompaction;
     }
 
+    void setReadAhead(BlockReadAhead readAhead) {
+      this.readAhead = readAhead;
+    }
+
     void updateCurrBlockRef(HFileBlock block) {
       if (block != null && this.curBlock != null &&
           block.getOffset() == this.curBlock.getOffset()) {
@@ -593,6 +613,9 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
         // For seek + pread stream socket should be closed when the scanner is closed. HBASE-9393
         reader.unbufferStream();
       }
+      if (readAhead != null) {
+        readAhead.close();
+      }
       this.returnBlocks(true);
     }
 
@@ -903,15 +926,25 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
      * @return the next block, or null if there are no more data blocks
      * @throws IOException
      */
+    protected HFileBlock readNextDataBlock() throws IOException {
+      if (readAhead != null) {
+        return readAhead.next(curBlock);
+      }
+      return readNextDataBlock(curBlock);
+    }
+
+    /**
+     * Reads the data block after the given one, skipping the non-data blocks in between.
+     *
+     * @return the next block, or null if there are no more data blocks
+     */
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="NP_NULL_ON_SOME_PATH",
         justification="Yeah, unnecessary null check; could do w/ clean up")
-    protected HFileBlock readNextDataBlock() throws IOException {
+    HFileBlock readNextDataBlock(HFileBlock block) throws IOException {
       long lastDataBlockOffset = reader.getTrailer().getLastDataBlockOffset();
-      if (curBlock == null)
+      if (block == null)
         return null;
 
-      HFileBlock block = this.curBlock;
-
       do {
         if (block.getOffset() >= lastDataBlockOffset) {
           return null;
@@ -1302,61 +1335,126 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
        HFileBlock cachedBlock = (HFileBlock) cache.getBlock(cacheKey, cacheBlock, useLock,
          updateCacheMetrics);
        if (cachedBlock != null) {
-         if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())) {
-           HFileBlock compressedBlock = cachedBlock;
-           cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader);
-           // In case of compressed block after unpacking we can return the compressed block
-          if (compressedBlock != cachedBlock) {
-            cache.returnBlock(cacheKey, compressedBlock);
-          }
-        }
-         validateBlockType(cachedBlock, expectedBlockType);
-
-         if (expectedDataBlockEncoding == null) {
-           return cachedBlock;
-         }
-         DataBlockEncoding actualDataBlockEncoding =
-                 cachedBlock.getDataBlockEncoding();
-         // Block types other than data blocks always have
-         // DataBlockEncoding.NONE. To avoid false negative cache misses, only
-         // perform this check if cached block is a data block.
-         if (cachedBlock.getBlockType().isData() &&
-                 !actualDataBlockEncoding.equals(expectedDataBlockEncoding)) {
-           // This mismatch may happen if a Scanner, which is used for say a
-           // compaction, tries to read an encoded block from the block cache.
-           // The reverse might happen when an EncodedScanner tries to read
-           // un-encoded blocks which were cached earlier.
-           //
-           // Because returning a data block with an implicit BlockType mismatch
-           // will cause the requesting scanner to throw a disk read should be
-           // forced here. This will potentially cause a significant number of
-           // cache misses, so update so we should keep track of this as it might
-           // justify the work on a CompoundScanner.
-           if (!expectedDataBlockEncoding.equals(DataBlockEncoding.NONE) &&
-                   !actualDataBlockEncoding.equals(DataBlockEncoding.NONE)) {
-             // If the block is encoded but the encoding does not match the
-             // expected encoding it is likely the encoding was changed but the
-             // block was not yet evicted. Evictions on file close happen async
-             // so blocks with the old encoding still linger in cache for some
-             // period of time. This event should be rare as it only happens on
-             // schema definition change.
-             LOG.info("Evicting cached block with key " + cacheKey +
-                     " because of a data block encoding mismatch" +
-                     "; expected: " + expectedDataBlockEncoding +
-                     ", actual: " + actualDataBlockEncoding);
-             // This is an error scenario. so here we need to decrement the
-             // count.
-             cache.returnBlock(cacheKey, cachedBlock);
-             cache.evictBlock(cacheKey);
-           }
-           return null;
-         }
-         return cachedBlock;
+         return checkCachedBlock(cache, cacheKey, cachedBlock, expectedBlockType,
+           expectedDataBlockEncoding);
        }
      }
      return null;
    }
 
+  /**
+   * Unpacks a block retrieved from cache and validates its type and encoding.
+   * @return the block, or null if it does not have the expected encoding
+   */
+  private HFileBlock checkCachedBlock(BlockCache cache, BlockCacheKey cacheKey,
+      HFileBlock cachedBlock, BlockType expectedBlockType,
+      DataBlockEncoding expectedDataBlockEncoding) throws IOException {
+    if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())) {
+      HFileBlock compressedBlock = cachedBlock;
+      cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader);
+      // In case of compressed block after unpacking we can return the compressed block
+      if (compressedBlock != cachedBlock) {
+        cache.returnBlock(cacheKey, compressedBlock);
+      }
+    }
+    validateBlockType(cachedBlock, expectedBlockType);
+
+    if (expectedDataBlockEncoding == null) {
+      return cachedBlock;
+    }
+    DataBlockEncoding actualDataBlockEncoding =
+            cachedBlock.getDataBlockEncoding();
+    // Block types other than data blocks always have
+    // DataBlockEncoding.NONE. To avoid false negative cache misses, only
+    // perform this check if cached block is a data block.
+    if (cachedBlock.getBlockType().isData() &&
+            !actualDataBlockEncoding.equals(expectedDataBlockEncoding)) {
+      // This mismatch may happen if a Scanner, which is used for say a
+      // compaction, tries to read an encoded block from the block cache.
+      // The reverse might happen when an EncodedScanner tries to read
+      // un-encoded blocks which were cached earlier.
+      //
+      // Because returning a data block with an implicit BlockType mismatch
+      // will cause the requesting scanner to throw a disk read should be
+      // forced here. This will potentially cause a significant number of
+      // cache misses, so update so we should keep track of this as it might
+      // justify the work on a CompoundScanner.
+      if (!expectedDataBlockEncoding.equals(DataBlockEncoding.NONE) &&
+              !actualDataBlockEncoding.equals(DataBlockEncoding.NONE)) {
+        // If the block is encoded but the encoding does not match the
+        // expected encoding it is likely the encoding was changed but the
+        // block was not yet evicted. Evictions on file close happen async
+        // so blocks with the old encoding still linger in cache for some
+        // period of time. This event should be rare as it only happens on
+        // schema definition change.
+        LOG.info("Evicting cached block with key " + cacheKey +
+                " because of a data block encoding mismatch" +
+                "; expected: " + expectedDataBlockEncoding +
+                ", actual: " + actualDataBlockEncoding);
+        // This is an error scenario. so here we need to decrement the
+        // count.
+        cache.returnBlock(cacheKey, cachedBlock);
+        cache.evictBlock(cacheKey);
+      }
+      return null;
+    }
+    return cachedBlock;
+  }
+
+  /**
+   * Reads a data block without blocking the caller, for reading ahead of a scanner. The block
+   * cache is asked with {@link BlockCache#getBlockAsync}, so a cache on an asynchronous
+   * {@link org.apache.hadoop.hbase.io.hfile.bucket.IOEngine} can have many reads in flight. The
+   * cached block is unpacked, or the block read from the file system on a miss, on the given
+   * executor.
+   * @return future of the block, completed exceptionally if it could not be read or the executor
+   *         rejected the work
+   */
+  CompletableFuture<HFileBlock> readBlockAsync(long dataBlockOffset, long onDiskBlockSize,
+      boolean cacheBlock, boolean isCompaction, DataBlockEncoding expectedDataBlockEncoding,
+      Executor executor) {
+    BlockCacheKey cacheKey = new BlockCacheKey(name, dataBlockOffset,
+      this.isPrimaryReplicaReader(), BlockType.DATA);
+    BlockCache cache = cacheConf.getBlockCache();
+    CompletableFuture<Cacheable> cached = cacheConf.shouldReadBlockFromCache(BlockType.DATA)
+        ? cache.getBlockAsync(cacheKey, cacheBlock, false, true)
+        : CompletableFuture.completedFuture(null);
+    CompletableFuture<HFileBlock> future = new CompletableFuture<>();
+    cached.whenComplete((cachedBlock, error) -> {
+      try {
+        executor.execute(() -> {
+          try {
+            HFileBlock block = null;
+            if (cachedBlock != null) {
+              block = checkCachedBlock(cache, cacheKey, (HFileBlock) cachedBlock, BlockType.DATA,
+                expectedDataBlockEncoding);
+            }
+            if (block == null) {
+              // A miss was already counted by the lookup above
+              block = readBlock(dataBlockOffset, onDiskBlockSize, cacheBlock, true, isCompaction,
+                false, BlockType.DATA, expectedDataBlockEncoding);
+            } else if (block.getDataBlockEncoding() != dataBlockEncoder.getDataBlockEncoding()) {
+              returnBlock(block);
+              throw new IOException("Cached block under key " + cacheKey + " has wrong encoding: "
+                  + block.getDataBlockEncoding() + " (expected: "
+                  + dataBlockEncoder.getDataBlockEncoding() + ")");
+            }
+            HFile.DATABLOCK_READ_COUNT.increment();
+            future.complete(block);
+          } catch (Throwable t) {
+            future.completeExceptionally(t);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        if (cachedBlock != null) {
+          cache.returnBlock(cacheKey, cachedBlock);
+        }
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
   /**
    * @param metaBlockName
    * @param cacheBlock Add block to cache, if found
@@ -1484,8 +1582,16 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
 
         TraceUtil.addTimelineAnnotation("blockCacheMiss");
         // Load block from filesystem.
-        HFileBlock hfileBlock =
-            fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, pread, !isCompaction);
+        HFileBlock hfileBlock;
+        boolean foreground = PrefetchExecutor.beginRead();
+        try {
+          hfileBlock =
+              fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, pread, !isCompaction);
+        } finally {
+          if (foreground) {
+            PrefetchExecutor.endRead();
+          }
+        }
         validateBlockType(hfileBlock, expectedBlockType);
         HFileBlock unpacked = hfileBlock.unpack(hfileContext, fsBlockReader);
         BlockType.BlockCategory category = hfileBlock.getBlockType().getCategory();
@@ -1561,6 +1667,16 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
     return Optional.ofNullable(dataBlockIndexReader.midkey());
   }
 
+  @Override
+  public List<Cell> getRootIndexKeys() {
+    int count = dataBlockIndexReader.getRootBlockCount();
+    List<Cell> keys = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      keys.add(dataBlockIndexReader.getRootBlockKey(i));
+    }
+    return keys;
+  }
+
   @Override
   public void close() throws IOException {
     close(cacheConf.shouldEvictOnClose());
@@ -1857,10 +1973,18 @@ public class HFileReaderImpl implements HFile.Reader, Configurable {
   @Override
   public HFileScanner getScanner(boolean cacheBlocks, final boolean pread,
       final boolean isCompaction) {
+    HFileScannerImpl scanner;
     if (dataBlockEncoder.useEncodedScanner()) {
-      return new EncodedScanner(this, cacheBlocks, pread, isCompaction, this.hfileContext);
+      scanner = new EncodedScanner(this, cacheBlocks, pread, isCompaction, this.hfileContext);
+    } else {
+      scanner = new HFileScannerImpl(this, cacheBlocks, pread, isCompaction);
+    }
+    ExecutorService readAheadPool = cacheConf.getReadAheadPool();
+    if (readAheadBlocks > 0 && readAheadPool != null) {
+      scanner.setReadAhead(
+        new BlockReadAhead(this, scanner, dataBlockIndexReader, readAheadBlocks, readAheadPool));
     }
-    return new HFileScannerImpl(this, cacheBlocks, pread, isCompaction);
+    return scanner;
   }
 
   public int getMajorVersion() {
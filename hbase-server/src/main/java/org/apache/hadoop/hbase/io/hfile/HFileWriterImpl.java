@@ -800,6 +800,11 @@ public class HFileWriterImpl implements HFile.Writer {
         && hFileContext.isCompressTags();
       fileInfo.append(FileInfo.TAGS_COMPRESSED, Bytes.toBytes(tagsCompressed), false);
     }
+    // The data blocks can only be read back with the dictionary they were compressed with
+    byte[] dictionary = hFileContext.getCompressionDictionary();
+    if (dictionary != null && hFileContext.getCompression().getBlockCodec() != null) {
+      fileInfo.append(FileInfo.COMPRESSION_DICTIONARY, dictionary, false);
+    }
   }
 
   protected int getMajorVersion() {
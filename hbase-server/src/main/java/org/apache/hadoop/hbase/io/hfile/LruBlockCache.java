@@ -229,6 +229,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
    */
   private BlockCache victimHandler = null;
 
+  /** Decides which blocks are cached once the cache is full, null to cache every block */
+  private volatile BlockCacheAdmissionPolicy admissionPolicy;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -275,6 +278,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
         conf.getBoolean(LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME, DEFAULT_IN_MEMORY_FORCE_MODE),
         conf.getLong(LRU_MAX_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE)
     );
+    this.admissionPolicy = BlockCacheAdmissionPolicy.create(conf, maxSize / blockSize);
   }
 
   public LruBlockCache(long maxSize, long blockSize, Configuration conf) {
@@ -406,6 +410,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       }
       return;
     }
+    if (!admit(cacheKey, buf, inMemory, currentSize)) {
+      return;
+    }
     cb = new LruCachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
@@ -422,6 +429,29 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
     }
   }
 
+  /**
+   * Asks the admission policy whether a block is worth the space of the blocks it will displace.
+   * Blocks are always admitted while the cache has room, and only data blocks are filtered: index
+   * and bloom blocks are small and needed by every read of their file.
+   */
+  private boolean admit(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      long currentSize) {
+    BlockCacheAdmissionPolicy policy = this.admissionPolicy;
+    if (policy == null || inMemory || currentSize < minSize()) {
+      return true;
+    }
+    BlockType type = buf.getBlockType();
+    if (type != null && !type.isData()) {
+      return true;
+    }
+    if (policy.admit(cacheKey)) {
+      stats.admitted();
+      return true;
+    }
+    stats.rejected();
+    return false;
+  }
+
   /**
    * Sanity-checking for parity between actual block cache content and metrics.
    * Intended only for use with TRACE level logging and -ea JVM.
@@ -484,6 +514,10 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
       boolean updateCacheMetrics) {
+    BlockCacheAdmissionPolicy policy = this.admissionPolicy;
+    if (policy != null && !repeat && updateCacheMetrics) {
+      policy.record(cacheKey);
+    }
     LruCachedBlock cb = map.get(cacheKey);
     if (cb == null) {
       if (!repeat && updateCacheMetrics) {
@@ -577,6 +611,10 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       // When the eviction of the block happened because of invalidation of HFiles, no need to
       // update the stats counter.
       stats.evicted(block.getCachedTime(), block.getCacheKey().isPrimary());
+      BlockCacheAdmissionPolicy policy = this.admissionPolicy;
+      if (policy != null) {
+        policy.onEviction(block.getCacheKey());
+      }
       if (victimHandler != null) {
         victimHandler.cacheBlock(block.getCacheKey(), block.getBuffer());
       }
@@ -595,6 +633,11 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
     }
   }
 
+  @VisibleForTesting
+  void setAdmissionPolicy(BlockCacheAdmissionPolicy admissionPolicy) {
+    this.admissionPolicy = admissionPolicy;
+  }
+
   @VisibleForTesting
   boolean isEvictionInProgress() {
     return evictionInProgress;
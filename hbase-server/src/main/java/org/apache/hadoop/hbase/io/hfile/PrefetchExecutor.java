@@ -18,36 +18,93 @@
  */
 package org.apache.hadoop.hbase.io.hfile;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Schedules the prefetch of whole HFiles into the block cache when they are opened.
+ * <p>
+ * Requests wait for a randomized delay and are then queued. The prefetch threads always pick the
+ * queued file of the region that served most read requests over the last
+ * {@link #PREFETCH_RERANK_INTERVAL_MILLIS_KEY}, newest file first within a region, so that warm-up
+ * after a region move or a restart targets the data which is hot now. The queue is ranked again
+ * at every interval, with the read requests of each region since the previous ranking. The
+ * aggregate prefetch rate can be capped with
+ * {@link #PREFETCH_MAX_BYTES_PER_SECOND_KEY}, and prefetch backs off for up to
+ * {@link #PREFETCH_YIELD_MAX_MILLIS_KEY} per block while client reads are going to the file
+ * system. Progress is tracked per region, see {@link #getPendingFileCount(String)} and
+ * {@link #getPrefetchedBytes(String)}.
+ */
 public class PrefetchExecutor {
 
   private static final Logger LOG = LoggerFactory.getLogger(PrefetchExecutor.class);
 
-  /** Futures for tracking block prefetch activity */
-  private static final Map<Path,Future<?>> prefetchFutures = new ConcurrentSkipListMap<>();
-  /** Executor pool shared among all HFiles for block prefetch */
+  /** Max bytes per second read by all prefetch threads together, 0 for no limit */
+  public static final String PREFETCH_MAX_BYTES_PER_SECOND_KEY =
+      "hbase.hfile.prefetch.max.bytes.per.second";
+  public static final long DEFAULT_PREFETCH_MAX_BYTES_PER_SECOND = 0;
+
+  /** Max time a prefetch thread waits for foreground reads before reading its next block */
+  public static final String PREFETCH_YIELD_MAX_MILLIS_KEY = "hbase.hfile.prefetch.yield.max.ms";
+  public static final int DEFAULT_PREFETCH_YIELD_MAX_MILLIS = 100;
+
+  /** How often the queued files are ordered again by the recent read requests of their regions */
+  public static final String PREFETCH_RERANK_INTERVAL_MILLIS_KEY =
+      "hbase.hfile.prefetch.rerank.interval.ms";
+  public static final int DEFAULT_PREFETCH_RERANK_INTERVAL_MILLIS = 1000;
+
+  /** Tasks for tracking block prefetch activity */
+  private static final Map<Path,PrefetchTask> prefetchFutures = new ConcurrentSkipListMap<>();
+  /** Tasks whose delay is over, waiting for a prefetch thread */
+  private static final PrefetchQueue readyTasks;
+  /** Executor shared among all HFiles to delay the block prefetch */
   private static final ScheduledExecutorService prefetchExecutorPool;
   /** Delay before beginning prefetch */
   private static final int prefetchDelayMillis;
   /** Variation in prefetch delay times, to mitigate stampedes */
   private static final float prefetchDelayVariation;
+  private static final Throttle throttle;
+  private static final long yieldMaxNanos;
+
+  /** Progress of the prefetch per encoded region name */
+  private static final ConcurrentMap<String, RegionProgress> regionProgress =
+      new ConcurrentHashMap<>();
+  /** Sources of the read request counts of the online regions */
+  private static final List<ToLongFunction<String>> readRequestsSources =
+      new CopyOnWriteArrayList<>();
+  /** Number of block reads from the file system on behalf of clients */
+  private static final AtomicInteger foregroundReads = new AtomicInteger();
+  /** Whether the thread reads on behalf of clients outside of an RPC handler */
+  private static final ThreadLocal<Boolean> foregroundThread =
+      ThreadLocal.withInitial(() -> Boolean.FALSE);
+
   static {
     // Consider doing this on demand with a configuration passed in rather
     // than in a static initializer.
@@ -56,17 +113,26 @@ public class PrefetchExecutor {
     // Set to 0 for no delay
     prefetchDelayMillis = conf.getInt("hbase.hfile.prefetch.delay", 1000);
     prefetchDelayVariation = conf.getFloat("hbase.hfile.prefetch.delay.variation", 0.2f);
+    throttle = new Throttle(conf.getLong(PREFETCH_MAX_BYTES_PER_SECOND_KEY,
+      DEFAULT_PREFETCH_MAX_BYTES_PER_SECOND));
+    readyTasks = new PrefetchQueue(PrefetchExecutor::readRequests, TimeUnit.MILLISECONDS.toNanos(
+      conf.getInt(PREFETCH_RERANK_INTERVAL_MILLIS_KEY, DEFAULT_PREFETCH_RERANK_INTERVAL_MILLIS)));
+    yieldMaxNanos = TimeUnit.MILLISECONDS.toNanos(conf.getInt(PREFETCH_YIELD_MAX_MILLIS_KEY,
+      DEFAULT_PREFETCH_YIELD_MAX_MILLIS));
     int prefetchThreads = conf.getInt("hbase.hfile.thread.prefetch", 4);
-    prefetchExecutorPool = new ScheduledThreadPoolExecutor(prefetchThreads,
+    prefetchExecutorPool = new ScheduledThreadPoolExecutor(1,
       new ThreadFactory() {
         @Override
         public Thread newThread(Runnable r) {
-          String name = "hfile-prefetch-" + System.currentTimeMillis();
+          String name = "hfile-prefetch-scheduler-" + System.currentTimeMillis();
           Thread t = new Thread(r, name);
           t.setDaemon(true);
           return t;
         }
     });
+    for (int i = 0; i < prefetchThreads; i++) {
+      new PrefetchThread("hfile-prefetch-" + System.currentTimeMillis() + "-" + i).start();
+    }
   }
 
   private static final Random RNG = new Random();
@@ -87,6 +153,16 @@ public class PrefetchExecutor {
         ")");
 
   public static void request(Path path, Runnable runnable) {
+    request(path, 0, runnable);
+  }
+
+  /**
+   * Request the prefetch of a file.
+   * @param path the store file, the name of its region directory is used as region name
+   * @param fileTime creation time of the file, newer files of a region are prefetched first
+   * @param runnable reads the blocks of the file, see {@link #prefetched(Path, long)}
+   */
+  public static void request(Path path, long fileTime, Runnable runnable) {
     if (!prefetchPathExclude.matcher(path.toString()).find()) {
       long delay;
       if (prefetchDelayMillis > 0) {
@@ -95,32 +171,42 @@ public class PrefetchExecutor {
       } else {
         delay = 0;
       }
+      PrefetchTask task = new PrefetchTask(path, fileTime, runnable);
+      PrefetchTask previous = prefetchFutures.put(path, task);
+      if (previous != null) {
+        previous.cancel();
+        previous.progress.pendingFiles.decrementAndGet();
+      }
+      task.progress.pendingFiles.incrementAndGet();
       try {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Prefetch requested for " + path + ", delay=" + delay + " ms");
         }
-        prefetchFutures.put(path, prefetchExecutorPool.schedule(runnable, delay,
-          TimeUnit.MILLISECONDS));
+        prefetchExecutorPool.schedule(() -> enqueue(task), delay, TimeUnit.MILLISECONDS);
       } catch (RejectedExecutionException e) {
-        prefetchFutures.remove(path);
+        remove(path, task);
         LOG.warn("Prefetch request rejected for " + path);
       }
     }
   }
 
   public static void complete(Path path) {
-    prefetchFutures.remove(path);
+    PrefetchTask task = prefetchFutures.get(path);
+    if (task != null && task.thread == Thread.currentThread()) {
+      task.done = true;
+      remove(path, task);
+    }
     if (LOG.isDebugEnabled()) {
       LOG.debug("Prefetch completed for " + path);
     }
   }
 
   public static void cancel(Path path) {
-    Future<?> future = prefetchFutures.get(path);
-    if (future != null) {
+    PrefetchTask task = prefetchFutures.get(path);
+    if (task != null) {
       // ok to race with other cancellation attempts
-      future.cancel(true);
-      prefetchFutures.remove(path);
+      task.cancel();
+      remove(path, task);
       if (LOG.isDebugEnabled()) {
         LOG.debug("Prefetch cancelled for " + path);
       }
@@ -128,11 +214,331 @@ public class PrefetchExecutor {
   }
 
   public static boolean isCompleted(Path path) {
-    Future<?> future = prefetchFutures.get(path);
-    if (future != null) {
-      return future.isDone(); 
+    PrefetchTask task = prefetchFutures.get(path);
+    if (task != null) {
+      return task.done;
     }
     return true;
   }
 
+  /**
+   * Register a source of read request counts by encoded region name, used to prefetch the files of
+   * the hottest regions first. The counts of all sources are summed up.
+   */
+  public static void addReadRequestsSource(ToLongFunction<String> source) {
+    readRequestsSources.add(source);
+  }
+
+  public static void removeReadRequestsSource(ToLongFunction<String> source) {
+    readRequestsSources.remove(source);
+  }
+
+  /**
+   * @return the number of files of the region which are waiting for or under prefetch
+   */
+  public static int getPendingFileCount(String encodedRegionName) {
+    RegionProgress progress = regionProgress.get(encodedRegionName);
+    return progress == null ? 0 : progress.pendingFiles.get();
+  }
+
+  /**
+   * @return the number of bytes prefetched for the region since it was opened
+   */
+  public static long getPrefetchedBytes(String encodedRegionName) {
+    RegionProgress progress = regionProgress.get(encodedRegionName);
+    return progress == null ? 0 : progress.prefetchedBytes.get();
+  }
+
+  /**
+   * Forget the progress of a closed region.
+   */
+  public static void clearRegion(String encodedRegionName) {
+    regionProgress.remove(encodedRegionName);
+  }
+
+  /**
+   * Called by the prefetch of a file after each block read. Accounts the block to the region,
+   * then waits as long as the bandwidth limit asks for and while foreground reads are going on.
+   * Returns early with the interrupt flag set if the prefetch is cancelled.
+   */
+  public static void prefetched(Path path, long bytes) {
+    PrefetchTask task = prefetchFutures.get(path);
+    if (task != null) {
+      task.progress.prefetchedBytes.addAndGet(bytes);
+    }
+    try {
+      long waitNanos = throttle.reserve(bytes, System.nanoTime());
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+      long deadline = System.nanoTime() + yieldMaxNanos;
+      while (foregroundReads.get() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wraps a thread factory of a pool which reads blocks on behalf of client requests, like the
+   * read ahead of scanners, so that prefetch yields to its reads as to those of the RPC handlers.
+   */
+  public static ThreadFactory newForegroundThreadFactory(ThreadFactory factory) {
+    return r -> factory.newThread(() -> {
+      foregroundThread.set(Boolean.TRUE);
+      r.run();
+    });
+  }
+
+  /**
+   * Mark the start of a block read from the file system. Only reads done on behalf of a client
+   * request are counted, in an RPC handler or in a pool of
+   * {@link #newForegroundThreadFactory(ThreadFactory)}, not those of the prefetch threads,
+   * compactions or flushes.
+   * @return whether the read was counted as foreground read and needs a {@link #endRead()}
+   */
+  static boolean beginRead() {
+    if (!RpcServer.isInRpcCallContext() && !foregroundThread.get()) {
+      return false;
+    }
+    foregroundReads.incrementAndGet();
+    return true;
+  }
+
+  static void endRead() {
+    foregroundReads.decrementAndGet();
+  }
+
+  private static void remove(Path path, PrefetchTask task) {
+    if (prefetchFutures.remove(path, task)) {
+      task.progress.pendingFiles.decrementAndGet();
+    }
+  }
+
+  private static void enqueue(PrefetchTask task) {
+    if (!task.cancelled) {
+      readyTasks.add(task);
+    }
+  }
+
+  private static long readRequests(String encodedRegionName) {
+    long count = 0;
+    for (ToLongFunction<String> source : readRequestsSources) {
+      count += source.applyAsLong(encodedRegionName);
+    }
+    return count;
+  }
+
+  private static void run(PrefetchTask task) {
+    synchronized (task) {
+      if (task.cancelled) {
+        return;
+      }
+      task.thread = Thread.currentThread();
+    }
+    try {
+      task.runnable.run();
+    } finally {
+      synchronized (task) {
+        task.thread = null;
+        task.done = true;
+        // clear an interrupt of cancel() which came after the prefetch was over
+        Thread.interrupted();
+      }
+    }
+  }
+
+  private static final class RegionProgress {
+    private final AtomicInteger pendingFiles = new AtomicInteger();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+  }
+
+  @VisibleForTesting
+  static final class PrefetchTask {
+    private final Path path;
+    private final String region;
+    private final long fileTime;
+    private final Runnable runnable;
+    private final RegionProgress progress;
+    /** Read requests of the region in the last ranking interval, guarded by the queue */
+    private long heat;
+    private volatile Thread thread;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+
+    @VisibleForTesting
+    PrefetchTask(Path path, long fileTime, Runnable runnable) {
+      this.path = path;
+      // <region>/<family>/<file>
+      Path regionDir = path.getParent() == null ? null : path.getParent().getParent();
+      this.region = regionDir == null ? "" : regionDir.getName();
+      this.fileTime = fileTime;
+      this.runnable = runnable;
+      this.progress = regionProgress.computeIfAbsent(region, r -> new RegionProgress());
+    }
+
+    @VisibleForTesting
+    Path getPath() {
+      return path;
+    }
+
+    private void cancel() {
+      readyTasks.remove(this);
+      synchronized (this) {
+        cancelled = true;
+        done = true;
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * The queue of the tasks whose delay is over. It is a heap on the read requests the region of
+   * each task served in the last rerank interval, not on the counts since the region was opened,
+   * so that a region which was busy once does not stay ahead of the regions which are busy now.
+   * The heap is rebuilt with the read requests since the previous ranking when it is older than
+   * the rerank interval. A task of a region which was not ranked yet has no read requests until
+   * the next ranking.
+   */
+  @VisibleForTesting
+  static final class PrefetchQueue {
+    private final ToLongFunction<String> readRequests;
+    private final long rerankIntervalNanos;
+    /** Guarded by this */
+    private PriorityQueue<PrefetchTask> queue = new PriorityQueue<>(PrefetchQueue::compare);
+    /** Guarded by this */
+    private long rankedNanos = System.nanoTime();
+    /** The regions of the queued tasks when last ranked. Guarded by this */
+    private Map<String, RankedRegion> rankedRegions = new HashMap<>();
+
+    @VisibleForTesting
+    PrefetchQueue(ToLongFunction<String> readRequests, long rerankIntervalNanos) {
+      this.readRequests = readRequests;
+      this.rerankIntervalNanos = rerankIntervalNanos;
+    }
+
+    private static int compare(PrefetchTask a, PrefetchTask b) {
+      int cmp = Long.compare(b.heat, a.heat);
+      if (cmp == 0) {
+        cmp = Long.compare(b.fileTime, a.fileTime);
+      }
+      return cmp;
+    }
+
+    @VisibleForTesting
+    synchronized void add(PrefetchTask task) {
+      task.heat = rankedRegions.computeIfAbsent(task.region,
+        region -> new RankedRegion(readRequests.applyAsLong(region), 0)).heat;
+      queue.add(task);
+      notify();
+    }
+
+    synchronized void remove(PrefetchTask task) {
+      queue.remove(task);
+    }
+
+    /**
+     * Take the queued task with the highest priority, waiting for one if the queue is empty.
+     */
+    @VisibleForTesting
+    synchronized PrefetchTask take() throws InterruptedException {
+      while (queue.isEmpty()) {
+        wait();
+      }
+      if (System.nanoTime() - rankedNanos >= rerankIntervalNanos) {
+        rerank();
+      }
+      return queue.poll();
+    }
+
+    /**
+     * Rebuilds the heap with the read requests of each region since the previous ranking, asking
+     * once per region for its current count. Forgets the regions which have no queued task.
+     */
+    @VisibleForTesting
+    synchronized void rerank() {
+      List<PrefetchTask> tasks = new ArrayList<>(queue);
+      Map<String, RankedRegion> ranked = new HashMap<>();
+      for (PrefetchTask task : tasks) {
+        task.heat = ranked.computeIfAbsent(task.region, region -> {
+          long count = readRequests.applyAsLong(region);
+          RankedRegion last = rankedRegions.get(region);
+          return new RankedRegion(count, last == null ? 0 : Math.max(0, count - last.readRequests));
+        }).heat;
+      }
+      rankedRegions = ranked;
+      queue = new PriorityQueue<>(Math.max(1, tasks.size()), PrefetchQueue::compare);
+      queue.addAll(tasks);
+      rankedNanos = System.nanoTime();
+    }
+  }
+
+  private static final class RankedRegion {
+    /** Read request count of the region when ranked */
+    private final long readRequests;
+    /** Read requests since the ranking before */
+    private final long heat;
+
+    private RankedRegion(long readRequests, long heat) {
+      this.readRequests = readRequests;
+      this.heat = heat;
+    }
+  }
+
+  /**
+   * Paces the prefetch reads to a number of bytes per second.
+   */
+  @VisibleForTesting
+  static final class Throttle {
+    private final long maxBytesPerSecond;
+    /** Time at which the next block may be read. Guarded by this */
+    private long nextReadNanos = System.nanoTime();
+
+    @VisibleForTesting
+    Throttle(long maxBytesPerSecond) {
+      this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Accounts a block read at the given time.
+     * @return how long to wait before reading the next block, in nanoseconds
+     */
+    @VisibleForTesting
+    synchronized long reserve(long bytes, long nowNanos) {
+      if (maxBytesPerSecond <= 0) {
+        return 0;
+      }
+      // no credit for the time nothing was read
+      if (nextReadNanos - nowNanos < 0) {
+        nextReadNanos = nowNanos;
+      }
+      nextReadNanos += bytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond;
+      return nextReadNanos - nowNanos;
+    }
+  }
+
+  private static final class PrefetchThread extends Thread {
+
+    private PrefetchThread(String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          PrefetchExecutor.run(readyTasks.take());
+        } catch (InterruptedException e) {
+          // a prefetch which was cancelled right before taking the next task
+          continue;
+        } catch (Throwable t) {
+          LOG.warn("Prefetch failed", t);
+        }
+      }
+    }
+  }
 }
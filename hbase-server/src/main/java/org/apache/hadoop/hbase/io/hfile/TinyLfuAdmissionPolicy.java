@@ -0,0 +1,166 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * TinyLFU admission: a block is cached only if it has been requested more often than the blocks
+ * the cache evicts to make room for it.
+ * <p>
+ * Request frequencies are estimated with a count-min sketch of four 4-bit counters per block,
+ * sixteen counters packed in each long. Once the number of recorded requests reaches
+ * {@link #SAMPLE_FACTOR_KEY} times the cache's block count all counters are halved, so the
+ * estimates follow the recent workload rather than all history. The frequency of the eviction
+ * victim is kept as a moving average over the blocks the cache evicts, since the caches evict in
+ * batches rather than one victim per insert.
+ * <p>
+ * Counter updates are not atomic. A racing update can get lost, which only makes an estimate a
+ * little lower; taking a lock on every block lookup would cost much more.
+ */
+@InterfaceAudience.Private
+public class TinyLfuAdmissionPolicy implements BlockCacheAdmissionPolicy {
+
+  /** Number of requests per cached block after which the counters are halved */
+  public static final String SAMPLE_FACTOR_KEY =
+      "hbase.blockcache.admission.tinylfu.sample.factor";
+  public static final int DEFAULT_SAMPLE_FACTOR = 10;
+
+  /** Largest table we allocate, 16M counters in 8MB */
+  private static final int MAX_TABLE_SIZE = 1 << 20;
+  private static final int MIN_TABLE_SIZE = 64;
+  private static final long MAX_COUNT = 15;
+  private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+      0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  /** Weight of the latest victim in the average victim frequency */
+  private static final double VICTIM_WEIGHT = 0.125;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger();
+  private volatile double victimFrequency;
+
+  public TinyLfuAdmissionPolicy(Configuration conf, long expectedBlocks) {
+    this(expectedBlocks, conf.getInt(SAMPLE_FACTOR_KEY, DEFAULT_SAMPLE_FACTOR));
+  }
+
+  @VisibleForTesting
+  TinyLfuAdmissionPolicy(long expectedBlocks, int sampleFactor) {
+    if (sampleFactor <= 0) {
+      throw new IllegalArgumentException(SAMPLE_FACTOR_KEY + " must be positive");
+    }
+    int tableSize = MIN_TABLE_SIZE;
+    while (tableSize < expectedBlocks && tableSize < MAX_TABLE_SIZE) {
+      tableSize <<= 1;
+    }
+    this.table = new long[tableSize];
+    this.tableMask = tableSize - 1;
+    this.sampleSize = (int) Math.min((long) tableSize * sampleFactor, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void record(BlockCacheKey key) {
+    int hash = spread(key.hashCode());
+    // Each of the four rows uses a different counter of its long
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && additions.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  @Override
+  public void onEviction(BlockCacheKey key) {
+    double current = victimFrequency;
+    victimFrequency = current + (frequency(key) - current) * VICTIM_WEIGHT;
+  }
+
+  @Override
+  public boolean admit(BlockCacheKey key) {
+    // A tie with the victim is a rejection, the cache would gain nothing from the exchange
+    return frequency(key) > Math.round(victimFrequency);
+  }
+
+  /**
+   * @return the estimated number of recent requests for the block, at most 15
+   */
+  @VisibleForTesting
+  int frequency(BlockCacheKey key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    long frequency = MAX_COUNT;
+    for (int i = 0; i < 4; i++) {
+      int shift = (start + i) << 2;
+      frequency = Math.min(frequency, (table[indexOf(hash, i)] >>> shift) & MAX_COUNT);
+    }
+    return (int) frequency;
+  }
+
+  @VisibleForTesting
+  double getVictimFrequency() {
+    return victimFrequency;
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int shift = counter << 2;
+    long mask = MAX_COUNT << shift;
+    long value = table[index];
+    if ((value & mask) == mask) {
+      return false;
+    }
+    table[index] = value + (1L << shift);
+    return true;
+  }
+
+  /**
+   * Halves every counter so that blocks which are no longer requested lose their standing.
+   */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      // Shift each counter down by one without letting a bit spill into its neighbour
+      table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+    }
+    victimFrequency /= 2;
+    additions.set(sampleSize >>> 1);
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  /**
+   * Spreads the bits of a key hash, BlockCacheKey hashes of one file differ only in the offset.
+   */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
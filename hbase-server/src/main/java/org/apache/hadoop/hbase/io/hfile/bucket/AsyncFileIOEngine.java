@@ -0,0 +1,502 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
+import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.hbase.thirdparty.com.google.common.base.Preconditions;
+
+/**
+ * A {@link FileIOEngine} that queues IO instead of doing one positional access per block in the
+ * calling thread.
+ * <p>
+ * Asynchronous reads are served by a pool of IO threads. Each thread takes whatever requests
+ * are queued, sorts them by offset and reads requests that are adjacent, or separated by at most
+ * a small gap, with a single positional read into a direct buffer it owns. This lets a reader
+ * keep many reads in flight and turns the scattered reads of a scan into fewer, larger ones.
+ * Synchronous reads keep going straight to the file.
+ * <p>
+ * Writes are staged until the next {@link #sync()}, which is called by the BucketCache writer
+ * threads once per drained batch, and are then written in offset order with contiguous writes
+ * merged into one. The writes staged together are written out as one batch by whichever thread
+ * flushes first; a sync waits for all the batches its thread staged writes in, and fails if any
+ * of them failed. A failed batch is dropped rather than retried, since the BucketCache frees
+ * and reuses the space of the blocks whose sync failed. A read of a range with staged or
+ * in-flight writes waits for them first, so a read always sees earlier writes.
+ */
+@InterfaceAudience.Private
+public class AsyncFileIOEngine extends FileIOEngine {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncFileIOEngine.class);
+
+  /** Number of IO threads. With the default of 0 file engines are plain {@link FileIOEngine}s */
+  public static final String IO_THREADS_KEY = "hbase.bucketcache.ioengine.async.threads";
+  public static final int DEFAULT_IO_THREADS = 0;
+  /** Largest single read or write that requests are merged into */
+  public static final String MAX_COALESCE_SIZE_KEY =
+      "hbase.bucketcache.ioengine.async.coalesce.max.size";
+  public static final int DEFAULT_MAX_COALESCE_SIZE = 1024 * 1024;
+  /** Largest hole between two reads that is read over to merge them */
+  public static final String MAX_COALESCE_GAP_KEY =
+      "hbase.bucketcache.ioengine.async.coalesce.max.gap";
+  public static final int DEFAULT_MAX_COALESCE_GAP = 8 * 1024;
+
+  private static final int MAX_BATCH = 256;
+  private static final Comparator<ReadRequest> READ_ORDER =
+      Comparator.comparingLong(r -> r.offset);
+  private static final Comparator<PendingWrite> WRITE_ORDER =
+      Comparator.comparingLong(w -> w.offset);
+
+  private final int maxCoalesceSize;
+  private final int maxCoalesceGap;
+
+  private final BlockingQueue<ReadRequest> readQueue = new LinkedBlockingQueue<>();
+  private final Thread[] ioThreads;
+  private volatile boolean running = true;
+
+  private final Object pendingWritesLock = new Object();
+  // Guarded by pendingWritesLock
+  private WriteBatch stagedBatch = new WriteBatch();
+  private volatile boolean hasPendingWrites;
+
+  /** Batches are only written out, and completed, while holding this lock */
+  private final ReentrantLock flushLock = new ReentrantLock();
+  // Guarded by flushLock
+  private ByteBuffer writeBuffer;
+  /** The batch being written out, if any */
+  private volatile WriteBatch inFlightBatch;
+
+  /** The batches the calling writer thread staged writes in since its last sync */
+  private final ThreadLocal<List<WriteBatch>> unsyncedBatches =
+      ThreadLocal.withInitial(ArrayList::new);
+
+  private final LongAdder physicalReads = new LongAdder();
+  private final LongAdder physicalWrites = new LongAdder();
+
+  public AsyncFileIOEngine(long capacity, boolean maintainPersistence, int ioThreads,
+      int maxCoalesceSize, int maxCoalesceGap, String... filePaths) throws IOException {
+    super(capacity, maintainPersistence, filePaths);
+    Preconditions.checkArgument(ioThreads > 0, "Need at least one IO thread");
+    Preconditions.checkArgument(maxCoalesceSize > 0, "Coalesce size must be positive");
+    this.maxCoalesceSize = maxCoalesceSize;
+    this.maxCoalesceGap = Math.max(0, maxCoalesceGap);
+    this.ioThreads = new Thread[ioThreads];
+    for (int i = 0; i < ioThreads; i++) {
+      this.ioThreads[i] = new Thread(this::runReads, "BucketCacheIOEngine-" + i);
+      this.ioThreads[i].setDaemon(true);
+      this.ioThreads[i].start();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + ", ioThreads=" + ioThreads.length + ", maxCoalesceSize="
+        + maxCoalesceSize + ", maxCoalesceGap=" + maxCoalesceGap;
+  }
+
+  private static final class ReadRequest {
+    final long offset;
+    final int length;
+    final CacheableDeserializer<Cacheable> deserializer;
+    final CompletableFuture<Cacheable> future = new CompletableFuture<>();
+
+    ReadRequest(long offset, int length, CacheableDeserializer<Cacheable> deserializer) {
+      this.offset = offset;
+      this.length = length;
+      this.deserializer = deserializer;
+    }
+
+    long end() {
+      return offset + length;
+    }
+  }
+
+  private static final class PendingWrite {
+    final long offset;
+    final byte[] data;
+
+    PendingWrite(long offset, byte[] data) {
+      this.offset = offset;
+      this.data = data;
+    }
+
+    boolean overlaps(long offset, int length) {
+      return this.offset < offset + length && offset < this.offset + data.length;
+    }
+  }
+
+  /**
+   * Writes staged together. Once taken to be written out the list does not change anymore.
+   */
+  private static final class WriteBatch {
+    final List<PendingWrite> writes = new ArrayList<>();
+    long bytes;
+    /** Set before done if the batch could not be written out */
+    IOException failure;
+    volatile boolean done;
+
+    boolean overlaps(long offset, int length) {
+      for (PendingWrite write : writes) {
+        if (write.overlaps(offset, length)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public Cacheable read(long offset, int length, CacheableDeserializer<Cacheable> deserializer)
+      throws IOException {
+    flushPendingWritesOverlapping(offset, length);
+    return super.read(offset, length, deserializer);
+  }
+
+  @Override
+  public CompletableFuture<Cacheable> readAsync(long offset, int length,
+      CacheableDeserializer<Cacheable> deserializer) {
+    Preconditions.checkArgument(length >= 0, "Length of read can not be less than 0.");
+    ReadRequest request = new ReadRequest(offset, length, deserializer);
+    flushPendingWritesOverlapping(offset, length);
+    readQueue.add(request);
+    if (!running && readQueue.remove(request)) {
+      request.future.completeExceptionally(new IOException("IOEngine is shut down"));
+    }
+    return request.future;
+  }
+
+  private void runReads() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(maxCoalesceSize);
+    List<ReadRequest> batch = new ArrayList<>(MAX_BATCH);
+    while (running) {
+      try {
+        batch.add(readQueue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      readQueue.drainTo(batch, MAX_BATCH - 1);
+      try {
+        readBatch(batch, buffer);
+      } catch (Throwable t) {
+        LOG.error("Unexpected failure serving bucket cache reads", t);
+        for (ReadRequest request : batch) {
+          request.future.completeExceptionally(t);
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void readBatch(List<ReadRequest> batch, ByteBuffer buffer) {
+    batch.sort(READ_ORDER);
+    int i = 0;
+    while (i < batch.size()) {
+      ReadRequest first = batch.get(i);
+      long start = first.offset;
+      long end = first.end();
+      int j = i + 1;
+      while (j < batch.size()) {
+        ReadRequest next = batch.get(j);
+        long newEnd = Math.max(end, next.end());
+        if (next.offset > end + maxCoalesceGap || newEnd - start > maxCoalesceSize) {
+          break;
+        }
+        end = newEnd;
+        j++;
+      }
+      if (j - i == 1) {
+        readOne(first);
+      } else {
+        readCoalesced(batch.subList(i, j), start, (int) (end - start), buffer);
+      }
+      i = j;
+    }
+  }
+
+  private void readOne(ReadRequest request) {
+    physicalReads.increment();
+    try {
+      request.future.complete(
+        super.read(request.offset, request.length, request.deserializer));
+    } catch (IOException | RuntimeException e) {
+      request.future.completeExceptionally(e);
+    }
+  }
+
+  private void readCoalesced(List<ReadRequest> requests, long start, int length,
+      ByteBuffer buffer) {
+    physicalReads.increment();
+    buffer.clear();
+    buffer.limit(length);
+    try {
+      readFully(buffer, start);
+      if (buffer.hasRemaining()) {
+        throw new IOException("Only " + buffer.position() + " bytes read, " + length
+            + " expected");
+      }
+    } catch (IOException | RuntimeException e) {
+      for (ReadRequest request : requests) {
+        request.future.completeExceptionally(e);
+      }
+      return;
+    }
+    for (ReadRequest request : requests) {
+      try {
+        // Copy out, the buffer is reused by the next batch
+        ByteBuffer src = buffer.duplicate();
+        int from = (int) (request.offset - start);
+        src.limit(from + request.length);
+        src.position(from);
+        ByteBuffer dst = ByteBuffer.allocate(request.length);
+        dst.put(src);
+        dst.flip();
+        request.future.complete(
+          request.deserializer.deserialize(new SingleByteBuff(dst), true, MemoryType.EXCLUSIVE));
+      } catch (IOException | RuntimeException e) {
+        request.future.completeExceptionally(e);
+      }
+    }
+  }
+
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    int length = srcBuffer.remaining();
+    if (length == 0) {
+      return;
+    }
+    if (length > maxCoalesceSize) {
+      // Too big to merge with anything, keep it in order with what is staged and write it out
+      flushLock.lock();
+      try {
+        flushStagedBatch();
+        writeFully(srcBuffer, offset);
+        physicalWrites.increment();
+      } finally {
+        flushLock.unlock();
+      }
+      return;
+    }
+    byte[] data = new byte[length];
+    srcBuffer.get(data);
+    WriteBatch batch;
+    boolean flush;
+    synchronized (pendingWritesLock) {
+      batch = stagedBatch;
+      batch.writes.add(new PendingWrite(offset, data));
+      batch.bytes += length;
+      hasPendingWrites = true;
+      // Bound the heap held by staged writes
+      flush = batch.bytes >= 4L * maxCoalesceSize;
+    }
+    List<WriteBatch> unsynced = unsyncedBatches.get();
+    if (unsynced.isEmpty() || unsynced.get(unsynced.size() - 1) != batch) {
+      unsynced.add(batch);
+    }
+    if (flush) {
+      flushPendingWrites();
+    }
+  }
+
+  /**
+   * Writes out the staged writes, and waits for the writes being written out, if any of them
+   * overlaps the given range. The BucketCache never reads what it has not synced yet, so this
+   * normally finds nothing and leaves the batching of the writer threads alone.
+   */
+  private void flushPendingWritesOverlapping(long offset, int length) {
+    if (!hasPendingWrites && inFlightBatch == null) {
+      return;
+    }
+    boolean overlaps;
+    synchronized (pendingWritesLock) {
+      WriteBatch inFlight = inFlightBatch;
+      overlaps = stagedBatch.overlaps(offset, length)
+          || (inFlight != null && inFlight.overlaps(offset, length));
+    }
+    if (overlaps) {
+      flushPendingWrites();
+    }
+  }
+
+  /**
+   * Writes out all staged writes, after the batch being written out by another thread if any.
+   * Failures are not thrown but left for the syncs of the writers of the batch.
+   */
+  @VisibleForTesting
+  void flushPendingWrites() {
+    flushLock.lock();
+    try {
+      flushStagedBatch();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Writes out the staged batch, merging contiguous writes. If a write fails the rest of the
+   * batch is dropped and the batch is marked failed. Must be called holding the flushLock.
+   */
+  private void flushStagedBatch() {
+    WriteBatch batch;
+    synchronized (pendingWritesLock) {
+      if (!hasPendingWrites) {
+        return;
+      }
+      batch = stagedBatch;
+      stagedBatch = new WriteBatch();
+      inFlightBatch = batch;
+      hasPendingWrites = false;
+    }
+    try {
+      writeBatch(batch);
+    } catch (IOException e) {
+      batch.failure = e;
+    } catch (RuntimeException e) {
+      batch.failure = new IOException(e);
+    } finally {
+      batch.done = true;
+      inFlightBatch = null;
+    }
+    if (batch.failure != null) {
+      LOG.warn("Dropped " + batch.writes.size() + " staged writes", batch.failure);
+    }
+  }
+
+  private void writeBatch(WriteBatch batch) throws IOException {
+    // Sort a copy, overlapping reads may be looking at the batch. A stable sort, so of two writes
+    // to the same offset the later one still wins.
+    List<PendingWrite> writes = new ArrayList<>(batch.writes);
+    writes.sort(WRITE_ORDER);
+    if (writeBuffer == null) {
+      writeBuffer = ByteBuffer.allocateDirect(maxCoalesceSize);
+    }
+    int i = 0;
+    while (i < writes.size()) {
+      PendingWrite first = writes.get(i);
+      long start = first.offset;
+      long end = start + first.data.length;
+      writeBuffer.clear();
+      writeBuffer.put(first.data);
+      int j = i + 1;
+      while (j < writes.size()) {
+        PendingWrite next = writes.get(j);
+        if (next.offset != end || end + next.data.length - start > maxCoalesceSize) {
+          break;
+        }
+        writeBuffer.put(next.data);
+        end += next.data.length;
+        j++;
+      }
+      writeBuffer.flip();
+      writeFully(writeBuffer, start);
+      physicalWrites.increment();
+      i = j;
+    }
+  }
+
+  /**
+   * Waits for all the batches the calling thread staged writes in to be written out, writing out
+   * the staged one if needed, and then syncs the files.
+   * @throws IOException if any of these batches could not be written out
+   */
+  @Override
+  public void sync() throws IOException {
+    List<WriteBatch> unsynced = unsyncedBatches.get();
+    IOException failure = null;
+    if (!unsynced.isEmpty()) {
+      flushLock.lock();
+      try {
+        for (WriteBatch batch : unsynced) {
+          if (!batch.done) {
+            // Batches are only taken and completed under the flushLock, so this is the staged one
+            flushStagedBatch();
+          }
+          if (failure == null) {
+            failure = batch.failure;
+          }
+        }
+      } finally {
+        flushLock.unlock();
+        unsynced.clear();
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Failed writing out staged writes", failure);
+    }
+    super.sync();
+  }
+
+  @Override
+  public void shutdown() {
+    // Also called by the super constructor if it fails, before our fields are set
+    if (ioThreads != null) {
+      running = false;
+      for (Thread thread : ioThreads) {
+        thread.interrupt();
+      }
+      for (Thread thread : ioThreads) {
+        try {
+          thread.join(1000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      ReadRequest request;
+      while ((request = readQueue.poll()) != null) {
+        request.future.completeExceptionally(new IOException("IOEngine is shut down"));
+      }
+      // Anything still staged belongs to blocks that never made it into the cache
+      synchronized (pendingWritesLock) {
+        stagedBatch.failure = new IOException("IOEngine is shut down");
+        stagedBatch.done = true;
+        stagedBatch = new WriteBatch();
+        hasPendingWrites = false;
+      }
+    }
+    super.shutdown();
+  }
+
+  @VisibleForTesting
+  long getPhysicalReads() {
+    return physicalReads.sum();
+  }
+
+  @VisibleForTesting
+  long getPhysicalWrites() {
+    return physicalWrites.sum();
+  }
+}
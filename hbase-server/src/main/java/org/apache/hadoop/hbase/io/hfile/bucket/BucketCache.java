@@ -23,10 +23,8 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -43,6 +41,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -56,6 +55,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheAdmissionPolicy;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheUtil;
 import org.apache.hadoop.hbase.io.hfile.BlockPriority;
@@ -111,6 +111,42 @@ public class BucketCache implements BlockCache, HeapSize {
   static final String ACCEPT_FACTOR_CONFIG_NAME = "hbase.bucketcache.acceptfactor";
   static final String MIN_FACTOR_CONFIG_NAME = "hbase.bucketcache.minfactor";
 
+  /**
+   * Whether to keep the backingMap in direct memory, see {@link OffHeapBucketEntryMap}. This
+   * takes the per block index overhead off the java heap for very large caches.
+   */
+  static final String BACKING_MAP_OFFHEAP_CONFIG_NAME = "hbase.bucketcache.backingmap.offheap";
+  static final boolean DEFAULT_BACKING_MAP_OFFHEAP = false;
+
+  /**
+   * Persistence configs, only used with a persistent IOEngine and a persistence path. When
+   * journaling is enabled every change of the backingMap is logged so that the cache can be
+   * recovered after a crash, see {@link BucketCacheJournal}; otherwise the map is only
+   * persisted on a clean shutdown.
+   */
+  static final String PERSISTENCE_JOURNAL_CONFIG_NAME = "hbase.bucketcache.persistence.journal";
+  static final String PERSISTENCE_JOURNAL_SYNC_CONFIG_NAME =
+      "hbase.bucketcache.persistence.journal.sync";
+  static final String PERSISTENCE_JOURNAL_FLUSH_INTERVAL_CONFIG_NAME =
+      "hbase.bucketcache.persistence.journal.flush.interval";
+  static final String PERSISTENCE_CHECKPOINT_INTERVAL_CONFIG_NAME =
+      "hbase.bucketcache.persistence.checkpoint.interval";
+  static final String PERSISTENCE_CHECKPOINT_MIN_JOURNAL_SIZE_CONFIG_NAME =
+      "hbase.bucketcache.persistence.checkpoint.min.journal.size";
+  static final String PERSISTENCE_VALIDATE_FILES_CONFIG_NAME =
+      "hbase.bucketcache.persistence.validate.files";
+  /** Time after the start of the region server before the recovered blocks are validated */
+  public static final String PERSISTENCE_VALIDATE_FILES_DELAY_CONFIG_NAME =
+      "hbase.bucketcache.persistence.validate.files.delay";
+
+  static final boolean DEFAULT_PERSISTENCE_JOURNAL = true;
+  static final boolean DEFAULT_PERSISTENCE_JOURNAL_SYNC = false;
+  static final long DEFAULT_PERSISTENCE_JOURNAL_FLUSH_INTERVAL = 1000;
+  static final long DEFAULT_PERSISTENCE_CHECKPOINT_INTERVAL = 60 * 1000;
+  static final long DEFAULT_PERSISTENCE_CHECKPOINT_MIN_JOURNAL_SIZE = 16 * 1024 * 1024;
+  static final boolean DEFAULT_PERSISTENCE_VALIDATE_FILES = true;
+  public static final int DEFAULT_PERSISTENCE_VALIDATE_FILES_DELAY = 10 * 60 * 1000;
+
   /** Priority buckets */
   @VisibleForTesting
   static final float DEFAULT_SINGLE_FACTOR = 0.25f;
@@ -247,6 +283,21 @@ public class BucketCache implements BlockCache, HeapSize {
   /** In-memory bucket size */
   private float memoryFactor;
 
+  /** Whether the backingMap is an {@link OffHeapBucketEntryMap} */
+  private final boolean offHeapBackingMap;
+
+  /** Logs changes of the backingMap when persistence journaling is enabled, else null */
+  private volatile BucketCacheJournal journal;
+
+  /**
+   * HFiles with recovered blocks, only set until the recovered blocks are validated, see
+   * {@link #validateRecoveredBlocks(Set)}
+   */
+  private volatile Set<String> recoveredHFiles;
+
+  /** Decides which blocks are cached once the cache is full, null to cache every block */
+  private final BlockCacheAdmissionPolicy admissionPolicy;
+
   public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
       int writerThreadNum, int writerQLen, String persistencePath) throws FileNotFoundException,
       IOException {
@@ -258,7 +309,7 @@ public class BucketCache implements BlockCache, HeapSize {
                      int writerThreadNum, int writerQLen, String persistencePath, int ioErrorsTolerationDuration,
                      Configuration conf)
       throws FileNotFoundException, IOException {
-    this.ioEngine = getIOEngineFromName(ioEngineName, capacity, persistencePath);
+    this.ioEngine = getIOEngineFromName(ioEngineName, capacity, persistencePath, conf);
     this.writerThreads = new WriterThread[writerThreadNum];
     long blockNumCapacity = capacity / blockSize;
     if (blockNumCapacity >= Integer.MAX_VALUE) {
@@ -272,17 +323,20 @@ public class BucketCache implements BlockCache, HeapSize {
     this.singleFactor = conf.getFloat(SINGLE_FACTOR_CONFIG_NAME, DEFAULT_SINGLE_FACTOR);
     this.multiFactor = conf.getFloat(MULTI_FACTOR_CONFIG_NAME, DEFAULT_MULTI_FACTOR);
     this.memoryFactor = conf.getFloat(MEMORY_FACTOR_CONFIG_NAME, DEFAULT_MEMORY_FACTOR);
+    this.offHeapBackingMap = conf.getBoolean(BACKING_MAP_OFFHEAP_CONFIG_NAME,
+        DEFAULT_BACKING_MAP_OFFHEAP);
 
     sanityCheckConfigs();
 
     LOG.info("Instantiating BucketCache with acceptableFactor: " + acceptableFactor + ", minFactor: " + minFactor +
         ", extraFreeFactor: " + extraFreeFactor + ", singleFactor: " + singleFactor + ", multiFactor: " + multiFactor +
-        ", memoryFactor: " + memoryFactor);
+        ", memoryFactor: " + memoryFactor + ", offHeapBackingMap: " + offHeapBackingMap);
 
     this.cacheCapacity = capacity;
     this.persistencePath = persistencePath;
     this.blockSize = blockSize;
     this.ioErrorsTolerationDuration = ioErrorsTolerationDuration;
+    this.admissionPolicy = BlockCacheAdmissionPolicy.create(conf, blockNumCapacity);
 
     bucketAllocator = new BucketAllocator(capacity, bucketSizes);
     for (int i = 0; i < writerThreads.length; ++i) {
@@ -292,17 +346,42 @@ public class BucketCache implements BlockCache, HeapSize {
     assert writerQueues.size() == writerThreads.length;
     this.ramCache = new ConcurrentHashMap<>();
 
-    this.backingMap = new ConcurrentHashMap<>((int) blockNumCapacity);
+    this.backingMap = offHeapBackingMap ? new OffHeapBucketEntryMap(blockNumCapacity)
+        : new ConcurrentHashMap<>((int) blockNumCapacity);
 
+    boolean recovered = false;
     if (ioEngine.isPersistent() && persistencePath != null) {
+      BucketCacheJournal persister = new BucketCacheJournal(persistencePath,
+          conf.getBoolean(PERSISTENCE_JOURNAL_SYNC_CONFIG_NAME, DEFAULT_PERSISTENCE_JOURNAL_SYNC),
+          offset -> bucketAllocator.freeBlock(offset));
       try {
-        retrieveFromFile(bucketSizes);
+        if (BucketCacheJournal.isLegacyFormat(new File(persistencePath))) {
+          retrieveFromFile(bucketSizes);
+        } else {
+          retrieveFromJournal(persister, bucketSizes);
+        }
+        recovered = !backingMap.isEmpty();
       } catch (IOException ioex) {
         LOG.error("Can't restore from file because of", ioex);
+        resetAfterFailedRecovery(bucketSizes);
       } catch (ClassNotFoundException cnfe) {
         LOG.error("Can't restore from file in rebuild because can't deserialise",cnfe);
         throw new RuntimeException(cnfe);
       }
+      if (conf.getBoolean(PERSISTENCE_JOURNAL_CONFIG_NAME, DEFAULT_PERSISTENCE_JOURNAL)) {
+        try {
+          persister.open(backingMap, deserialiserMap, cacheCapacity,
+            ioEngine.getClass().getName());
+          this.journal = persister;
+        } catch (IOException ioex) {
+          LOG.error("Can't start bucket cache journal, cache will only be persisted on shutdown",
+            ioex);
+          persister.discard();
+        }
+      } else {
+        // Changes are not tracked from here on, so what was just read must not be read again
+        persister.discard();
+      }
     }
     final String threadName = Thread.currentThread().getName();
     this.cacheEnabled = true;
@@ -318,6 +397,26 @@ public class BucketCache implements BlockCache, HeapSize {
     // every five minutes.
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
         statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    if (journal != null) {
+      long flushInterval = conf.getLong(PERSISTENCE_JOURNAL_FLUSH_INTERVAL_CONFIG_NAME,
+          DEFAULT_PERSISTENCE_JOURNAL_FLUSH_INTERVAL);
+      long checkpointInterval = conf.getLong(PERSISTENCE_CHECKPOINT_INTERVAL_CONFIG_NAME,
+          DEFAULT_PERSISTENCE_CHECKPOINT_INTERVAL);
+      long minJournalSize = conf.getLong(PERSISTENCE_CHECKPOINT_MIN_JOURNAL_SIZE_CONFIG_NAME,
+          DEFAULT_PERSISTENCE_CHECKPOINT_MIN_JOURNAL_SIZE);
+      this.scheduleThreadPool.scheduleWithFixedDelay(this::flushJournal,
+          flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+      this.scheduleThreadPool.scheduleWithFixedDelay(() -> checkpoint(minJournalSize),
+          checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
+    if (recovered && conf.getBoolean(PERSISTENCE_VALIDATE_FILES_CONFIG_NAME,
+        DEFAULT_PERSISTENCE_VALIDATE_FILES)) {
+      Set<String> recoveredHFiles = new HashSet<>();
+      for (BlockCacheKey key : backingMap.keySet()) {
+        recoveredHFiles.add(key.getHfileName());
+      }
+      this.recoveredHFiles = recoveredHFiles;
+    }
     LOG.info("Started bucket cache; ioengine=" + ioEngineName +
         ", capacity=" + StringUtils.byteDesc(capacity) +
       ", blockSize=" + StringUtils.byteDesc(blockSize) + ", writerThreadNum=" +
@@ -370,14 +469,24 @@ public class BucketCache implements BlockCache, HeapSize {
    * @return the IOEngine
    * @throws IOException
    */
-  private IOEngine getIOEngineFromName(String ioEngineName, long capacity, String persistencePath)
-      throws IOException {
+  private IOEngine getIOEngineFromName(String ioEngineName, long capacity, String persistencePath,
+      Configuration conf) throws IOException {
     if (ioEngineName.startsWith("file:") || ioEngineName.startsWith("files:")) {
       // In order to make the usage simple, we only need the prefix 'files:' in
       // document whether one or multiple file(s), but also support 'file:' for
       // the compatibility
       String[] filePaths = ioEngineName.substring(ioEngineName.indexOf(":") + 1)
           .split(FileIOEngine.FILE_DELIMITER);
+      int ioThreads = conf.getInt(AsyncFileIOEngine.IO_THREADS_KEY,
+          AsyncFileIOEngine.DEFAULT_IO_THREADS);
+      if (ioThreads > 0) {
+        return new AsyncFileIOEngine(capacity, persistencePath != null, ioThreads,
+            conf.getInt(AsyncFileIOEngine.MAX_COALESCE_SIZE_KEY,
+              AsyncFileIOEngine.DEFAULT_MAX_COALESCE_SIZE),
+            conf.getInt(AsyncFileIOEngine.MAX_COALESCE_GAP_KEY,
+              AsyncFileIOEngine.DEFAULT_MAX_COALESCE_GAP),
+            filePaths);
+      }
       return new FileIOEngine(capacity, persistencePath != null, filePaths);
     } else if (ioEngineName.startsWith("offheap")) {
       return new ByteBufferIOEngine(capacity);
@@ -441,6 +550,10 @@ public class BucketCache implements BlockCache, HeapSize {
       return;
     }
 
+    if (!admit(cacheKey, cachedItem, inMemory)) {
+      return;
+    }
+
     /*
      * Stuff the entry into the RAM cache so it can get drained to the persistent store
      */
@@ -471,6 +584,28 @@ public class BucketCache implements BlockCache, HeapSize {
     }
   }
 
+  /**
+   * Asks the admission policy whether a block is worth the space of the blocks it will displace.
+   * Blocks are always admitted while the cache is below its minimum size, and only data blocks
+   * are filtered.
+   */
+  private boolean admit(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory) {
+    if (admissionPolicy == null || inMemory
+        || bucketAllocator.getUsedSize() < getPartitionSize(1.0f)) {
+      return true;
+    }
+    BlockType type = cachedItem.getBlockType();
+    if (type != null && !type.isData()) {
+      return true;
+    }
+    if (admissionPolicy.admit(cacheKey)) {
+      cacheStats.admitted();
+      return true;
+    }
+    cacheStats.rejected();
+    return false;
+  }
+
   /**
    * Get the buffer of the block with the specified key.
    * @param key block's cache key
@@ -485,6 +620,9 @@ public class BucketCache implements BlockCache, HeapSize {
     if (!cacheEnabled) {
       return null;
     }
+    if (admissionPolicy != null && !repeat && updateCacheMetrics) {
+      admissionPolicy.record(key);
+    }
     RAMQueueEntry re = ramCache.get(key);
     if (re != null) {
       if (updateCacheMetrics) {
@@ -517,7 +655,7 @@ public class BucketCache implements BlockCache, HeapSize {
             cacheStats.ioHit(timeTaken);
           }
           if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
-            bucketEntry.refCount.incrementAndGet();
+            bucketEntry.incrementRefCount();
           }
           bucketEntry.access(accessCount.incrementAndGet());
           if (this.ioErrorStartTime > 0) {
@@ -538,9 +676,99 @@ public class BucketCache implements BlockCache, HeapSize {
     return null;
   }
 
+  /**
+   * Asynchronous version of {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)}. The
+   * read of a block from the IOEngine is issued with {@link IOEngine#readAsync}. The offset lock
+   * can not be held across threads, so instead the entry is pinned by its reference count while
+   * the read is in flight, which keeps it from being evicted and its space from being reused.
+   */
+  @Override
+  public CompletableFuture<Cacheable> getBlockAsync(BlockCacheKey key, boolean caching,
+      boolean repeat, boolean updateCacheMetrics) {
+    if (!cacheEnabled) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (admissionPolicy != null && !repeat && updateCacheMetrics) {
+      admissionPolicy.record(key);
+    }
+    RAMQueueEntry re = ramCache.get(key);
+    if (re != null) {
+      if (updateCacheMetrics) {
+        cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
+      }
+      re.access(accessCount.incrementAndGet());
+      return CompletableFuture.completedFuture(re.getData());
+    }
+    BucketEntry bucketEntry = backingMap.get(key);
+    if (bucketEntry != null) {
+      long start = System.nanoTime();
+      CompletableFuture<Cacheable> read = null;
+      ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+      try {
+        lock.readLock().lock();
+        if (bucketEntry.equals(backingMap.get(key))) {
+          bucketEntry.incrementRefCount();
+          read = ioEngine.readAsync(bucketEntry.offset(), bucketEntry.getLength(),
+              bucketEntry.deserializerReference(this.deserialiserMap));
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      if (read != null) {
+        return read.handle((cachedBlock, error) -> {
+          if (error != null || cachedBlock.getMemoryType() != MemoryType.SHARED) {
+            unpin(key, bucketEntry);
+          }
+          if (error != null) {
+            LOG.error("Failed reading block " + key + " from bucket cache", error);
+            checkIOErrorIsTolerated();
+            if (!repeat && updateCacheMetrics) {
+              cacheStats.miss(caching, key.isPrimary(), key.getBlockType());
+            }
+            return null;
+          }
+          if (updateCacheMetrics) {
+            cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
+            cacheStats.ioHit(System.nanoTime() - start);
+          }
+          bucketEntry.access(accessCount.incrementAndGet());
+          if (this.ioErrorStartTime > 0) {
+            ioErrorStartTime = -1;
+          }
+          return cachedBlock;
+        });
+      }
+    }
+    if (!repeat && updateCacheMetrics) {
+      cacheStats.miss(caching, key.isPrimary(), key.getBlockType());
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Drops the reference taken for an asynchronous read, finishing an eviction that was
+   * postponed because of it.
+   */
+  private void unpin(BlockCacheKey key, BucketEntry bucketEntry) {
+    int refCount = bucketEntry.decrementRefCount();
+    if (bucketEntry.isMarkedForEvict() && refCount == 0) {
+      forceEvict(key);
+    }
+  }
+
   @VisibleForTesting
   void blockEvicted(BlockCacheKey cacheKey, BucketEntry bucketEntry, boolean decrementBlockNumber) {
-    bucketAllocator.freeBlock(bucketEntry.offset());
+    BucketCacheJournal journal = this.journal;
+    if (journal == null) {
+      bucketAllocator.freeBlock(bucketEntry.offset());
+    } else {
+      // The journal frees the space once the removal is on disk
+      try {
+        journal.logRemove(cacheKey, bucketEntry);
+      } catch (IOException ioex) {
+        journalFailed(journal, ioex);
+      }
+    }
     realCacheSize.add(-1 * bucketEntry.getLength());
     blocksByHFile.remove(cacheKey);
     if (decrementBlockNumber) {
@@ -610,7 +838,7 @@ public class BucketCache implements BlockCache, HeapSize {
     ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
     try {
       lock.writeLock().lock();
-      int refCount = bucketEntry.refCount.get();
+      int refCount = bucketEntry.getRefCount();
       if(refCount == 0) {
         if (backingMap.remove(cacheKey, bucketEntry)) {
           blockEvicted(cacheKey, bucketEntry, removedBlock == null);
@@ -630,7 +858,7 @@ public class BucketCache implements BlockCache, HeapSize {
                 + " readers. Can not be freed now. Hence will mark this"
                 + " for evicting at a later point");
           }
-          bucketEntry.markedForEvict = true;
+          bucketEntry.markForEvict();
         }
       }
     } finally {
@@ -728,7 +956,7 @@ public class BucketCache implements BlockCache, HeapSize {
       // this set is small around O(Handler Count) unless something else is wrong
       Set<Integer> inUseBuckets = new HashSet<Integer>();
       for (BucketEntry entry : backingMap.values()) {
-        if (entry.refCount.get() != 0) {
+        if (entry.getRefCount() != 0) {
           inUseBuckets.add(bucketAllocator.getBucketIndex(entry.offset()));
         }
       }
@@ -839,6 +1067,9 @@ public class BucketCache implements BlockCache, HeapSize {
         }
         remainingBuckets--;
       }
+      // The journal only gives the space of the evicted blocks back to the allocator once their
+      // removals are written out, so do it before checking what is still full
+      flushJournal();
 
       // Check and free if there are buckets that still need freeing of space
       if (bucketSizesAboveThresholdCount(minFactor) > 0) {
@@ -854,6 +1085,7 @@ public class BucketCache implements BlockCache, HeapSize {
           bytesFreed += bucketGroup.free(bucketBytesToFree);
           remainingBuckets--;
         }
+        flushJournal();
       }
 
       // Even after the above free we might still need freeing because of the
@@ -882,6 +1114,8 @@ public class BucketCache implements BlockCache, HeapSize {
       LOG.warn("Failed freeing space", t);
     } finally {
       cacheStats.evict();
+      // Write out the removals so that the freed space can be reused
+      flushJournal();
       freeInProgress = false;
       freeSpaceLock.unlock();
     }
@@ -1008,6 +1242,7 @@ public class BucketCache implements BlockCache, HeapSize {
         // Only add if non-null entry.
         if (bucketEntries[i] != null) {
           backingMap.put(key, bucketEntries[i]);
+          logAdd(key, bucketEntries[i]);
         }
         // Always remove from ramCache even if we failed adding it to the block cache above.
         RAMQueueEntry ramCacheEntry = ramCache.remove(key);
@@ -1027,6 +1262,8 @@ public class BucketCache implements BlockCache, HeapSize {
         }
       }
 
+      // Write out the removals of evicted blocks so that their space can be reused
+      flushJournal();
       long used = bucketAllocator.getUsedSize();
       if (used > acceptableSize()) {
         freeSpace("Used=" + used + " > acceptable=" + acceptableSize());
@@ -1057,25 +1294,156 @@ public class BucketCache implements BlockCache, HeapSize {
 
   private void persistToFile() throws IOException {
     assert !cacheEnabled;
-    FileOutputStream fos = null;
-    ObjectOutputStream oos = null;
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to persist non-persistent cache mappings!");
+    }
+    BucketCacheJournal persister = this.journal;
+    this.journal = null;
+    if (persister == null) {
+      persister = new BucketCacheJournal(persistencePath, false,
+          offset -> bucketAllocator.freeBlock(offset));
+    }
     try {
-      if (!ioEngine.isPersistent()) {
-        throw new IOException("Attempt to persist non-persistent cache mappings!");
-      }
-      fos = new FileOutputStream(persistencePath, false);
-      oos = new ObjectOutputStream(fos);
-      oos.writeLong(cacheCapacity);
-      oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
-      oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
+      persister.checkpoint(backingMap, deserialiserMap, cacheCapacity,
+        ioEngine.getClass().getName(), false);
     } finally {
-      if (oos != null) oos.close();
-      if (fos != null) fos.close();
+      persister.close();
+    }
+  }
+
+  /**
+   * Reads back the state written by {@link BucketCacheJournal}.
+   */
+  private void retrieveFromJournal(BucketCacheJournal persister, int[] bucketSizes)
+      throws IOException {
+    assert !cacheEnabled;
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to restore non-persistent cache mappings!");
+    }
+    long start = EnvironmentEdgeManager.currentTime();
+    BucketCacheJournal.RecoveredState state =
+        persister.recover(cacheCapacity, ioEngine.getClass().getName());
+    if (state == null) {
+      return;
+    }
+    BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
+        state.backingMap, realCacheSize);
+    bucketAllocator = allocator;
+    deserialiserMap = state.deserialiserMap;
+    if (offHeapBackingMap) {
+      backingMap.putAll(state.backingMap);
+    } else {
+      backingMap = state.backingMap;
+    }
+    indexRecoveredBlocks();
+    LOG.info("Recovered " + backingMap.size() + " blocks, " + state.replayedRecords
+        + " from the journal, in " + (EnvironmentEdgeManager.currentTime() - start) + " ms");
+  }
+
+  private void indexRecoveredBlocks() {
+    for (BlockCacheKey key : backingMap.keySet()) {
+      blocksByHFile.add(key);
+      blockNumber.increment();
+    }
+  }
+
+  /**
+   * Starts from an empty cache after the persisted state could not be read.
+   */
+  private void resetAfterFailedRecovery(int[] bucketSizes) throws BucketAllocatorException {
+    backingMap.clear();
+    blocksByHFile.clear();
+    blockNumber.reset();
+    realCacheSize.reset();
+    deserialiserMap = new UniqueIndexMap<>();
+    bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes);
+  }
+
+  private void logAdd(BlockCacheKey key, BucketEntry bucketEntry) {
+    BucketCacheJournal journal = this.journal;
+    if (journal != null) {
+      try {
+        journal.logAdd(key, bucketEntry, deserialiserMap.unmap(bucketEntry.deserialiserIndex));
+      } catch (IOException ioex) {
+        journalFailed(journal, ioex);
+      }
+    }
+  }
+
+  private void flushJournal() {
+    BucketCacheJournal journal = this.journal;
+    if (journal != null) {
+      try {
+        journal.flush();
+      } catch (IOException ioex) {
+        journalFailed(journal, ioex);
+      }
+    }
+  }
+
+  private void checkpoint(long minJournalSize) {
+    BucketCacheJournal journal = this.journal;
+    if (journal != null && journal.needsCheckpoint(minJournalSize)) {
+      try {
+        journal.checkpoint(backingMap, deserialiserMap, cacheCapacity,
+          ioEngine.getClass().getName(), true);
+      } catch (IOException ioex) {
+        journalFailed(journal, ioex);
+      }
+    }
+  }
+
+  /**
+   * Stops journaling after an IO error. The persisted state is deleted since it no longer
+   * tracks the cache; the cache itself keeps working.
+   */
+  private void journalFailed(BucketCacheJournal failed, IOException ioex) {
+    synchronized (failed) {
+      if (this.journal == failed) {
+        LOG.error("Failed writing bucket cache journal, disabling persistence", ioex);
+        this.journal = null;
+      }
+    }
+    // Also releases the space of removals the journal was holding on to
+    failed.discard();
+  }
+
+  /**
+   * @return true if blocks were recovered from the persisted state and are not validated yet
+   */
+  public boolean needsRecoveredBlocksValidation() {
+    return recoveredHFiles != null;
+  }
+
+  /**
+   * Drops the recovered blocks of the HFiles which are not among the given store files. Those
+   * HFiles were deleted while this cache was offline, e.g. by a compaction on another server
+   * after the region moved, or belong to regions now served elsewhere. Their blocks are never
+   * read again and would only hold on to cache space until evicted. Only runs once, later calls
+   * do nothing.
+   * @param hfileNames the names of the store files of the regions hosted by the region server
+   */
+  public void validateRecoveredBlocks(Set<String> hfileNames) {
+    Set<String> recovered = this.recoveredHFiles;
+    this.recoveredHFiles = null;
+    if (recovered == null) {
+      return;
+    }
+    int evicted = 0;
+    int missing = 0;
+    for (String hfileName : recovered) {
+      if (!hfileNames.contains(hfileName)) {
+        evicted += evictBlocksByHfileName(hfileName);
+        missing++;
+      }
     }
+    LOG.info("Evicted " + evicted + " recovered blocks of " + missing + " of the "
+        + recovered.size() + " recovered hfiles, which are not store files of the hosted regions");
   }
 
+  /**
+   * Reads back the java serialization based format written by earlier versions.
+   */
   @SuppressWarnings("unchecked")
   private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException,
       ClassNotFoundException {
@@ -1102,9 +1470,9 @@ public class BucketCache implements BlockCache, HeapSize {
       if (!ioEngine.getClass().getName().equals(ioclass))
         throw new IOException("Class name for IO engine mismatch: " + ioclass
             + ", expected:" + ioEngine.getClass().getName());
-      if (!backingMap.getClass().getName().equals(mapclass))
+      if (!ConcurrentHashMap.class.getName().equals(mapclass))
         throw new IOException("Class name for cache map mismatch: " + mapclass
-            + ", expected:" + backingMap.getClass().getName());
+            + ", expected:" + ConcurrentHashMap.class.getName());
       UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
           .readObject();
       ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMapFromFile =
@@ -1113,7 +1481,12 @@ public class BucketCache implements BlockCache, HeapSize {
           backingMapFromFile, realCacheSize);
       bucketAllocator = allocator;
       deserialiserMap = deserMap;
-      backingMap = backingMapFromFile;
+      if (offHeapBackingMap) {
+        backingMap.putAll(backingMapFromFile);
+      } else {
+        backingMap = backingMapFromFile;
+      }
+      indexRecoveredBlocks();
     } finally {
       if (ois != null) ois.close();
       if (fis != null) fis.close();
@@ -1263,7 +1636,7 @@ public class BucketCache implements BlockCache, HeapSize {
 
       @Override
       public int compare(BucketEntry o1, BucketEntry o2) {
-        return Long.compare(o2.accessCounter, o1.accessCounter);
+        return Long.compare(o2.getAccessCounter(), o1.getAccessCounter());
       }
     };
 
@@ -1280,17 +1653,23 @@ public class BucketCache implements BlockCache, HeapSize {
     /**
      * Time this block was cached.  Presumes we are created just before we are added to the cache.
      */
-    private final long cachedTime = System.nanoTime();
+    private final long cachedTime;
 
     BucketEntry(long offset, int length, long accessCounter, boolean inMemory) {
+      this(offset, length, accessCounter, inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE,
+          System.nanoTime());
+    }
+
+    /**
+     * Used to rebuild an entry from its serialized form, see {@link OffHeapBucketEntryMap}.
+     */
+    BucketEntry(long offset, int length, long accessCounter, BlockPriority priority,
+        long cachedTime) {
       setOffset(offset);
       this.length = length;
       this.accessCounter = accessCounter;
-      if (inMemory) {
-        this.priority = BlockPriority.MEMORY;
-      } else {
-        this.priority = BlockPriority.SINGLE;
-      }
+      this.priority = priority;
+      this.cachedTime = cachedTime;
     }
 
     long offset() { // Java has no unsigned numbers
@@ -1333,6 +1712,10 @@ public class BucketCache implements BlockCache, HeapSize {
       }
     }
 
+    long getAccessCounter() {
+      return accessCounter;
+    }
+
     public BlockPriority getPriority() {
       return this.priority;
     }
@@ -1340,6 +1723,49 @@ public class BucketCache implements BlockCache, HeapSize {
     public long getCachedTime() {
       return cachedTime;
     }
+
+    int getRefCount() {
+      return refCount.get();
+    }
+
+    int incrementRefCount() {
+      return refCount.incrementAndGet();
+    }
+
+    int decrementRefCount() {
+      return refCount.decrementAndGet();
+    }
+
+    boolean isMarkedForEvict() {
+      return markedForEvict;
+    }
+
+    void markForEvict() {
+      this.markedForEvict = true;
+    }
+
+    /**
+     * Two entries are the same if they describe the same allocation. Entries are not
+     * necessarily unique objects: an {@link OffHeapBucketEntryMap} hands out a fresh view on
+     * every lookup.
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BucketEntry)) {
+        return false;
+      }
+      BucketEntry that = (BucketEntry) o;
+      return offset() == that.offset() && length == that.length
+          && cachedTime == that.cachedTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(offset()) * 31 + Long.hashCode(cachedTime);
+    }
   }
 
   /**
@@ -1373,6 +1799,9 @@ public class BucketCache implements BlockCache, HeapSize {
       while ((entry = queue.pollLast()) != null) {
         if (evictBlock(entry.getKey(), false)) {
           freedBytes += entry.getValue().getLength();
+          if (admissionPolicy != null) {
+            admissionPolicy.onEviction(entry.getKey());
+          }
         }
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -1582,8 +2011,8 @@ public class BucketCache implements BlockCache, HeapSize {
     if (block.getMemoryType() == MemoryType.SHARED) {
       BucketEntry bucketEntry = backingMap.get(cacheKey);
       if (bucketEntry != null) {
-        int refCount = bucketEntry.refCount.decrementAndGet();
-        if (bucketEntry.markedForEvict && refCount == 0) {
+        int refCount = bucketEntry.decrementRefCount();
+        if (bucketEntry.isMarkedForEvict() && refCount == 0) {
           forceEvict(cacheKey);
         }
       }
@@ -1594,7 +2023,7 @@ public class BucketCache implements BlockCache, HeapSize {
   public int getRefCount(BlockCacheKey cacheKey) {
     BucketEntry bucketEntry = backingMap.get(cacheKey);
     if (bucketEntry != null) {
-      return bucketEntry.refCount.get();
+      return bucketEntry.getRefCount();
     }
     return 0;
   }
@@ -0,0 +1,662 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Crash safe persistence of the {@link BucketCache} backing map.
+ * <p>
+ * State is kept in two kinds of files next to the configured persistence path. The snapshot,
+ * at the persistence path itself, is a compact binary dump of the map protected by a trailing
+ * CRC32. Journals, at the persistence path suffixed with a generation number, log every block
+ * added to or removed from the map since the snapshot was taken, one CRC32 protected record at
+ * a time. The snapshot names the first journal generation that has to be replayed on top of it.
+ * Checkpoints write a new snapshot and retire the journals it covers, which bounds both the
+ * journal size and the recovery time.
+ * <p>
+ * Replaying a journal written by a crashed process must never produce an entry whose bucket
+ * space has already been handed to another block. So the bucket space of a removed block is
+ * not released as soon as the block is removed but only once its removal record has been
+ * synced to the device by {@link #flush()}, whether or not the journal is otherwise synced;
+ * until then the space is held by the journal. Additions are
+ * logged after their data has been synced to the IOEngine. A torn record at the tail of the
+ * last journal therefore only loses blocks, it never resurrects one that was overwritten.
+ * <p>
+ * Records of concurrent updates of the same key may reach the journal out of order. Replay
+ * copes with this by identifying each entry by its cached time: a removal only applies to the
+ * entry it was logged for, and an addition for an entry that was already seen removed is
+ * ignored.
+ */
+@InterfaceAudience.Private
+class BucketCacheJournal implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(BucketCacheJournal.class);
+
+  private static final int SNAPSHOT_MAGIC = 0x42435350; // BCSP
+  private static final int JOURNAL_MAGIC = 0x42434a4c; // BCJL
+  private static final int VERSION = 1;
+
+  /** First bytes of a java serialization stream, the format of the legacy persistence file */
+  private static final int LEGACY_MAGIC = 0xACED;
+
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_REMOVE = 2;
+  /** Upper bound on the size of one record, anything larger is corruption */
+  private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+  private static final byte NO_BLOCK_TYPE = -1;
+  /** Snapshot entry markers, in place of the index of an already written file name */
+  private static final int NEW_NAME = -1;
+  private static final int END_OF_ENTRIES = -2;
+  private static final BlockType[] BLOCK_TYPES = BlockType.values();
+  private static final BlockPriority[] PRIORITIES = BlockPriority.values();
+
+  static final String JOURNAL_SUFFIX = ".journal.";
+
+  private final String persistencePath;
+  private final boolean syncOnFlush;
+  /** Releases the bucket space of a removed block */
+  private final LongConsumer freeAction;
+
+  // The fields below are guarded by this
+  private long generation = -1;
+  private FileOutputStream journalFile;
+  private DataOutputStream journal;
+  private long journalSize;
+  private boolean dirty;
+  private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+  private final DataOutputStream record = new DataOutputStream(recordBytes);
+  private final CRC32 recordCrc = new CRC32();
+  private long[] pendingFrees = new long[64];
+  private int pendingFreeCount;
+
+  private final Object checkpointLock = new Object();
+  private volatile long snapshotSize;
+
+  /**
+   * @param persistencePath path of the snapshot, journals are created next to it
+   * @param syncOnFlush whether {@link #flush()} also syncs the journal to the device when it
+   *          only logged additions, which makes them survive an OS crash and not only a process
+   *          crash. Removals are always synced before their space is released.
+   * @param freeAction called with the bucket offset of removed blocks once it is safe to reuse
+   *          their space
+   */
+  BucketCacheJournal(String persistencePath, boolean syncOnFlush, LongConsumer freeAction) {
+    this.persistencePath = persistencePath;
+    this.syncOnFlush = syncOnFlush;
+    this.freeAction = freeAction;
+  }
+
+  /**
+   * State read back from disk by {@link #recover(long, String)}.
+   */
+  static class RecoveredState {
+    final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap = new ConcurrentHashMap<>();
+    final UniqueIndexMap<Integer> deserialiserMap = new UniqueIndexMap<>();
+    int replayedRecords;
+  }
+
+  /**
+   * @return true if the file at the persistence path was written by the java serialization
+   *         based persistence of earlier versions
+   */
+  static boolean isLegacyFormat(File file) throws IOException {
+    if (!file.exists() || file.length() < 2) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return in.readUnsignedShort() == LEGACY_MAGIC;
+    }
+  }
+
+  /**
+   * Loads the snapshot and replays the journals written after it. Must be called before
+   * anything is logged; the next journal is started with a generation after all generations
+   * found on disk.
+   * @return the recovered state, or null if nothing was persisted
+   * @throws IOException if the persisted state is corrupt or does not match this cache
+   */
+  synchronized RecoveredState recover(long capacity, String ioEngineClass) throws IOException {
+    File snapshotFile = new File(persistencePath);
+    TreeMap<Long, File> journals = listJournals();
+    if (!journals.isEmpty()) {
+      generation = journals.lastKey();
+    }
+    if (!snapshotFile.exists() && journals.isEmpty()) {
+      return null;
+    }
+    RecoveredState state = new RecoveredState();
+    Map<Integer, Integer> deserialiserIndexes = new HashMap<>();
+    long firstGeneration = 0;
+    if (snapshotFile.exists()) {
+      firstGeneration = readSnapshot(snapshotFile, capacity, ioEngineClass, state,
+        deserialiserIndexes);
+      generation = Math.max(generation, firstGeneration - 1);
+      snapshotSize = snapshotFile.length();
+    }
+    Set<EntryId> removed = new HashSet<>();
+    for (Map.Entry<Long, File> journal : journals.tailMap(firstGeneration).entrySet()) {
+      boolean last = journal.getKey().equals(journals.lastKey());
+      replayJournal(journal.getValue(), journal.getKey(), capacity, last, state,
+        deserialiserIndexes, removed);
+    }
+    return state;
+  }
+
+  private TreeMap<Long, File> listJournals() {
+    TreeMap<Long, File> journals = new TreeMap<>();
+    File snapshotFile = new File(persistencePath).getAbsoluteFile();
+    String prefix = snapshotFile.getName() + JOURNAL_SUFFIX;
+    File[] files = snapshotFile.getParentFile().listFiles();
+    if (files == null) {
+      return journals;
+    }
+    for (File file : files) {
+      if (file.getName().startsWith(prefix)) {
+        try {
+          journals.put(Long.parseLong(file.getName().substring(prefix.length())), file);
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignoring unexpected file " + file + " next to the bucket cache journal");
+        }
+      }
+    }
+    return journals;
+  }
+
+  private File journalFile(long gen) {
+    return new File(persistencePath + JOURNAL_SUFFIX + gen);
+  }
+
+  /**
+   * @return the first journal generation to replay after this snapshot
+   */
+  private static long readSnapshot(File file, long capacity, String ioEngineClass,
+      RecoveredState state, Map<Integer, Integer> deserialiserIndexes) throws IOException {
+    CRC32 crc = new CRC32();
+    try (DataInputStream raw = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc));
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Not a bucket cache snapshot: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported bucket cache snapshot version " + version);
+      }
+      checkHeader(in, capacity, ioEngineClass);
+      long firstGeneration = in.readLong();
+      List<String> names = new ArrayList<>();
+      int nameIndex;
+      while ((nameIndex = in.readInt()) != END_OF_ENTRIES) {
+        String name;
+        if (nameIndex == NEW_NAME) {
+          name = in.readUTF();
+          names.add(name);
+        } else {
+          name = names.get(nameIndex);
+        }
+        BlockCacheKey key = readKey(in, name);
+        BucketEntry entry = readEntry(in, state, deserialiserIndexes);
+        checkBounds(entry, capacity);
+        state.backingMap.put(key, entry);
+      }
+      long expected = crc.getValue();
+      if (raw.readLong() != expected) {
+        throw new IOException("Checksum mismatch in bucket cache snapshot " + file);
+      }
+      return firstGeneration;
+    } catch (EOFException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupt bucket cache snapshot " + file, e);
+    }
+  }
+
+  private static void checkHeader(DataInputStream in, long capacity, String ioEngineClass)
+      throws IOException {
+    long persistedCapacity = in.readLong();
+    if (persistedCapacity != capacity) {
+      throw new IOException("Mismatched cache capacity: " + persistedCapacity + ", expected: "
+          + capacity);
+    }
+    String persistedEngine = in.readUTF();
+    if (!persistedEngine.equals(ioEngineClass)) {
+      throw new IOException("Class name for IO engine mismatch: " + persistedEngine
+          + ", expected: " + ioEngineClass);
+    }
+  }
+
+  private static void checkBounds(BucketEntry entry, long capacity) throws IOException {
+    if (entry.offset() < 0 || entry.getLength() <= 0
+        || entry.offset() + entry.getLength() > capacity) {
+      throw new IOException("Persisted bucket entry out of bounds, offset=" + entry.offset()
+          + ", length=" + entry.getLength() + ", capacity=" + capacity);
+    }
+  }
+
+  private void replayJournal(File file, long gen, long capacity, boolean last,
+      RecoveredState state, Map<Integer, Integer> deserialiserIndexes, Set<EntryId> removed)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      try {
+        if (in.readInt() != JOURNAL_MAGIC || in.readInt() != VERSION || in.readLong() != gen) {
+          throw new IOException("Bad header in bucket cache journal " + file);
+        }
+      } catch (EOFException e) {
+        if (last) {
+          // Crashed right after the journal was created
+          return;
+        }
+        throw new IOException("Truncated header in bucket cache journal " + file, e);
+      }
+      CRC32 crc = new CRC32();
+      byte[] buf = new byte[MAX_RECORD_SIZE];
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        try {
+          if (length <= 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Bad record length " + length);
+          }
+          in.readFully(buf, 0, length);
+          crc.reset();
+          crc.update(buf, 0, length);
+          if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("Record checksum mismatch");
+          }
+        } catch (IOException e) {
+          if (last) {
+            // A torn write at the end of the last journal. Removals are flushed before the
+            // space they free is reused, so whatever got lost here is safe to lose.
+            LOG.info("Bucket cache journal " + file + " ends with an incomplete record after "
+                + state.replayedRecords + " replayed records: " + e.getMessage());
+            return;
+          }
+          throw new IOException("Corrupt record in bucket cache journal " + file, e);
+        }
+        applyRecord(new DataInputStream(new ByteArrayInputStream(buf, 0, length)), capacity,
+          state, deserialiserIndexes, removed);
+        state.replayedRecords++;
+      }
+    }
+  }
+
+  private static void applyRecord(DataInputStream in, long capacity, RecoveredState state,
+      Map<Integer, Integer> deserialiserIndexes, Set<EntryId> removed) throws IOException {
+    byte type = in.readByte();
+    String name = in.readUTF();
+    BlockCacheKey key = readKey(in, name);
+    if (type == RECORD_ADD) {
+      BucketEntry entry = readEntry(in, state, deserialiserIndexes);
+      checkBounds(entry, capacity);
+      if (!removed.contains(new EntryId(key, entry.getCachedTime()))) {
+        state.backingMap.put(key, entry);
+      }
+    } else if (type == RECORD_REMOVE) {
+      long cachedTime = in.readLong();
+      removed.add(new EntryId(key, cachedTime));
+      BucketEntry current = state.backingMap.get(key);
+      if (current != null && current.getCachedTime() == cachedTime) {
+        state.backingMap.remove(key);
+      }
+    } else {
+      throw new IOException("Unknown bucket cache journal record type " + type);
+    }
+  }
+
+  /**
+   * Identifies one incarnation of a cached block.
+   */
+  private static final class EntryId {
+    final BlockCacheKey key;
+    final long cachedTime;
+
+    EntryId(BlockCacheKey key, long cachedTime) {
+      this.key = key;
+      this.cachedTime = cachedTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() * 31 + Long.hashCode(cachedTime);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof EntryId)) {
+        return false;
+      }
+      EntryId other = (EntryId) o;
+      return cachedTime == other.cachedTime && key.equals(other.key);
+    }
+  }
+
+  private static void writeKey(DataOutputStream out, BlockCacheKey key) throws IOException {
+    out.writeLong(key.getOffset());
+    out.writeByte(key.getBlockType() == null ? NO_BLOCK_TYPE : key.getBlockType().ordinal());
+    out.writeBoolean(key.isPrimary());
+  }
+
+  private static BlockCacheKey readKey(DataInputStream in, String name) throws IOException {
+    long offset = in.readLong();
+    byte type = in.readByte();
+    boolean primary = in.readBoolean();
+    return new BlockCacheKey(name, offset, primary,
+        type == NO_BLOCK_TYPE ? null : BLOCK_TYPES[type]);
+  }
+
+  private static void writeEntry(DataOutputStream out, BucketEntry entry, int deserialiserId)
+      throws IOException {
+    out.writeLong(entry.offset());
+    out.writeInt(entry.getLength());
+    out.writeLong(entry.getAccessCounter());
+    out.writeByte(entry.getPriority().ordinal());
+    out.writeLong(entry.getCachedTime());
+    out.writeInt(deserialiserId);
+  }
+
+  private static BucketEntry readEntry(DataInputStream in, RecoveredState state,
+      Map<Integer, Integer> deserialiserIndexes) throws IOException {
+    long offset = in.readLong();
+    int length = in.readInt();
+    long accessCounter = in.readLong();
+    BlockPriority priority = PRIORITIES[in.readByte()];
+    long cachedTime = in.readLong();
+    int deserialiserId = in.readInt();
+    BucketEntry entry = new BucketEntry(offset, length, accessCounter, priority, cachedTime);
+    Integer index = deserialiserIndexes.get(deserialiserId);
+    if (index == null) {
+      index = state.deserialiserMap.map(deserialiserId);
+      deserialiserIndexes.put(deserialiserId, index);
+    }
+    entry.deserialiserIndex = index.byteValue();
+    return entry;
+  }
+
+  /**
+   * Starts a new journal. Called once after recovery and then by every checkpoint.
+   */
+  private void startJournal() throws IOException {
+    generation++;
+    journalFile = new FileOutputStream(journalFile(generation), false);
+    journal = new DataOutputStream(new BufferedOutputStream(journalFile, 64 * 1024));
+    journal.writeInt(JOURNAL_MAGIC);
+    journal.writeInt(VERSION);
+    journal.writeLong(generation);
+    journalSize = 16;
+  }
+
+  private void appendRecord() throws IOException {
+    recordCrc.reset();
+    byte[] bytes = recordBytes.toByteArray();
+    recordCrc.update(bytes, 0, bytes.length);
+    journal.writeInt(bytes.length);
+    journal.write(bytes);
+    journal.writeInt((int) recordCrc.getValue());
+    journalSize += bytes.length + 8;
+    dirty = true;
+  }
+
+  /**
+   * Logs a block that was added to the backing map. Must only be called after the block data
+   * has been synced to the IOEngine.
+   */
+  synchronized void logAdd(BlockCacheKey key, BucketEntry entry, int deserialiserId)
+      throws IOException {
+    if (journal == null) {
+      throw new IOException("Bucket cache journal is closed");
+    }
+    recordBytes.reset();
+    record.writeByte(RECORD_ADD);
+    record.writeUTF(key.getHfileName());
+    writeKey(record, key);
+    writeEntry(record, entry, deserialiserId);
+    appendRecord();
+  }
+
+  /**
+   * Logs a block that was removed from the backing map. The bucket space of the block is
+   * released once the record has been flushed.
+   */
+  synchronized void logRemove(BlockCacheKey key, BucketEntry entry) throws IOException {
+    if (pendingFreeCount == pendingFrees.length) {
+      long[] grown = new long[pendingFrees.length * 2];
+      System.arraycopy(pendingFrees, 0, grown, 0, pendingFreeCount);
+      pendingFrees = grown;
+    }
+    pendingFrees[pendingFreeCount++] = entry.offset();
+    if (journal == null) {
+      throw new IOException("Bucket cache journal is closed");
+    }
+    recordBytes.reset();
+    record.writeByte(RECORD_REMOVE);
+    record.writeUTF(key.getHfileName());
+    writeKey(record, key);
+    record.writeLong(entry.getCachedTime());
+    appendRecord();
+  }
+
+  /**
+   * Writes out all logged records and then releases the space of the blocks they removed. The
+   * removals are synced to the device first, so that replay after an OS crash can not revive a
+   * block whose space was reused. If the write fails the space stays held; the caller is expected
+   * to stop journaling and {@link #discard()} the persisted state, which releases it.
+   */
+  synchronized void flush() throws IOException {
+    if (journal != null) {
+      if (dirty) {
+        journal.flush();
+      }
+      if ((dirty && syncOnFlush) || pendingFreeCount > 0) {
+        journalFile.getFD().sync();
+      }
+      dirty = false;
+    }
+    releasePendingFrees();
+  }
+
+  private void releasePendingFrees() {
+    for (int i = 0; i < pendingFreeCount; i++) {
+      freeAction.accept(pendingFrees[i]);
+    }
+    pendingFreeCount = 0;
+  }
+
+  /**
+   * Starts journaling. Must be called after {@link #recover(long, String)} and after the
+   * backing map has been set up.
+   */
+  void open(Map<BlockCacheKey, BucketEntry> backingMap, UniqueIndexMap<Integer> deserialiserMap,
+      long capacity, String ioEngineClass) throws IOException {
+    // Compact what was recovered so the next recovery does not replay it again
+    checkpoint(backingMap, deserialiserMap, capacity, ioEngineClass, true);
+  }
+
+  /**
+   * @return true if the journal has grown large enough relative to the snapshot that a
+   *         checkpoint is worthwhile
+   */
+  synchronized boolean needsCheckpoint(long minJournalSize) {
+    return journal != null && journalSize > Math.max(minJournalSize, snapshotSize);
+  }
+
+  /**
+   * Writes a snapshot of the backing map and deletes the journals it supersedes.
+   * @param reopen whether to keep journaling afterwards. When false the cache must be quiesced,
+   *          the snapshot then is the complete persisted state.
+   */
+  void checkpoint(Map<BlockCacheKey, BucketEntry> backingMap,
+      UniqueIndexMap<Integer> deserialiserMap, long capacity, String ioEngineClass,
+      boolean reopen) throws IOException {
+    synchronized (checkpointLock) {
+      long firstGeneration;
+      synchronized (this) {
+        flush();
+        if (journal != null) {
+          journal.close();
+          journal = null;
+          journalFile = null;
+        }
+        if (reopen) {
+          startJournal();
+          // Changes made while the snapshot is written go to the new journal
+          journal.flush();
+          firstGeneration = generation;
+        } else {
+          firstGeneration = generation + 1;
+        }
+      }
+      File tmp = new File(persistencePath + ".tmp");
+      writeSnapshot(tmp, backingMap, deserialiserMap, capacity, ioEngineClass, firstGeneration);
+      File snapshotFile = new File(persistencePath);
+      if (!tmp.renameTo(snapshotFile)) {
+        // Windows does not replace on rename
+        if (!snapshotFile.delete() || !tmp.renameTo(snapshotFile)) {
+          throw new IOException("Failed to move " + tmp + " to " + snapshotFile);
+        }
+      }
+      snapshotSize = snapshotFile.length();
+      for (Map.Entry<Long, File> journal : listJournals().headMap(firstGeneration).entrySet()) {
+        if (!journal.getValue().delete()) {
+          LOG.warn("Failed deleting superseded bucket cache journal " + journal.getValue());
+        }
+      }
+    }
+  }
+
+  private static void writeSnapshot(File file, Map<BlockCacheKey, BucketEntry> backingMap,
+      UniqueIndexMap<Integer> deserialiserMap, long capacity, String ioEngineClass,
+      long firstGeneration) throws IOException {
+    CRC32 crc = new CRC32();
+    try (FileOutputStream fos = new FileOutputStream(file, false)) {
+      DataOutputStream raw = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+      DataOutputStream out = new DataOutputStream(new CheckedOutputStream(raw, crc));
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(capacity);
+      out.writeUTF(ioEngineClass);
+      out.writeLong(firstGeneration);
+      // The map may change while we iterate, so rather than a count the entries are followed
+      // by an end marker
+      Map<String, Integer> names = new HashMap<>();
+      for (Map.Entry<BlockCacheKey, BucketEntry> e : backingMap.entrySet()) {
+        String name = e.getKey().getHfileName();
+        Integer nameIndex = names.get(name);
+        if (nameIndex == null) {
+          out.writeInt(NEW_NAME);
+          out.writeUTF(name);
+          names.put(name, names.size());
+        } else {
+          out.writeInt(nameIndex);
+        }
+        writeKey(out, e.getKey());
+        BucketEntry entry = e.getValue();
+        writeEntry(out, entry, deserialiserMap.unmap(entry.deserialiserIndex));
+      }
+      out.writeInt(END_OF_ENTRIES);
+      out.flush();
+      raw.writeLong(crc.getValue());
+      raw.flush();
+      fos.getFD().sync();
+    }
+  }
+
+  /**
+   * Deletes the snapshot and all journals, after which nothing will be recovered, and then
+   * releases the space of the removed blocks.
+   */
+  synchronized void discard() {
+    try {
+      closeJournal();
+    } catch (IOException e) {
+      LOG.warn("Failed closing bucket cache journal", e);
+    }
+    for (File journal : listJournals().values()) {
+      if (!journal.delete()) {
+        LOG.warn("Failed deleting bucket cache journal " + journal);
+      }
+    }
+    File snapshotFile = new File(persistencePath);
+    if (snapshotFile.exists() && !snapshotFile.delete()) {
+      LOG.warn("Failed deleting bucket cache snapshot " + snapshotFile);
+    }
+    releasePendingFrees();
+  }
+
+  @VisibleForTesting
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      closeJournal();
+    }
+  }
+
+  private void closeJournal() throws IOException {
+    if (journal != null) {
+      try {
+        journal.close();
+      } finally {
+        journal = null;
+        journalFile = null;
+      }
+    }
+  }
+}
@@ -212,6 +212,20 @@ public class FileIOEngine implements IOEngine {
             srcBuffer.remaining()), offset);
   }
 
+  /**
+   * Reads buffer.remaining() bytes at the given offset into the buffer.
+   */
+  void readFully(ByteBuffer buffer, long offset) throws IOException {
+    accessFile(readAccessor, buffer, offset);
+  }
+
+  /**
+   * Writes the remaining bytes of the buffer at the given offset.
+   */
+  void writeFully(ByteBuffer buffer, long offset) throws IOException {
+    accessFile(writeAccessor, buffer, offset);
+  }
+
   private void accessFile(FileAccessor accessor, ByteBuffer buffer,
       long globalOffset) throws IOException {
     int startFileNum = getFileNum(globalOffset);
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
@@ -49,6 +50,23 @@ public interface IOEngine {
   Cacheable read(long offset, int length, CacheableDeserializer<Cacheable> deserializer)
       throws IOException;
 
+  /**
+   * Asynchronous version of {@link #read(long, int, CacheableDeserializer)}, letting a caller
+   * keep several reads in flight. The default implementation reads synchronously in the
+   * calling thread.
+   * @return a future completed with the Cacheable, or exceptionally if the read failed
+   */
+  default CompletableFuture<Cacheable> readAsync(long offset, int length,
+      CacheableDeserializer<Cacheable> deserializer) {
+    CompletableFuture<Cacheable> future = new CompletableFuture<>();
+    try {
+      future.complete(read(offset, length, deserializer));
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
   /**
    * Transfers data from the given byte buffer to IOEngine
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -0,0 +1,772 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A {@link ConcurrentMap} from {@link BlockCacheKey} to {@link BucketEntry} that keeps its
+ * entries in direct memory instead of on the java heap, to be used as the
+ * {@link BucketCache} backing map for very large caches.
+ * <p>
+ * The map is split into a fixed number of segments, each an open-addressing hash table with
+ * linear probing stored in a direct {@link ByteBuffer} and guarded by its own read/write lock.
+ * A slot holds the block key as (file id, block offset) and all of the {@link BucketEntry}
+ * state. HFile names are interned once into an int id, and an id is released once the last
+ * block of its file leaves the map, so the only on-heap cost is per file, not per block.
+ * <p>
+ * Lookups hand out a fresh {@link BucketEntry} view of the slot. The view carries a snapshot of
+ * the immutable part of the entry; reference counting, eviction marking and access tracking are
+ * written through to the slot, provided the slot still holds the same allocation the view was
+ * created from. Views are equal to each other, and to the heap entry they were put from, if they
+ * describe the same allocation, see {@link BucketEntry#equals(Object)}.
+ */
+@InterfaceAudience.Private
+class OffHeapBucketEntryMap extends AbstractMap<BlockCacheKey, BucketEntry>
+    implements ConcurrentMap<BlockCacheKey, BucketEntry> {
+
+  private static final float LOAD_FACTOR = 0.75f;
+  private static final int MIN_SEGMENT_CAPACITY = 16;
+  @VisibleForTesting
+  static final int DEFAULT_SEGMENTS = 256;
+
+  // Slot layout. A file id of zero marks an empty slot.
+  private static final int BLOCK_OFFSET = 0;           // long, offset of the block in its hfile
+  private static final int FILE_ID = 8;                // int
+  private static final int LENGTH = 12;                // int
+  private static final int CACHE_OFFSET = 16;          // long, offset in the IOEngine
+  private static final int ACCESS_COUNTER = 24;        // long
+  private static final int CACHED_TIME = 32;           // long
+  private static final int REF_COUNT = 40;             // int
+  private static final int BLOCK_TYPE = 44;            // byte, ordinal or NO_BLOCK_TYPE
+  private static final int PRIORITY = 45;              // byte, ordinal
+  private static final int DESERIALISER_INDEX = 46;    // byte
+  private static final int FLAGS = 47;                 // byte
+  @VisibleForTesting
+  static final int SLOT_SIZE = 48;
+
+  private static final byte FLAG_PRIMARY = 0x1;
+  private static final byte FLAG_MARKED_FOR_EVICT = 0x2;
+  private static final byte NO_BLOCK_TYPE = -1;
+
+  private static final BlockType[] BLOCK_TYPES = BlockType.values();
+  private static final BlockPriority[] PRIORITIES = BlockPriority.values();
+
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  private final ConcurrentHashMap<String, InternedName> fileIds = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, String> fileNames = new ConcurrentHashMap<>();
+  private final AtomicInteger nextFileId = new AtomicInteger();
+
+  OffHeapBucketEntryMap(long expectedEntries) {
+    this(expectedEntries, DEFAULT_SEGMENTS);
+  }
+
+  @VisibleForTesting
+  OffHeapBucketEntryMap(long expectedEntries, int numSegments) {
+    if (Integer.bitCount(numSegments) != 1) {
+      throw new IllegalArgumentException("Segment count must be a power of two: " + numSegments);
+    }
+    long perSegment = (long) Math.ceil(expectedEntries / (double) numSegments / LOAD_FACTOR);
+    int capacity = MIN_SEGMENT_CAPACITY;
+    while (capacity < perSegment && capacity < (1 << 30) / SLOT_SIZE) {
+      capacity <<= 1;
+    }
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(capacity);
+    }
+    this.segmentMask = numSegments - 1;
+  }
+
+  /**
+   * Name interned into a file id, counting the entries that use it.
+   */
+  private static final class InternedName {
+    final int id;
+    int entries;
+
+    InternedName(int id) {
+      this.id = id;
+    }
+  }
+
+  private int acquireFileId(String name) {
+    return fileIds.compute(name, (k, interned) -> {
+      if (interned == null) {
+        int id;
+        do {
+          id = nextFileId.incrementAndGet();
+        } while (id == 0 || fileNames.containsKey(id));
+        interned = new InternedName(id);
+        fileNames.put(id, k);
+      }
+      interned.entries++;
+      return interned;
+    }).id;
+  }
+
+  private void releaseFileId(String name) {
+    fileIds.computeIfPresent(name, (k, interned) -> {
+      if (--interned.entries > 0) {
+        return interned;
+      }
+      fileNames.remove(interned.id);
+      return null;
+    });
+  }
+
+  /**
+   * @return the interned id of the file, or 0 if no block of that file is in the map
+   */
+  private int lookupFileId(String name) {
+    InternedName interned = name == null ? null : fileIds.get(name);
+    return interned == null ? 0 : interned.id;
+  }
+
+  private static long hash(int fileId, long blockOffset) {
+    // murmur3 fmix64
+    long h = blockOffset ^ (fileId * 0x9E3779B97F4A7C15L);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private Segment segmentFor(long hash) {
+    return segments[(int) (hash >>> 32) & segmentMask];
+  }
+
+  /**
+   * One open-addressing table. All methods must be called holding the segment lock, in write
+   * mode for anything that modifies the table.
+   */
+  private static final class Segment {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    ByteBuffer table;
+    int mask;
+    volatile int size;
+
+    Segment(int capacity) {
+      this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      this.mask = capacity - 1;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    int fileId(int slot) {
+      return table.getInt(slot * SLOT_SIZE + FILE_ID);
+    }
+
+    long blockOffset(int slot) {
+      return table.getLong(slot * SLOT_SIZE + BLOCK_OFFSET);
+    }
+
+    int home(int slot) {
+      return (int) hash(fileId(slot), blockOffset(slot)) & mask;
+    }
+
+    /**
+     * @return the slot holding the key, or -1
+     */
+    int find(int fileId, long blockOffset, long hash) {
+      int slot = (int) hash & mask;
+      int id;
+      while ((id = fileId(slot)) != 0) {
+        if (id == fileId && blockOffset(slot) == blockOffset) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot it should be inserted at
+     */
+    int findForInsert(int fileId, long blockOffset, long hash) {
+      if (size + 1 > capacity() * LOAD_FACTOR) {
+        resize(capacity() << 1);
+      }
+      int slot = (int) hash & mask;
+      int id;
+      while ((id = fileId(slot)) != 0) {
+        if (id == fileId && blockOffset(slot) == blockOffset) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void resize(int newCapacity) {
+      ByteBuffer old = table;
+      int oldCapacity = capacity();
+      table = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+      mask = newCapacity - 1;
+      for (int i = 0; i < oldCapacity; i++) {
+        int base = i * SLOT_SIZE;
+        int id = old.getInt(base + FILE_ID);
+        if (id == 0) {
+          continue;
+        }
+        int slot = (int) hash(id, old.getLong(base + BLOCK_OFFSET)) & mask;
+        while (fileId(slot) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        copySlot(old, base, slot * SLOT_SIZE);
+      }
+    }
+
+    private void copySlot(ByteBuffer from, int fromBase, int toBase) {
+      for (int i = 0; i < SLOT_SIZE; i += 8) {
+        table.putLong(toBase + i, from.getLong(fromBase + i));
+      }
+    }
+
+    private void clearSlot(int slot) {
+      int base = slot * SLOT_SIZE;
+      for (int i = 0; i < SLOT_SIZE; i += 8) {
+        table.putLong(base + i, 0L);
+      }
+    }
+
+    /**
+     * Removes the slot using backward shift deletion, so that no tombstones are needed.
+     */
+    void delete(int slot) {
+      int hole = slot;
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        if (fileId(next) == 0) {
+          break;
+        }
+        int home = home(next);
+        // Entries whose home lies cyclically in (hole, next] are still reachable, leave them
+        boolean reachable = hole <= next ? (hole < home && home <= next)
+            : (hole < home || home <= next);
+        if (!reachable) {
+          copySlot(table, next * SLOT_SIZE, hole * SLOT_SIZE);
+          hole = next;
+        }
+      }
+      clearSlot(hole);
+      size--;
+    }
+
+    void write(int slot, int fileId, BlockCacheKey key, BucketEntry entry) {
+      int base = slot * SLOT_SIZE;
+      table.putLong(base + BLOCK_OFFSET, key.getOffset());
+      table.putInt(base + FILE_ID, fileId);
+      table.putInt(base + LENGTH, entry.getLength());
+      table.putLong(base + CACHE_OFFSET, entry.offset());
+      table.putLong(base + ACCESS_COUNTER, entry.getAccessCounter());
+      table.putLong(base + CACHED_TIME, entry.getCachedTime());
+      table.putInt(base + REF_COUNT, entry.getRefCount());
+      table.put(base + BLOCK_TYPE,
+        key.getBlockType() == null ? NO_BLOCK_TYPE : (byte) key.getBlockType().ordinal());
+      table.put(base + PRIORITY, (byte) entry.getPriority().ordinal());
+      table.put(base + DESERIALISER_INDEX, entry.deserialiserIndex);
+      byte flags = 0;
+      if (key.isPrimary()) {
+        flags |= FLAG_PRIMARY;
+      }
+      if (entry.isMarkedForEvict()) {
+        flags |= FLAG_MARKED_FOR_EVICT;
+      }
+      table.put(base + FLAGS, flags);
+    }
+
+    boolean matches(int slot, BucketEntry entry) {
+      int base = slot * SLOT_SIZE;
+      return table.getLong(base + CACHE_OFFSET) == entry.offset()
+          && table.getInt(base + LENGTH) == entry.getLength()
+          && table.getLong(base + CACHED_TIME) == entry.getCachedTime();
+    }
+
+    EntryView view(OffHeapBucketEntryMap map, int slot) {
+      int base = slot * SLOT_SIZE;
+      EntryView view = new EntryView(map, table.getInt(base + FILE_ID),
+          table.getLong(base + BLOCK_OFFSET), table.getLong(base + CACHE_OFFSET),
+          table.getInt(base + LENGTH), table.getLong(base + ACCESS_COUNTER),
+          PRIORITIES[table.get(base + PRIORITY)], table.getLong(base + CACHED_TIME));
+      view.deserialiserIndex = table.get(base + DESERIALISER_INDEX);
+      return view;
+    }
+
+    BlockCacheKey key(String fileName, int slot) {
+      int base = slot * SLOT_SIZE;
+      byte type = table.get(base + BLOCK_TYPE);
+      return new BlockCacheKey(fileName, table.getLong(base + BLOCK_OFFSET),
+          (table.get(base + FLAGS) & FLAG_PRIMARY) != 0,
+          type == NO_BLOCK_TYPE ? null : BLOCK_TYPES[type]);
+    }
+  }
+
+  /**
+   * A {@link BucketEntry} backed by a slot of the map, see the class comment.
+   */
+  private static final class EntryView extends BucketEntry {
+    private static final long serialVersionUID = 1L;
+
+    private final transient OffHeapBucketEntryMap map;
+    private final int fileId;
+    private final long blockOffset;
+
+    EntryView(OffHeapBucketEntryMap map, int fileId, long blockOffset, long cacheOffset,
+        int length, long accessCounter, BlockPriority priority, long cachedTime) {
+      super(cacheOffset, length, accessCounter, priority, cachedTime);
+      this.map = map;
+      this.fileId = fileId;
+      this.blockOffset = blockOffset;
+    }
+
+    @Override
+    public void access(long accessCounter) {
+      super.access(accessCounter);
+      map.recordAccess(this);
+    }
+
+    @Override
+    int getRefCount() {
+      return map.getRefCount(this);
+    }
+
+    @Override
+    int incrementRefCount() {
+      return map.addToRefCount(this, 1);
+    }
+
+    @Override
+    int decrementRefCount() {
+      return map.addToRefCount(this, -1);
+    }
+
+    @Override
+    boolean isMarkedForEvict() {
+      return map.isMarkedForEvict(this);
+    }
+
+    @Override
+    void markForEvict() {
+      map.markForEvict(this);
+    }
+  }
+
+  /**
+   * Locks the segment of the view for reading and returns the slot still holding its
+   * allocation, or -1 if the entry has been removed or replaced since the view was created.
+   * The caller must unlock the segment.
+   */
+  private int lockedSlot(EntryView view, Segment segment) {
+    int slot = segment.find(view.fileId, view.blockOffset, hash(view.fileId, view.blockOffset));
+    return slot >= 0 && segment.matches(slot, view) ? slot : -1;
+  }
+
+  private void recordAccess(EntryView view) {
+    Segment segment = segmentFor(hash(view.fileId, view.blockOffset));
+    segment.lock.writeLock().lock();
+    try {
+      int slot = lockedSlot(view, segment);
+      if (slot >= 0) {
+        int base = slot * SLOT_SIZE;
+        segment.table.putLong(base + ACCESS_COUNTER, view.getAccessCounter());
+        segment.table.put(base + PRIORITY, (byte) view.getPriority().ordinal());
+      }
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  private int getRefCount(EntryView view) {
+    Segment segment = segmentFor(hash(view.fileId, view.blockOffset));
+    segment.lock.readLock().lock();
+    try {
+      int slot = lockedSlot(view, segment);
+      return slot >= 0 ? segment.table.getInt(slot * SLOT_SIZE + REF_COUNT) : 0;
+    } finally {
+      segment.lock.readLock().unlock();
+    }
+  }
+
+  private int addToRefCount(EntryView view, int delta) {
+    Segment segment = segmentFor(hash(view.fileId, view.blockOffset));
+    segment.lock.writeLock().lock();
+    try {
+      int slot = lockedSlot(view, segment);
+      if (slot < 0) {
+        return 0;
+      }
+      int index = slot * SLOT_SIZE + REF_COUNT;
+      int refCount = segment.table.getInt(index) + delta;
+      segment.table.putInt(index, refCount);
+      return refCount;
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  private boolean isMarkedForEvict(EntryView view) {
+    Segment segment = segmentFor(hash(view.fileId, view.blockOffset));
+    segment.lock.readLock().lock();
+    try {
+      int slot = lockedSlot(view, segment);
+      return slot >= 0 && (segment.table.get(slot * SLOT_SIZE + FLAGS) & FLAG_MARKED_FOR_EVICT) != 0;
+    } finally {
+      segment.lock.readLock().unlock();
+    }
+  }
+
+  private void markForEvict(EntryView view) {
+    Segment segment = segmentFor(hash(view.fileId, view.blockOffset));
+    segment.lock.writeLock().lock();
+    try {
+      int slot = lockedSlot(view, segment);
+      if (slot >= 0) {
+        int index = slot * SLOT_SIZE + FLAGS;
+        segment.table.put(index, (byte) (segment.table.get(index) | FLAG_MARKED_FOR_EVICT));
+      }
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public BucketEntry get(Object key) {
+    if (!(key instanceof BlockCacheKey)) {
+      return null;
+    }
+    BlockCacheKey cacheKey = (BlockCacheKey) key;
+    int fileId = lookupFileId(cacheKey.getHfileName());
+    if (fileId == 0) {
+      return null;
+    }
+    long hash = hash(fileId, cacheKey.getOffset());
+    Segment segment = segmentFor(hash);
+    segment.lock.readLock().lock();
+    try {
+      int slot = segment.find(fileId, cacheKey.getOffset(), hash);
+      return slot >= 0 ? segment.view(this, slot) : null;
+    } finally {
+      segment.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public BucketEntry put(BlockCacheKey key, BucketEntry value) {
+    return put(key, value, false);
+  }
+
+  @Override
+  public BucketEntry putIfAbsent(BlockCacheKey key, BucketEntry value) {
+    return put(key, value, true);
+  }
+
+  private BucketEntry put(BlockCacheKey key, BucketEntry value, boolean onlyIfAbsent) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    int fileId = acquireFileId(key.getHfileName());
+    boolean existed = false;
+    long hash = hash(fileId, key.getOffset());
+    Segment segment = segmentFor(hash);
+    segment.lock.writeLock().lock();
+    try {
+      int slot = segment.findForInsert(fileId, key.getOffset(), hash);
+      BucketEntry previous = null;
+      if (segment.fileId(slot) != 0) {
+        existed = true;
+        previous = segment.view(this, slot);
+        if (onlyIfAbsent) {
+          return previous;
+        }
+      } else {
+        segment.size++;
+      }
+      segment.write(slot, fileId, key, value);
+      return previous;
+    } finally {
+      segment.lock.writeLock().unlock();
+      if (existed) {
+        // The id was already counted for this key
+        releaseFileId(key.getHfileName());
+      }
+    }
+  }
+
+  @Override
+  public BucketEntry remove(Object key) {
+    return remove(key, null, true);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return value instanceof BucketEntry && remove(key, (BucketEntry) value, false) != null;
+  }
+
+  /**
+   * Removes the key if it is present and, unless any is set, holds the same allocation as
+   * expected.
+   * @return the removed entry, or null if nothing was removed
+   */
+  private BucketEntry remove(Object key, BucketEntry expected, boolean any) {
+    if (!(key instanceof BlockCacheKey)) {
+      return null;
+    }
+    BlockCacheKey cacheKey = (BlockCacheKey) key;
+    int fileId = lookupFileId(cacheKey.getHfileName());
+    if (fileId == 0) {
+      return null;
+    }
+    BucketEntry removed = null;
+    long hash = hash(fileId, cacheKey.getOffset());
+    Segment segment = segmentFor(hash);
+    segment.lock.writeLock().lock();
+    try {
+      int slot = segment.find(fileId, cacheKey.getOffset(), hash);
+      if (slot >= 0 && (any || segment.matches(slot, expected))) {
+        removed = segment.view(this, slot);
+        segment.delete(slot);
+      }
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+    if (removed != null) {
+      releaseFileId(cacheKey.getHfileName());
+    }
+    return removed;
+  }
+
+  @Override
+  public boolean replace(BlockCacheKey key, BucketEntry oldValue, BucketEntry newValue) {
+    if (newValue == null) {
+      throw new NullPointerException();
+    }
+    int fileId = lookupFileId(key.getHfileName());
+    if (fileId == 0) {
+      return false;
+    }
+    long hash = hash(fileId, key.getOffset());
+    Segment segment = segmentFor(hash);
+    segment.lock.writeLock().lock();
+    try {
+      int slot = segment.find(fileId, key.getOffset(), hash);
+      if (slot < 0 || !segment.matches(slot, oldValue)) {
+        return false;
+      }
+      segment.write(slot, fileId, key, newValue);
+      return true;
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public BucketEntry replace(BlockCacheKey key, BucketEntry value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    int fileId = lookupFileId(key.getHfileName());
+    if (fileId == 0) {
+      return null;
+    }
+    long hash = hash(fileId, key.getOffset());
+    Segment segment = segmentFor(hash);
+    segment.lock.writeLock().lock();
+    try {
+      int slot = segment.find(fileId, key.getOffset(), hash);
+      if (slot < 0) {
+        return null;
+      }
+      BucketEntry previous = segment.view(this, slot);
+      segment.write(slot, fileId, key, value);
+      return previous;
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Segment segment : segments) {
+      if (segment.size > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.lock.writeLock().lock();
+      try {
+        for (int i = 0; i < segment.capacity(); i++) {
+          segment.clearSlot(i);
+        }
+        segment.size = 0;
+      } finally {
+        segment.lock.writeLock().unlock();
+      }
+    }
+    fileIds.clear();
+    fileNames.clear();
+  }
+
+  /**
+   * @return the number of bytes of direct memory held by the tables
+   */
+  long getOffHeapSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += (long) segment.capacity() * SLOT_SIZE;
+    }
+    return size;
+  }
+
+  /**
+   * @return a copy of this map on the heap, holding plain entries that can be serialized
+   */
+  ConcurrentHashMap<BlockCacheKey, BucketEntry> toHeapMap() {
+    ConcurrentHashMap<BlockCacheKey, BucketEntry> copy = new ConcurrentHashMap<>(size());
+    for (Map.Entry<BlockCacheKey, BucketEntry> e : entrySet()) {
+      BucketEntry view = e.getValue();
+      BucketEntry entry = new BucketEntry(view.offset(), view.getLength(),
+          view.getAccessCounter(), view.getPriority(), view.getCachedTime());
+      entry.deserialiserIndex = view.deserialiserIndex;
+      copy.put(e.getKey(), entry);
+    }
+    return copy;
+  }
+
+  @Override
+  public Set<Map.Entry<BlockCacheKey, BucketEntry>> entrySet() {
+    return new AbstractSet<Map.Entry<BlockCacheKey, BucketEntry>>() {
+      @Override
+      public Iterator<Map.Entry<BlockCacheKey, BucketEntry>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return OffHeapBucketEntryMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * Weakly consistent iterator. It snapshots one segment at a time, so at most one segment
+   * worth of entries is materialized on the heap at once.
+   */
+  private final class EntryIterator implements Iterator<Map.Entry<BlockCacheKey, BucketEntry>> {
+    private int nextSegment = 0;
+    private List<Map.Entry<BlockCacheKey, BucketEntry>> batch = new ArrayList<>();
+    private int batchIndex = 0;
+    private Map.Entry<BlockCacheKey, BucketEntry> last;
+
+    @Override
+    public boolean hasNext() {
+      while (batchIndex >= batch.size() && nextSegment < segments.length) {
+        loadSegment(segments[nextSegment++]);
+      }
+      return batchIndex < batch.size();
+    }
+
+    private void loadSegment(Segment segment) {
+      batch.clear();
+      batchIndex = 0;
+      segment.lock.readLock().lock();
+      try {
+        for (int slot = 0; slot < segment.capacity(); slot++) {
+          int fileId = segment.fileId(slot);
+          if (fileId == 0) {
+            continue;
+          }
+          String fileName = fileNames.get(fileId);
+          if (fileName == null) {
+            // Raced with a clear
+            continue;
+          }
+          batch.add(new AbstractMap.SimpleImmutableEntry<>(segment.key(fileName, slot),
+              segment.view(OffHeapBucketEntryMap.this, slot)));
+        }
+      } finally {
+        segment.lock.readLock().unlock();
+      }
+    }
+
+    @Override
+    public Map.Entry<BlockCacheKey, BucketEntry> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = batch.get(batchIndex++);
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      OffHeapBucketEntryMap.this.remove(last.getKey(), last.getValue());
+      last = null;
+    }
+  }
+}
@@ -58,6 +58,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.ClusterMetrics;
 import org.apache.hadoop.hbase.ClusterMetrics.Option;
 import org.apache.hadoop.hbase.ClusterMetricsBuilder;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.CoordinatedStateException;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HBaseIOException;
@@ -171,6 +172,7 @@ import org.apache.hadoop.hbase.security.AccessDeniedException;
 import org.apache.hadoop.hbase.security.UserProvider;
 import org.apache.hadoop.hbase.trace.TraceUtil;
 import org.apache.hadoop.hbase.util.Addressing;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.EncryptionTest;
@@ -1872,6 +1874,17 @@ public class HMaster extends HRegionServer implements MasterServices {
       // check replication scope
       checkReplicationScope(hcd);
 
+      // check the row prefix of a row prefix Bloom filter
+      try {
+        BloomFilterUtil.getBloomFilterParam(hcd.getBloomFilterType(),
+          new CompoundConfiguration().add(conf).addBytesMap(htd.getValues())
+              .addStringMap(hcd.getConfiguration()).addBytesMap(hcd.getValues()));
+      } catch (IllegalArgumentException e) {
+        String message = "Bloom filter of column family " + hcd.getNameAsString()
+            + " is misconfigured: " + e.getMessage();
+        warnOrThrowExceptionForFailure(logWarn, CONF_KEY, message, null);
+      }
+
       // check data replication factor, it can be 0(default value) when user has not explicitly
       // set the value, in this case we use default replication factor set in the file system.
       if (hcd.getDFSReplication() < 0) {
@@ -0,0 +1,1002 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.ExtendedCell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A concurrent sorted map of Cells for the active segment of a memstore, an alternative to the
+ * ConcurrentSkipListMap behind {@link CellSet}. Like in the CellSet, every cell is both the key
+ * and the value of its entry.
+ * <p>
+ * The map is a skip list whose nodes are not objects but slots of primitive arrays, allocated in
+ * blocks of 4K slots. Like in {@link CellChunkMap}, a cell that was copied into a chunk of the
+ * {@link MemStoreLAB} is kept as its chunk id and offset packed in a long, plus its sequence id.
+ * Only the cells that are not in a chunk, like upserted cells, are kept as objects. The links
+ * between the nodes are ints, updated with CAS, so insertion is lock-free. There are no node,
+ * index or cell objects per entry that live as long as the segment. With the default comparator
+ * the keys in the chunks are compared in place, and cells are only materialized when they are
+ * returned, as flyweights over the chunk bytes which die young.
+ * <p>
+ * Removing a cell marks its node as deleted, the slot is only reclaimed with the map. A deleted
+ * key is revived by a later put. Putting a cell whose key is present takes a new slot for the
+ * cell and swings the node to it.
+ * <p>
+ * Like {@link CellFlatMap}, only the operations the segments use are supported, the others throw
+ * UnsupportedOperationException. The views returned by headMap, tailMap, subMap and
+ * descendingMap are backed by the same index.
+ */
+@InterfaceAudience.Private
+public class CellChunkSkipListMap implements NavigableMap<Cell, Cell> {
+
+  private final Index index;
+  // bounds of this view in the natural order, null if unbounded
+  private final Cell lo;
+  private final boolean loInclusive;
+  private final Cell hi;
+  private final boolean hiInclusive;
+  private final boolean descending;
+
+  public CellChunkSkipListMap(Comparator<? super Cell> comparator) {
+    this(new Index(comparator), null, false, null, false, false);
+  }
+
+  private CellChunkSkipListMap(Index index, Cell lo, boolean loInclusive, Cell hi,
+      boolean hiInclusive, boolean descending) {
+    this.index = index;
+    this.lo = lo;
+    this.loInclusive = loInclusive;
+    this.hi = hi;
+    this.hiInclusive = hiInclusive;
+    this.descending = descending;
+  }
+
+  /* ------------------------------------------------------------------------------------------ */
+  // Range checks and navigation inside the bounds of this view
+
+  private boolean tooLow(Cell key) {
+    if (lo == null) {
+      return false;
+    }
+    int c = index.compare(key, lo);
+    return c < 0 || (c == 0 && !loInclusive);
+  }
+
+  private boolean tooHigh(Cell key) {
+    if (hi == null) {
+      return false;
+    }
+    int c = index.compare(key, hi);
+    return c > 0 || (c == 0 && !hiInclusive);
+  }
+
+  private boolean inRange(Cell key) {
+    return !tooLow(key) && !tooHigh(key);
+  }
+
+  private boolean tooLow(int node) {
+    if (lo == null) {
+      return false;
+    }
+    int c = index.compareAt(node, lo);
+    return c < 0 || (c == 0 && !loInclusive);
+  }
+
+  private boolean tooHigh(int node) {
+    if (hi == null) {
+      return false;
+    }
+    int c = index.compareAt(node, hi);
+    return c > 0 || (c == 0 && !hiInclusive);
+  }
+
+  private int lowestNode() {
+    int node = lo == null ? index.firstNode() : index.ceilingNode(lo, loInclusive);
+    return node == Index.NIL || tooHigh(node) ? Index.NIL : node;
+  }
+
+  private int highestNode() {
+    int node = hi == null ? index.lastNode() : index.floorNode(hi, hiInclusive);
+    return node == Index.NIL || tooLow(node) ? Index.NIL : node;
+  }
+
+  private int higherNode(int node) {
+    node = index.nextNode(node);
+    return node == Index.NIL || tooHigh(node) ? Index.NIL : node;
+  }
+
+  private int lowerNode(int node) {
+    node = index.floorNode(index.keyOf(node), false);
+    return node == Index.NIL || tooLow(node) ? Index.NIL : node;
+  }
+
+  // first, last and successor in the order of this view, deleted nodes included
+
+  private int firstNode() {
+    return descending ? highestNode() : lowestNode();
+  }
+
+  private int lastNode() {
+    return descending ? lowestNode() : highestNode();
+  }
+
+  private int successor(int node) {
+    return descending ? lowerNode(node) : higherNode(node);
+  }
+
+  private int predecessor(int node) {
+    return descending ? higherNode(node) : lowerNode(node);
+  }
+
+  private Cell firstValue() {
+    for (int node = firstNode(); node != Index.NIL; node = successor(node)) {
+      Cell cell = index.valueOf(node);
+      if (cell != null) {
+        return cell;
+      }
+    }
+    return null;
+  }
+
+  private Cell lastValue() {
+    for (int node = lastNode(); node != Index.NIL; node = predecessor(node)) {
+      Cell cell = index.valueOf(node);
+      if (cell != null) {
+        return cell;
+      }
+    }
+    return null;
+  }
+
+  private static Entry<Cell, Cell> entryOf(Cell cell) {
+    return cell == null ? null : new AbstractMap.SimpleImmutableEntry<>(cell, cell);
+  }
+
+  private static Cell keyOrThrow(Cell cell) {
+    if (cell == null) {
+      throw new NoSuchElementException();
+    }
+    return cell;
+  }
+
+  /* ------------------------------------------------------------------------------------------ */
+  // Views
+
+  private CellChunkSkipListMap withLo(Cell key, boolean inclusive) {
+    if (lo != null && tooLow(key)) {
+      // the current bound is tighter
+      return new CellChunkSkipListMap(index, lo, loInclusive, hi, hiInclusive, descending);
+    }
+    return new CellChunkSkipListMap(index, key, inclusive, hi, hiInclusive, descending);
+  }
+
+  private CellChunkSkipListMap withHi(Cell key, boolean inclusive) {
+    if (hi != null && tooHigh(key)) {
+      return new CellChunkSkipListMap(index, lo, loInclusive, hi, hiInclusive, descending);
+    }
+    return new CellChunkSkipListMap(index, lo, loInclusive, key, inclusive, descending);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> headMap(Cell toKey, boolean inclusive) {
+    return descending ? withLo(toKey, inclusive) : withHi(toKey, inclusive);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> tailMap(Cell fromKey, boolean inclusive) {
+    return descending ? withHi(fromKey, inclusive) : withLo(fromKey, inclusive);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> subMap(Cell fromKey, boolean fromInclusive, Cell toKey,
+      boolean toInclusive) {
+    return tailMap(fromKey, fromInclusive).headMap(toKey, toInclusive);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> headMap(Cell toKey) {
+    return headMap(toKey, false);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> tailMap(Cell fromKey) {
+    return tailMap(fromKey, true);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> subMap(Cell fromKey, Cell toKey) {
+    return subMap(fromKey, true, toKey, false);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> descendingMap() {
+    return new CellChunkSkipListMap(index, lo, loInclusive, hi, hiInclusive, !descending);
+  }
+
+  /* ------------------------------------------------------------------------------------------ */
+  // Map operations
+
+  @Override
+  public Comparator<? super Cell> comparator() {
+    return descending ? Collections.reverseOrder(index.comparator) : index.comparator;
+  }
+
+  @Override
+  public int size() {
+    if (lo == null && hi == null) {
+      return index.size();
+    }
+    int size = 0;
+    for (Iterator<Cell> it = new ValueIterator(); it.hasNext(); it.next()) {
+      size++;
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return firstValue() == null;
+  }
+
+  @Override
+  public boolean containsKey(Object o) {
+    return get(o) != null;
+  }
+
+  @Override
+  public Cell get(Object o) {
+    Cell key = (Cell) o;
+    return inRange(key) ? index.get(key) : null;
+  }
+
+  /**
+   * Puts the value in the map, the key is expected to be equal to it, like in {@link CellSet}.
+   */
+  @Override
+  public Cell put(Cell key, Cell value) {
+    if (!inRange(key)) {
+      throw new IllegalArgumentException("key out of range");
+    }
+    return index.put(value);
+  }
+
+  @Override
+  public Cell remove(Object o) {
+    Cell key = (Cell) o;
+    return inRange(key) ? index.remove(key) : null;
+  }
+
+  @Override
+  public Entry<Cell, Cell> firstEntry() {
+    return entryOf(firstValue());
+  }
+
+  @Override
+  public Entry<Cell, Cell> lastEntry() {
+    return entryOf(lastValue());
+  }
+
+  @Override
+  public Cell firstKey() {
+    return keyOrThrow(firstValue());
+  }
+
+  @Override
+  public Cell lastKey() {
+    return keyOrThrow(lastValue());
+  }
+
+  @Override
+  public Entry<Cell, Cell> lowerEntry(Cell key) {
+    return headMap(key, false).lastEntry();
+  }
+
+  @Override
+  public Cell lowerKey(Cell key) {
+    return ((CellChunkSkipListMap) headMap(key, false)).lastValue();
+  }
+
+  @Override
+  public Entry<Cell, Cell> floorEntry(Cell key) {
+    return headMap(key, true).lastEntry();
+  }
+
+  @Override
+  public Cell floorKey(Cell key) {
+    return ((CellChunkSkipListMap) headMap(key, true)).lastValue();
+  }
+
+  @Override
+  public Entry<Cell, Cell> ceilingEntry(Cell key) {
+    return tailMap(key, true).firstEntry();
+  }
+
+  @Override
+  public Cell ceilingKey(Cell key) {
+    return ((CellChunkSkipListMap) tailMap(key, true)).firstValue();
+  }
+
+  @Override
+  public Entry<Cell, Cell> higherEntry(Cell key) {
+    return tailMap(key, false).firstEntry();
+  }
+
+  @Override
+  public Cell higherKey(Cell key) {
+    return ((CellChunkSkipListMap) tailMap(key, false)).firstValue();
+  }
+
+  @Override
+  public Collection<Cell> values() {
+    return new AbstractCollection<Cell>() {
+      @Override
+      public Iterator<Cell> iterator() {
+        return new ValueIterator();
+      }
+
+      @Override
+      public int size() {
+        return CellChunkSkipListMap.this.size();
+      }
+    };
+  }
+
+  /* ------------------------------------------------------------------------------------------ */
+  // The following methods are not used by the segments
+
+  @Override
+  public boolean containsValue(Object value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void putAll(Map<? extends Cell, ? extends Cell> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> navigableKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> descendingKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Set<Cell> keySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Set<Entry<Cell, Cell>> entrySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Iterates the live cells of the view in its order. A cell removed or put concurrently may or
+   * may not be seen, like with the iterators of ConcurrentSkipListMap.
+   */
+  private final class ValueIterator implements Iterator<Cell> {
+    private int nextNode;
+    private Cell nextValue;
+    private int lastReturned = Index.NIL;
+
+    ValueIterator() {
+      nextNode = firstNode();
+      advance();
+    }
+
+    // moves to the first node from nextNode on which is not deleted
+    private void advance() {
+      while (nextNode != Index.NIL) {
+        nextValue = index.valueOf(nextNode);
+        if (nextValue != null) {
+          return;
+        }
+        nextNode = successor(nextNode);
+      }
+      nextValue = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextNode != Index.NIL;
+    }
+
+    @Override
+    public Cell next() {
+      if (nextNode == Index.NIL) {
+        throw new NoSuchElementException();
+      }
+      Cell result = nextValue;
+      lastReturned = nextNode;
+      nextNode = successor(nextNode);
+      advance();
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == Index.NIL) {
+        throw new IllegalStateException();
+      }
+      index.removeNode(lastReturned);
+      lastReturned = Index.NIL;
+    }
+  }
+
+  /**
+   * The skip list shared by a map and all its views.
+   * <p>
+   * A slot is an int id into blocks of parallel arrays. A node slot holds the key of the node,
+   * its level 0 link, the start of its tower of upper level links and the slot of its current
+   * cell, which is the node itself until the cell is replaced. The towers are ranges of a pool of
+   * int arrays, never crossing a block. The block directories are copied on growth, so a reader
+   * which got to a slot through a volatile link always finds its block.
+   */
+  private static final class Index {
+    private static final int BLOCK_SHIFT = 12;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int MAX_LEVEL = 16;
+    // The head is in slot 0. It never follows another node, so 0 is also the end of the links.
+    private static final int HEAD = 0;
+    static final int NIL = 0;
+    private static final int DELETED = -1;
+    // A reference is the index of the chunk in chunks in the upper 32 bits and the offset in the
+    // lower 31 bits, the remaining bit tells whether the cell has tags. Cells outside the chunks
+    // are kept on heap.
+    private static final long TAGS_FLAG = 1L << 31;
+    private static final long OFFSET_MASK = TAGS_FLAG - 1;
+    private static final long ON_HEAP = -1L;
+
+    private static final class Block {
+      final long[] refs = new long[BLOCK_SIZE];
+      final long[] seqIds = new long[BLOCK_SIZE];
+      final int[] towers = new int[BLOCK_SIZE];
+      final AtomicIntegerArray values = new AtomicIntegerArray(BLOCK_SIZE);
+      final AtomicIntegerArray nexts = new AtomicIntegerArray(BLOCK_SIZE);
+      // cells that are not in a chunk, created when the first one is put
+      volatile Cell[] cells;
+    }
+
+    final Comparator<? super Cell> comparator;
+    private volatile Block[] blocks = new Block[0];
+    private volatile AtomicIntegerArray[] towerBlocks = new AtomicIntegerArray[0];
+    private final AtomicInteger nextSlot = new AtomicInteger(HEAD);
+    private final AtomicInteger nextTowerSlot = new AtomicInteger();
+    private final AtomicInteger height = new AtomicInteger(1);
+    private final AtomicInteger size = new AtomicInteger();
+    // The data of the chunks holding cells of the map, so that reading a cell does not look its
+    // chunk up in the ChunkCreator. Grown under the lock of chunkIndexes.
+    private volatile ByteBuffer[] chunks = new ByteBuffer[16];
+    private int numChunks;
+    private final Map<Integer, Integer> chunkIndexes = new ConcurrentHashMap<>();
+    // whether the keys in the chunks can be compared in place
+    private final boolean compareInPlace;
+
+    Index(Comparator<? super Cell> comparator) {
+      this.comparator = comparator;
+      this.compareInPlace = comparator == CellComparatorImpl.COMPARATOR;
+      int head = nextSlot.getAndIncrement();
+      Block block = ensureBlock(head);
+      block.refs[head] = ON_HEAP;
+      block.towers[head] = allocateTower(MAX_LEVEL);
+      block.values.set(head, DELETED);
+    }
+
+    int compare(Cell a, Cell b) {
+      return comparator.compare(a, b);
+    }
+
+    int size() {
+      return size.get();
+    }
+
+    /* ---------------------------------------------------------------------------------------- */
+    // Slots
+
+    private Block block(int slot) {
+      return blocks[slot >>> BLOCK_SHIFT];
+    }
+
+    private Block ensureBlock(int slot) {
+      int b = slot >>> BLOCK_SHIFT;
+      Block[] current = blocks;
+      if (b < current.length) {
+        return current[b];
+      }
+      synchronized (this) {
+        current = blocks;
+        if (b >= current.length) {
+          Block[] grown = Arrays.copyOf(current, b + 1);
+          for (int i = current.length; i <= b; i++) {
+            grown[i] = new Block();
+          }
+          blocks = grown;
+          current = grown;
+        }
+        return current[b];
+      }
+    }
+
+    private synchronized void ensureTowerBlock(int b) {
+      AtomicIntegerArray[] current = towerBlocks;
+      if (b >= current.length) {
+        AtomicIntegerArray[] grown = Arrays.copyOf(current, b + 1);
+        for (int i = current.length; i <= b; i++) {
+          grown[i] = new AtomicIntegerArray(BLOCK_SIZE);
+        }
+        towerBlocks = grown;
+      }
+    }
+
+    /**
+     * @return the first slot of a range of level - 1 tower slots
+     */
+    private int allocateTower(int level) {
+      int length = level - 1;
+      while (true) {
+        int current = nextTowerSlot.get();
+        int start = current;
+        if ((start & BLOCK_MASK) + length > BLOCK_SIZE) {
+          // skip the end of the block
+          start = (start | BLOCK_MASK) + 1;
+        }
+        if (nextTowerSlot.compareAndSet(current, start + length)) {
+          ensureTowerBlock((start + length - 1) >>> BLOCK_SHIFT);
+          return start;
+        }
+      }
+    }
+
+    /**
+     * Takes a new slot for the cell. A node slot of a level above 1 also gets a tower.
+     */
+    private int allocate(Cell cell, int level) {
+      int slot = nextSlot.getAndIncrement();
+      if (slot < 0) {
+        throw new IllegalStateException("Too many cells in the memstore index");
+      }
+      Block block = ensureBlock(slot);
+      int i = slot & BLOCK_MASK;
+      long ref = refOf(cell);
+      block.refs[i] = ref;
+      block.seqIds[i] = cell.getSequenceId();
+      if (ref == ON_HEAP) {
+        cellsOf(block)[i] = cell;
+      }
+      if (level > 1) {
+        block.towers[i] = allocateTower(level);
+      }
+      if (level > 0) {
+        block.values.set(i, slot);
+      }
+      return slot;
+    }
+
+    private static Cell[] cellsOf(Block block) {
+      Cell[] cells = block.cells;
+      if (cells == null) {
+        synchronized (block) {
+          cells = block.cells;
+          if (cells == null) {
+            cells = new Cell[BLOCK_SIZE];
+            block.cells = cells;
+          }
+        }
+      }
+      return cells;
+    }
+
+    private long refOf(Cell cell) {
+      if (!(cell instanceof ByteBufferKeyValue)) {
+        return ON_HEAP;
+      }
+      ByteBufferKeyValue bbCell = (ByteBufferKeyValue) cell;
+      int chunkId = bbCell.getChunkId();
+      if (chunkId == ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+        return ON_HEAP;
+      }
+      Chunk chunk = ChunkCreator.getInstance().getChunk(chunkId);
+      if (chunk == null || chunk.getData() != bbCell.getBuffer()) {
+        return ON_HEAP;
+      }
+      long ref = ((long) chunkIndex(chunkId, chunk.getData()) << 32) | bbCell.getOffset();
+      if (bbCell.getSerializedSize(true) != bbCell.getSerializedSize(false)) {
+        ref |= TAGS_FLAG;
+      }
+      return ref;
+    }
+
+    /**
+     * @return the index of the chunk in {@link #chunks}, added if it is not there yet
+     */
+    private int chunkIndex(int chunkId, ByteBuffer data) {
+      Integer index = chunkIndexes.get(chunkId);
+      if (index != null) {
+        return index;
+      }
+      synchronized (chunkIndexes) {
+        index = chunkIndexes.get(chunkId);
+        if (index == null) {
+          index = numChunks++;
+          ByteBuffer[] current = chunks;
+          if (index == current.length) {
+            current = Arrays.copyOf(current, index * 2);
+          }
+          current[index] = data;
+          chunks = current;
+          chunkIndexes.put(chunkId, index);
+        }
+        return index;
+      }
+    }
+
+    /**
+     * Materializes the cell of a slot, a flyweight over the chunk unless it is kept on heap.
+     */
+    private Cell cellAt(int slot) {
+      Block block = block(slot);
+      int i = slot & BLOCK_MASK;
+      long ref = block.refs[i];
+      if (ref == ON_HEAP) {
+        return block.cells[i];
+      }
+      ByteBuffer buf = chunks[(int) (ref >>> 32)];
+      int offset = (int) (ref & OFFSET_MASK);
+      int length = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + ByteBufferUtils.toInt(buf, offset)
+          + ByteBufferUtils.toInt(buf, offset + Bytes.SIZEOF_INT);
+      if ((ref & TAGS_FLAG) == 0) {
+        return new NoTagByteBufferChunkKeyValue(buf, offset, length, block.seqIds[i]);
+      }
+      int tagsLength = ByteBufferUtils.toShort(buf, offset + length) & 0xffff;
+      return new ByteBufferChunkKeyValue(buf, offset,
+          length + KeyValue.TAGS_LENGTH_SIZE + tagsLength, block.seqIds[i]);
+    }
+
+    /* ---------------------------------------------------------------------------------------- */
+    // Links
+
+    private int next(int node, int level) {
+      Block block = block(node);
+      int i = node & BLOCK_MASK;
+      if (level == 0) {
+        return block.nexts.get(i);
+      }
+      int t = block.towers[i] + level - 1;
+      return towerBlocks[t >>> BLOCK_SHIFT].get(t & BLOCK_MASK);
+    }
+
+    private void setNext(int node, int level, int next) {
+      Block block = block(node);
+      int i = node & BLOCK_MASK;
+      if (level == 0) {
+        block.nexts.set(i, next);
+      } else {
+        int t = block.towers[i] + level - 1;
+        towerBlocks[t >>> BLOCK_SHIFT].set(t & BLOCK_MASK, next);
+      }
+    }
+
+    private boolean casNext(int node, int level, int expect, int update) {
+      Block block = block(node);
+      int i = node & BLOCK_MASK;
+      if (level == 0) {
+        return block.nexts.compareAndSet(i, expect, update);
+      }
+      int t = block.towers[i] + level - 1;
+      return towerBlocks[t >>> BLOCK_SHIFT].compareAndSet(t & BLOCK_MASK, expect, update);
+    }
+
+    private static int randomLevel() {
+      int r = ThreadLocalRandom.current().nextInt();
+      int level = 1;
+      // one in four nodes goes up a level
+      while ((r & 3) == 0 && level < MAX_LEVEL) {
+        level++;
+        r >>>= 2;
+      }
+      return level;
+    }
+
+    /* ---------------------------------------------------------------------------------------- */
+    // Search
+
+    /**
+     * Finds the last node lower than the key, or equal to it if inclusive, on each level below
+     * top. The nodes and their successors are stored in preds and succs if given.
+     * @return the last such node on level 0, HEAD if there is none
+     */
+    private int findPredecessor(Cell key, boolean inclusive, int[] preds, int[] succs,
+        int top) {
+      int x = HEAD;
+      for (int level = top - 1; level >= 0; level--) {
+        int n;
+        while ((n = next(x, level)) != NIL && before(n, key, inclusive)) {
+          x = n;
+        }
+        if (preds != null) {
+          preds[level] = x;
+          succs[level] = n;
+        }
+      }
+      return x;
+    }
+
+    private boolean before(int node, Cell key, boolean inclusive) {
+      int c = compareAt(node, key);
+      return c < 0 || (inclusive && c == 0);
+    }
+
+    /**
+     * Compares the cell of a slot with the key. With {@link CellComparatorImpl#COMPARATOR} a cell
+     * in a chunk is compared where it is, following the same rules, without materializing it.
+     */
+    int compareAt(int slot, Cell key) {
+      Block block = block(slot);
+      int i = slot & BLOCK_MASK;
+      long ref = block.refs[i];
+      if (ref == ON_HEAP) {
+        return comparator.compare(block.cells[i], key);
+      }
+      if (!compareInPlace) {
+        return comparator.compare(cellAt(slot), key);
+      }
+      ByteBuffer buf = chunks[(int) (ref >>> 32)];
+      int offset = (int) (ref & OFFSET_MASK);
+      int keyEnd = offset + KeyValue.ROW_OFFSET + ByteBufferUtils.toInt(buf, offset);
+      int rowLength = ByteBufferUtils.toShort(buf, offset + KeyValue.ROW_OFFSET) & 0xffff;
+      int rowPosition = offset + KeyValue.ROW_KEY_OFFSET;
+      ByteBufferExtendedCell bbKey =
+          key instanceof ByteBufferExtendedCell ? (ByteBufferExtendedCell) key : null;
+      int c = bbKey != null
+          ? ByteBufferUtils.compareTo(buf, rowPosition, rowLength, bbKey.getRowByteBuffer(),
+            bbKey.getRowPosition(), key.getRowLength())
+          : ByteBufferUtils.compareTo(buf, rowPosition, rowLength, key.getRowArray(),
+            key.getRowOffset(), key.getRowLength());
+      if (c != 0) {
+        return c;
+      }
+      // The rest is CellComparatorImpl#compareWithoutRow and the sequence id
+      int familyPosition = rowPosition + rowLength + Bytes.SIZEOF_BYTE;
+      int familyLength = buf.get(familyPosition - Bytes.SIZEOF_BYTE);
+      int timestampPosition = keyEnd - KeyValue.TIMESTAMP_TYPE_SIZE;
+      int qualifierPosition = familyPosition + familyLength;
+      int qualifierLength = timestampPosition - qualifierPosition;
+      byte type = buf.get(keyEnd - 1);
+      if (familyLength + qualifierLength == 0 && type == KeyValue.Type.Minimum.getCode()) {
+        return 1;
+      }
+      if (key.getFamilyLength() + key.getQualifierLength() == 0
+          && key.getTypeByte() == KeyValue.Type.Minimum.getCode()) {
+        return -1;
+      }
+      c = bbKey != null
+          ? ByteBufferUtils.compareTo(buf, familyPosition, familyLength,
+            bbKey.getFamilyByteBuffer(), bbKey.getFamilyPosition(), key.getFamilyLength())
+          : ByteBufferUtils.compareTo(buf, familyPosition, familyLength, key.getFamilyArray(),
+            key.getFamilyOffset(), key.getFamilyLength());
+      if (c != 0) {
+        return c;
+      }
+      c = bbKey != null
+          ? ByteBufferUtils.compareTo(buf, qualifierPosition, qualifierLength,
+            bbKey.getQualifierByteBuffer(), bbKey.getQualifierPosition(),
+            key.getQualifierLength())
+          : ByteBufferUtils.compareTo(buf, qualifierPosition, qualifierLength,
+            key.getQualifierArray(), key.getQualifierOffset(), key.getQualifierLength());
+      if (c != 0) {
+        return c;
+      }
+      // newer timestamps first
+      c = Long.compare(key.getTimestamp(), ByteBufferUtils.toLong(buf, timestampPosition));
+      if (c != 0) {
+        return c;
+      }
+      c = (0xff & key.getTypeByte()) - (0xff & type);
+      if (c != 0) {
+        return c;
+      }
+      // later edits first
+      return Long.compare(key.getSequenceId(), block.seqIds[i]);
+    }
+
+    Cell keyOf(int node) {
+      return cellAt(node);
+    }
+
+    /**
+     * @return the current cell of the node, null if it is deleted
+     */
+    Cell valueOf(int node) {
+      int value = block(node).values.get(node & BLOCK_MASK);
+      return value == DELETED ? null : cellAt(value);
+    }
+
+    int firstNode() {
+      return next(HEAD, 0);
+    }
+
+    int lastNode() {
+      int x = HEAD;
+      for (int level = height.get() - 1; level >= 0; level--) {
+        int n;
+        while ((n = next(x, level)) != NIL) {
+          x = n;
+        }
+      }
+      return x;
+    }
+
+    int nextNode(int node) {
+      return next(node, 0);
+    }
+
+    /**
+     * @return the first node higher than the key, or equal to it if inclusive
+     */
+    int ceilingNode(Cell key, boolean inclusive) {
+      return next(findPredecessor(key, !inclusive, null, null, height.get()), 0);
+    }
+
+    /**
+     * @return the last node lower than the key, or equal to it if inclusive
+     */
+    int floorNode(Cell key, boolean inclusive) {
+      return findPredecessor(key, inclusive, null, null, height.get());
+    }
+
+    private int findNode(Cell key) {
+      int node = ceilingNode(key, true);
+      return node != NIL && compareAt(node, key) == 0 ? node : NIL;
+    }
+
+    /* ---------------------------------------------------------------------------------------- */
+    // Updates
+
+    Cell get(Cell key) {
+      int node = findNode(key);
+      return node == NIL ? null : valueOf(node);
+    }
+
+    Cell put(Cell cell) {
+      int[] preds = new int[MAX_LEVEL];
+      int[] succs = new int[MAX_LEVEL];
+      int node = NIL;
+      int level = 0;
+      while (true) {
+        int top = Math.max(height.get(), level);
+        findPredecessor(cell, false, preds, succs, top);
+        int succ = succs[0];
+        if (succ != NIL && compareAt(succ, cell) == 0) {
+          // the slot of a node that lost the race is left unused
+          return replace(succ, cell);
+        }
+        if (node == NIL) {
+          level = randomLevel();
+          node = allocate(cell, level);
+          if (level > top) {
+            // search again to get the predecessors on all levels of the node
+            continue;
+          }
+        }
+        setNext(node, 0, succ);
+        if (casNext(preds[0], 0, succ, node)) {
+          break;
+        }
+      }
+      size.incrementAndGet();
+      int h;
+      while (level > (h = height.get()) && !height.compareAndSet(h, level)) {
+        // retry
+      }
+      // The node is in the map once linked on level 0, the upper levels only speed up searches
+      for (int l = 1; l < level; l++) {
+        while (true) {
+          setNext(node, l, succs[l]);
+          if (casNext(preds[l], l, succs[l], node)) {
+            break;
+          }
+          findPredecessor(cell, false, preds, succs, level);
+        }
+      }
+      return null;
+    }
+
+    private Cell replace(int node, Cell cell) {
+      int slot = allocate(cell, 0);
+      AtomicIntegerArray values = block(node).values;
+      int i = node & BLOCK_MASK;
+      while (true) {
+        int old = values.get(i);
+        if (values.compareAndSet(i, old, slot)) {
+          if (old == DELETED) {
+            size.incrementAndGet();
+            return null;
+          }
+          return cellAt(old);
+        }
+      }
+    }
+
+    Cell remove(Cell key) {
+      int node = findNode(key);
+      return node == NIL ? null : removeNode(node);
+    }
+
+    Cell removeNode(int node) {
+      AtomicIntegerArray values = block(node).values;
+      int i = node & BLOCK_MASK;
+      while (true) {
+        int old = values.get(i);
+        if (old == DELETED) {
+          return null;
+        }
+        if (values.compareAndSet(i, old, DELETED)) {
+          size.decrementAndGet();
+          return cellAt(old);
+        }
+      }
+    }
+  }
+}
@@ -24,8 +24,10 @@ import static org.apache.hadoop.hbase.regionserver.Store.PRIORITY_USER;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
@@ -38,17 +40,20 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntSupplier;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.conf.ConfigurationManager;
 import org.apache.hadoop.hbase.conf.PropagatingConfigurationObserver;
 import org.apache.hadoop.hbase.quotas.RegionServerSpaceQuotaManager;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionLifeCycleTracker;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionPrioritizer;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequestImpl;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequester;
 import org.apache.hadoop.hbase.regionserver.throttle.CompactionThroughputControllerFactory;
 import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
 import org.apache.hadoop.hbase.util.StealJobQueue;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.util.StringUtils;
@@ -57,6 +62,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.hbase.thirdparty.com.google.common.base.Preconditions;
+import org.apache.hbase.thirdparty.com.google.common.collect.Iterables;
 
 /**
  * Compact region on request and then run split if appropriate
@@ -83,6 +89,22 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
       "hbase.regionserver.regionSplitLimit";
   public static final int DEFAULT_REGION_SERVER_REGION_SPLIT_LIMIT= 1000;
 
+  // Configuration key for the class ranking the queued compactions, none by default
+  public static final String COMPACTION_PRIORITIZER_CLASS =
+      "hbase.regionserver.compaction.prioritizer.class";
+
+  // Configuration key for how much earlier a ranked compaction has to be queued to move one rank
+  // ahead, in ms, 0 for no aging
+  public static final String COMPACTION_QUEUE_AGING_PERIOD =
+      "hbase.regionserver.compaction.queue.aging.period";
+  public static final long DEFAULT_COMPACTION_QUEUE_AGING_PERIOD = 10 * 60 * 1000;
+
+  // Configuration key for the rank added to a ranked compaction for each compaction of its table
+  // already queued, so that the tables take turns
+  public static final String COMPACTION_QUEUE_TABLE_SHARE =
+      "hbase.regionserver.compaction.queue.table.share";
+  public static final double DEFAULT_COMPACTION_QUEUE_TABLE_SHARE = 0.5;
+
   private final HRegionServer server;
   private final Configuration conf;
 
@@ -92,6 +114,12 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
 
   private volatile ThroughputController compactionThroughputController;
 
+  private final CompactionPrioritizer prioritizer;
+  private final long agingPeriod;
+  private final double tableShare;
+  // the queued times are taken relative to it, for the precision of the aging term
+  private final long startTime = EnvironmentEdgeManager.currentTime();
+
   /**
    * Splitting should not take place if the total number of regions exceed this.
    * This is not a hard limit to the number of regions but it is a guideline to
@@ -154,6 +182,15 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
     // compaction throughput controller
     this.compactionThroughputController =
         CompactionThroughputControllerFactory.create(server, conf);
+
+    String prioritizerClass = conf.get(COMPACTION_PRIORITIZER_CLASS);
+    this.prioritizer = prioritizerClass == null ? null
+        : ReflectionUtils.instantiateWithCustomCtor(prioritizerClass,
+          new Class[] { Configuration.class }, new Object[] { conf });
+    this.agingPeriod =
+        conf.getLong(COMPACTION_QUEUE_AGING_PERIOD, DEFAULT_COMPACTION_QUEUE_AGING_PERIOD);
+    this.tableShare =
+        conf.getDouble(COMPACTION_QUEUE_TABLE_SHARE, DEFAULT_COMPACTION_QUEUE_TABLE_SHARE);
   }
 
   @Override
@@ -431,6 +468,94 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
     return splits.getQueue().size();
   }
 
+  /**
+   * @return the size of the files selected by the queued compactions. The system compactions
+   *         which select their files once they run are not counted.
+   */
+  public long getCompactionQueuedSize() {
+    return getQueuedSize(longCompactions.getQueue()) + getQueuedSize(shortCompactions.getQueue());
+  }
+
+  private static long getQueuedSize(BlockingQueue<Runnable> queue) {
+    long size = 0;
+    for (Runnable r : queue) {
+      if (r instanceof CompactionRunner && ((CompactionRunner) r).compaction != null) {
+        size += ((CompactionRunner) r).compaction.getRequest().getSize();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @param limit the max number of compactions to return
+   * @return the queued compactions, in the order they are taken from the queues
+   */
+  public List<String> getQueuedCompactions(int limit) {
+    List<CompactionRunner> runners = new ArrayList<>();
+    for (Runnable r : Iterables.concat(longCompactions.getQueue(), shortCompactions.getQueue())) {
+      if (r instanceof CompactionRunner) {
+        runners.add((CompactionRunner) r);
+      }
+    }
+    runners.sort(COMPARATOR);
+    List<String> queued = new ArrayList<>(Math.min(limit, runners.size()));
+    for (CompactionRunner runner : runners.subList(0, Math.min(limit, runners.size()))) {
+      queued.add(runner.region.getRegionInfo().getEncodedName() + "/" + runner.store
+          + (prioritizer != null ? " rank=" + runner.rank + " order=" + runner.order : ""));
+    }
+    return queued;
+  }
+
+  private double rank(HRegion region, HStore store, int priority, CompactionContext compaction) {
+    return prioritizer == null ? 0
+        : prioritizer.rank(region, store, priority,
+          compaction != null ? compaction.getRequest() : null);
+  }
+
+  /**
+   * @return the order of a compaction in its queue, see {@link #queueOrder}, 0 without a
+   *         prioritizer
+   */
+  private double queueOrder(CompactionRunner runner) {
+    if (prioritizer == null) {
+      return 0;
+    }
+    TableName table = runner.region.getRegionInfo().getTable();
+    int tableQueued = 0;
+    for (Runnable r : runner.parent.getQueue()) {
+      if (r instanceof CompactionRunner && r != runner
+          && ((CompactionRunner) r).region.getRegionInfo().getTable().equals(table)) {
+        tableQueued++;
+      }
+    }
+    return queueOrder(runner.rank, runner.queuedPriority, runner.time - startTime, tableQueued,
+      agingPeriod, tableShare);
+  }
+
+  /**
+   * The order of a ranked compaction in its queue, lower first. It is the rank of the compaction,
+   * plus a share for each compaction of the same table which was already queued, so that the
+   * compactions of a table do not hold back the other tables, plus one for each aging period
+   * between the start of the queues and the time the compaction was first queued, so that a
+   * compaction moves one rank ahead of the compactions queued an aging period after it and does
+   * not wait forever. The order of a queued compaction does not change while it waits. The
+   * compactions of the stores which block updates do not yield to the other tables.
+   * @param queuedTime when the compaction was first queued, relative to the start of the queues
+   * @param tableQueued the number of compactions of the same table already queued
+   */
+  @VisibleForTesting
+  static double queueOrder(double rank, int priority, long queuedTime, int tableQueued,
+      long agingPeriod, double tableShare) {
+    double order = rank;
+    if (agingPeriod > 0) {
+      order += (double) queuedTime / agingPeriod;
+    }
+    if (priority > 0) {
+      order += tableShare * tableQueued;
+    }
+    return order;
+  }
+
   private boolean shouldSplitRegion() {
     if(server.getNumberOfOnlineRegions() > 0.9*regionSplitLimit) {
       LOG.warn("Total number of regions is approaching the upper limit " + regionSplitLimit + ". "
@@ -485,7 +610,11 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
       CompactionRunner o1 = (CompactionRunner) r1;
       CompactionRunner o2 = (CompactionRunner) r2;
       // less first
-      int cmp = Integer.compare(o1.queuedPriority, o2.queuedPriority);
+      int cmp = Double.compare(o1.order, o2.order);
+      if (cmp != 0) {
+        return cmp;
+      }
+      cmp = Integer.compare(o1.queuedPriority, o2.queuedPriority);
       if (cmp != 0) {
         return cmp;
       }
@@ -506,6 +635,8 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
     private final CompactionLifeCycleTracker tracker;
     private final CompactionCompleteTracker completeTracker;
     private int queuedPriority;
+    private double rank;
+    private double order;
     private ThreadPoolExecutor parent;
     private User user;
     private long time;
@@ -520,19 +651,23 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
       this.completeTracker = completeTracker;
       this.queuedPriority =
           compaction != null ? compaction.getRequest().getPriority() : store.getCompactPriority();
+      this.rank = rank(region, store, queuedPriority, compaction);
       this.parent = parent;
       this.user = user;
       this.time = EnvironmentEdgeManager.currentTime();
+      this.order = queueOrder(this);
     }
 
     @Override
     public String toString() {
+      String s;
       if (compaction != null) {
-        return "Request = " + compaction.getRequest();
+        s = "Request = " + compaction.getRequest();
       } else {
-        return "regionName = " + region.toString() + ", storeName = " + store.toString() +
+        s = "regionName = " + region.toString() + ", storeName = " + store.toString() +
             ", priority = " + queuedPriority + ", time = " + time;
       }
+      return prioritizer != null ? s + ", rank = " + rank + ", order = " + order : s;
     }
 
     private void doCompaction(User user) {
@@ -544,6 +679,8 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
         if (this.queuedPriority > oldPriority) {
           // Store priority decreased while we were in queue (due to some other compaction?),
           // requeue with new priority to avoid blocking potential higher priorities.
+          this.rank = rank(region, store, queuedPriority, null);
+          this.order = queueOrder(this);
           this.parent.execute(this);
           return;
         }
@@ -574,6 +711,7 @@ public class CompactSplit implements CompactionRequester, PropagatingConfigurati
         if (this.parent == shortCompactions && pool == longCompactions) {
           this.store.cancelRequestedCompaction(c);
           this.parent = pool;
+          this.order = queueOrder(this);
           this.parent.execute(this);
           return;
         }
@@ -62,6 +62,13 @@ public class CompactingMemStore extends AbstractMemStore {
   public static final String IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY =
       "hbase.memstore.inmemoryflush.threshold.factor";
   private static final double IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT = 0.1;
+  // Whether the flat segments of the pipeline get a bloom filter of their rows, which lets Gets
+  // skip the segments that do not hold the row
+  public static final String IN_MEMORY_ROW_BLOOM_KEY = "hbase.memstore.inmemory.row.bloom";
+  public static final boolean IN_MEMORY_ROW_BLOOM_DEFAULT = false;
+  public static final String IN_MEMORY_ROW_BLOOM_ERROR_RATE_KEY =
+      "hbase.memstore.inmemory.row.bloom.error.rate";
+  public static final double IN_MEMORY_ROW_BLOOM_ERROR_RATE_DEFAULT = 0.01;
 
   private static final Logger LOG = LoggerFactory.getLogger(CompactingMemStore.class);
   private HStore store;
@@ -324,6 +331,13 @@ public class CompactingMemStore extends AbstractMemStore {
     pipeline.flattenOneSegment(requesterVersion, indexType, action);
   }
 
+  /**
+   * Builds the row bloom filters of the flat segments of the pipeline which have none yet.
+   */
+  public void buildRowBlooms(double errorRate, int hashType) {
+    pipeline.buildRowBlooms(errorRate, hashType);
+  }
+
   // setter is used only for testability
   @VisibleForTesting
   void setIndexType(IndexType type) {
@@ -26,6 +26,7 @@ import java.util.List;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.hadoop.hbase.util.BloomFilterChunk;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 
@@ -215,6 +216,42 @@ public class CompactionPipeline {
     return false;
   }
 
+  /**
+   * Builds the row bloom filters of the flat segments which have none yet. The blooms are built
+   * outside the lock, off a copy of the pipeline, and installed under it, only on the segments
+   * still in the pipeline, so that the heap size of the blooms is accounted for before the
+   * segments can move on to a snapshot.
+   */
+  public void buildRowBlooms(double errorRate, int hashType) {
+    List<ImmutableSegment> segments = new ArrayList<>();
+    List<BloomFilterChunk> blooms = new ArrayList<>();
+    for (ImmutableSegment s : readOnlyCopy) {
+      if (!s.canBeFlattened() && !s.hasRowBloom()) {
+        BloomFilterChunk bloom = s.createRowBloom(errorRate, hashType);
+        if (bloom != null) {
+          segments.add(s);
+          blooms.add(bloom);
+        }
+      }
+    }
+    if (segments.isEmpty()) {
+      return;
+    }
+    synchronized (pipeline) {
+      long heapSize = 0;
+      for (int i = 0; i < segments.size(); i++) {
+        ImmutableSegment s = segments.get(i);
+        // a swap or a snapshot may have taken the segment meanwhile
+        if (!s.hasRowBloom() && pipeline.contains(s)) {
+          heapSize += s.setRowBloom(blooms.get(i));
+        }
+      }
+      if (region != null && heapSize > 0) {
+        region.addMemStoreSize(new MemStoreSize(0, heapSize));
+      }
+    }
+  }
+
   public boolean isEmpty() {
     return readOnlyCopy.isEmpty();
   }
@@ -0,0 +1,282 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.IsolationLevel;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequestImpl;
+import org.apache.hadoop.hbase.regionserver.compactions.DefaultCompactor;
+import org.apache.hadoop.hbase.regionserver.compactions.OffloadCompactor;
+import org.apache.hadoop.hbase.regionserver.throttle.NoLimitThroughputController;
+import org.apache.hadoop.hbase.security.UserProvider;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Compacts some files of a store in its own process, for the
+ * {@link org.apache.hadoop.hbase.regionserver.compactions.LocalProcessCompactionService}.
+ * <p>
+ * Like the {@code CompactionTool}, it opens the store from the file system, and writes the
+ * compacted files in the temporary directory of the region. It does not commit them: it prints
+ * their paths on the standard output for the region server to commit them. It logs in with the
+ * keytab and the principal of the region server when security is enabled.
+ * <p>
+ * It does not load the coprocessors of the region, the {@link OffloadCompactor} does not send it
+ * the compactions of the regions with compaction scanner observers.
+ */
+@InterfaceAudience.Private
+public class CompactionWorker extends Configured implements Tool {
+
+  private static final String OUTPUT = "output";
+  private static final String PROGRESS = "progress";
+
+  /**
+   * @return the arguments of a worker compacting the files of the request, as seen by the region
+   *         server
+   */
+  public static List<String> getArguments(HStore store, CompactionRequestImpl request) {
+    HRegion region = store.getHRegion();
+    List<String> args = new ArrayList<>();
+    RegionServerServices rsServices = region.getRegionServerServices();
+    if (rsServices != null && rsServices.getServerName() != null) {
+      args.add("-host");
+      args.add(rsServices.getServerName().getHostname());
+    }
+    args.add("-tableDir");
+    args.add(region.getRegionFileSystem().getTableDir().toString());
+    args.add("-family");
+    args.add(store.getColumnFamilyName());
+    args.add("-readPoint");
+    args.add(Long.toString(region.getReadPoint(IsolationLevel.READ_COMMITTED)));
+    args.add("-smallestReadPoint");
+    args.add(Long.toString(region.getSmallestReadPoint()));
+    if (request.isMajor()) {
+      args.add("-major");
+    }
+    if (request.isAllFiles()) {
+      args.add("-allFiles");
+    }
+    for (HStoreFile file : request.getFiles()) {
+      args.add(file.getPath().getName());
+    }
+    return args;
+  }
+
+  /**
+   * Writes the descriptors of the table and the region of the store, for the {@code -regionFile}
+   * of a worker.
+   */
+  public static void writeRegion(HStore store, File file) throws IOException {
+    HRegion region = store.getHRegion();
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      Bytes.writeByteArray(out, TableDescriptorBuilder.toByteArray(region.getTableDescriptor()));
+      Bytes.writeByteArray(out, RegionInfo.toByteArray(region.getRegionInfo()));
+    }
+  }
+
+  /**
+   * @param lines the standard output of a worker
+   * @param progress to update with the progress of the worker
+   * @return the compacted files
+   */
+  public static List<Path> parseOutput(List<String> lines, CompactionProgress progress)
+      throws IOException {
+    List<Path> newFiles = new ArrayList<>();
+    boolean done = false;
+    for (String line : lines) {
+      if (line.startsWith(OUTPUT + " ")) {
+        newFiles.add(new Path(line.substring(OUTPUT.length() + 1)));
+      } else if (line.startsWith(PROGRESS + " ")) {
+        String[] fields = line.split(" ");
+        progress.currentCompactedKVs = Long.parseLong(fields[1]);
+        progress.totalCompactedSize = Long.parseLong(fields[2]);
+        done = true;
+      }
+    }
+    if (!done) {
+      throw new IOException("No result from the compaction worker");
+    }
+    return newFiles;
+  }
+
+  private void compact(TableDescriptor htd, RegionInfo regionInfo, Path tableDir,
+      String familyName, final long readPoint, final long smallestReadPoint, boolean major,
+      boolean allFiles, Set<String> fileNames) throws IOException {
+    Configuration conf = new Configuration(getConf());
+    // Compactions do not cache what they read
+    conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0f);
+    conf.unset(HConstants.BUCKET_CACHE_IOENGINE_KEY);
+    ColumnFamilyDescriptor family = htd.getColumnFamily(Bytes.toBytes(familyName));
+    if (family == null) {
+      throw new IOException("No family " + familyName + " in " + htd.getTableName());
+    }
+    // The worker compacts by itself, whatever the compactor of the family
+    family = ColumnFamilyDescriptorBuilder.newBuilder(family)
+        .setConfiguration(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY,
+          conf.get(OffloadCompactor.WORKER_COMPACTOR_CLASS_KEY, DefaultCompactor.class.getName()))
+        .build();
+    htd = TableDescriptorBuilder.newBuilder(htd).modifyColumnFamily(family).build();
+
+    FileSystem fs = tableDir.getFileSystem(conf);
+    HRegionFileSystem regionFs = new HRegionFileSystem(conf, fs, tableDir, regionInfo);
+    // Same read points as the region server, so that the same cells are visible and cleaned
+    HRegion region = new HRegion(regionFs, null, conf, htd, null) {
+      @Override
+      public long getSmallestReadPoint() {
+        return smallestReadPoint;
+      }
+
+      @Override
+      public long getReadPoint(IsolationLevel isolationLevel) {
+        return readPoint;
+      }
+    };
+    HStore store = new HStore(region, family, conf);
+    try {
+      List<HStoreFile> files = new ArrayList<>();
+      for (HStoreFile file : store.getStorefiles()) {
+        if (fileNames.contains(file.getPath().getName())) {
+          files.add(file);
+        }
+      }
+      if (files.size() != fileNames.size()) {
+        throw new IOException("Missing files to compact in " + store + ", found " + files
+            + " out of " + fileNames);
+      }
+      CompactionRequestImpl request = new CompactionRequestImpl(files);
+      request.setIsMajor(major, allFiles);
+      DefaultCompactor compactor = (DefaultCompactor) store.getStoreEngine().getCompactor();
+      List<Path> newFiles = compactor.compact(request, NoLimitThroughputController.INSTANCE, null);
+      CompactionProgress progress = compactor.getProgress();
+      for (Path newFile : newFiles) {
+        System.out.println(OUTPUT + " " + newFile);
+      }
+      System.out.println(PROGRESS + " " + progress.currentCompactedKVs + " "
+          + progress.totalCompactedSize);
+    } finally {
+      store.close();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    TableDescriptor htd = null;
+    RegionInfo regionInfo = null;
+    String host = null;
+    Path tableDir = null;
+    String family = null;
+    long readPoint = -1;
+    long smallestReadPoint = -1;
+    boolean major = false;
+    boolean allFiles = false;
+    Set<String> fileNames = new HashSet<>();
+
+    try {
+      for (int i = 0; i < args.length; ++i) {
+        String opt = args[i];
+        if (opt.equals("-regionFile")) {
+          try (DataInputStream in = new DataInputStream(new FileInputStream(args[++i]))) {
+            htd = TableDescriptorBuilder.parseFrom(Bytes.readByteArray(in));
+            regionInfo = RegionInfo.parseFrom(Bytes.readByteArray(in));
+          }
+        } else if (opt.equals("-host")) {
+          host = args[++i];
+        } else if (opt.equals("-tableDir")) {
+          tableDir = new Path(args[++i]);
+        } else if (opt.equals("-family")) {
+          family = args[++i];
+        } else if (opt.equals("-readPoint")) {
+          readPoint = Long.parseLong(args[++i]);
+        } else if (opt.equals("-smallestReadPoint")) {
+          smallestReadPoint = Long.parseLong(args[++i]);
+        } else if (opt.equals("-major")) {
+          major = true;
+        } else if (opt.equals("-allFiles")) {
+          allFiles = true;
+        } else if (!opt.startsWith("-")) {
+          fileNames.add(opt);
+        } else {
+          printUsage("Unknown option " + opt);
+          return 1;
+        }
+      }
+    } catch (Exception e) {
+      printUsage(e.getMessage());
+      return 1;
+    }
+
+    if (htd == null || regionInfo == null || tableDir == null || family == null
+        || readPoint < 0 || smallestReadPoint < 0 || fileNames.isEmpty()) {
+      printUsage("Missing arguments");
+      return 1;
+    }
+    if (host == null) {
+      host = InetAddress.getLocalHost().getCanonicalHostName();
+    }
+    // Same user as the region server, which owns the files of the store
+    UserProvider.instantiate(getConf()).login("hbase.regionserver.keytab.file",
+      "hbase.regionserver.kerberos.principal", host);
+    compact(htd, regionInfo, tableDir, family, readPoint, smallestReadPoint, major, allFiles,
+      fileNames);
+    return 0;
+  }
+
+  private void printUsage(final String message) {
+    if (message != null && message.length() > 0) {
+      System.err.println(message);
+    }
+    System.err.println("Usage: java " + this.getClass().getName() + " \\");
+    System.err.println("  -regionFile <file> [-host <name>] -tableDir <dir> -family <name> \\");
+    System.err.println("  -readPoint <id> -smallestReadPoint <id> [-major] [-allFiles] files...");
+    System.err.println();
+    System.err.println("The region file holds the serialized table descriptor and region info."
+        + " The host is the one of the principal of the region server. The compacted files are"
+        + " written in the temporary directory of the region, and printed on the standard"
+        + " output.");
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(HBaseConfiguration.create(), new CompactionWorker(), args));
+  }
+}
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
@@ -37,6 +39,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
 /**
  * The MemStore holds in-memory modifications to the Store.  Modifications
  * are {@link Cell}s.  When asked to flush, current memstore is moved
@@ -48,6 +52,13 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
  *  write and read locks. This is done in {@link HStore}.
  *  </p>
  *
+ * Optionally, see {@link #FLATTEN_KEY}, the active set is frozen every time it grows past a
+ * fraction of the flush size, and its skip list index is replaced by a flat one: a
+ * {@link CellChunkMap} when MSLABs are in use, so the index lives in the (possibly off-heap)
+ * chunks of the {@link ChunkCreator}, or a {@link CellArrayMap} otherwise. Unlike
+ * {@link CompactingMemStore} the frozen segments are neither compacted nor merged, no cells are
+ * dropped before the flush, and a flush always writes out everything.
+ * <p>
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -57,8 +68,33 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 public class DefaultMemStore extends AbstractMemStore {
   private static final Logger LOG = LoggerFactory.getLogger(DefaultMemStore.class);
 
-  public final static long DEEP_OVERHEAD = ClassSize.align(AbstractMemStore.DEEP_OVERHEAD);
-  public final static long FIXED_OVERHEAD = ClassSize.align(AbstractMemStore.FIXED_OVERHEAD);
+  /** Whether to freeze and flatten the active set while it grows */
+  public static final String FLATTEN_KEY = "hbase.hregion.memstore.default.flatten";
+  public static final boolean FLATTEN_DEFAULT = false;
+  /** Fraction of the per-store flush size at which the active set is frozen and flattened */
+  public static final String FLATTEN_THRESHOLD_FACTOR_KEY =
+      "hbase.hregion.memstore.default.flatten.threshold.factor";
+  public static final double FLATTEN_THRESHOLD_FACTOR_DEFAULT = 0.25;
+
+  public final static long FIXED_OVERHEAD = ClassSize.align(AbstractMemStore.FIXED_OVERHEAD
+      + 4 * ClassSize.REFERENCE     // RegionServicesForStores, CompactionPipeline, indexType,
+                                    // flattenInProgress
+      + Bytes.SIZEOF_LONG           // flattenSize
+      + Bytes.SIZEOF_BOOLEAN);      // inWalReplay
+  // without flattening there is neither a pipeline nor a flattening flag
+  public final static long DEEP_OVERHEAD = FIXED_OVERHEAD;
+
+  private final RegionServicesForStores regionServices;
+  // the frozen segments which are not part of the snapshot yet, newest first, or null if we
+  // never freeze
+  private final CompactionPipeline pipeline;
+  private final CompactingMemStore.IndexType indexType;
+  // the threshold on active size for freezing, or 0 if we never freeze
+  private final long flattenSize;
+  private final AtomicBoolean flattenInProgress;
+  // no freezing while we are synchronously replaying the edits from WAL
+  private boolean inWalReplay = false;
+
   /**
    * Default constructor. Used for tests.
    */
@@ -71,7 +107,38 @@ public class DefaultMemStore extends AbstractMemStore {
    * @param c Comparator
    */
   public DefaultMemStore(final Configuration conf, final CellComparator c) {
+    this(conf, c, null);
+  }
+
+  /**
+   * Constructor of a memstore which freezes and flattens the active set if {@link #FLATTEN_KEY}
+   * is set. Freezing needs the region services to block updates and to get a thread.
+   * @param c Comparator
+   * @param regionServices the region services, may be null to disable flattening
+   */
+  public DefaultMemStore(final Configuration conf, final CellComparator c,
+      final RegionServicesForStores regionServices) {
     super(conf, c);
+    this.regionServices = regionServices;
+    // same index as the flattened segments of a CompactingMemStore
+    if (conf.getBoolean(MemStoreLAB.USEMSLAB_KEY, MemStoreLAB.USEMSLAB_DEFAULT)) {
+      this.indexType = CompactingMemStore.IndexType.CHUNK_MAP;
+    } else {
+      this.indexType = CompactingMemStore.IndexType.ARRAY_MAP;
+    }
+    if (regionServices != null && conf.getBoolean(FLATTEN_KEY, FLATTEN_DEFAULT)) {
+      int numStores = Math.max(1, regionServices.getNumStores());
+      this.flattenSize = (long) (regionServices.getMemStoreFlushSize() / numStores
+          * conf.getDouble(FLATTEN_THRESHOLD_FACTOR_KEY, FLATTEN_THRESHOLD_FACTOR_DEFAULT));
+      this.pipeline = new CompactionPipeline(regionServices);
+      this.flattenInProgress = new AtomicBoolean(false);
+      LOG.info("Flattening the active segment to a " + indexType + " index every " +
+          flattenSize + " bytes");
+    } else {
+      this.flattenSize = 0;
+      this.pipeline = null;
+      this.flattenInProgress = null;
+    }
   }
 
   /**
@@ -87,11 +154,30 @@ public class DefaultMemStore extends AbstractMemStore {
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
     } else {
       this.snapshotId = EnvironmentEdgeManager.currentTime();
-      if (!this.active.isEmpty()) {
-        ImmutableSegment immutableSegment = SegmentFactory.instance().
-            createImmutableSegment(this.active);
-        this.snapshot = immutableSegment;
-        resetActive();
+      if (this.pipeline == null || this.pipeline.isEmpty()) {
+        if (!this.active.isEmpty()) {
+          ImmutableSegment immutableSegment = SegmentFactory.instance().
+              createImmutableSegment(this.active);
+          this.snapshot = immutableSegment;
+          resetActive();
+        }
+      } else {
+        // everything in memory goes to the snapshot, the frozen segments and the active one
+        if (!this.active.isEmpty()) {
+          this.pipeline.pushHead(this.active);
+          resetActive();
+        }
+        // the swap fails if a segment got flattened since we read the list, there is at most one
+        // such flattening since freezing needs the updates lock the caller holds
+        VersionedSegmentsList segments;
+        do {
+          segments = this.pipeline.getVersionedList();
+          // don't close the segments (they are in snapshot now) and don't update the region size
+        } while (!this.pipeline.swap(segments, null, false, false));
+        List<ImmutableSegment> storeSegments = segments.getStoreSegments();
+        this.snapshot = storeSegments.size() == 1 ? storeSegments.get(0) :
+            SegmentFactory.instance().createCompositeImmutableSegment(getComparator(),
+              storeSegments);
       }
     }
     return new MemStoreSnapshot(this.snapshotId, this.snapshot);
@@ -111,12 +197,20 @@ public class DefaultMemStore extends AbstractMemStore {
 
   @Override
   protected long keySize() {
-    return this.active.keySize();
+    long k = this.active.keySize();
+    for (Segment segment : getFrozenSegments()) {
+      k += segment.keySize();
+    }
+    return k;
   }
 
   @Override
   protected long heapSize() {
-    return this.active.heapSize();
+    long h = this.active.heapSize();
+    for (Segment segment : getFrozenSegments()) {
+      h += segment.heapSize();
+    }
+    return h;
   }
 
   @Override
@@ -124,17 +218,23 @@ public class DefaultMemStore extends AbstractMemStore {
    * Scanners are ordered from 0 (oldest) to newest in increasing order.
    */
   public List<KeyValueScanner> getScanners(long readPt) throws IOException {
-    List<KeyValueScanner> list = new ArrayList<>();
-    long order = snapshot.getNumOfSegments();
-    order = addToScanners(active, readPt, order, list);
-    addToScanners(snapshot.getAllSegments(), readPt, order, list);
+    MutableSegment activeTmp = active;
+    List<? extends Segment> pipelineList = getFrozenSegments();
+    List<? extends Segment> snapshotList = snapshot.getAllSegments();
+    long order = 1 + pipelineList.size() + snapshotList.size();
+    List<KeyValueScanner> list = new ArrayList<>((int) order);
+    order = addToScanners(activeTmp, readPt, order, list);
+    order = addToScanners(pipelineList, readPt, order, list);
+    addToScanners(snapshotList, readPt, order, list);
     return list;
   }
 
   @Override
   protected List<Segment> getSegments() throws IOException {
-    List<Segment> list = new ArrayList<>(2);
+    List<? extends Segment> pipelineList = getFrozenSegments();
+    List<Segment> list = new ArrayList<>(pipelineList.size() + 2);
     list.add(this.active);
+    list.addAll(pipelineList);
     list.add(this.snapshot);
     return list;
   }
@@ -145,9 +245,13 @@ public class DefaultMemStore extends AbstractMemStore {
    * @return Next row or null if none found.
    */
   Cell getNextRow(final Cell cell) {
-    return getLowest(
+    Cell lowest = getLowest(
         getNextRow(cell, this.active.getCellSet()),
         getNextRow(cell, this.snapshot.getCellSet()));
+    for (Segment segment : getFrozenSegments()) {
+      lowest = getLowest(lowest, getNextRow(cell, segment.getCellSet()));
+    }
+    return lowest;
   }
 
   @Override public void updateLowestUnflushedSequenceIdInWAL(boolean onlyIfMoreRecent) {
@@ -155,16 +259,68 @@ public class DefaultMemStore extends AbstractMemStore {
 
   @Override
   public MemStoreSize size() {
-    return new MemStoreSize(this.active.keySize(), this.active.heapSize());
+    return new MemStoreSize(keySize(), heapSize());
   }
 
   /**
-   * Check whether anything need to be done based on the current active set size
-   * Nothing need to be done for the DefaultMemStore
+   * Check whether anything need to be done based on the current active set size.
+   * If flattening is enabled and the active set is above the threshold, dispatch freezing it.
+   * That cannot happen on this thread, freezing takes the updatesLock in exclusive mode while we
+   * are called holding it in shared mode.
    */
   @Override
   protected void checkActiveSize() {
-    return;
+    if (flattenSize > 0 && !inWalReplay && this.active.keySize() > flattenSize
+        && flattenInProgress.compareAndSet(false, true)) {
+      regionServices.getInMemoryCompactionPool().execute(() -> {
+        try {
+          flattenActive();
+        } finally {
+          flattenInProgress.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Freezes the active segment and replaces its skip list with a flat index. Must not be called
+   * while holding the updatesLock.
+   */
+  @VisibleForTesting
+  void flattenActive() {
+    regionServices.blockUpdates();
+    VersionedSegmentsList segments;
+    try {
+      if (this.active.isEmpty()) {
+        return;
+      }
+      pipeline.pushHead(this.active);
+      resetActive();
+      segments = pipeline.getVersionedList();
+    } finally {
+      regionServices.unblockUpdates();
+    }
+    // Outside the lock, writers go on with the new active segment. If a snapshot took the frozen
+    // segment meanwhile the version does not match and we leave it as it is.
+    if (pipeline.flattenOneSegment(segments.getVersion(), indexType,
+        MemStoreCompactionStrategy.Action.FLATTEN)) {
+      LOG.trace("Flattened the frozen active segment to a {} index", indexType);
+    }
+  }
+
+  @Override
+  public void startReplayingFromWAL() {
+    inWalReplay = true;
+  }
+
+  @Override
+  public void stopReplayingFromWAL() {
+    inWalReplay = false;
+  }
+
+  @VisibleForTesting
+  List<? extends Segment> getFrozenSegments() {
+    return pipeline == null ? Collections.emptyList() : pipeline.getSegments();
   }
 
   @Override
@@ -131,6 +131,7 @@ import org.apache.hadoop.hbase.io.HFileLink;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.hbase.ipc.CallerDisconnectedException;
 import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
 import org.apache.hadoop.hbase.ipc.RpcCall;
@@ -1629,6 +1630,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       if (this.metricsRegionWrapper != null) {
         Closeables.close(this.metricsRegionWrapper, true);
       }
+      PrefetchExecutor.clearRegion(getRegionInfo().getEncodedName());
       status.markComplete("Closed");
       LOG.info("Closed " + this);
       return result;
@@ -6152,10 +6154,20 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         instantiatedScanners.addAll(additionalScanners);
       }
 
+      ExecutorService parallelScanPool = null;
+      if (scan.getFamilyMap().size() > 1 && ParallelStoreScanner.canWrap(region.conf, scan)
+          && region.rsServices != null && region.rsServices.getParallelWorkerPools() != null) {
+        parallelScanPool = region.rsServices.getParallelWorkerPools().getScanPool();
+      }
+      boolean parallel = parallelScanPool != null;
       try {
         for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
           HStore store = stores.get(entry.getKey());
           KeyValueScanner scanner = store.getScanner(scan, entry.getValue(), this.readPt);
+          if (parallel && scanner instanceof StoreScanner) {
+            scanner = new ParallelStoreScanner((StoreScanner) scanner, comparator, scan,
+                region.conf, parallelScanPool);
+          }
           instantiatedScanners.add(scanner);
           if (this.filter == null || !scan.doLoadColumnFamiliesOnDemand()
               || this.filter.isFamilyEssential(entry.getKey())) {
@@ -6164,6 +6176,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
             joinedScanners.add(scanner);
           }
         }
+        if (parallel) {
+          for (KeyValueScanner scanner : instantiatedScanners) {
+            if (scanner instanceof ParallelStoreScanner) {
+              ((ParallelStoreScanner) scanner).init();
+            }
+          }
+        }
         initializeKVHeap(scanners, joinedScanners, region);
       } catch (Throwable t) {
         throw handleException(instantiatedScanners, t);
@@ -47,6 +47,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.servlet.http.HttpServlet;
@@ -100,6 +101,8 @@ import org.apache.hadoop.hbase.http.InfoServer;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.io.util.MemorySizeUtil;
 import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
 import org.apache.hadoop.hbase.ipc.NettyRpcClientConfigHelper;
@@ -409,6 +412,13 @@ public class HRegionServer extends HasThread implements
   protected CacheConfig cacheConfig;
   // Cache configuration for mob
   final MobCacheConfig mobCacheConfig;
+  // Pools of the parallel scans, block read ahead and parallel compactions
+  private final ParallelWorkerPools parallelWorkerPools;
+  // Read request counts of the online regions, used to prefetch the hottest regions first
+  private final ToLongFunction<String> prefetchReadRequests = encodedRegionName -> {
+    HRegion region = onlineRegions.get(encodedRegionName);
+    return region == null ? 0 : region.getReadRequestsCount();
+  };
 
   /** The health check chore. */
   private HealthCheckChore healthCheckChore;
@@ -606,6 +616,8 @@ public class HRegionServer extends HasThread implements
       regionServerAccounting = new RegionServerAccounting(conf);
       cacheConfig = new CacheConfig(conf);
       mobCacheConfig = new MobCacheConfig(conf);
+      parallelWorkerPools = new ParallelWorkerPools(conf);
+      PrefetchExecutor.addReadRequestsSource(prefetchReadRequests);
       uncaughtExceptionHandler = new UncaughtExceptionHandler() {
         @Override
         public void uncaughtException(Thread t, Throwable e) {
@@ -1046,6 +1058,7 @@ public class HRegionServer extends HasThread implements
       cacheConfig.getBlockCache().shutdown();
     }
     mobCacheConfig.getMobFileCache().shutdown();
+    PrefetchExecutor.removeReadRequestsSource(prefetchReadRequests);
 
     if (movedRegionsCleaner != null) {
       movedRegionsCleaner.stop("Region Server stopping");
@@ -1749,6 +1762,45 @@ public class HRegionServer extends HasThread implements
     }
   }
 
+  /**
+   * Drops the blocks the bucket cache recovered from its persisted state for HFiles which are not
+   * store files of the regions hosted here, once the regions assigned at startup are open. Runs
+   * until it validated the blocks once.
+   */
+  private static class RecoveredBlocksValidator extends ScheduledChore {
+    private final HRegionServer instance;
+    private final BucketCache bucketCache;
+
+    RecoveredBlocksValidator(final HRegionServer h, final BucketCache bucketCache) {
+      super("RecoveredBlocksValidator", h, h.conf.getInt(
+        BucketCache.PERSISTENCE_VALIDATE_FILES_DELAY_CONFIG_NAME,
+        BucketCache.DEFAULT_PERSISTENCE_VALIDATE_FILES_DELAY));
+      this.instance = h;
+      this.bucketCache = bucketCache;
+    }
+
+    @Override
+    protected void chore() {
+      if (!this.instance.regionsInTransitionInRS.isEmpty()) {
+        // The store files of the regions being opened are not known yet
+        return;
+      }
+      Set<String> hfileNames = new HashSet<>();
+      for (HRegion r : this.instance.onlineRegions.values()) {
+        for (HStore s : r.stores.values()) {
+          for (HStoreFile sf : s.getStorefiles()) {
+            hfileNames.add(sf.getPath().getName());
+          }
+          for (HStoreFile sf : s.getCompactedFiles()) {
+            hfileNames.add(sf.getPath().getName());
+          }
+        }
+      }
+      bucketCache.validateRecoveredBlocks(hfileNames);
+      cancel();
+    }
+  }
+
   static class PeriodicMemStoreFlusher extends ScheduledChore {
     final HRegionServer server;
     final static int RANGE_OF_DELAY = 5 * 60 * 1000; // 5 min in milliseconds
@@ -1955,6 +2007,10 @@ public class HRegionServer extends HasThread implements
     if (this.storefileRefresher != null) choreService.scheduleChore(storefileRefresher);
     if (this.movedRegionsCleaner != null) choreService.scheduleChore(movedRegionsCleaner);
     if (this.fsUtilizationChore != null) choreService.scheduleChore(fsUtilizationChore);
+    BucketCache bucketCache = getBucketCache();
+    if (bucketCache != null && bucketCache.needsRecoveredBlocksValidation()) {
+      choreService.scheduleChore(new RecoveredBlocksValidator(this, bucketCache));
+    }
 
     // Leases is not a Thread. Internally it runs a daemon thread. If it gets
     // an unhandled exception, it will just exit.
@@ -2470,6 +2526,7 @@ public class HRegionServer extends HasThread implements
       this.compactSplitThread.join();
     }
     if (this.executorService != null) this.executorService.shutdown();
+    if (this.parallelWorkerPools != null) this.parallelWorkerPools.shutdown();
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler == this.replicationSinkHandler) {
       this.replicationSourceHandler.stopReplicationService();
@@ -3621,6 +3678,28 @@ public class HRegionServer extends HasThread implements
     configurationManager.notifyAllObservers(conf);
   }
 
+  /**
+   * @return the bucket cache of the block cache, null if there is none
+   */
+  private BucketCache getBucketCache() {
+    if (cacheConfig == null || !cacheConfig.isBlockCacheEnabled()) {
+      return null;
+    }
+    BlockCache blockCache = cacheConfig.getBlockCache();
+    if (blockCache instanceof BucketCache) {
+      return (BucketCache) blockCache;
+    }
+    BlockCache[] blockCaches = blockCache.getBlockCaches();
+    if (blockCaches != null) {
+      for (BlockCache cache : blockCaches) {
+        if (cache instanceof BucketCache) {
+          return (BucketCache) cache;
+        }
+      }
+    }
+    return null;
+  }
+
   public CacheEvictionStats clearRegionBlockCache(Region region) {
     BlockCache blockCache = this.getCacheConfig().getBlockCache();
     long evictedBlocks = 0;
@@ -3650,6 +3729,11 @@ public class HRegionServer extends HasThread implements
     return max;
   }
 
+  @Override
+  public ParallelWorkerPools getParallelWorkerPools() {
+    return parallelWorkerPools;
+  }
+
   @Override
   public HeapMemoryManager getHeapMemoryManager() {
     return hMemManager;
@@ -69,6 +69,7 @@ import org.apache.hadoop.hbase.conf.ConfigurationManager;
 import org.apache.hadoop.hbase.conf.PropagatingConfigurationObserver;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.compress.DictionaryTrainer;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
@@ -133,6 +134,14 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
   public static final String BLOCK_STORAGE_POLICY_KEY = "hbase.hstore.block.storage.policy";
   // keep in accordance with HDFS default storage policy
   public static final String DEFAULT_BLOCK_STORAGE_POLICY = "HOT";
+  /**
+   * Size of the compression dictionary trained for a family whose compression algorithm takes
+   * one, 0 to not train one. The data blocks written by flushes and compactions are sampled and
+   * the dictionary is retrained after each of them, for the files written next.
+   */
+  public static final String COMPRESSION_DICTIONARY_SIZE_KEY =
+      "hbase.hstore.compression.dictionary.size";
+  public static final int DEFAULT_COMPRESSION_DICTIONARY_SIZE = 0;
   public static final int DEFAULT_COMPACTCHECKER_INTERVAL_MULTIPLIER = 1000;
   public static final int DEFAULT_BLOCKING_STOREFILE_COUNT = 16;
 
@@ -208,6 +217,9 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
   private long blockingFileCount;
   private int compactionCheckMultiplier;
   protected Encryption.Context cryptoContext = Encryption.Context.NONE;
+  /** Samples the written data blocks, null if the family does not train a dictionary */
+  private DictionaryTrainer dictionaryTrainer;
+  private volatile byte[] compressionDictionary;
 
   private volatile long flushedCellsCount = 0;
   private volatile long compactedCellsCount = 0;
@@ -280,8 +292,14 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
     switch (inMemoryCompaction) {
       case NONE:
         className = DefaultMemStore.class.getName();
-        this.memstore = ReflectionUtils.newInstance(DefaultMemStore.class,
-            new Object[] { conf, this.comparator });
+        if (conf.getBoolean(DefaultMemStore.FLATTEN_KEY, DefaultMemStore.FLATTEN_DEFAULT)) {
+          this.memstore = ReflectionUtils.newInstance(DefaultMemStore.class,
+              new Object[] { conf, this.comparator,
+                  this.getHRegion().getRegionServicesForStores() });
+        } else {
+          this.memstore = ReflectionUtils.newInstance(DefaultMemStore.class,
+              new Object[] { conf, this.comparator });
+        }
         break;
       default:
         Class<? extends CompactingMemStore> clz = conf.getClass(MEMSTORE_CLASS_NAME,
@@ -295,6 +313,10 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
 
     // Setting up cache configuration for this family
     createCacheConf(family);
+    ParallelWorkerPools workerPools = getParallelWorkerPools();
+    if (workerPools != null) {
+      cacheConf.setReadAheadPool(workerPools.getReadAheadPool());
+    }
 
     this.verifyBulkLoads = conf.getBoolean("hbase.hstore.bulkload.verify", false);
 
@@ -329,6 +351,59 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
               + flushRetriesNumber);
     }
     cryptoContext = EncryptionUtil.createEncryptionContext(conf, family);
+    initCompressionDictionary();
+  }
+
+  /**
+   * Sets up the training of a compression dictionary if the family asks for one, starting from
+   * the dictionary of the newest store file.
+   */
+  private void initCompressionDictionary() {
+    int dictionarySize =
+        conf.getInt(COMPRESSION_DICTIONARY_SIZE_KEY, DEFAULT_COMPRESSION_DICTIONARY_SIZE);
+    // Encrypted blocks are decompressed from a stream, which does not take a dictionary
+    if (dictionarySize <= 0 || cryptoContext != Encryption.Context.NONE
+        || (family.getCompressionType().getBlockCodec() == null
+            && family.getCompactionCompressionType().getBlockCodec() == null)) {
+      return;
+    }
+    this.dictionaryTrainer = new DictionaryTrainer(dictionarySize);
+    long maxSequenceId = -1;
+    for (HStoreFile sf : getStorefiles()) {
+      StoreFileReader reader = sf.getReader();
+      if (reader != null && sf.getMaxSequenceId() > maxSequenceId) {
+        byte[] dictionary = reader.getHFileReader().getFileContext().getCompressionDictionary();
+        if (dictionary != null) {
+          maxSequenceId = sf.getMaxSequenceId();
+          this.compressionDictionary = dictionary;
+        }
+      }
+    }
+  }
+
+  /**
+   * Trains a new compression dictionary from the data blocks sampled while writing, for the
+   * files written from now on. Files keep the dictionary they were written with.
+   */
+  private void trainCompressionDictionary() {
+    if (dictionaryTrainer == null) {
+      return;
+    }
+    long start = EnvironmentEdgeManager.currentTime();
+    byte[] dictionary = dictionaryTrainer.train();
+    if (dictionary != null) {
+      this.compressionDictionary = dictionary;
+      LOG.debug("Trained a compression dictionary of {} bytes for {} in {} ms", dictionary.length,
+        this, EnvironmentEdgeManager.currentTime() - start);
+    }
+  }
+
+  /**
+   * @return the worker pools of the region server, or null if the region is not hosted by one
+   */
+  public ParallelWorkerPools getParallelWorkerPools() {
+    RegionServerServices rsServices = region.getRegionServerServices();
+    return rsServices == null ? null : rsServices.getParallelWorkerPools();
   }
 
   /**
@@ -1069,7 +1144,9 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
             .withMaxKeyCount(maxKeyCount)
             .withFavoredNodes(favoredNodes)
             .withFileContext(hFileContext)
-            .withShouldDropCacheBehind(shouldDropBehind);
+            .withShouldDropCacheBehind(shouldDropBehind)
+            .withMaxVersions(family.getMaxVersions())
+            .withTtl(getScanInfo().getTtl());
     return builder.build();
   }
 
@@ -1078,6 +1155,13 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
     if (compression == null) {
       compression = HFile.DEFAULT_COMPRESSION_ALGORITHM;
     }
+    byte[] dictionary = null;
+    DictionaryTrainer trainer = null;
+    if (dictionaryTrainer != null && compression.getBlockCodec() != null
+        && cryptoContext == Encryption.Context.NONE) {
+      dictionary = compressionDictionary;
+      trainer = dictionaryTrainer;
+    }
     HFileContext hFileContext = new HFileContextBuilder()
                                 .withIncludesMvcc(includeMVCCReadpoint)
                                 .withIncludesTags(includesTag)
@@ -1090,6 +1174,8 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
                                 .withDataBlockEncoding(family.getDataBlockEncoding())
                                 .withEncryptionContext(cryptoContext)
                                 .withCreateTime(EnvironmentEdgeManager.currentTime())
+                                .withCompressionDictionary(dictionary)
+                                .withDictionaryTrainer(trainer)
                                 .build();
     return hFileContext;
   }
@@ -1123,6 +1209,7 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
     }
     // notify to be called here - only in case of flushes
     notifyChangedReadersObservers(sfs);
+    trainCompressionDictionary();
     if (LOG.isTraceEnabled()) {
       long totalSize = getTotalSize(sfs);
       String traceMessage = "FLUSH time,count,size,store size,store files ["
@@ -1383,6 +1470,7 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
 
     // At this point the store will use new files for all new scanners.
     completeCompaction(filesToCompact); // update store size.
+    trainCompressionDictionary();
 
     long now = EnvironmentEdgeManager.currentTime();
     if (region.getRegionServerServices() != null
@@ -2314,7 +2402,7 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
   }
 
   public static final long FIXED_OVERHEAD =
-      ClassSize.align(ClassSize.OBJECT + (17 * ClassSize.REFERENCE) + (11 * Bytes.SIZEOF_LONG)
+      ClassSize.align(ClassSize.OBJECT + (19 * ClassSize.REFERENCE) + (11 * Bytes.SIZEOF_LONG)
               + (5 * Bytes.SIZEOF_INT) + (2 * Bytes.SIZEOF_BOOLEAN));
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
@@ -2386,6 +2474,25 @@ public class HStore implements Store, HeapSize, StoreConfigInformation, Propagat
     return majorCompactedCellsSize;
   }
 
+  @Override
+  public double getWriteAmplification() {
+    long flushed = flushedCellsSize;
+    if (flushed <= 0) {
+      return 1;
+    }
+    return (double) (flushed + compactedCellsSize + majorCompactedCellsSize) / flushed;
+  }
+
+  @Override
+  public double getSpaceAmplification() {
+    return StoreUtils.getSpaceAmplification(this.storeEngine.getStoreFileManager().getStorefiles());
+  }
+
+  @Override
+  public double getTombstoneRatio() {
+    return StoreUtils.getTombstoneRatio(this.storeEngine.getStoreFileManager().getStorefiles());
+  }
+
   /**
    * Returns the StoreEngine that is backing this concrete implementation of Store.
    * @return Returns the {@link StoreEngine} object used internally inside this HStore object.
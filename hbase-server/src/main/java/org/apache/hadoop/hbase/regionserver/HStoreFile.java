@@ -77,12 +77,30 @@ public class HStoreFile implements StoreFile {
   public static final byte[] EXCLUDE_FROM_MINOR_COMPACTION_KEY =
       Bytes.toBytes("EXCLUDE_FROM_MINOR_COMPACTION");
 
+  /**
+   * Id of the compaction in FileInfo, when the compaction wrote the rows of the store over several
+   * files of disjoint key ranges. The files of one compaction run are selected as one file.
+   */
+  public static final byte[] COMPACTION_RUN_KEY = Bytes.toBytes("COMPACTION_RUN");
+
   /** Bloom filter Type in FileInfo */
   public static final byte[] BLOOM_FILTER_TYPE_KEY = Bytes.toBytes("BLOOM_FILTER_TYPE");
 
+  /** Bloom filter param in FileInfo, the row prefix length or delimiter of row prefix blooms */
+  public static final byte[] BLOOM_FILTER_PARAM_KEY = Bytes.toBytes("BLOOM_FILTER_PARAM");
+
   /** Delete Family Count in FileInfo */
   public static final byte[] DELETE_FAMILY_COUNT = Bytes.toBytes("DELETE_FAMILY_COUNT");
 
+  /** Number of delete markers of all types in FileInfo */
+  public static final byte[] DELETE_COUNT = Bytes.toBytes("DELETE_COUNT");
+
+  /** Number of cells already expired when written in FileInfo */
+  public static final byte[] EXPIRED_CELLS_COUNT = Bytes.toBytes("EXPIRED_CELLS_COUNT");
+
+  /** Number of versions beyond the max versions of their column in FileInfo */
+  public static final byte[] EXTRA_VERSIONS_COUNT = Bytes.toBytes("EXTRA_VERSIONS_COUNT");
+
   /** Last Bloom filter key in FileInfo */
   public static final byte[] LAST_BLOOM_KEY = Bytes.toBytes("LAST_BLOOM_KEY");
 
@@ -323,6 +341,15 @@ public class HStoreFile implements StoreFile {
     return rc > 0;
   }
 
+  /**
+   * @return the id of the compaction which wrote this file as one of the files of its run, if it
+   *         did, see {@link #COMPACTION_RUN_KEY}
+   */
+  public OptionalLong getCompactionRun() {
+    byte[] run = getMetadataValue(COMPACTION_RUN_KEY);
+    return run == null ? OptionalLong.empty() : OptionalLong.of(Bytes.toLong(run));
+  }
+
   @Override
   public OptionalLong getBulkLoadTimestamp() {
     byte[] bulkLoadTimestamp = metadataMap.get(BULKLOAD_TIME_KEY);
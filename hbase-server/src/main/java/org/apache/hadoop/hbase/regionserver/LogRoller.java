@@ -29,6 +29,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.Server;
 import org.apache.hadoop.hbase.regionserver.wal.AbstractFSWAL;
 import org.apache.hadoop.hbase.regionserver.wal.FailedLogCloseException;
+import org.apache.hadoop.hbase.regionserver.wal.StripedWAL;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.HasThread;
@@ -122,10 +123,14 @@ public class LogRoller extends HasThread implements Closeable {
       for (Entry<WAL, Boolean> entry : walNeedsRoll.entrySet()) {
         WAL wal = entry.getKey();
         boolean needRollAlready = entry.getValue();
-        if (needRollAlready || !(wal instanceof AbstractFSWAL)) {
+        if (needRollAlready) {
           continue;
         }
-        ((AbstractFSWAL<?>) wal).checkLogLowReplication(checkLowReplicationInterval);
+        if (wal instanceof AbstractFSWAL) {
+          ((AbstractFSWAL<?>) wal).checkLogLowReplication(checkLowReplicationInterval);
+        } else if (wal instanceof StripedWAL) {
+          ((StripedWAL) wal).checkLogLowReplication(checkLowReplicationInterval);
+        }
       }
     } catch (Throwable e) {
       LOG.warn("Failed checking low replication", e);
@@ -27,6 +27,7 @@ import org.apache.hadoop.hbase.MemoryCompactionPolicy;
 import org.apache.hadoop.hbase.exceptions.IllegalArgumentIOException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.Hash;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,7 +53,8 @@ public class MemStoreCompactor {
           // compactingMemStore, versionedList, isInterrupted, strategy (the reference)
           // "action" is an enum and thus it is a class with static final constants,
           // so counting only the size of the reference to it and not the size of the internals
-          + Bytes.SIZEOF_INT        // compactionKVMax
+          + 2 * Bytes.SIZEOF_INT    // compactionKVMax, rowBloomHashType
+          + Bytes.SIZEOF_DOUBLE     // rowBloomErrorRate
           + ClassSize.ATOMIC_BOOLEAN    // isInterrupted (the internals)
       );
 
@@ -70,11 +72,22 @@ public class MemStoreCompactor {
 
   private MemStoreCompactionStrategy strategy;
 
+  // false positive rate of the row blooms of the flat segments, 0 if they are disabled
+  private final double rowBloomErrorRate;
+  private final int rowBloomHashType;
+
   public MemStoreCompactor(CompactingMemStore compactingMemStore,
       MemoryCompactionPolicy compactionPolicy) throws IllegalArgumentIOException {
     this.compactingMemStore = compactingMemStore;
     this.compactionKVMax = compactingMemStore.getConfiguration()
         .getInt(HConstants.COMPACTION_KV_MAX, HConstants.COMPACTION_KV_MAX_DEFAULT);
+    Configuration conf = compactingMemStore.getConfiguration();
+    this.rowBloomErrorRate = conf.getBoolean(CompactingMemStore.IN_MEMORY_ROW_BLOOM_KEY,
+        CompactingMemStore.IN_MEMORY_ROW_BLOOM_DEFAULT)
+        ? conf.getDouble(CompactingMemStore.IN_MEMORY_ROW_BLOOM_ERROR_RATE_KEY,
+            CompactingMemStore.IN_MEMORY_ROW_BLOOM_ERROR_RATE_DEFAULT)
+        : 0;
+    this.rowBloomHashType = Hash.getHashType(conf);
     initiateCompactionStrategy(compactionPolicy, compactingMemStore.getConfiguration(),
         compactingMemStore.getFamilyName());
   }
@@ -156,6 +169,9 @@ public class MemStoreCompactor {
           nextStep == MemStoreCompactionStrategy.Action.FLATTEN_COUNT_UNIQUE_KEYS) {
         // some Segment in the pipeline is with SkipList index, make it flat
         compactingMemStore.flattenOneSegment(versionedList.getVersion(), nextStep);
+        if (rowBloomErrorRate > 0) {
+          compactingMemStore.buildRowBlooms(rowBloomErrorRate, rowBloomHashType);
+        }
         return;
       }
 
@@ -163,6 +179,9 @@ public class MemStoreCompactor {
       // either by compaction or by merge
       if (!isInterrupted.get()) {
         result = createSubstitution(nextStep);
+        if (rowBloomErrorRate > 0) {
+          result.buildRowBloom(rowBloomErrorRate, rowBloomHashType);
+        }
       }
 
       // Substitute the pipeline with one segment
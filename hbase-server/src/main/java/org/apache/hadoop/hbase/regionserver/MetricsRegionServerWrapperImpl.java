@@ -55,6 +55,8 @@ class MetricsRegionServerWrapperImpl
     implements MetricsRegionServerWrapper {
 
   private static final Logger LOG = LoggerFactory.getLogger(MetricsRegionServerWrapperImpl.class);
+  // the queued compactions shown in the metrics
+  private static final int QUEUED_COMPACTIONS_LIMIT = 10;
 
   private final HRegionServer regionServer;
   private final MetricsWALSource metricsWALSource;
@@ -266,6 +268,24 @@ class MetricsRegionServerWrapperImpl
     return this.regionServer.compactSplitThread.getLargeCompactionQueueSize();
   }
 
+  @Override
+  public long getCompactionQueuedSize() {
+    //The thread could be zero.  if so assume there is no queue.
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    return this.regionServer.compactSplitThread.getCompactionQueuedSize();
+  }
+
+  @Override
+  public String getQueuedCompactions() {
+    if (this.regionServer.compactSplitThread == null) {
+      return "";
+    }
+    return String.join(", ",
+      this.regionServer.compactSplitThread.getQueuedCompactions(QUEUED_COMPACTIONS_LIMIT));
+  }
+
   @Override
   public int getFlushQueueSize() {
     //If there is no flusher there should be no queue.
@@ -386,6 +406,22 @@ class MetricsRegionServerWrapperImpl
     return this.cacheStats.getFailedInserts();
   }
 
+  @Override
+  public long getBlockCacheAdmittedCount() {
+    if (this.cacheStats == null) {
+      return 0;
+    }
+    return this.cacheStats.getAdmittedCount();
+  }
+
+  @Override
+  public long getBlockCacheRejectedCount() {
+    if (this.cacheStats == null) {
+      return 0;
+    }
+    return this.cacheStats.getRejectedCount();
+  }
+
   @Override
   public long getL1CacheHitCount() {
     if (this.l1Stats == null) {
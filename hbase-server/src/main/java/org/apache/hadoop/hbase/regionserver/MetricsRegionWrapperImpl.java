@@ -30,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
 import org.apache.hadoop.hbase.client.RegionInfo;
 import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.metrics2.MetricsExecutor;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -54,6 +55,9 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
   private long minStoreFileAge;
   private long avgStoreFileAge;
   private long numReferenceFiles;
+  private double maxStoreWriteAmplification;
+  private double maxStoreSpaceAmplification;
+  private double maxStoreTombstoneRatio;
   private long maxFlushQueueSize;
   private long maxCompactionQueueSize;
 
@@ -186,6 +190,16 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
     return maxFlushQueueSize;
   }
 
+  @Override
+  public long getPrefetchPendingFileCount() {
+    return PrefetchExecutor.getPendingFileCount(this.region.getRegionInfo().getEncodedName());
+  }
+
+  @Override
+  public long getPrefetchedBytes() {
+    return PrefetchExecutor.getPrefetchedBytes(this.region.getRegionInfo().getEncodedName());
+  }
+
   @Override
   public long getMaxStoreFileAge() {
     return maxStoreFileAge;
@@ -206,6 +220,21 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
     return numReferenceFiles;
   }
 
+  @Override
+  public double getMaxStoreWriteAmplification() {
+    return maxStoreWriteAmplification;
+  }
+
+  @Override
+  public double getMaxStoreSpaceAmplification() {
+    return maxStoreSpaceAmplification;
+  }
+
+  @Override
+  public double getMaxStoreTombstoneRatio() {
+    return maxStoreTombstoneRatio;
+  }
+
   @Override
   public int getRegionHashCode() {
     return this.region.hashCode();
@@ -223,6 +252,9 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
       long tempNumReferenceFiles = 0;
       long tempMaxCompactionQueueSize = 0;
       long tempMaxFlushQueueSize = 0;
+      double tempMaxStoreWriteAmplification = 0;
+      double tempMaxStoreSpaceAmplification = 0;
+      double tempMaxStoreTombstoneRatio = 0;
 
       long avgAgeNumerator = 0;
       long numHFiles = 0;
@@ -246,6 +278,12 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
           long storeHFiles = store.getNumHFiles();
           numHFiles += storeHFiles;
           tempNumReferenceFiles += store.getNumReferenceFiles();
+          tempMaxStoreWriteAmplification =
+              Math.max(tempMaxStoreWriteAmplification, store.getWriteAmplification());
+          tempMaxStoreSpaceAmplification =
+              Math.max(tempMaxStoreSpaceAmplification, store.getSpaceAmplification());
+          tempMaxStoreTombstoneRatio =
+              Math.max(tempMaxStoreTombstoneRatio, store.getTombstoneRatio());
 
           OptionalDouble storeAvgStoreFileAge = store.getAvgStoreFileAge();
           if (storeAvgStoreFileAge.isPresent()) {
@@ -267,6 +305,9 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
       }
 
       numReferenceFiles = tempNumReferenceFiles;
+      maxStoreWriteAmplification = tempMaxStoreWriteAmplification;
+      maxStoreSpaceAmplification = tempMaxStoreSpaceAmplification;
+      maxStoreTombstoneRatio = tempMaxStoreTombstoneRatio;
       tempMaxCompactionQueueSize = getNumCompactionsQueued();
       tempMaxFlushQueueSize = getNumFlushesQueued();
       if (tempMaxCompactionQueueSize > maxCompactionQueueSize) {
@@ -0,0 +1,254 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Runs the gets of a multi request against one region as a single forward pass, instead of
+ * opening a region scanner, and so a store scanner and store file scanners, for each of them.
+ * <p>
+ * Gets which only differ by their row are grouped. The gets of a group which has at least
+ * {@link #MERGE_THRESHOLD_KEY} gets are sorted by row, and one region scanner over the rows of the
+ * group reseeks from one row to the next, so the positioned store file scanners and their blocks
+ * are reused by the rows which follow. The bloom filters are only consulted by get scans, so each
+ * row is first checked against the blooms of the store files; a row which no store file may have
+ * gets a get scan of its own, which skips all the files. The coprocessor hooks and the region
+ * metrics of the gets are kept per get.
+ * <p>
+ * Gets with a filter, per family time ranges or per family limits are run one by one.
+ */
+@InterfaceAudience.Private
+final class MultiGetMerger {
+
+  /** Min number of gets of the same shape to run them in a single pass, 0 to never merge */
+  public static final String MERGE_THRESHOLD_KEY = "hbase.regionserver.multiget.merge.threshold";
+  public static final int DEFAULT_MERGE_THRESHOLD = 0;
+
+  private final HRegion region;
+  private final List<Get> gets;
+  private final List<RegionScanner> scanners;
+  private final Result[] results;
+  private final IOException[] errors;
+  private final boolean stale;
+  /** Size of the cells of the results left before the gets which follow are not run */
+  private long remainingSize;
+
+  private MultiGetMerger(HRegion region, List<Get> gets, long maxResultSize,
+      List<RegionScanner> scanners, IOException[] errors) {
+    this.region = region;
+    this.gets = gets;
+    this.scanners = scanners;
+    this.results = new Result[gets.size()];
+    this.errors = errors;
+    this.stale = region.getRegionInfo().getReplicaId() != 0;
+    this.remainingSize = maxResultSize;
+  }
+
+  /**
+   * Runs the groups of gets which can be merged, until the size of the results reaches
+   * {@code maxResultSize}.
+   * @param scanners gets the region scanners which were opened, which the caller closes once the
+   *          results are sent
+   * @param errors gets the failures of the gets whose coprocessor hooks ran, which must not be run
+   *          again
+   * @return the results in the order of the gets, null for the gets which were not run
+   */
+  static Result[] get(HRegion region, List<Get> gets, int threshold, long maxResultSize,
+      List<RegionScanner> scanners, IOException[] errors) {
+    Map<String, List<Integer>> groups = new HashMap<>();
+    for (int i = 0; i < gets.size(); i++) {
+      Get get = gets.get(i);
+      try {
+        region.prepareGet(get);
+      } catch (IOException e) {
+        // left to the caller, which fails the get
+        continue;
+      }
+      String shape = shapeOf(get);
+      if (shape != null) {
+        groups.computeIfAbsent(shape, s -> new ArrayList<>()).add(i);
+      }
+    }
+    MultiGetMerger merger = new MultiGetMerger(region, gets, maxResultSize, scanners, errors);
+    for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+      if (group.getValue().size() >= threshold) {
+        merger.get(group.getKey(), group.getValue());
+      }
+    }
+    return merger.results;
+  }
+
+  /**
+   * @return a key which is the same for the gets which can be run in the same pass, null if the
+   *         get can not be merged
+   */
+  static String shapeOf(Get get) {
+    if (get.getFilter() != null || !get.getColumnFamilyTimeRange().isEmpty()
+        || get.getMaxResultsPerColumnFamily() >= 0 || get.getRowOffsetPerColumnFamily() > 0) {
+      return null;
+    }
+    TimeRange tr = get.getTimeRange();
+    StringBuilder sb = new StringBuilder();
+    sb.append(tr.getMin()).append(',').append(tr.getMax()).append(',')
+        .append(get.getMaxVersions()).append(',').append(get.getCacheBlocks()).append(',')
+        .append(get.getIsolationLevel()).append(',')
+        .append(get.getLoadColumnFamiliesOnDemandValue());
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : get.getFamilyMap().entrySet()) {
+      // lengths first, so that different names can not give the same key
+      sb.append(';').append(entry.getKey().length).append(':')
+          .append(Bytes.toStringBinary(entry.getKey()));
+      if (entry.getValue() != null) {
+        for (byte[] qualifier : entry.getValue()) {
+          sb.append(',').append(qualifier.length).append(':')
+              .append(Bytes.toStringBinary(qualifier));
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  private void get(String shape, List<Integer> group) {
+    group.sort((a, b) -> Bytes.compareTo(gets.get(a).getRow(), gets.get(b).getRow()));
+    byte[] stopRow = gets.get(group.get(group.size() - 1)).getRow();
+    RegionCoprocessorHost coprocessorHost = region.getCoprocessorHost();
+    // opened at the first row which needs it
+    RegionScanner scanner = null;
+    // the row the scanner returned last, if not handed to a get yet
+    List<Cell> current = null;
+    boolean moreRows = true;
+    for (int i : group) {
+      if (remainingSize <= 0) {
+        // the caller fails the gets which follow as the response is too large
+        return;
+      }
+      Get get = gets.get(i);
+      long before = EnvironmentEdgeManager.currentTime();
+      List<Cell> cells = new ArrayList<>();
+      try {
+        if (coprocessorHost != null && coprocessorHost.preGet(get, cells)) {
+          region.metricsUpdateForGet(cells, before);
+          setResult(i, cells);
+          continue;
+        }
+        if (!shape.equals(shapeOf(get)) || !mayBeInStoreFiles(get)) {
+          // the pre get hook changed the get, or only the memstores may have the row
+          cells = getAlone(get);
+        } else {
+          if (scanner == null) {
+            scanner = region.getScanner(scan(get, stopRow));
+            scanners.add(scanner);
+          }
+          byte[] row = get.getRow();
+          if (current != null && Bytes.compareTo(CellUtil.cloneRow(current.get(0)), row) < 0) {
+            current = null;
+          }
+          if (current == null && moreRows) {
+            scanner.reseek(row);
+            current = new ArrayList<>();
+            moreRows = scanner.next(current);
+            if (current.isEmpty()) {
+              current = null;
+            }
+          }
+          // If the scanner is past the row then there is no such row
+          if (current != null && CellUtil.matchingRows(current.get(0), row)) {
+            cells.addAll(current);
+          }
+        }
+        if (coprocessorHost != null) {
+          coprocessorHost.postGet(get, cells);
+        }
+      } catch (IOException e) {
+        errors[i] = e;
+        continue;
+      }
+      region.metricsUpdateForGet(cells, before);
+      setResult(i, cells);
+    }
+  }
+
+  private void setResult(int i, List<Cell> cells) {
+    Get get = gets.get(i);
+    results[i] = Result.create(cells, get.isCheckExistenceOnly() ? !cells.isEmpty() : null, stale);
+    for (Cell cell : cells) {
+      remainingSize -= PrivateCellUtil.estimatedSerializedSizeOf(cell);
+    }
+  }
+
+  /**
+   * @return whether a store file of a family of the get may have its row, as a get scan would
+   *         decide from the key ranges and the bloom filters of the files
+   */
+  private boolean mayBeInStoreFiles(Get get) {
+    Scan scan = new Scan(get);
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : get.getFamilyMap().entrySet()) {
+      HStore store = region.getStore(entry.getKey());
+      for (HStoreFile file : store.getStorefiles()) {
+        StoreFileReader reader = file.getReader();
+        if (reader == null || (reader.passesKeyRangeFilter(scan)
+            && reader.passesBloomFilter(scan, entry.getValue()))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Scan scan(Get get, byte[] stopRow) {
+    Scan scan = new Scan(get);
+    scan.withStopRow(stopRow, true);
+    scan.setReadType(Scan.ReadType.PREAD);
+    if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
+      scan.setLoadColumnFamiliesOnDemand(region.isLoadingCfsOnDemandDefault());
+    }
+    return scan;
+  }
+
+  /**
+   * Runs a get on its own, without its pre get hook which already ran.
+   */
+  private List<Cell> getAlone(Get get) throws IOException {
+    Scan scan = new Scan(get);
+    if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
+      scan.setLoadColumnFamiliesOnDemand(region.isLoadingCfsOnDemandDefault());
+    }
+    List<Cell> cells = new ArrayList<>();
+    RegionScanner scanner = region.getScanner(scan);
+    scanners.add(scanner);
+    scanner.next(cells);
+    return cells;
+  }
+}
@@ -0,0 +1,375 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.ScannerContext.LimitScope;
+import org.apache.hadoop.hbase.regionserver.ScannerContext.NextState;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Wraps the {@link StoreScanner} of one family of a region scan, and fetches the rows that come
+ * next from it on the scan pool of the region server, see {@link ParallelWorkerPools}, while the
+ * region scanner merges the cells already fetched. With many families, the stores of a region are
+ * read concurrently instead of one after the other on the handler thread.
+ * <p>
+ * A fetch runs the store scanner over whole rows until {@link #PARALLEL_SCAN_MAX_BYTES_KEY}, or
+ * the max result size of the scan if smaller, is reached, or for at most
+ * {@link #PARALLEL_SCAN_FETCH_MAX_TIME_KEY}. One fetch is in flight per store while the cells of
+ * the previous one are consumed. The store scanner is only used by one thread at a time: all the
+ * methods which need it wait for the fetch in flight first.
+ * <p>
+ * When the time limit of the scanner context is reached while waiting for cells, the scanner
+ * stops like a {@link StoreScanner} does, so that the region server can send a heartbeat, and
+ * {@link #peek()} returns the cell the store scanner stopped at until the next fetch is loaded.
+ * <p>
+ * Only used for forward scans without filter, see {@link #canWrap(Configuration, Scan)}: a filter
+ * is shared by the region scanner and the store scanners, and keeps per row state which would be
+ * broken by matching the cells of a store ahead of the region scanner.
+ */
+@InterfaceAudience.Private
+class ParallelStoreScanner extends NonReversedNonLazyKeyValueScanner implements InternalScanner {
+
+  /** Whether to fetch the rows of the stores of a region scan in parallel */
+  public static final String PARALLEL_SCAN_KEY = "hbase.regionserver.scan.parallel.stores";
+  public static final boolean DEFAULT_PARALLEL_SCAN = false;
+  /** Threads fetching rows for all the region scans of the server */
+  public static final String PARALLEL_SCAN_THREADS_KEY =
+      "hbase.regionserver.scan.parallel.threads";
+  public static final int DEFAULT_PARALLEL_SCAN_THREADS = 16;
+  /** Max size of the cells fetched ahead per store */
+  public static final String PARALLEL_SCAN_MAX_BYTES_KEY =
+      "hbase.regionserver.scan.parallel.max.bytes";
+  public static final long DEFAULT_PARALLEL_SCAN_MAX_BYTES = 1024 * 1024;
+  /** Max time in ms a fetch runs the store scanner for */
+  public static final String PARALLEL_SCAN_FETCH_MAX_TIME_KEY =
+      "hbase.regionserver.scan.parallel.fetch.max.time";
+  public static final long DEFAULT_PARALLEL_SCAN_FETCH_MAX_TIME = 100;
+
+  /**
+   * @return whether the store scanners of the scan can be wrapped
+   */
+  static boolean canWrap(Configuration conf, Scan scan) {
+    return conf.getBoolean(PARALLEL_SCAN_KEY, DEFAULT_PARALLEL_SCAN) && !scan.hasFilter()
+        && !scan.isReversed() && !scan.isGetScan();
+  }
+
+  private static final class Batch {
+    private final List<Cell> cells;
+    private final boolean moreValues;
+
+    private Batch(List<Cell> cells, boolean moreValues) {
+      this.cells = cells;
+      this.moreValues = moreValues;
+    }
+  }
+
+  private final StoreScanner scanner;
+  private final CellComparator comparator;
+  private final ExecutorService executor;
+  private final long maxBytes;
+  private final long maxTime;
+
+  /** Fetched cells, the ones from {@link #index} on are still to be returned */
+  private List<Cell> cells = Collections.emptyList();
+  private int index;
+  /** The fetch in flight, if any */
+  private Future<Batch> pending;
+  /** Whether the store scanner has no more cells */
+  private boolean exhausted;
+  /** Copy of the cell the store scanner stopped at when the time limit was reached, if any */
+  private Cell stoppedAt;
+
+  ParallelStoreScanner(StoreScanner scanner, CellComparator comparator, Scan scan,
+      Configuration conf, ExecutorService executor) {
+    this.scanner = scanner;
+    this.comparator = comparator;
+    this.executor = executor;
+    this.maxTime = conf.getLong(PARALLEL_SCAN_FETCH_MAX_TIME_KEY,
+      DEFAULT_PARALLEL_SCAN_FETCH_MAX_TIME);
+    long max = conf.getLong(PARALLEL_SCAN_MAX_BYTES_KEY, DEFAULT_PARALLEL_SCAN_MAX_BYTES);
+    if (scan.getMaxResultSize() > 0) {
+      max = Math.min(max, scan.getMaxResultSize());
+    }
+    this.maxBytes = max;
+    fetch();
+  }
+
+  /**
+   * Waits for the first fetch. Needs to be called before the scanner is put in a heap; the
+   * scanners of all the stores are created first so that their first fetches run concurrently.
+   */
+  void init() throws IOException {
+    load();
+  }
+
+  private void fetch() {
+    if (exhausted || pending != null) {
+      return;
+    }
+    long deadline = System.currentTimeMillis() + maxTime;
+    FutureTask<Batch> task = new FutureTask<>(() -> {
+      List<Cell> batch = new ArrayList<>();
+      // No size limit between cells, so the store scanner returns whole rows unless it runs out
+      // of time
+      ScannerContext context = ScannerContext.newBuilder(true)
+          .setSizeLimit(LimitScope.BETWEEN_ROWS, maxBytes, maxBytes)
+          .setTimeLimit(LimitScope.BETWEEN_CELLS, deadline).build();
+      boolean moreValues;
+      do {
+        moreValues = scanner.next(batch, context);
+        context.updateTimeProgress();
+      } while (moreValues && !context.checkSizeLimit(LimitScope.BETWEEN_ROWS)
+          && !context.checkTimeLimit(LimitScope.BETWEEN_CELLS));
+      return new Batch(batch, moreValues);
+    });
+    pending = task;
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // the pool was shut down, the region server is stopping
+      task.run();
+    }
+  }
+
+  /**
+   * Waits for the fetch in flight, if any, and appends its cells to the ones not returned yet.
+   */
+  private void drain() throws IOException {
+    if (pending == null) {
+      return;
+    }
+    Batch batch;
+    try {
+      batch = pending.get();
+    } catch (InterruptedException e) {
+      // keep the fetch, it still owns the store scanner
+      throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+    } catch (ExecutionException e) {
+      pending = null;
+      exhausted = true;
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+    pending = null;
+    exhausted = !batch.moreValues;
+    if (index == cells.size()) {
+      cells = batch.cells;
+    } else {
+      List<Cell> remaining = new ArrayList<>(cells.size() - index + batch.cells.size());
+      remaining.addAll(cells.subList(index, cells.size()));
+      remaining.addAll(batch.cells);
+      cells = remaining;
+    }
+    index = 0;
+  }
+
+  /**
+   * Makes sure that there is a cell to return unless the store scanner is done, and starts the
+   * next fetch. {@link #peek()} can not throw, so this is done as soon as a cell is consumed.
+   */
+  private void load() throws IOException {
+    load(NoLimitScannerContext.getInstance());
+  }
+
+  /**
+   * Same as {@link #load()}, but stops waiting for cells once the time limit of the context is
+   * reached. The cell the store scanner is at is then kept for {@link #peek()}.
+   * @return false if the time limit was reached before there was a cell to return
+   */
+  private boolean load(ScannerContext scannerContext) throws IOException {
+    while (index == cells.size() && pending != null) {
+      drain();
+      if (index == cells.size() && !exhausted) {
+        scannerContext.updateTimeProgress();
+        if (scannerContext.checkTimeLimit(LimitScope.BETWEEN_CELLS)) {
+          Cell cell = scanner.peek();
+          if (cell != null) {
+            stoppedAt = KeyValueUtil.copyToNewKeyValue(cell);
+            fetch();
+            return false;
+          }
+        }
+      }
+      fetch();
+    }
+    stoppedAt = null;
+    return true;
+  }
+
+  @Override
+  public Cell peek() {
+    return index < cells.size() ? cells.get(index) : stoppedAt;
+  }
+
+  @Override
+  public Cell next() throws IOException {
+    load();
+    Cell cell = peek();
+    if (cell != null) {
+      index++;
+      load();
+    }
+    return cell;
+  }
+
+  @Override
+  public boolean next(List<Cell> result) throws IOException {
+    return next(result, NoLimitScannerContext.getInstance());
+  }
+
+  /**
+   * Returns the fetched cells of the current row, up to the limits of the context.
+   */
+  @Override
+  public boolean next(List<Cell> result, ScannerContext scannerContext) throws IOException {
+    if (!scannerContext.getKeepProgress()) {
+      scannerContext.clearProgress();
+    }
+    Cell previous = stoppedAt;
+    if (previous != null && !load(scannerContext)) {
+      return scannerContext.setScannerState(NextState.TIME_LIMIT_REACHED).hasMoreValues();
+    }
+    Cell cell = peek();
+    if (cell == null) {
+      return scannerContext.setScannerState(NextState.NO_MORE_VALUES).hasMoreValues();
+    }
+    if (previous != null && !CellUtil.matchingRows(previous, cell)) {
+      // nothing left of the row the store scanner had stopped in
+      return scannerContext.setScannerState(NextState.MORE_VALUES).hasMoreValues();
+    }
+    Cell first = cell;
+    while (true) {
+      scannerContext.setLastPeekedCell(cell);
+      result.add(cell);
+      scannerContext.incrementSizeProgress(PrivateCellUtil.estimatedSerializedSizeOf(cell),
+        PrivateCellUtil.estimatedHeapSizeOf(cell));
+      scannerContext.incrementBatchProgress(1);
+      index++;
+      if (!load(scannerContext)) {
+        return scannerContext.setScannerState(NextState.TIME_LIMIT_REACHED).hasMoreValues();
+      }
+      cell = peek();
+      if (cell == null) {
+        return scannerContext.setScannerState(NextState.NO_MORE_VALUES).hasMoreValues();
+      }
+      if (!CellUtil.matchingRows(first, cell)
+          || scannerContext.checkBatchLimit(LimitScope.BETWEEN_CELLS)
+          || scannerContext.checkSizeLimit(LimitScope.BETWEEN_CELLS)) {
+        return scannerContext.setScannerState(NextState.MORE_VALUES).hasMoreValues();
+      }
+    }
+  }
+
+  @Override
+  public boolean seek(Cell key) throws IOException {
+    drain();
+    cells = Collections.emptyList();
+    index = 0;
+    exhausted = false;
+    boolean result = scanner.seek(key);
+    fetch();
+    load();
+    return result && peek() != null;
+  }
+
+  @Override
+  public boolean reseek(Cell key) throws IOException {
+    // The store scanner is past all the fetched cells, so they have to be skipped here and the
+    // store scanner only reseeks if none of them is at or after the key.
+    drain();
+    while (index < cells.size() && comparator.compare(cells.get(index), key) < 0) {
+      index++;
+    }
+    if (index == cells.size() && !exhausted) {
+      scanner.reseek(key);
+    }
+    fetch();
+    load();
+    return peek() != null;
+  }
+
+  @Override
+  public long getScannerOrder() {
+    return scanner.getScannerOrder();
+  }
+
+  /**
+   * The cells not returned yet may be backed by blocks which the store scanner gives back on
+   * shipped, so they are copied first.
+   */
+  @Override
+  public void shipped() throws IOException {
+    drain();
+    List<Cell> copies = new ArrayList<>(cells.size() - index);
+    for (int i = index; i < cells.size(); i++) {
+      copies.add(KeyValueUtil.copyToNewKeyValue(cells.get(i)));
+    }
+    cells = copies;
+    index = 0;
+    scanner.shipped();
+    fetch();
+  }
+
+  @Override
+  public void close() {
+    boolean interrupted = false;
+    while (pending != null) {
+      try {
+        pending.get();
+        pending = null;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        pending = null;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    exhausted = true;
+    stoppedAt = null;
+    cells = Collections.emptyList();
+    index = 0;
+    scanner.close();
+  }
+}
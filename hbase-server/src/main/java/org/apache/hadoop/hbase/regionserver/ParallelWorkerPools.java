@@ -0,0 +1,115 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.hfile.BlockReadAhead;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
+import org.apache.hadoop.hbase.regionserver.compactions.ParallelCompactor;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * The thread pools of the work a region server does beside its handler and compaction threads:
+ * fetching rows ahead for the parallel region scans, reading data blocks ahead of scanners, and
+ * compacting the key ranges of parallel compactions. The region server owns them and shuts them
+ * down when it stops.
+ * <p>
+ * The threads are only started when there is work, and the queues are bounded. When a queue is
+ * full, a scan fetch or a key range is run by the thread which submitted it, and a read ahead is
+ * rejected and skipped by the scanner.
+ */
+@InterfaceAudience.Private
+public class ParallelWorkerPools {
+
+  /** Tasks queued per thread of a pool before the pool is full */
+  private static final int QUEUED_TASKS_PER_THREAD = 4;
+
+  /** Runs the task on the submitting thread unless the pool was shut down */
+  private static final RejectedExecutionHandler CALLER_RUNS = (r, executor) -> {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("Pool is shut down");
+    }
+    r.run();
+  };
+
+  private final ThreadPoolExecutor scanPool;
+  private final ThreadPoolExecutor readAheadPool;
+  private final ThreadPoolExecutor compactionPool;
+
+  public ParallelWorkerPools(Configuration conf) {
+    // the scans and the read ahead read for clients, the prefetch of the files yields to them
+    this.scanPool = createPool("region-scan-parallel",
+      conf.getInt(ParallelStoreScanner.PARALLEL_SCAN_THREADS_KEY,
+        ParallelStoreScanner.DEFAULT_PARALLEL_SCAN_THREADS), true, CALLER_RUNS);
+    this.readAheadPool = createPool("hfile-readahead",
+      conf.getInt(BlockReadAhead.READ_AHEAD_THREADS_KEY, BlockReadAhead.DEFAULT_READ_AHEAD_THREADS),
+      true, new ThreadPoolExecutor.AbortPolicy());
+    this.compactionPool = createPool("compaction-range-parallel",
+      conf.getInt(ParallelCompactor.PARALLEL_COMPACTION_THREADS_KEY,
+        ParallelCompactor.DEFAULT_PARALLEL_COMPACTION_THREADS), false, CALLER_RUNS);
+  }
+
+  private static ThreadPoolExecutor createPool(String name, int threads, boolean foreground,
+      RejectedExecutionHandler handler) {
+    ThreadFactory threadFactory = Threads.newDaemonThreadFactory(name);
+    if (foreground) {
+      threadFactory = PrefetchExecutor.newForegroundThreadFactory(threadFactory);
+    }
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(threads * QUEUED_TASKS_PER_THREAD), threadFactory, handler);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * @return the pool fetching rows for parallel region scans, see {@link ParallelStoreScanner}
+   */
+  public ExecutorService getScanPool() {
+    return scanPool;
+  }
+
+  /**
+   * @return the pool reading data blocks ahead of scanners, see {@link BlockReadAhead}
+   */
+  public ExecutorService getReadAheadPool() {
+    return readAheadPool;
+  }
+
+  /**
+   * @return the pool compacting key ranges, see {@link ParallelCompactor}
+   */
+  public ExecutorService getCompactionPool() {
+    return compactionPool;
+  }
+
+  public void shutdown() {
+    scanPool.shutdown();
+    readAheadPool.shutdown();
+    compactionPool.shutdown();
+  }
+}
@@ -318,6 +318,12 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
    */
   private final int rowSizeWarnThreshold;
 
+  /**
+   * Min number of gets of the same shape in a multi request against one region to run them in a
+   * single pass, see {@link MultiGetMerger}
+   */
+  private final int multiGetMergeThreshold;
+
   final AtomicBoolean clearCompactionQueues = new AtomicBoolean(false);
 
   /**
@@ -748,6 +754,9 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     Object lastBlock = null;
     ClientProtos.ResultOrException.Builder resultOrExceptionBuilder = ResultOrException.newBuilder();
     boolean hasResultOrException = false;
+    Map<Integer, IOException> mergedGetErrors = new HashMap<>();
+    Map<Integer, Result> mergedGets = mergeGets(region, actions, closeCallBack, context,
+      maxQuotaResultSize, mergedGetErrors);
     for (ClientProtos.Action action : actions.getActionList()) {
       hasResultOrException = false;
       resultOrExceptionBuilder.clear();
@@ -791,7 +800,11 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
           }
           continue;
         }
-        if (action.hasGet()) {
+        if (action.hasGet() && mergedGetErrors.containsKey(action.getIndex())) {
+          throw mergedGetErrors.get(action.getIndex());
+        } else if (action.hasGet() && mergedGets.containsKey(action.getIndex())) {
+          r = mergedGets.get(action.getIndex());
+        } else if (action.hasGet()) {
           long before = EnvironmentEdgeManager.currentTime();
           try {
             Get get = ProtobufUtil.toGet(action.getGet());
@@ -905,6 +918,74 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     return cellsToReturn;
   }
 
+  /**
+   * Runs the gets of a region action which only has gets in as few passes as possible, see
+   * {@link MultiGetMerger}. Stops once the results reach the size the response is limited to.
+   * @param errors gets the failures of the gets which were run by action index
+   * @return the results of the gets which were run by action index, the other gets are left to
+   *         run one by one
+   */
+  private Map<Integer, Result> mergeGets(HRegion region, RegionAction actions,
+      RegionScannersCloseCallBack closeCallBack, RpcCallContext context, long maxQuotaResultSize,
+      Map<Integer, IOException> errors) {
+    if (multiGetMergeThreshold <= 0 || actions.getActionCount() < multiGetMergeThreshold) {
+      return Collections.emptyMap();
+    }
+    List<Get> gets = new ArrayList<>(actions.getActionCount());
+    try {
+      for (ClientProtos.Action action : actions.getActionList()) {
+        if (!action.hasGet()) {
+          // Gets and mutations have to run in the order of the request
+          return Collections.emptyMap();
+        }
+        gets.add(ProtobufUtil.toGet(action.getGet()));
+      }
+    } catch (IOException e) {
+      return Collections.emptyMap();
+    }
+    // Same limit as the one checked before each action
+    long maxResultSize = Long.MAX_VALUE;
+    if (context != null && context.isRetryImmediatelySupported()) {
+      maxResultSize = maxQuotaResultSize - context.getResponseCellSize();
+    }
+    List<RegionScanner> scanners = new ArrayList<>();
+    IOException[] getErrors = new IOException[gets.size()];
+    long before = EnvironmentEdgeManager.currentTime();
+    Result[] results;
+    try {
+      results = MultiGetMerger.get(region, gets, multiGetMergeThreshold, maxResultSize, scanners,
+        getErrors);
+    } finally {
+      for (RegionScanner scanner : scanners) {
+        if (closeCallBack != null) {
+          closeCallBack.addScanner(scanner);
+        } else {
+          try {
+            scanner.close();
+          } catch (IOException e) {
+            LOG.error("Exception while closing the scanner " + scanner, e);
+          }
+        }
+      }
+    }
+    Map<Integer, Result> merged = new HashMap<>();
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] != null) {
+        merged.put(actions.getAction(i).getIndex(), results[i]);
+      } else if (getErrors[i] != null) {
+        errors.put(actions.getAction(i).getIndex(), getErrors[i]);
+      }
+    }
+    if (regionServer.metricsRegionServer != null && !merged.isEmpty()) {
+      long time = (EnvironmentEdgeManager.currentTime() - before) / merged.size();
+      for (int i = 0; i < merged.size(); i++) {
+        regionServer.metricsRegionServer.updateGet(region.getTableDescriptor().getTableName(),
+          time);
+      }
+    }
+    return merged;
+  }
+
   private void checkCellSizeLimit(final HRegion r, final Mutation m) throws IOException {
     if (r.maxCellSize > 0) {
       CellScanner cells = m.cellScanner();
@@ -1143,6 +1224,8 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     this.ld = ld;
     regionServer = rs;
     rowSizeWarnThreshold = rs.conf.getInt(BATCH_ROWS_THRESHOLD_NAME, BATCH_ROWS_THRESHOLD_DEFAULT);
+    multiGetMergeThreshold = rs.conf.getInt(MultiGetMerger.MERGE_THRESHOLD_KEY,
+      MultiGetMerger.DEFAULT_MERGE_THRESHOLD);
     RpcSchedulerFactory rpcSchedulerFactory;
     try {
       Class<?> rpcSchedulerFactoryClass = rs.conf.getClass(
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -108,6 +109,8 @@ public class RegionCoprocessorHost
   // optimization: no need to call postScannerFilterRow, if no coprocessor implements it
   private final boolean hasCustomPostScannerFilterRow;
 
+  private final boolean hasCompactionScannerObservers;
+
   /**
    *
    * Encapsulation of the environment of each coprocessor
@@ -309,6 +312,44 @@ public class RegionCoprocessorHost
       }
     }
     this.hasCustomPostScannerFilterRow = hasCustomPostScannerFilterRow;
+
+    // and whether any coprocessor opens or wraps the scanner of the compactions
+    boolean hasCompactionScannerObservers = false;
+    for (RegionCoprocessorEnvironment env: coprocEnvironments) {
+      Optional<RegionObserver> observer = env.getInstance().getRegionObserver();
+      if (observer.isPresent() && (overrides(observer.get(), "preCompactScannerOpen",
+          ObserverContext.class, Store.class, ScanType.class, ScanOptions.class,
+          CompactionLifeCycleTracker.class, CompactionRequest.class)
+          || overrides(observer.get(), "preCompact", ObserverContext.class, Store.class,
+            InternalScanner.class, ScanType.class, CompactionLifeCycleTracker.class,
+            CompactionRequest.class))) {
+        hasCompactionScannerObservers = true;
+        break;
+      }
+    }
+    this.hasCompactionScannerObservers = hasCompactionScannerObservers;
+  }
+
+  /**
+   * @return true if the observer has its own version of the given method of RegionObserver
+   */
+  private static boolean overrides(RegionObserver observer, String name,
+      Class<?>... parameterTypes) {
+    try {
+      return observer.getClass().getMethod(name, parameterTypes).getDeclaringClass()
+          != RegionObserver.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return true if a coprocessor of the region implements
+   *         {@link RegionObserver#preCompactScannerOpen} or {@link RegionObserver#preCompact},
+   *         which have to run where the compactions of the region run
+   */
+  public boolean hasCompactionScannerObservers() {
+    return hasCompactionScannerObservers;
   }
 
   static List<TableCoprocessorAttribute> getTableCoprocessorAttrsFromSchema(Configuration conf,
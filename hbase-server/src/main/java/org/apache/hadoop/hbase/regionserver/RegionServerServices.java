@@ -201,6 +201,11 @@ public interface RegionServerServices extends Server, MutableOnlineRegions, Favo
    */
   double getCompactionPressure();
 
+  /**
+   * @return the thread pools of the parallel scans, block read ahead and parallel compactions
+   */
+  ParallelWorkerPools getParallelWorkerPools();
+
   /**
    * @return the controller to avoid flush too fast
    */
@@ -28,10 +28,13 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.PrivateCellUtil;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.BloomFilterChunk;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -49,8 +52,8 @@ import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesti
 public abstract class Segment {
 
   public final static long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT
-      + 6 * ClassSize.REFERENCE // cellSet, comparator, memStoreLAB, dataSize,
-                                // heapSize, and timeRangeTracker
+      + 7 * ClassSize.REFERENCE // cellSet, comparator, memStoreLAB, dataSize,
+                                // heapSize, timeRangeTracker and rowBloom
       + Bytes.SIZEOF_LONG // minSequenceId
       + Bytes.SIZEOF_BOOLEAN); // tagsPresent
   public final static long DEEP_OVERHEAD = FIXED_OVERHEAD + ClassSize.ATOMIC_REFERENCE
@@ -66,6 +69,8 @@ public abstract class Segment {
   protected final AtomicLong heapSize;
   protected final TimeRangeTracker timeRangeTracker;
   protected volatile boolean tagsPresent;
+  // bloom filter of the rows, only built for segments whose cells do not change anymore
+  private volatile BloomFilterChunk rowBloom;
 
   // Empty constructor to be used when Segment is used as interface,
   // and there is no need in true Segments state
@@ -194,6 +199,70 @@ public abstract class Segment {
         && timeRangeTracker.getMax() >= oldestUnexpiredTS;
   }
 
+  /**
+   * @return false if the segment has a row bloom filter and the row is not in it
+   */
+  public boolean mayContainRow(byte[] row) {
+    BloomFilterChunk bloom = rowBloom;
+    return bloom == null || bloom.contains(row, 0, row.length);
+  }
+
+  boolean hasRowBloom() {
+    return rowBloom != null;
+  }
+
+  /**
+   * Builds a bloom filter of the rows of this segment, so that a Get for a row which is not in
+   * the segment does not need to seek it. The cells of the segment must not change anymore.
+   * @return the heap size of the bloom filter, which is added to the heap size of the segment
+   */
+  long buildRowBloom(double errorRate, int hashType) {
+    BloomFilterChunk bloom = createRowBloom(errorRate, hashType);
+    return bloom == null ? 0 : setRowBloom(bloom);
+  }
+
+  /**
+   * Creates a bloom filter of the rows of this segment without installing it. The cells of the
+   * segment must not change anymore.
+   * @return the bloom filter, or null if the segment is empty
+   */
+  BloomFilterChunk createRowBloom(double errorRate, int hashType) {
+    int rows = 0;
+    Cell prev = null;
+    for (Cell cell : getCellSet()) {
+      if (prev == null || !CellUtil.matchingRows(prev, cell)) {
+        rows++;
+      }
+      prev = cell;
+    }
+    if (rows == 0) {
+      return null;
+    }
+    long byteSize = (BloomFilterUtil.computeBitSize(rows, errorRate) + 7) / 8;
+    BloomFilterChunk bloom = BloomFilterUtil.createBySize((int) Math.min(byteSize,
+      Integer.MAX_VALUE), errorRate, hashType, 0, BloomType.ROW);
+    bloom.allocBloom();
+    prev = null;
+    for (Cell cell : getCellSet()) {
+      if (prev == null || !CellUtil.matchingRows(prev, cell)) {
+        bloom.add(cell);
+      }
+      prev = cell;
+    }
+    return bloom;
+  }
+
+  /**
+   * Installs a row bloom filter built by {@link #createRowBloom(double, int)}.
+   * @return the heap size of the bloom filter, which is added to the heap size of the segment
+   */
+  long setRowBloom(BloomFilterChunk bloom) {
+    long heapSize = ClassSize.align(ClassSize.ARRAY + bloom.getByteSize());
+    incSize(0, heapSize);
+    this.rowBloom = bloom;
+    return heapSize;
+  }
+
   public boolean isTagsPresent() {
     return tagsPresent;
   }
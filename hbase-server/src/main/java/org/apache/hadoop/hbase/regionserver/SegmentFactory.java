@@ -33,6 +33,15 @@ import java.util.List;
 @InterfaceAudience.Private
 public final class SegmentFactory {
 
+  /**
+   * Whether active segments index their cells in a {@link CellChunkSkipListMap} instead of a
+   * ConcurrentSkipListMap. It only applies when MSLAB is in use, as the map keeps the cells as
+   * references into the MSLAB chunks.
+   */
+  public static final String CHUNK_SKIPLIST_INDEX_KEY =
+      "hbase.hregion.memstore.mutable.chunk.skiplist";
+  public static final boolean DEFAULT_CHUNK_SKIPLIST_INDEX = false;
+
   private SegmentFactory() {}
   private static SegmentFactory instance = new SegmentFactory();
 
@@ -136,8 +145,13 @@ public final class SegmentFactory {
 
   private MutableSegment generateMutableSegment(final Configuration conf, CellComparator comparator,
       MemStoreLAB memStoreLAB) {
-    // TBD use configuration to set type of segment
-    CellSet set = new CellSet(comparator);
+    CellSet set;
+    if (conf != null && memStoreLAB != null
+        && conf.getBoolean(CHUNK_SKIPLIST_INDEX_KEY, DEFAULT_CHUNK_SKIPLIST_INDEX)) {
+      set = new CellSet(new CellChunkSkipListMap(comparator), CellSet.UNKNOWN_NUM_UNIQUES);
+    } else {
+      set = new CellSet(comparator);
+    }
     return new MutableSegment(set, comparator, memStoreLAB);
   }
 
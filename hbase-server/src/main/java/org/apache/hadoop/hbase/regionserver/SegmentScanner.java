@@ -281,7 +281,8 @@ public class SegmentScanner implements KeyValueScanner {
   @Override
   public boolean shouldUseScanner(Scan scan, HStore store, long oldestUnexpiredTS) {
     return getSegment().shouldSeek(scan.getColumnFamilyTimeRange()
-            .getOrDefault(store.getColumnFamilyDescriptor().getName(), scan.getTimeRange()), oldestUnexpiredTS);
+            .getOrDefault(store.getColumnFamilyDescriptor().getName(), scan.getTimeRange()), oldestUnexpiredTS)
+        && (!scan.isGetScan() || getSegment().mayContainRow(scan.getStartRow()));
   }
 
   @Override
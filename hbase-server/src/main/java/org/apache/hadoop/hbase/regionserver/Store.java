@@ -244,6 +244,23 @@ public interface Store {
    */
   long getMajorCompactedCellsSize();
 
+  /**
+   * @return The total amount of data flushed and compacted over the amount of data flushed, that
+   *         is how many times the flushed data was written since the store was opened
+   */
+  double getWriteAmplification();
+
+  /**
+   * @return The total size of the store files over the size of the largest one
+   */
+  double getSpaceAmplification();
+
+  /**
+   * @return The ratio of the cells of the store files which are delete markers, expired cells or
+   *         versions beyond the max versions, not counting the results of major compactions
+   */
+  double getTombstoneRatio();
+
   /**
    * @return Whether this store has too many store files.
    */
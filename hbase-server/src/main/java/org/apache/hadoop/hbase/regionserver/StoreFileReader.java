@@ -17,12 +17,17 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.BLOOM_FILTER_PARAM_KEY;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.BLOOM_FILTER_TYPE_KEY;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.DELETE_COUNT;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.DELETE_FAMILY_COUNT;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.EXPIRED_CELLS_COUNT;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.EXTRA_VERSIONS_COUNT;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.LAST_BLOOM_KEY;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedSet;
@@ -48,6 +53,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.util.BloomFilter;
 import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.yetus.audience.InterfaceStability;
@@ -66,11 +72,16 @@ public class StoreFileReader {
   protected BloomFilter generalBloomFilter = null;
   protected BloomFilter deleteFamilyBloomFilter = null;
   protected BloomType bloomFilterType;
+  /** The row prefix length or delimiter of a row prefix Bloom filter */
+  private byte[] bloomFilterParam;
   private final HFile.Reader reader;
   protected long sequenceID = -1;
   protected TimeRange timeRange = null;
   private byte[] lastBloomKey;
   private long deleteFamilyCnt = -1;
+  private long deleteCnt = 0;
+  private long expiredCellsCnt = 0;
+  private long extraVersionsCnt = 0;
   private boolean bulkLoadResult = false;
   private KeyValue.KeyOnlyKeyValue lastBloomKeyOnlyKV = null;
   private boolean skipResetSeqId = true;
@@ -109,6 +120,7 @@ public class StoreFileReader {
     this.generalBloomFilter = reader.generalBloomFilter;
     this.deleteFamilyBloomFilter = reader.deleteFamilyBloomFilter;
     this.bloomFilterType = reader.bloomFilterType;
+    this.bloomFilterParam = reader.bloomFilterParam;
     this.sequenceID = reader.sequenceID;
     this.timeRange = reader.timeRange;
     this.lastBloomKey = reader.lastBloomKey;
@@ -236,13 +248,23 @@ public class StoreFileReader {
    *         False if the Bloom filter is applicable and the scan fails it.
    */
   boolean passesBloomFilter(Scan scan, final SortedSet<byte[]> columns) {
+    byte[] row = scan.getStartRow();
+    switch (this.bloomFilterType) {
+      case ROWPREFIX_FIXED_LENGTH:
+      case ROWPREFIX_DELIMITED:
+        // Also used by the scans whose rows all have the same prefix
+        return passesGeneralRowPrefixBloomFilter(scan);
+
+      default:
+        break;
+    }
+
     // Multi-column non-get scans will use Bloom filters through the
     // lower-level API function that this function calls.
     if (!scan.isGetScan()) {
       return true;
     }
 
-    byte[] row = scan.getStartRow();
     switch (this.bloomFilterType) {
       case ROW:
         return passesGeneralRowBloomFilter(row, 0, row.length);
@@ -315,6 +337,36 @@ public class StoreFileReader {
     return checkGeneralBloomFilter(key, null, bloomFilter);
   }
 
+  /**
+   * Checks a row prefix Bloom filter for a get, or for a scan whose start and stop rows make sure
+   * that all its rows have the same prefix.
+   *
+   * @return True if passes
+   */
+  private boolean passesGeneralRowPrefixBloomFilter(Scan scan) {
+    BloomFilter bloomFilter = this.generalBloomFilter;
+    if (bloomFilter == null || bloomFilterParam == null) {
+      return true;
+    }
+
+    byte[] row = scan.getStartRow();
+    int prefixLength = BloomFilterUtil.getRowPrefixLength(row, bloomFilterType, bloomFilterParam);
+    if (!scan.isGetScan()) {
+      // The rows between two rows have their prefix if they both have it. A row without a
+      // delimiter, or shorter than the prefix length, is its own prefix so it does not do.
+      boolean hasPrefix = bloomFilterType == BloomType.ROWPREFIX_FIXED_LENGTH
+          ? row.length >= Bytes.toInt(bloomFilterParam)
+          : Bytes.indexOf(row, bloomFilterParam) >= 0;
+      byte[] stopRow = scan.getStopRow();
+      if (!hasPrefix || Bytes.findCommonPrefix(row, stopRow, row.length, stopRow.length, 0, 0)
+          < prefixLength) {
+        return true;
+      }
+    }
+    byte[] key = prefixLength == row.length ? row : Bytes.copy(row, 0, prefixLength);
+    return checkGeneralBloomFilter(key, null, bloomFilter);
+  }
+
   /**
    * A method for checking Bloom filters. Called directly from
    * StoreFileScanner in case of a multi-column query.
@@ -367,7 +419,7 @@ public class StoreFileReader {
         // hbase:meta does not have blooms. So we need not have special interpretation
         // of the hbase:meta cells.  We can safely use Bytes.BYTES_RAWCOMPARATOR for ROW Bloom
         if (keyIsAfterLast) {
-          if (bloomFilterType == BloomType.ROW) {
+          if (bloomFilterType != BloomType.ROWCOL) {
             keyIsAfterLast = (Bytes.BYTES_RAWCOMPARATOR.compare(key, lastBloomKey) > 0);
           } else {
             keyIsAfterLast = (CellComparator.getInstance().compare(kvKey, lastBloomKeyOnlyKV)) > 0;
@@ -445,6 +497,7 @@ public class StoreFileReader {
     if (b != null) {
       bloomFilterType = BloomType.valueOf(Bytes.toString(b));
     }
+    bloomFilterParam = fi.get(BLOOM_FILTER_PARAM_KEY);
 
     lastBloomKey = fi.get(LAST_BLOOM_KEY);
     if(bloomFilterType == BloomType.ROWCOL) {
@@ -454,6 +507,19 @@ public class StoreFileReader {
     if (cnt != null) {
       deleteFamilyCnt = Bytes.toLong(cnt);
     }
+    // Files written before these counts count as without tombstones
+    cnt = fi.get(DELETE_COUNT);
+    if (cnt != null) {
+      deleteCnt = Bytes.toLong(cnt);
+    }
+    cnt = fi.get(EXPIRED_CELLS_COUNT);
+    if (cnt != null) {
+      expiredCellsCnt = Bytes.toLong(cnt);
+    }
+    cnt = fi.get(EXTRA_VERSIONS_COUNT);
+    if (cnt != null) {
+      extraVersionsCnt = Bytes.toLong(cnt);
+    }
 
     return fi;
   }
@@ -552,6 +618,10 @@ public class StoreFileReader {
     return reader.midKey();
   }
 
+  public List<Cell> getRootIndexKeys() {
+    return reader.getRootIndexKeys();
+  }
+
   public long length() {
     return reader.length();
   }
@@ -568,6 +638,26 @@ public class StoreFileReader {
     return deleteFamilyCnt;
   }
 
+  public long getDeleteCnt() {
+    return deleteCnt;
+  }
+
+  public long getExpiredCellsCnt() {
+    return expiredCellsCnt;
+  }
+
+  public long getExtraVersionsCnt() {
+    return extraVersionsCnt;
+  }
+
+  /**
+   * @return the number of cells which only take space when the file was written: the delete
+   *         markers, the expired cells and the versions beyond the max versions
+   */
+  public long getTombstoneCnt() {
+    return deleteCnt + expiredCellsCnt + extraVersionsCnt;
+  }
+
   public Optional<Cell> getFirstKey() {
     return reader.getFirstKey();
   }
@@ -17,9 +17,13 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.BLOOM_FILTER_PARAM_KEY;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.BLOOM_FILTER_TYPE_KEY;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.DELETE_COUNT;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.DELETE_FAMILY_COUNT;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.EARLIEST_PUT_TS;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.EXPIRED_CELLS_COUNT;
+import static org.apache.hadoop.hbase.regionserver.HStoreFile.EXTRA_VERSIONS_COUNT;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.MAJOR_COMPACTION_KEY;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.MAX_SEQ_ID_KEY;
 import static org.apache.hadoop.hbase.regionserver.HStoreFile.MOB_CELLS_COUNT;
@@ -35,20 +39,25 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.PrivateCellUtil;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
 import org.apache.hadoop.hbase.util.BloomContext;
 import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
 import org.apache.hadoop.hbase.util.BloomFilterWriter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.RowBloomContext;
 import org.apache.hadoop.hbase.util.RowColBloomContext;
+import org.apache.hadoop.hbase.util.RowPrefixBloomContext;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,8 +74,17 @@ public class StoreFileWriter implements CellSink, ShipperListener {
   private final BloomFilterWriter generalBloomFilterWriter;
   private final BloomFilterWriter deleteFamilyBloomFilterWriter;
   private final BloomType bloomType;
+  private byte[] bloomParam = null;
   private long earliestPutTs = HConstants.LATEST_TIMESTAMP;
   private long deleteFamilyCnt = 0;
+  private long deleteCnt = 0;
+  private long expiredCellsCnt = 0;
+  private long extraVersionsCnt = 0;
+  private final int maxVersions;
+  /** Cells older than this were expired when written */
+  private final long oldestUnexpiredTs;
+  private Cell lastColumnCell = null;
+  private int lastColumnVersions = 0;
   private BloomContext bloomContext = null;
   private BloomContext deleteFamilyBloomContext = null;
   private final TimeRangeTracker timeRangeTracker;
@@ -85,6 +103,8 @@ public class StoreFileWriter implements CellSink, ShipperListener {
      * @param favoredNodes
      * @param fileContext - The HFile context
      * @param shouldDropCacheBehind Drop pages written to page cache after writing the store file.
+     * @param maxVersions the max versions of the columns, to count the versions beyond it
+     * @param ttl the time to live of the cells in ms, to count the cells already expired
      * @throws IOException problem writing to FS
      */
     private StoreFileWriter(FileSystem fs, Path path,
@@ -92,9 +112,12 @@ public class StoreFileWriter implements CellSink, ShipperListener {
         CacheConfig cacheConf,
         final CellComparator comparator, BloomType bloomType, long maxKeys,
         InetSocketAddress[] favoredNodes, HFileContext fileContext,
-        boolean shouldDropCacheBehind)
+        boolean shouldDropCacheBehind, int maxVersions, long ttl)
             throws IOException {
     this.timeRangeTracker = TimeRangeTracker.create(TimeRangeTracker.Type.NON_SYNC);
+    this.maxVersions = maxVersions;
+    long now = EnvironmentEdgeManager.currentTime();
+    this.oldestUnexpiredTs = ttl == Long.MAX_VALUE || ttl >= now ? Long.MIN_VALUE : now - ttl;
     // TODO : Change all writers to be specifically created for compaction context
     writer = HFile.getWriterFactory(conf, cacheConf)
         .withPath(fs, path)
@@ -104,6 +127,12 @@ public class StoreFileWriter implements CellSink, ShipperListener {
         .withShouldDropCacheBehind(shouldDropCacheBehind)
         .create();
 
+    try {
+      bloomParam = BloomFilterUtil.getBloomFilterParam(bloomType, conf);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Not writing a " + bloomType + " Bloom filter to " + path, e);
+      bloomType = BloomType.NONE;
+    }
     generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
         conf, cacheConf, bloomType,
         (int) Math.min(maxKeys, Integer.MAX_VALUE), writer);
@@ -122,9 +151,14 @@ public class StoreFileWriter implements CellSink, ShipperListener {
       case ROWCOL:
         bloomContext = new RowColBloomContext(generalBloomFilterWriter, comparator);
         break;
+      case ROWPREFIX_FIXED_LENGTH:
+      case ROWPREFIX_DELIMITED:
+        bloomContext = new RowPrefixBloomContext(generalBloomFilterWriter, comparator, bloomType,
+            bloomParam);
+        break;
       default:
-        throw new IOException(
-            "Invalid Bloom filter type: " + bloomType + " (ROW or ROWCOL expected)");
+        throw new IOException("Invalid Bloom filter type: " + bloomType
+            + " (ROW, ROWCOL, ROWPREFIX_FIXED_LENGTH or ROWPREFIX_DELIMITED expected)");
       }
     } else {
       // Not using Bloom filters.
@@ -227,12 +261,37 @@ public class StoreFileWriter implements CellSink, ShipperListener {
     }
   }
 
+  /**
+   * Counts the cells which only take space: the delete markers, the cells expired when written and
+   * the versions beyond the max versions of their column. A cell is counted once, an expired extra
+   * version as expired.
+   */
+  private void trackTombstones(final Cell cell) {
+    if (PrivateCellUtil.isDelete(cell.getTypeByte())) {
+      deleteCnt++;
+      return;
+    }
+    boolean extraVersion = false;
+    if (lastColumnCell != null && CellUtil.matchingRowColumn(lastColumnCell, cell)) {
+      extraVersion = ++lastColumnVersions > maxVersions;
+    } else {
+      lastColumnCell = cell;
+      lastColumnVersions = 1;
+    }
+    if (cell.getTimestamp() < oldestUnexpiredTs) {
+      expiredCellsCnt++;
+    } else if (extraVersion) {
+      extraVersionsCnt++;
+    }
+  }
+
   @Override
   public void append(final Cell cell) throws IOException {
     appendGeneralBloomfilter(cell);
     appendDeleteFamilyBloomFilter(cell);
     writer.append(cell);
     trackTimestamps(cell);
+    trackTombstones(cell);
   }
 
   @Override
@@ -246,6 +305,9 @@ public class StoreFileWriter implements CellSink, ShipperListener {
     if (deleteFamilyBloomFilterWriter != null) {
       deleteFamilyBloomFilterWriter.beforeShipped();
     }
+    if (lastColumnCell != null) {
+      lastColumnCell = KeyValueUtil.toNewKeyCell(lastColumnCell);
+    }
   }
 
   public Path getPath() {
@@ -280,6 +342,9 @@ public class StoreFileWriter implements CellSink, ShipperListener {
     if (hasGeneralBloom) {
       writer.addGeneralBloomFilter(generalBloomFilterWriter);
       writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY, Bytes.toBytes(bloomType.toString()));
+      if (bloomParam != null) {
+        writer.appendFileInfo(BLOOM_FILTER_PARAM_KEY, bloomParam);
+      }
       bloomContext.addLastBloomKey(writer);
     }
     return hasGeneralBloom;
@@ -303,6 +368,9 @@ public class StoreFileWriter implements CellSink, ShipperListener {
   public void close() throws IOException {
     boolean hasGeneralBloom = this.closeGeneralBloomFilter();
     boolean hasDeleteFamilyBloom = this.closeDeleteFamilyBloomFilter();
+    writer.appendFileInfo(DELETE_COUNT, Bytes.toBytes(this.deleteCnt));
+    writer.appendFileInfo(EXPIRED_CELLS_COUNT, Bytes.toBytes(this.expiredCellsCnt));
+    writer.appendFileInfo(EXTRA_VERSIONS_COUNT, Bytes.toBytes(this.extraVersionsCnt));
 
     writer.close();
 
@@ -353,6 +421,8 @@ public class StoreFileWriter implements CellSink, ShipperListener {
     private InetSocketAddress[] favoredNodes;
     private HFileContext fileContext;
     private boolean shouldDropCacheBehind;
+    private int maxVersions = Integer.MAX_VALUE;
+    private long ttl = Long.MAX_VALUE;
 
     public Builder(Configuration conf, CacheConfig cacheConf,
         FileSystem fs) {
@@ -434,6 +504,24 @@ public class StoreFileWriter implements CellSink, ShipperListener {
       return this;
     }
 
+    /**
+     * @param maxVersions the max versions of the columns, the versions beyond are counted
+     * @return this (for chained invocation)
+     */
+    public Builder withMaxVersions(int maxVersions) {
+      this.maxVersions = maxVersions;
+      return this;
+    }
+
+    /**
+     * @param ttl the time to live of the cells in ms, the cells already expired are counted
+     * @return this (for chained invocation)
+     */
+    public Builder withTtl(long ttl) {
+      this.ttl = ttl;
+      return this;
+    }
+
     /**
      * Create a store file writer. Client is responsible for closing file when
      * done. If metadata, add BEFORE closing using
@@ -474,7 +562,7 @@ public class StoreFileWriter implements CellSink, ShipperListener {
       }
       return new StoreFileWriter(fs, filePath,
           conf, cacheConf, comparator, bloomType, maxKeyCount, favoredNodes, fileContext,
-          shouldDropCacheBehind);
+          shouldDropCacheBehind, maxVersions, ttl);
     }
   }
 }
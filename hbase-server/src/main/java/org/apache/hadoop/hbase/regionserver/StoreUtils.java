@@ -19,7 +19,9 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
@@ -76,6 +78,78 @@ public class StoreUtils {
         .max((f1, f2) -> Long.compare(f1.getReader().length(), f2.getReader().length()));
   }
 
+  /**
+   * Gets the space amplification of the given files, as their total size over the size of the
+   * largest one, which holds most of the live data once the files are sorted in size tiers. The
+   * files of a compaction run count as one file. It is 1 when there is a single file, or no file
+   * with a reader.
+   */
+  public static double getSpaceAmplification(Collection<HStoreFile> files) {
+    long total = 0;
+    long largest = 0;
+    for (List<HStoreFile> run : getCompactionRuns(files)) {
+      long length = getTotalLength(run);
+      total += length;
+      largest = Math.max(largest, length);
+    }
+    return largest > 0 ? (double) total / largest : 1;
+  }
+
+  /**
+   * Groups the files, in their order, in the runs of files written by one compaction over disjoint
+   * key ranges, see {@link HStoreFile#COMPACTION_RUN_KEY}. A file which was not written as part of
+   * a run is a run of its own.
+   */
+  public static List<List<HStoreFile>> getCompactionRuns(Collection<HStoreFile> files) {
+    List<List<HStoreFile>> runs = new ArrayList<>();
+    List<HStoreFile> run = null;
+    OptionalLong previousRun = OptionalLong.empty();
+    for (HStoreFile file : files) {
+      OptionalLong fileRun = file.getCompactionRun();
+      if (run == null || !fileRun.isPresent() || !fileRun.equals(previousRun)) {
+        run = new ArrayList<>();
+        runs.add(run);
+      }
+      run.add(file);
+      previousRun = fileRun;
+    }
+    return runs;
+  }
+
+  /**
+   * Gets the total length of the given files which have a reader.
+   */
+  public static long getTotalLength(Collection<HStoreFile> files) {
+    long total = 0;
+    for (HStoreFile file : files) {
+      if (file.getReader() != null) {
+        total += file.getReader().length();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Gets the tombstone ratio of the given files, as the number of delete markers, expired cells
+   * and versions beyond the max versions recorded when the files were written, over the number of
+   * cells of all the files. The results of major compactions do not count their tombstones, as a
+   * major compaction already dropped all it could. It is 0 when there is no cell.
+   */
+  public static double getTombstoneRatio(Collection<HStoreFile> files) {
+    long tombstones = 0;
+    long entries = 0;
+    for (HStoreFile file : files) {
+      StoreFileReader reader = file.getReader();
+      if (reader != null) {
+        entries += reader.getEntries();
+        if (!file.isMajorCompactionResult()) {
+          tombstones += reader.getTombstoneCnt();
+        }
+      }
+    }
+    return entries > 0 ? (double) tombstones / entries : 0;
+  }
+
   /**
    * Return the largest memstoreTS found across all storefiles in the given list. Store files that
    * were created by a mapreduce bulk load are ignored, as they do not correspond to any specific
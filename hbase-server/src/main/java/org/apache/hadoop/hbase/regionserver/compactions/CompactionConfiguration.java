@@ -64,6 +64,12 @@ public class CompactionConfiguration {
   public static final String HBASE_HSTORE_MIN_LOCALITY_TO_SKIP_MAJOR_COMPACT =
       "hbase.hstore.min.locality.to.skip.major.compact";
 
+  /**
+   * Stores whose ratio of delete markers, expired cells and extra versions is above this are major
+   * compacted, to drop them. 0 disables it.
+   */
+  public static final String HBASE_HSTORE_COMPACTION_TOMBSTONE_RATIO_KEY =
+      "hbase.hstore.compaction.tombstone.ratio";
   public static final String HBASE_HFILE_COMPACTION_DISCHARGER_THREAD_COUNT =
       "hbase.hfile.compaction.discharger.thread.count";
 
@@ -104,6 +110,7 @@ public class CompactionConfiguration {
   private final long majorCompactionPeriod;
   private final float majorCompactionJitter;
   private final float minLocalityToForceCompact;
+  private final double tombstoneRatioToForceCompact;
   private final long dateTieredMaxStoreFileAgeMillis;
   private final int dateTieredIncomingWindowMin;
   private final String compactionPolicyForDateTieredWindow;
@@ -132,6 +139,7 @@ public class CompactionConfiguration {
     majorCompactionJitter = conf.getFloat(HConstants.MAJOR_COMPACTION_JITTER,
                                           HConstants.DEFAULT_MAJOR_COMPACTION_JITTER);
     minLocalityToForceCompact = conf.getFloat(HBASE_HSTORE_MIN_LOCALITY_TO_SKIP_MAJOR_COMPACT, 0f);
+    tombstoneRatioToForceCompact = conf.getDouble(HBASE_HSTORE_COMPACTION_TOMBSTONE_RATIO_KEY, 0);
 
     dateTieredMaxStoreFileAgeMillis = conf.getLong(DATE_TIERED_MAX_AGE_MILLIS_KEY, Long.MAX_VALUE);
     dateTieredIncomingWindowMin = conf.getInt(DATE_TIERED_INCOMING_WINDOW_MIN_KEY, 6);
@@ -150,7 +158,8 @@ public class CompactionConfiguration {
   public String toString() {
     return String.format(
       "size [%d, %d, %d); files [%d, %d); ratio %f; off-peak ratio %f; throttle point %d;"
-      + " major period %d, major jitter %f, min locality to compact %f;"
+      + " major period %d, major jitter %f, min locality to compact %f,"
+      + " tombstone ratio to compact %f;"
       + " tiered compaction: max_age %d, incoming window min %d,"
       + " compaction policy for tiered window %s, single output for minor %b,"
       + " compaction window factory %s",
@@ -165,6 +174,7 @@ public class CompactionConfiguration {
       majorCompactionPeriod,
       majorCompactionJitter,
       minLocalityToForceCompact,
+      tombstoneRatioToForceCompact,
       dateTieredMaxStoreFileAgeMillis,
       dateTieredIncomingWindowMin,
       compactionPolicyForDateTieredWindow,
@@ -255,6 +265,13 @@ public class CompactionConfiguration {
     return minLocalityToForceCompact;
   }
 
+  /**
+   * @return Tombstone ratio above which the store files are major compacted, 0 if disabled
+   */
+  public double getTombstoneRatioToForceCompact() {
+    return tombstoneRatioToForceCompact;
+  }
+
   public long getOffPeakMaxCompactSize() {
     return offPeakMaxCompactSize;
   }
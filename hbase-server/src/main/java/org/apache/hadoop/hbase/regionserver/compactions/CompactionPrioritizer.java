@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Ranks the compactions queued on a region server, see
+ * {@link org.apache.hadoop.hbase.regionserver.CompactSplit#COMPACTION_PRIORITIZER_CLASS}.
+ * Implementations need a constructor taking the configuration.
+ */
+@InterfaceAudience.Private
+public interface CompactionPrioritizer {
+
+  /**
+   * Called when a compaction is queued. The compactions with a lower rank run first, the ones with
+   * the same rank in the order of their priority.
+   * @param priority the priority of the compaction, lower is more urgent
+   * @param request the selected files, null for a system compaction which selects them once it
+   *          runs
+   * @return the rank of the compaction
+   */
+  double rank(HRegion region, HStore store, int priority, @Nullable CompactionRequestImpl request);
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Runs compactions out of the region server, for the {@link OffloadCompactor}. Implementations
+ * must have a constructor taking a {@link org.apache.hadoop.conf.Configuration}.
+ */
+@InterfaceAudience.Private
+public interface CompactionService {
+
+  /**
+   * Compacts the files of the request out of the region server. The compacted files are written
+   * in the temporary directory of the region, from where the store commits them as the output of
+   * a local compaction.
+   * @param store the store the files belong to
+   * @param request the files to compact, and whether they are all the files of the store
+   * @param progress to update with the number of compacted cells and their size
+   * @return the compacted files
+   */
+  List<Path> compact(HStore store, CompactionRequestImpl request, CompactionProgress progress)
+      throws IOException;
+}
@@ -26,6 +26,7 @@ import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.regionserver.HStoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreUtils;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +63,16 @@ public class ExploringCompactionPolicy extends RatioBasedCompactionPolicy {
     final double currentRatio = mayUseOffPeak
         ? comConf.getCompactionRatioOffPeak() : comConf.getCompactionRatio();
 
+    // The files of a compaction run are selected together, as one file, but all of them count
+    // against the max number of files.
+    List<List<HStoreFile>> runs = StoreUtils.getCompactionRuns(candidates);
+    int[] runStarts = new int[runs.size() + 1];
+    long[] runSizes = new long[runs.size()];
+    for (int i = 0; i < runs.size(); i++) {
+      runStarts[i + 1] = runStarts[i] + runs.get(i).size();
+      runSizes[i] = getTotalStoreSize(runs.get(i));
+    }
+
     // Start off choosing nothing.
     List<HStoreFile> bestSelection = new ArrayList<>(0);
     List<HStoreFile> smallest = mightBeStuck ? new ArrayList<>(0) : null;
@@ -70,14 +81,15 @@ public class ExploringCompactionPolicy extends RatioBasedCompactionPolicy {
 
     int opts = 0, optsInRatio = 0, bestStart = -1; // for debug logging
     // Consider every starting place.
-    for (int start = 0; start < candidates.size(); start++) {
+    for (int start = 0; start < runs.size(); start++) {
       // Consider every different sub list permutation in between start and end with min files.
       for (int currentEnd = start + minFiles - 1;
-          currentEnd < candidates.size(); currentEnd++) {
-        List<HStoreFile> potentialMatchFiles = candidates.subList(start, currentEnd + 1);
+          currentEnd < runs.size(); currentEnd++) {
+        List<HStoreFile> potentialMatchFiles =
+            candidates.subList(runStarts[start], runStarts[currentEnd + 1]);
 
         // Sanity checks
-        if (potentialMatchFiles.size() < minFiles) {
+        if (currentEnd - start + 1 < minFiles) {
           continue;
         }
         if (potentialMatchFiles.size() > maxFiles) {
@@ -101,7 +113,7 @@ public class ExploringCompactionPolicy extends RatioBasedCompactionPolicy {
 
         ++opts;
         if (size >= comConf.getMinCompactSize()
-            && !filesInRatio(potentialMatchFiles, currentRatio)) {
+            && !filesInRatio(runSizes, start, currentEnd + 1, size, currentRatio)) {
           continue;
         }
 
@@ -109,7 +121,7 @@ public class ExploringCompactionPolicy extends RatioBasedCompactionPolicy {
         if (isBetterSelection(bestSelection, bestSize, potentialMatchFiles, size, mightBeStuck)) {
           bestSelection = potentialMatchFiles;
           bestSize = size;
-          bestStart = start;
+          bestStart = runStarts[start];
         }
       }
     }
@@ -150,22 +162,25 @@ public class ExploringCompactionPolicy extends RatioBasedCompactionPolicy {
   }
 
   /**
-   * Check that all files satisfy the constraint
-   *      FileSize(i) <= ( Sum(0,N,FileSize(_)) - FileSize(i) ) * Ratio.
+   * Check that all the runs of files satisfy the constraint
+   *      RunSize(i) <= ( Sum(start,end,RunSize(_)) - RunSize(i) ) * Ratio.
+   * A run is a single file unless the file is part of a compaction run.
    *
-   * @param files List of store files to consider as a compaction candidate.
+   * @param runSizes The sizes of the runs of the candidates.
+   * @param start The first run to consider as a compaction candidate.
+   * @param end The run after the last one to consider.
+   * @param totalFileSize The total size of the runs to consider.
    * @param currentRatio The ratio to use.
-   * @return a boolean if these files satisfy the ratio constraints.
+   * @return a boolean if these runs satisfy the ratio constraints.
    */
-  private boolean filesInRatio(List<HStoreFile> files, double currentRatio) {
-    if (files.size() < 2) {
+  private boolean filesInRatio(long[] runSizes, int start, int end, long totalFileSize,
+      double currentRatio) {
+    if (end - start < 2) {
       return true;
     }
 
-    long totalFileSize = getTotalStoreSize(files);
-
-    for (HStoreFile file : files) {
-      long singleFileSize = file.getReader().length();
+    for (int i = start; i < end; i++) {
+      long singleFileSize = runSizes[i];
       long sumAllOtherFileSizes = totalFileSize - singleFileSize;
 
       if (singleFileSize > sumAllOtherFileSizes * currentRatio) {
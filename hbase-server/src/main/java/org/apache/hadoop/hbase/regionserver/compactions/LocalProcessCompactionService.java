@@ -0,0 +1,161 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.regionserver.CompactionWorker;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs each compaction in a {@link CompactionWorker} process on the same host, with the
+ * configuration of the store. The compaction thread of the region server waits for the worker,
+ * and kills it when the store is closed.
+ * <p>
+ * The configuration, which may hold secrets, and the descriptors of the table and the region are
+ * handed to the worker in files of a temporary directory which only the user of the region server
+ * can read. The worker logs in with the keytab of the region server.
+ */
+@InterfaceAudience.Private
+public class LocalProcessCompactionService implements CompactionService {
+  private static final Logger LOG = LoggerFactory.getLogger(LocalProcessCompactionService.class);
+
+  /** The options of the JVM of the workers, separated by spaces, like their heap size */
+  public static final String WORKER_JAVA_OPTS_KEY =
+      "hbase.regionserver.compaction.offload.worker.java.opts";
+
+  private static final long CHECK_INTERVAL_MS = 1000;
+
+  private final Configuration conf;
+
+  public LocalProcessCompactionService(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public List<Path> compact(HStore store, CompactionRequestImpl request,
+      CompactionProgress progress) throws IOException {
+    File dir = createPrivateDirectory();
+    File confFile = new File(dir, "conf.xml");
+    File regionFile = new File(dir, "region");
+    File outputFile = new File(dir, "output");
+    try {
+      // The configuration of the store can not be written as is
+      Configuration workerConf = new Configuration(false);
+      for (Map.Entry<String, String> entry : conf) {
+        workerConf.set(entry.getKey(), entry.getValue());
+      }
+      try (OutputStream out = new FileOutputStream(confFile)) {
+        workerConf.writeXml(out);
+      }
+      CompactionWorker.writeRegion(store, regionFile);
+
+      Process process = new ProcessBuilder(getCommand(store, request, confFile, regionFile))
+          .redirectError(ProcessBuilder.Redirect.INHERIT).redirectOutput(outputFile).start();
+      try {
+        while (!process.waitFor(CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+          if (!store.areWritesEnabled()) {
+            throw new InterruptedIOException("Aborting compaction of store " + store
+                + " in region " + store.getRegionInfo().getRegionNameAsString()
+                + " because it was interrupted.");
+          }
+        }
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while waiting for the compaction worker of " + store).initCause(e);
+      } finally {
+        if (process.isAlive()) {
+          process.destroyForcibly();
+        }
+      }
+      if (process.exitValue() != 0) {
+        throw new IOException(
+            "Compaction worker of " + store + " exited with " + process.exitValue());
+      }
+      List<Path> newFiles = CompactionWorker.parseOutput(
+        Files.readAllLines(outputFile.toPath(), StandardCharsets.UTF_8), progress);
+      LOG.debug("Compaction worker of " + store + " wrote " + newFiles);
+      return newFiles;
+    } finally {
+      for (File file : new File[] { confFile, regionFile, outputFile, dir }) {
+        if (file.exists() && !file.delete()) {
+          LOG.warn("Failed to delete " + file + " of the compaction worker of " + store);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return a new temporary directory which only the current user can access
+   */
+  private static File createPrivateDirectory() throws IOException {
+    try {
+      return Files.createTempDirectory("compaction-worker-",
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")))
+          .toFile();
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system
+      File dir = Files.createTempDirectory("compaction-worker-").toFile();
+      if (!(dir.setReadable(false, false) && dir.setReadable(true, true)
+          && dir.setWritable(false, false) && dir.setWritable(true, true)
+          && dir.setExecutable(false, false) && dir.setExecutable(true, true))) {
+        dir.delete();
+        throw new IOException("Failed to restrict the access to " + dir);
+      }
+      return dir;
+    }
+  }
+
+  private List<String> getCommand(HStore store, CompactionRequestImpl request, File confFile,
+      File regionFile) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    for (String opt : conf.get(WORKER_JAVA_OPTS_KEY, "").trim().split("\\s+")) {
+      if (!opt.isEmpty()) {
+        command.add(opt);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CompactionWorker.class.getName());
+    command.add("-conf");
+    command.add(confFile.getAbsolutePath());
+    command.add("-regionFile");
+    command.add(regionFile.getAbsolutePath());
+    command.addAll(CompactionWorker.getArguments(store, request));
+    return command;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
+import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compactor handing the compactions to a {@link CompactionService}, so that their CPU, memory and
+ * I/O are out of the region server. The service writes the compacted files in the temporary
+ * directory of the region, and the store commits them as usual.
+ * <p>
+ * The throughput of the compactions is up to the service. The region coprocessors are not loaded
+ * where the service compacts, so the compactions of a region with a coprocessor implementing
+ * {@link org.apache.hadoop.hbase.coprocessor.RegionObserver#preCompactScannerOpen} or
+ * {@link org.apache.hadoop.hbase.coprocessor.RegionObserver#preCompact} run in the region server,
+ * as with the {@link DefaultCompactor}. The other compaction hooks run in the region server
+ * anyway.
+ */
+@InterfaceAudience.Private
+public class OffloadCompactor extends DefaultCompactor {
+  private static final Logger LOG = LoggerFactory.getLogger(OffloadCompactor.class);
+
+  public static final String COMPACTION_SERVICE_CLASS_KEY =
+      "hbase.regionserver.compaction.offload.service.class";
+
+  /** The compactor running the compactions in the worker */
+  public static final String WORKER_COMPACTOR_CLASS_KEY =
+      "hbase.regionserver.compaction.offload.worker.compactor.class";
+
+  private final CompactionService service;
+
+  public OffloadCompactor(Configuration conf, HStore store) {
+    super(conf, store);
+    String className =
+        conf.get(COMPACTION_SERVICE_CLASS_KEY, LocalProcessCompactionService.class.getName());
+    this.service = ReflectionUtils.instantiateWithCustomCtor(className,
+      new Class[] { Configuration.class }, new Object[] { conf });
+  }
+
+  @Override
+  public List<Path> compact(final CompactionRequestImpl request,
+      ThroughputController throughputController, User user) throws IOException {
+    RegionCoprocessorHost cpHost = store.getCoprocessorHost();
+    if (cpHost != null && cpHost.hasCompactionScannerObservers()) {
+      LOG.debug("Compacting " + store + " in the region server, a coprocessor of the region "
+          + "observes the compaction scanner");
+      return super.compact(request, throughputController, user);
+    }
+    long totalCompactingKVs = 0;
+    for (HStoreFile file : request.getFiles()) {
+      if (file.getReader() != null) {
+        totalCompactingKVs += file.getReader().getEntries();
+      }
+    }
+    this.progress = new CompactionProgress(totalCompactingKVs);
+    LOG.debug("Offloading compaction of " + request.getFiles().size() + " file(s) of " + store
+        + " to " + service.getClass().getSimpleName());
+    return service.compact(store, request, progress);
+  }
+}
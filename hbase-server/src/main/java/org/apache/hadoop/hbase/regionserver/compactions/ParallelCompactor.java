@@ -0,0 +1,343 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ParallelWorkerPools;
+import org.apache.hadoop.hbase.regionserver.ScanInfo;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.ScannerContext;
+import org.apache.hadoop.hbase.regionserver.StoreFileReader;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
+import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DefaultCompactor} which splits the rows of a big compaction in key ranges, and compacts
+ * them concurrently, each range into its own file. Set it as
+ * {@link org.apache.hadoop.hbase.regionserver.DefaultStoreEngine#DEFAULT_COMPACTOR_CLASS_KEY}.
+ * <p>
+ * The ranges are chosen from the root level entries of the data block indexes of the files, so
+ * that they hold about the same amount of data. The first range is compacted by the compaction
+ * thread, the others on the compaction pool of the region server, see
+ * {@link ParallelWorkerPools}. Each range opens its own scanners on the files, and the coprocessor
+ * hooks run once per range. Delete markers only apply to the cells of their row, so a major
+ * compaction can drop them range by range. The files of all the ranges are returned together, and
+ * so committed together by the store, or all removed if the compaction of a range failed.
+ * <p>
+ * The files of the ranges are marked as one compaction run, see
+ * {@link HStoreFile#COMPACTION_RUN_KEY}, which the ratio based compaction policies select and
+ * count as one file. Otherwise the files of a compaction would be enough files of about the same
+ * size to compact again.
+ * <p>
+ * Compactions of less than {@link #PARALLEL_COMPACTION_MIN_SIZE_KEY}, and the ones of a store
+ * which is not served by a region server, run as a single range.
+ */
+@InterfaceAudience.Private
+public class ParallelCompactor extends DefaultCompactor {
+  private static final Logger LOG = LoggerFactory.getLogger(ParallelCompactor.class);
+
+  /** Number of key ranges the rows of a compaction are split in */
+  public static final String PARALLEL_COMPACTION_RANGES_KEY =
+      "hbase.hstore.compaction.parallel.ranges";
+  public static final int DEFAULT_PARALLEL_COMPACTION_RANGES = 4;
+  /** Min total size of the files of a compaction to split it in key ranges */
+  public static final String PARALLEL_COMPACTION_MIN_SIZE_KEY =
+      "hbase.hstore.compaction.parallel.min.size";
+  public static final long DEFAULT_PARALLEL_COMPACTION_MIN_SIZE = 1024L * 1024 * 1024;
+  /** Threads compacting the key ranges of all the compactions of the server */
+  public static final String PARALLEL_COMPACTION_THREADS_KEY =
+      "hbase.hstore.compaction.parallel.threads";
+  public static final int DEFAULT_PARALLEL_COMPACTION_THREADS = 8;
+
+  private final int ranges;
+  private final long minSize;
+
+  /** The compactors of the ranges of the running compaction, if it was split */
+  private volatile List<RangeCompactor> rangeCompactors;
+
+  public ParallelCompactor(Configuration conf, HStore store) {
+    super(conf, store);
+    this.ranges = conf.getInt(PARALLEL_COMPACTION_RANGES_KEY, DEFAULT_PARALLEL_COMPACTION_RANGES);
+    this.minSize =
+        conf.getLong(PARALLEL_COMPACTION_MIN_SIZE_KEY, DEFAULT_PARALLEL_COMPACTION_MIN_SIZE);
+  }
+
+  @Override
+  public List<Path> compact(final CompactionRequestImpl request,
+      ThroughputController throughputController, User user) throws IOException {
+    ParallelWorkerPools workerPools = store.getParallelWorkerPools();
+    List<byte[]> boundaries = ranges > 1 && request.getSize() >= minSize && workerPools != null
+        ? getBoundaries(request.getFiles(), ranges) : new ArrayList<>();
+    if (boundaries.isEmpty()) {
+      return super.compact(request, throughputController, user);
+    }
+    List<RangeCompactor> compactors = new ArrayList<>(boundaries.size() + 1);
+    byte[] startRow = HConstants.EMPTY_START_ROW;
+    for (byte[] boundary : boundaries) {
+      compactors.add(new RangeCompactor(conf, store, startRow, boundary));
+      startRow = boundary;
+    }
+    compactors.add(new RangeCompactor(conf, store, startRow, HConstants.EMPTY_END_ROW));
+    if (LOG.isDebugEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Compacting ").append(store).append(" in ").append(compactors.size())
+          .append(" key ranges split at");
+      for (byte[] boundary : boundaries) {
+        sb.append(" [").append(Bytes.toStringBinary(boundary)).append("]");
+      }
+      LOG.debug(sb.toString());
+    }
+
+    this.rangeCompactors = compactors;
+    List<Path> newFiles = new ArrayList<>();
+    IOException error = null;
+    try {
+      ExecutorService executor = workerPools.getCompactionPool();
+      List<Future<List<Path>>> futures = new ArrayList<>(compactors.size() - 1);
+      for (RangeCompactor compactor : compactors.subList(1, compactors.size())) {
+        FutureTask<List<Path>> task =
+            new FutureTask<>(() -> compactor.compact(request, throughputController, user));
+        futures.add(task);
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          // the pool was shut down, the region server is stopping
+          task.run();
+        }
+      }
+      try {
+        newFiles.addAll(compactors.get(0).compact(request, throughputController, user));
+      } catch (IOException e) {
+        error = e;
+      }
+      // Wait for all the ranges, even if one failed, so that no file is left behind. The ranges
+      // stop by themselves if the store is closed.
+      boolean interrupted = false;
+      for (Future<List<Path>> future : futures) {
+        for (;;) {
+          try {
+            newFiles.addAll(future.get());
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (error == null) {
+              error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                  : new IOException(e.getCause());
+            }
+            break;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+        if (error == null) {
+          error = new InterruptedIOException("Interrupted while compacting " + store);
+        }
+      }
+    } finally {
+      this.progress = getProgress();
+      this.rangeCompactors = null;
+    }
+    if (error != null) {
+      for (Path newFile : newFiles) {
+        try {
+          store.getFileSystem().delete(newFile, false);
+        } catch (IOException e) {
+          LOG.warn("Failed to delete the file " + newFile + " of an unfinished compaction.", e);
+        }
+      }
+      throw error;
+    }
+    return newFiles;
+  }
+
+  @Override
+  public CompactionProgress getProgress() {
+    List<RangeCompactor> compactors = this.rangeCompactors;
+    if (compactors == null) {
+      return super.getProgress();
+    }
+    CompactionProgress total = new CompactionProgress(0);
+    for (RangeCompactor compactor : compactors) {
+      CompactionProgress progress = compactor.getProgress();
+      if (progress != null) {
+        total.totalCompactingKVs += progress.totalCompactingKVs;
+        total.currentCompactedKVs += progress.currentCompactedKVs;
+        total.totalCompactedSize += progress.totalCompactedSize;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Chooses the rows which split the files in ranges of about the same size. Each root level
+   * entry of the data block index of a file stands for the same share of the size of the file.
+   * @return the first rows of the ranges but the first one, in order. Less than
+   *         {@code ranges - 1} rows if the files have too few entries.
+   */
+  List<byte[]> getBoundaries(Collection<HStoreFile> files, int ranges) {
+    CellComparator comparator = store.getComparator();
+    List<Cell> keys = new ArrayList<>();
+    List<Double> weights = new ArrayList<>();
+    double totalSize = 0;
+    for (HStoreFile file : files) {
+      StoreFileReader r = file.getReader();
+      if (r == null) {
+        continue;
+      }
+      List<Cell> rootKeys = r.getRootIndexKeys();
+      if (rootKeys.isEmpty()) {
+        continue;
+      }
+      for (Cell key : rootKeys) {
+        keys.add(key);
+        weights.add((double) r.length() / rootKeys.size());
+      }
+      totalSize += r.length();
+    }
+    List<Integer> order = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      order.add(i);
+    }
+    order.sort((a, b) -> comparator.compareRows(keys.get(a), keys.get(b)));
+
+    List<byte[]> boundaries = new ArrayList<>(ranges - 1);
+    byte[] previous = null;
+    double size = 0;
+    for (int i : order) {
+      byte[] row = CellUtil.cloneRow(keys.get(i));
+      // An entry starts at its key, so the entry which reaches the next share starts a range
+      if (previous != null && size >= totalSize * (boundaries.size() + 1) / ranges
+          && Bytes.compareTo(row, previous) > 0) {
+        boundaries.add(row);
+        if (boundaries.size() == ranges - 1) {
+          break;
+        }
+      }
+      if (previous == null || Bytes.compareTo(row, previous) > 0) {
+        previous = row;
+      }
+      size += weights.get(i);
+    }
+    return boundaries;
+  }
+
+  /**
+   * Compacts the rows of a key range of the files into one file.
+   */
+  private static final class RangeCompactor extends DefaultCompactor {
+
+    private final byte[] startRow;
+    private final byte[] stopRow;
+
+    RangeCompactor(Configuration conf, HStore store, byte[] startRow, byte[] stopRow) {
+      super(conf, store);
+      this.startRow = startRow;
+      this.stopRow = stopRow;
+    }
+
+    @Override
+    public List<Path> compact(CompactionRequestImpl request,
+        ThroughputController throughputController, User user) throws IOException {
+      return compact(request, new InternalScannerFactory() {
+
+        @Override
+        public ScanType getScanType(CompactionRequestImpl request) {
+          return defaultScannerFactory.getScanType(request);
+        }
+
+        @Override
+        public InternalScanner createScanner(ScanInfo scanInfo, List<StoreFileScanner> scanners,
+            ScanType scanType, FileDetails fd, long smallestReadPoint) throws IOException {
+          return new RangeStoreScanner(store, scanInfo, scanners, scanType, smallestReadPoint,
+              fd.earliestPutTs, startRow, stopRow);
+        }
+      }, (scanner, fd, shouldDropBehind) -> createTmpWriter(fd, shouldDropBehind),
+        throughputController, user);
+    }
+
+    @Override
+    protected List<Path> commitWriter(StoreFileWriter writer, FileDetails fd,
+        CompactionRequestImpl request) throws IOException {
+      // all the ranges have the same max sequence id, which tells the run apart from the others
+      writer.appendFileInfo(HStoreFile.COMPACTION_RUN_KEY, Bytes.toBytes(fd.maxSeqId));
+      return super.commitWriter(writer, fd, request);
+    }
+  }
+
+  /**
+   * A compaction scanner which starts at the start row of a range, and stops before its stop row.
+   */
+  private static final class RangeStoreScanner extends StoreScanner {
+
+    private final CellComparator comparator;
+    private final byte[] stopRow;
+
+    RangeStoreScanner(HStore store, ScanInfo scanInfo, List<StoreFileScanner> scanners,
+        ScanType scanType, long smallestReadPoint, long earliestPutTs, byte[] startRow,
+        byte[] stopRow) throws IOException {
+      super(store, scanInfo, scanners, scanType, smallestReadPoint, earliestPutTs);
+      this.comparator = store.getComparator();
+      this.stopRow = stopRow;
+      if (startRow.length > 0) {
+        reseek(PrivateCellUtil.createFirstOnRow(startRow));
+      }
+    }
+
+    @Override
+    public boolean next(List<Cell> outResult, ScannerContext scannerContext) throws IOException {
+      // A compaction scanner returns at most one row per call, so it is enough to look at the
+      // row which comes next
+      Cell next = peek();
+      if (next != null && stopRow.length > 0
+          && comparator.compareRows(next, stopRow, 0, stopRow.length) >= 0) {
+        return false;
+      }
+      return super.next(outResult, scannerContext);
+    }
+  }
+}
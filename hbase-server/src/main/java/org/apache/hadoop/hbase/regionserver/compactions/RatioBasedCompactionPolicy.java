@@ -58,6 +58,9 @@ public class RatioBasedCompactionPolicy extends SortedCompactionPolicy {
   public boolean shouldPerformMajorCompaction(Collection<HStoreFile> filesToCompact)
     throws IOException {
     boolean result = false;
+    if (shouldDropTombstones(filesToCompact)) {
+      return true;
+    }
     long mcTime = getNextMajorCompactTime(filesToCompact);
     if (filesToCompact == null || filesToCompact.isEmpty() || mcTime == 0) {
       return result;
@@ -112,6 +115,24 @@ public class RatioBasedCompactionPolicy extends SortedCompactionPolicy {
     return result;
   }
 
+  /**
+   * @return True if too many cells of the files are delete markers, expired cells or versions
+   *         beyond the max versions, whatever the time since the last major compaction.
+   */
+  private boolean shouldDropTombstones(Collection<HStoreFile> filesToCompact) {
+    double maxRatio = comConf.getTombstoneRatioToForceCompact();
+    if (maxRatio <= 0 || filesToCompact == null || filesToCompact.isEmpty()) {
+      return false;
+    }
+    double ratio = StoreUtils.getTombstoneRatio(filesToCompact);
+    if (ratio <= maxRatio) {
+      return false;
+    }
+    LOG.debug("Major compaction triggered on store " + this.storeConfigInfo
+      + "; tombstone ratio " + ratio + " is > " + maxRatio);
+    return true;
+  }
+
   @Override
   protected CompactionRequestImpl createCompactionRequest(ArrayList<HStoreFile>
     candidateSelection, boolean tryingMajor, boolean mayUseOffPeak, boolean mayBeStuck)
@@ -169,13 +190,14 @@ public class RatioBasedCompactionPolicy extends SortedCompactionPolicy {
       LOG.info("Running an off-peak compaction, selection ratio = " + ratio);
     }
 
-    // get store file sizes for incremental compacting selection.
-    final int countOfFiles = candidates.size();
+    // get store file sizes for incremental compacting selection. The files of a compaction run
+    // are selected together, as one file.
+    List<List<HStoreFile>> runs = StoreUtils.getCompactionRuns(candidates);
+    final int countOfFiles = runs.size();
     long[] fileSizes = new long[countOfFiles];
     long[] sumSize = new long[countOfFiles];
     for (int i = countOfFiles - 1; i >= 0; --i) {
-      HStoreFile file = candidates.get(i);
-      fileSizes[i] = file.getReader().length();
+      fileSizes[i] = StoreUtils.getTotalLength(runs.get(i));
       // calculate the sum of fileSizes[i,i+maxFilesToCompact-1) for algo
       int tooFar = i + comConf.getMaxFilesToCompact() - 1;
       sumSize[i] = fileSizes[i]
@@ -194,25 +216,38 @@ public class RatioBasedCompactionPolicy extends SortedCompactionPolicy {
         + " files from " + countOfFiles + " candidates");
     } else if (mayBeStuck) {
       // We may be stuck. Compact the latest files if we can.
-      int filesToLeave = candidates.size() - comConf.getMinFilesToCompact();
+      int filesToLeave = countOfFiles - comConf.getMinFilesToCompact();
       if (filesToLeave >= 0) {
         start = filesToLeave;
       }
     }
-    candidates.subList(0, start).clear();
+    int skippedFiles = 0;
+    for (int i = 0; i < start; i++) {
+      skippedFiles += runs.get(i).size();
+    }
+    candidates.subList(0, skippedFiles).clear();
     return candidates;
   }
 
   /**
-   * A heuristic method to decide whether to schedule a compaction request
+   * A heuristic method to decide whether to schedule a compaction request. The files of a
+   * compaction run count as one file, as they are selected as one. A store with too many
+   * tombstones needs one whatever its number of files, so it is scheduled right after a flush or
+   * a region open too, not only when the compaction checker looks for major compactions.
    * @param storeFiles files in the store.
    * @param filesCompacting files being scheduled to compact.
    * @return true to schedule a request.
    */
   public boolean needsCompaction(Collection<HStoreFile> storeFiles,
       List<HStoreFile> filesCompacting) {
-    int numCandidates = storeFiles.size() - filesCompacting.size();
-    return numCandidates >= comConf.getMinFilesToCompact();
+    List<HStoreFile> candidates = new ArrayList<>(storeFiles);
+    candidates.removeAll(filesCompacting);
+    int numCandidates = StoreUtils.getCompactionRuns(candidates).size();
+    if (numCandidates >= comConf.getMinFilesToCompact()) {
+      return true;
+    }
+    // a major compaction can only be selected when no file is compacting
+    return filesCompacting.isEmpty() && shouldDropTombstones(storeFiles);
   }
 
   /**
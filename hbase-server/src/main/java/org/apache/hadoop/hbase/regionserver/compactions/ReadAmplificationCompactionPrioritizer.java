@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.StoreUtils;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Runs first the compactions which remove the most store files, that each read has to look at,
+ * per byte rewritten, weighted by the read rate of the region. The delete markers, expired cells
+ * and extra versions the compaction drops count as that many whole files.
+ * <p>
+ * The compactions of the stores which are at most {@link #BLOCKING_HEADROOM_KEY} files away from
+ * their blocking file count, and the compactions requested by users, are more urgent than all the
+ * others, and keep running in the order of their priority. The read rate of a region is the rate
+ * of its read requests since it was first seen, and then over periods of at least
+ * {@link #READ_RATE_PERIOD_KEY}.
+ */
+@InterfaceAudience.Private
+public class ReadAmplificationCompactionPrioritizer implements CompactionPrioritizer {
+
+  /** Compactions of the stores this many files away from blocking writes are urgent */
+  public static final String BLOCKING_HEADROOM_KEY =
+      "hbase.regionserver.compaction.prioritizer.blocking.headroom";
+  public static final int DEFAULT_BLOCKING_HEADROOM = 3;
+  /** Min period the read rate of a region is computed over, in ms */
+  public static final String READ_RATE_PERIOD_KEY =
+      "hbase.regionserver.compaction.prioritizer.read.rate.period";
+  public static final long DEFAULT_READ_RATE_PERIOD = 10 * 60 * 1000;
+
+  private static final double MB = 1024 * 1024;
+
+  private static final class ReadRate {
+    private long count;
+    private long time;
+    private double rate;
+
+    private ReadRate(long count, long time) {
+      this.count = count;
+      this.time = time;
+    }
+  }
+
+  private final int blockingHeadroom;
+  private final long readRatePeriod;
+  /** Regions which are closed go away with their HRegion */
+  private final Map<HRegion, ReadRate> readRates = new WeakHashMap<>();
+
+  public ReadAmplificationCompactionPrioritizer(Configuration conf) {
+    this.blockingHeadroom = conf.getInt(BLOCKING_HEADROOM_KEY, DEFAULT_BLOCKING_HEADROOM);
+    this.readRatePeriod = conf.getLong(READ_RATE_PERIOD_KEY, DEFAULT_READ_RATE_PERIOD);
+  }
+
+  @Override
+  public double rank(HRegion region, HStore store, int priority,
+      CompactionRequestImpl request) {
+    if (priority <= blockingHeadroom) {
+      return priority;
+    }
+    int files = request != null ? request.getFiles().size() : store.getStorefilesCount();
+    long size = request != null ? request.getSize() : store.getStorefilesSize();
+    double tombstoneRatio = request != null ? StoreUtils.getTombstoneRatio(request.getFiles())
+        : store.getTombstoneRatio();
+    double benefit = (1 + getReadRate(region)) * (Math.max(0, files - 1) + tombstoneRatio * files)
+        / Math.max(1, size / MB);
+    // in (headroom, headroom + 1], so after the urgent compactions
+    return blockingHeadroom + 1 / (1 + benefit);
+  }
+
+  /**
+   * @return the read requests per second of the region
+   */
+  synchronized double getReadRate(HRegion region) {
+    long count = region.getReadRequestsCount();
+    long now = EnvironmentEdgeManager.currentTime();
+    ReadRate readRate = readRates.get(region);
+    if (readRate == null) {
+      readRates.put(region, new ReadRate(count, now));
+      return 0;
+    }
+    long elapsed = now - readRate.time;
+    if (elapsed > 0) {
+      double rate = 1000.0 * Math.max(0, count - readRate.count) / elapsed;
+      if (elapsed >= readRatePeriod) {
+        readRate.count = count;
+        readRate.time = now;
+        readRate.rate = rate;
+      } else if (readRate.rate == 0) {
+        // no full period yet
+        return rate;
+      }
+    }
+    return readRate.rate;
+  }
+}
@@ -182,10 +182,14 @@ public abstract class SortedCompactionPolicy extends CompactionPolicy {
    */
   protected ArrayList<HStoreFile> skipLargeFiles(ArrayList<HStoreFile> candidates,
     boolean mayUseOffpeak) {
+    // the files of a compaction run are skipped together, when the run is too large
     int pos = 0;
-    while (pos < candidates.size() && !candidates.get(pos).isReference()
-      && (candidates.get(pos).getReader().length() > comConf.getMaxCompactSize(mayUseOffpeak))) {
-      ++pos;
+    for (List<HStoreFile> run : StoreUtils.getCompactionRuns(candidates)) {
+      if (run.get(0).isReference()
+          || StoreUtils.getTotalLength(run) <= comConf.getMaxCompactSize(mayUseOffpeak)) {
+        break;
+      }
+      pos += run.size();
     }
     if (pos > 0) {
       LOG.debug("Some files are too large. Excluding " + pos
@@ -229,13 +233,15 @@ public abstract class SortedCompactionPolicy extends CompactionPolicy {
 
   /**
    * @param candidates pre-filtrate
-   * @return filtered subset forget the compactionSelection if we don't have enough files
+   * @return filtered subset forget the compactionSelection if we don't have enough files. The
+   *   files of a compaction run count as one file.
    */
   protected ArrayList<HStoreFile> checkMinFilesCriteria(ArrayList<HStoreFile> candidates,
       int minFiles) {
-    if (candidates.size() < minFiles) {
+    int numFiles = StoreUtils.getCompactionRuns(candidates).size();
+    if (numFiles < minFiles) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("Not compacting files because we only have " + candidates.size() +
+        LOG.debug("Not compacting files because we only have " + numFiles +
             " files ready for compaction. Need " + minFiles + " to initiate.");
       }
       candidates.clear();
@@ -0,0 +1,177 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compaction policy sorting the files in size tiers, with explicit bounds on write and space
+ * amplification instead of a size ratio.
+ * <p>
+ * A file is in tier 0 up to the min compaction size, and in tier k when its size is in
+ * (minSize * fanout^(k-1), minSize * fanout^k]. A minor compaction merges a run of at least fanout
+ * contiguous files of the same tier, so its output lands in the next tier and a cell is rewritten
+ * about once per tier. The fanout is the smallest one that keeps the number of tiers of the store,
+ * plus the flush, below the max write amplification.
+ * <p>
+ * When the total size of the candidates over the size of the largest one goes above the max space
+ * amplification, all of them are compacted together instead.
+ */
+@InterfaceAudience.Private
+public class TieredCompactionPolicy extends RatioBasedCompactionPolicy {
+  private static final Logger LOG = LoggerFactory.getLogger(TieredCompactionPolicy.class);
+
+  public static final String MAX_WRITE_AMPLIFICATION_KEY =
+      "hbase.hstore.compaction.tiered.max.write.amplification";
+  public static final double DEFAULT_MAX_WRITE_AMPLIFICATION = 4;
+  public static final String MAX_SPACE_AMPLIFICATION_KEY =
+      "hbase.hstore.compaction.tiered.max.space.amplification";
+  public static final double DEFAULT_MAX_SPACE_AMPLIFICATION = 2;
+
+  private double maxWriteAmplification;
+  private double maxSpaceAmplification;
+
+  public TieredCompactionPolicy(Configuration conf, StoreConfigInformation storeConfigInfo) {
+    super(conf, storeConfigInfo);
+    readConf(conf);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    readConf(conf);
+  }
+
+  private void readConf(Configuration conf) {
+    this.maxWriteAmplification =
+        conf.getDouble(MAX_WRITE_AMPLIFICATION_KEY, DEFAULT_MAX_WRITE_AMPLIFICATION);
+    this.maxSpaceAmplification =
+        conf.getDouble(MAX_SPACE_AMPLIFICATION_KEY, DEFAULT_MAX_SPACE_AMPLIFICATION);
+  }
+
+  @Override
+  protected ArrayList<HStoreFile> applyCompactionPolicy(ArrayList<HStoreFile> candidates,
+      boolean mayUseOffPeak, boolean mayBeStuck) throws IOException {
+    if (candidates.isEmpty()) {
+      return candidates;
+    }
+    // The files of a compaction run are sorted in tiers, and selected, as one file
+    List<List<HStoreFile>> runs = StoreUtils.getCompactionRuns(candidates);
+    final int countOfFiles = runs.size();
+    final int minFiles = comConf.getMinFilesToCompact();
+    long[] fileSizes = new long[countOfFiles];
+    int[] fileStarts = new int[countOfFiles + 1];
+    long totalSize = 0;
+    long largestSize = 0;
+    for (int i = 0; i < countOfFiles; i++) {
+      fileSizes[i] = StoreUtils.getTotalLength(runs.get(i));
+      fileStarts[i + 1] = fileStarts[i] + runs.get(i).size();
+      totalSize += fileSizes[i];
+      largestSize = Math.max(largestSize, fileSizes[i]);
+    }
+
+    double spaceAmplification = largestSize > 0 ? (double) totalSize / largestSize : 1;
+    if (countOfFiles >= minFiles && spaceAmplification > maxSpaceAmplification) {
+      LOG.debug("Space amplification " + spaceAmplification + " is above "
+          + maxSpaceAmplification + ", selecting all " + countOfFiles + " candidates");
+      return candidates;
+    }
+
+    long minSize = Math.max(1, comConf.getMinCompactSize());
+    int fanout = getFanout(totalSize, minSize);
+    // Look for the runs of contiguous files of the same tier, the newest run of the lowest tier
+    // with enough files wins
+    int bestStart = -1;
+    int bestEnd = -1;
+    int bestTier = Integer.MAX_VALUE;
+    int start = 0;
+    while (start < countOfFiles) {
+      int tier = getTier(fileSizes[start], minSize, fanout);
+      int end = start + 1;
+      while (end < countOfFiles && getTier(fileSizes[end], minSize, fanout) == tier) {
+        end++;
+      }
+      if (end - start >= fanout && tier <= bestTier) {
+        bestStart = start;
+        bestEnd = end;
+        bestTier = tier;
+      }
+      start = end;
+    }
+
+    if (bestStart >= 0) {
+      LOG.debug("Tiered compaction algorithm has selected " + (bestEnd - bestStart)
+          + " files of tier " + bestTier + " from " + countOfFiles + " candidates, fanout "
+          + fanout + ", space amplification " + spaceAmplification);
+    } else if (mayBeStuck && countOfFiles >= minFiles) {
+      // We may be stuck. Compact the smallest files we can, newest first.
+      long smallestSize = Long.MAX_VALUE;
+      for (int i = 0; i + minFiles <= countOfFiles; i++) {
+        long size = 0;
+        for (int j = i; j < i + minFiles; j++) {
+          size += fileSizes[j];
+        }
+        if (size <= smallestSize) {
+          smallestSize = size;
+          bestStart = i;
+        }
+      }
+      bestEnd = bestStart + minFiles;
+      LOG.debug("Tiered compaction algorithm may be stuck, selecting the " + minFiles
+          + " smallest contiguous files from " + countOfFiles + " candidates");
+    } else {
+      candidates.clear();
+      return candidates;
+    }
+    return new ArrayList<>(candidates.subList(fileStarts[bestStart], fileStarts[bestEnd]));
+  }
+
+  /**
+   * The fanout T is such that a store of the given size has log_T(size / minSize) tiers, so that a
+   * flushed cell is written at most once per tier, plus the flush, within the max write
+   * amplification. It is at least the min number of files to compact, and at most the max one.
+   */
+  int getFanout(long totalSize, long minSize) {
+    int minFiles = comConf.getMinFilesToCompact();
+    int maxFiles = comConf.getMaxFilesToCompact();
+    if (maxWriteAmplification <= 1) {
+      return maxFiles;
+    }
+    double sizeRatio = Math.max(1, (double) totalSize / minSize);
+    double fanout = Math.ceil(Math.pow(sizeRatio, 1 / (maxWriteAmplification - 1)));
+    return (int) Math.min(maxFiles, Math.max(minFiles, fanout));
+  }
+
+  static int getTier(long size, long minSize, int fanout) {
+    if (size <= minSize) {
+      return 0;
+    }
+    return (int) Math.ceil(Math.log((double) size / minSize) / Math.log(fanout));
+  }
+}
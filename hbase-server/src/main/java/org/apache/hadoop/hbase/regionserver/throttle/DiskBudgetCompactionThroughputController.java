@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.throttle;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.ScheduledChore;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A compaction throughput controller which shares a disk write budget of the region server with
+ * the flushes.
+ * <ul>
+ * <li>If compaction pressure is greater than 1.0, no limitation.</li>
+ * <li>Otherwise the compactions get what the flushes did not use of
+ * {@value #HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET} over the last tuning period, but no less than
+ * {@value PressureAwareCompactionThroughputController#HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND}.
+ * </li>
+ * </ul>
+ * @see org.apache.hadoop.hbase.regionserver.HStore#getCompactionPressure()
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
+public class DiskBudgetCompactionThroughputController extends PressureAwareThroughputController {
+
+  private final static Logger LOG =
+      LoggerFactory.getLogger(DiskBudgetCompactionThroughputController.class);
+
+  public static final String HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET =
+      "hbase.regionserver.disk.throughput.budget";
+
+  private static final long DEFAULT_HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET = 100L * 1024 * 1024;
+
+  private static final long DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND =
+      10L * 1024 * 1024;
+
+  private static final int DEFAULT_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD = 60 * 1000;
+
+  private long budget;
+
+  private long lastFlushedSize = -1;
+
+  private long lastTuneTime;
+
+  @Override
+  public void setup(final RegionServerServices server) {
+    server.getChoreService().scheduleChore(
+      new ScheduledChore("CompactionDiskBudgetTuner", this, tuningPeriod) {
+
+        @Override
+        protected void chore() {
+          tune(server.getCompactionPressure(), getFlushedSize(server),
+            EnvironmentEdgeManager.currentTime());
+        }
+      });
+  }
+
+  private static long getFlushedSize(RegionServerServices server) {
+    long size = 0;
+    for (Region region : server.getRegions()) {
+      for (Store store : region.getStores()) {
+        size += store.getFlushedOutputFileSize();
+      }
+    }
+    return size;
+  }
+
+  @VisibleForTesting
+  void tune(double compactionPressure, long flushedSize, long now) {
+    double flushThroughput = 0;
+    if (lastFlushedSize >= 0 && now > lastTuneTime) {
+      // the size goes down when regions are closed
+      flushThroughput = Math.max(0, flushedSize - lastFlushedSize) * 1000.0 / (now - lastTuneTime);
+    }
+    lastFlushedSize = flushedSize;
+    lastTuneTime = now;
+    double maxThroughputToSet;
+    if (compactionPressure > 1.0) {
+      // set to unlimited if some stores already reach the blocking store file count
+      maxThroughputToSet = Double.MAX_VALUE;
+    } else {
+      maxThroughputToSet = Math.max(maxThroughputLowerBound, budget - flushThroughput);
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("CompactionPressure is " + compactionPressure + ", flush throughput is "
+          + throughputDesc(flushThroughput) + ", tune throughput to "
+          + throughputDesc(maxThroughputToSet));
+    }
+    this.setMaxThroughput(maxThroughputToSet);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf == null) {
+      return;
+    }
+    this.budget = conf.getLong(HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET,
+      DEFAULT_HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET);
+    this.maxThroughputLowerBound = conf.getLong(
+      PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND,
+      DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND);
+    this.maxThroughputUpperBound = budget;
+    this.controlPerSize = this.maxThroughputLowerBound;
+    this.setMaxThroughput(budget);
+    this.tuningPeriod = conf.getInt(
+      PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD,
+      DEFAULT_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD);
+    LOG.info("Compaction throughput configurations, disk budget: " + throughputDesc(budget)
+        + ", lower bound " + throughputDesc(maxThroughputLowerBound) + ", tuning period: "
+        + tuningPeriod + " ms");
+  }
+
+  @Override
+  public String toString() {
+    return "DiskBudgetCompactionThroughputController [maxThroughput="
+        + throughputDesc(getMaxThroughput()) + ", activeCompactions=" + activeOperations.size()
+        + "]";
+  }
+
+  @Override
+  protected boolean skipControl(long deltaSize, long controlSize) {
+    return deltaSize < controlSize;
+  }
+}
@@ -156,7 +156,7 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
    */
   protected final String prefixPathStr;
 
-  protected final WALCoprocessorHost coprocessorHost;
+  protected volatile WALCoprocessorHost coprocessorHost;
 
   /**
    * conf object
@@ -450,6 +450,15 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
     return coprocessorHost;
   }
 
+  /**
+   * Replaces the coprocessor host of this WAL, so that a WAL made of several of these can load its
+   * coprocessors once and have every one of its WALs call them. Must be called before the WAL is
+   * used.
+   */
+  void setCoprocessorHost(WALCoprocessorHost coprocessorHost) {
+    this.coprocessorHost = coprocessorHost;
+  }
+
   @Override
   public Long startCacheFlush(byte[] encodedRegionName, Set<byte[]> families) {
     if (!closeBarrier.beginOp()) {
@@ -970,6 +979,15 @@ public abstract class AbstractFSWAL<W extends WriterBase> implements WAL {
     }
   }
 
+  protected final void postSyncBatch(final int entries, final long bytes,
+      final long waitTimeInNanos) {
+    if (!listeners.isEmpty()) {
+      for (WALActionsListener listener : listeners) {
+        listener.postSyncBatch(entries, bytes, waitTimeInNanos);
+      }
+    }
+  }
+
   protected final long stampSequenceIdAndPublishToRingBuffer(RegionInfo hri, WALKeyImpl key,
       WALEdit edits, boolean inMemstore, RingBuffer<RingBufferTruck> ringBuffer)
       throws IOException {
@@ -0,0 +1,101 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Sizes the sync batches of a WAL from a moving average of how long a sync takes and of the rate
+ * at which appended bytes arrive. While a sync is out about {@code rate * latency} bytes come in,
+ * so a batch of that size keeps a sync in flight under load without holding edits back for
+ * longer than a sync takes anyway. A fast pipeline or a light load gives small batches and low
+ * latency, a slow pipeline under heavy load gives large ones. The estimate is bounded by a
+ * configured minimum and maximum, and is the maximum until both averages have a sample.
+ * <p>
+ * Not thread safe, the WAL calls it from its single consumer thread. Only the batch size may be
+ * read from other threads.
+ */
+@InterfaceAudience.Private
+class AdaptiveSyncBatchSize {
+
+  /** Weight of the latest sample in the moving averages */
+  private static final double WEIGHT = 0.2;
+
+  private final long minBatchSize;
+  private final long maxBatchSize;
+
+  // negative until we have the first sample
+  private double syncTimeNs = -1;
+  private double bytesPerNs = -1;
+  private long lastSyncIssuedNs = -1;
+
+  private volatile long batchSize;
+
+  AdaptiveSyncBatchSize(long minBatchSize, long maxBatchSize) {
+    if (minBatchSize <= 0 || minBatchSize > maxBatchSize) {
+      throw new IllegalArgumentException("Illegal batch size bounds, min=" + minBatchSize +
+          ", max=" + maxBatchSize);
+    }
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.batchSize = maxBatchSize;
+  }
+
+  /**
+   * Called when a sync is issued.
+   * @param bytes the number of bytes written since the previous sync was issued
+   * @param nowNs the current {@link System#nanoTime()}
+   */
+  void syncIssued(long bytes, long nowNs) {
+    if (lastSyncIssuedNs >= 0 && nowNs > lastSyncIssuedNs) {
+      bytesPerNs = average(bytesPerNs, (double) bytes / (nowNs - lastSyncIssuedNs));
+      update();
+    }
+    lastSyncIssuedNs = nowNs;
+  }
+
+  /**
+   * Called when a sync succeeded. Failed syncs are not counted, they say nothing about how long
+   * a healthy pipeline takes.
+   * @param timeNs how long the sync took
+   */
+  void syncCompleted(long timeNs) {
+    syncTimeNs = average(syncTimeNs, timeNs);
+    update();
+  }
+
+  /**
+   * @return the number of unsynced bytes at which the next sync should be issued
+   */
+  long getBatchSize() {
+    return batchSize;
+  }
+
+  private static double average(double current, double sample) {
+    return current < 0 ? sample : current + (sample - current) * WEIGHT;
+  }
+
+  private void update() {
+    if (syncTimeNs < 0 || bytesPerNs < 0) {
+      return;
+    }
+    long target = (long) Math.min(bytesPerNs * syncTimeNs, maxBatchSize);
+    batchSize = Math.max(minBatchSize, target);
+  }
+}
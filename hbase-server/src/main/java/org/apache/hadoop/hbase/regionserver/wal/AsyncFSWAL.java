@@ -64,6 +64,7 @@ import org.apache.htrace.core.TraceScope;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hbase.thirdparty.io.netty.channel.Channel;
 import org.apache.hbase.thirdparty.io.netty.channel.EventLoop;
@@ -91,7 +92,9 @@ import org.apache.hbase.thirdparty.io.netty.util.concurrent.SingleThreadEventExe
  * <li>Poll the entry from {@link #toWriteAppends}, append it to the AsyncWriter, and insert it into
  * {@link #unackedAppends}</li>
  * <li>If the buffered size reaches {@link #batchSize}, or there is a sync request, then we call
- * sync on the AsyncWriter.</li>
+ * sync on the AsyncWriter. With {@link #WAL_BATCH_SIZE_ADAPTIVE} the batch size is estimated
+ * from the observed sync latency and append rate instead, see {@link AdaptiveSyncBatchSize}, and
+ * {@link #batchSize} is only its upper bound.</li>
  * <li>In the callback methods:
  * <ul>
  * <li>If succeeded, poll the entry from {@link #unackedAppends} and drop it.</li>
@@ -140,6 +143,13 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
   public static final String WAL_BATCH_SIZE = "hbase.wal.batch.size";
   public static final long DEFAULT_WAL_BATCH_SIZE = 64L * 1024;
 
+  public static final String WAL_BATCH_SIZE_ADAPTIVE = "hbase.wal.batch.size.adaptive";
+  public static final boolean DEFAULT_WAL_BATCH_SIZE_ADAPTIVE = false;
+
+  /** Lower bound of the adaptive batch size, the upper bound is {@link #WAL_BATCH_SIZE} */
+  public static final String WAL_BATCH_SIZE_MIN = "hbase.wal.batch.size.min";
+  public static final long DEFAULT_WAL_BATCH_SIZE_MIN = 4L * 1024;
+
   public static final String ASYNC_WAL_CREATE_MAX_RETRIES = "hbase.wal.async.create.retries";
   public static final int DEFAULT_ASYNC_WAL_CREATE_MAX_RETRIES = 10;
 
@@ -189,6 +199,9 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
 
   private final long batchSize;
 
+  // null if the batch size is not adaptive
+  private final AdaptiveSyncBatchSize adaptiveBatchSize;
+
   private final int createMaxRetries;
 
   private final ExecutorService closeExecutor = Executors.newCachedThreadPool(
@@ -210,6 +223,12 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
 
   private long highestProcessedAppendTxidAtLastSync;
 
+  // number of entries appended since we issued the last sync request, and when the first of them
+  // was appended
+  private int entriesSinceLastSync;
+
+  private long firstAppendSinceLastSyncNs;
+
   private final int waitOnShutdownInSeconds;
 
   public AsyncFSWAL(FileSystem fs, Path rootDir, String logDir, String archiveDir,
@@ -257,6 +276,13 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     waitingConsumePayloadsGatingSequence.set(waitingConsumePayloads.getCursor());
 
     batchSize = conf.getLong(WAL_BATCH_SIZE, DEFAULT_WAL_BATCH_SIZE);
+    if (conf.getBoolean(WAL_BATCH_SIZE_ADAPTIVE, DEFAULT_WAL_BATCH_SIZE_ADAPTIVE)) {
+      adaptiveBatchSize = new AdaptiveSyncBatchSize(
+          Math.min(conf.getLong(WAL_BATCH_SIZE_MIN, DEFAULT_WAL_BATCH_SIZE_MIN), batchSize),
+          batchSize);
+    } else {
+      adaptiveBatchSize = null;
+    }
     createMaxRetries =
       conf.getInt(ASYNC_WAL_CREATE_MAX_RETRIES, DEFAULT_ASYNC_WAL_CREATE_MAX_RETRIES);
     waitOnShutdownInSeconds = conf.getInt(ASYNC_WAL_WAIT_ON_SHUTDOWN_IN_SECONDS,
@@ -342,7 +368,11 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
         break;
       }
     }
-    postSync(System.nanoTime() - startTimeNs, finishSync(true));
+    long syncTimeNs = System.nanoTime() - startTimeNs;
+    if (adaptiveBatchSize != null) {
+      adaptiveBatchSize.syncCompleted(syncTimeNs);
+    }
+    postSync(syncTimeNs, finishSync(true));
     if (trySetReadyForRolling()) {
       // we have just finished a roll, then do not need to check for log rolling, the writer will be
       // closed soon.
@@ -356,6 +386,7 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
   }
 
   private void sync(AsyncWriter writer) {
+    long batchBytes = writer.getLength() - fileLengthAtLastSync;
     fileLengthAtLastSync = writer.getLength();
     long currentHighestProcessedAppendTxid = highestProcessedAppendTxid;
     highestProcessedAppendTxidAtLastSync = currentHighestProcessedAppendTxid;
@@ -368,6 +399,17 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
         syncCompleted(writer, currentHighestProcessedAppendTxid, startTimeNs);
       }
     }, consumeExecutor);
+    if (adaptiveBatchSize != null) {
+      adaptiveBatchSize.syncIssued(batchBytes, startTimeNs);
+    }
+    if (entriesSinceLastSync > 0) {
+      postSyncBatch(entriesSinceLastSync, batchBytes, startTimeNs - firstAppendSinceLastSyncNs);
+      entriesSinceLastSync = 0;
+    }
+  }
+
+  private long currentBatchSize() {
+    return adaptiveBatchSize != null ? adaptiveBatchSize.getBatchSize() : batchSize;
   }
 
   private void addTimeAnnotation(SyncFuture future, String annotation) {
@@ -437,6 +479,7 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     // maybe a sync request is not queued when we issue a sync, so check here to see if we could
     // finish some.
     finishSync(false);
+    long currentBatchSize = currentBatchSize();
     long newHighestProcessedAppendTxid = -1L;
     for (Iterator<FSWALEntry> iter = toWriteAppends.iterator(); iter.hasNext();) {
       FSWALEntry entry = iter.next();
@@ -450,7 +493,10 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
       iter.remove();
       if (appended) {
         unackedAppends.addLast(entry);
-        if (writer.getLength() - fileLengthAtLastSync >= batchSize) {
+        if (entriesSinceLastSync++ == 0) {
+          firstAppendSinceLastSyncNs = System.nanoTime();
+        }
+        if (writer.getLength() - fileLengthAtLastSync >= currentBatchSize) {
           break;
         }
       }
@@ -463,7 +509,7 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
       newHighestProcessedAppendTxid = highestProcessedAppendTxid;
     }
 
-    if (writer.getLength() - fileLengthAtLastSync >= batchSize) {
+    if (writer.getLength() - fileLengthAtLastSync >= currentBatchSize) {
       // sync because buffer size limit.
       sync(writer);
       return;
@@ -695,6 +741,7 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     this.fileLengthAtLastSync = nextWriter.getLength();
     this.rollRequested = false;
     this.highestProcessedAppendTxidAtLastSync = 0L;
+    this.entriesSinceLastSync = 0;
     consumeLock.lock();
     try {
       consumerScheduled.set(true);
@@ -709,6 +756,11 @@ public class AsyncFSWAL extends AbstractFSWAL<AsyncWriter> {
     return executeClose(closeExecutor, oldWriter);
   }
 
+  @VisibleForTesting
+  long getBatchSize() {
+    return currentBatchSize();
+  }
+
   @Override
   protected void doShutdown() throws IOException {
     waitForSafePoint();
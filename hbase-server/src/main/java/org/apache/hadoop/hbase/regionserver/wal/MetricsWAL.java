@@ -55,6 +55,11 @@ public class MetricsWAL implements WALActionsListener {
     source.incrementSyncTime(timeInNanos/1000000L);
   }
 
+  @Override
+  public void postSyncBatch(final int entries, final long bytes, final long waitTimeInNanos) {
+    source.updateSyncBatch(entries, bytes, waitTimeInNanos/1000000L);
+  }
+
   @Override
   public void postAppend(final long size, final long time, final WALKey logkey,
       final WALEdit logEdit) throws IOException {
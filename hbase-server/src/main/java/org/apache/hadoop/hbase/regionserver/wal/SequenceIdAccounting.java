@@ -228,13 +228,27 @@ class SequenceIdAccounting {
   private static long getLowestSequenceId(Map<?, Long> sequenceids) {
     long lowest = HConstants.NO_SEQNUM;
     for (Long sid: sequenceids.values()) {
-      if (lowest == HConstants.NO_SEQNUM || sid.longValue() < lowest) {
-        lowest = sid.longValue();
-      }
+      lowest = mergeLowestSequenceId(lowest, sid.longValue());
     }
     return lowest;
   }
 
+  /**
+   * Merges lowest sequence ids found by separate accountings, e.g. those of the stripes of a
+   * {@link StripedWAL}, where {@link HConstants#NO_SEQNUM} stands for an accounting that has
+   * nothing outstanding.
+   * @return The lower of the two, or {@link HConstants#NO_SEQNUM} if neither has one.
+   */
+  static long mergeLowestSequenceId(long lowest, long other) {
+    if (lowest == HConstants.NO_SEQNUM) {
+      return other;
+    }
+    if (other == HConstants.NO_SEQNUM) {
+      return lowest;
+    }
+    return Math.min(lowest, other);
+  }
+
   /**
    * @param src
    * @return New Map that has same keys as <code>src</code> but instead of a Map for a value, it
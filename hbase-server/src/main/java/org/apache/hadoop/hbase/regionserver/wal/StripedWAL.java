@@ -0,0 +1,327 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.wal.WAL;
+import org.apache.hadoop.hbase.wal.WALEdit;
+import org.apache.hadoop.hbase.wal.WALKeyImpl;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A WAL that stripes appends over several independent WALs, each with its own ring buffer
+ * consumer, writer and sync pipeline, so that one region server can keep more than one WAL
+ * consumer busy.
+ * <p>
+ * By default every region is tied to one stripe, picked from its encoded name. Replication
+ * groups its queues by WAL prefix and every stripe has its own prefix, so this keeps the edits of
+ * a region in one replication queue and they reach the peers in order. When the cluster does not
+ * replicate, the stripe can instead be picked by the appending thread, so a handler always
+ * appends to, and syncs, the same stripe and every stripe gets a share of every hot region. With
+ * the default a single hot region does not go faster than with one WAL, see
+ * {@link org.apache.hadoop.hbase.wal.StripedWALProvider}.
+ * <p>
+ * Sequence ids are still handed out by the region's mvcc, so the edits of a region are in
+ * sequence id order within each stripe's files, which is all that log splitting and replay need.
+ * Every stripe keeps its own {@link SequenceIdAccounting} for the edits it wrote, which is what
+ * decides when its files can be archived. The region level answers, like the earliest unflushed
+ * sequence id of a store, are the merge of all of them.
+ * <p>
+ * The WAL coprocessors are loaded once, with this WAL as their WAL, and the host is handed to
+ * every stripe that is a filesystem WAL. The stripes must be created without WAL coprocessors of
+ * their own.
+ * <p>
+ * The transaction id returned by {@link #append(RegionInfo, WALKeyImpl, WALEdit, boolean)}
+ * encodes the stripe so that {@link #sync(long)} only waits for the stripe the edit went to.
+ */
+@InterfaceAudience.Private
+public class StripedWAL implements WAL {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StripedWAL.class);
+
+  private final WAL[] stripes;
+
+  private final boolean stripeByThread;
+
+  private final WALCoprocessorHost coprocessorHost;
+
+  /**
+   * @param stripes the WALs to stripe over, created without WAL coprocessors
+   * @param conf configuration to load the WAL coprocessors from
+   * @param stripeByThread whether to pick the stripe by appending thread instead of by region.
+   *          Breaks the ordering of the edits of a region shipped to replication peers.
+   */
+  public StripedWAL(List<WAL> stripes, Configuration conf, boolean stripeByThread) {
+    if (stripes.isEmpty()) {
+      throw new IllegalArgumentException("A striped WAL needs at least one stripe");
+    }
+    this.stripes = stripes.toArray(new WAL[stripes.size()]);
+    this.stripeByThread = stripeByThread;
+    this.coprocessorHost = new WALCoprocessorHost(this, conf);
+    for (WAL stripe : this.stripes) {
+      if (stripe instanceof AbstractFSWAL) {
+        ((AbstractFSWAL<?>) stripe).setCoprocessorHost(coprocessorHost);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  public List<WAL> getStripes() {
+    List<WAL> result = new ArrayList<>(stripes.length);
+    for (WAL stripe : stripes) {
+      result.add(stripe);
+    }
+    return result;
+  }
+
+  private int getStripe(RegionInfo info) {
+    if (stripeByThread) {
+      return (int) (Thread.currentThread().getId() % stripes.length);
+    }
+    return (Bytes.hashCode(info.getEncodedNameAsBytes()) & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  @Override
+  public void registerWALActionsListener(WALActionsListener listener) {
+    for (WAL stripe : stripes) {
+      stripe.registerWALActionsListener(listener);
+    }
+  }
+
+  @Override
+  public boolean unregisterWALActionsListener(WALActionsListener listener) {
+    boolean removed = false;
+    for (WAL stripe : stripes) {
+      removed |= stripe.unregisterWALActionsListener(listener);
+    }
+    return removed;
+  }
+
+  @Override
+  public byte[][] rollWriter() throws FailedLogCloseException, IOException {
+    return rollWriter(false);
+  }
+
+  @Override
+  public byte[][] rollWriter(boolean force) throws FailedLogCloseException, IOException {
+    Set<byte[]> regionsToFlush = null;
+    for (WAL stripe : stripes) {
+      byte[][] regions = stripe.rollWriter(force);
+      if (regions != null) {
+        if (regionsToFlush == null) {
+          regionsToFlush = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        }
+        for (byte[] region : regions) {
+          regionsToFlush.add(region);
+        }
+      }
+    }
+    return regionsToFlush == null ? null : regionsToFlush.toArray(new byte[0][]);
+  }
+
+  /**
+   * Checks the write pipeline of every stripe that is a filesystem WAL.
+   * @see AbstractFSWAL#checkLogLowReplication(long)
+   */
+  public void checkLogLowReplication(long checkInterval) {
+    for (WAL stripe : stripes) {
+      if (stripe instanceof AbstractFSWAL) {
+        ((AbstractFSWAL<?>) stripe).checkLogLowReplication(checkInterval);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() throws IOException {
+    IOException failure = null;
+    for (WAL stripe : stripes) {
+      try {
+        stripe.shutdown();
+      } catch (IOException e) {
+        LOG.error("Problem shutting down wal stripe " + stripe, e);
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (WAL stripe : stripes) {
+      try {
+        stripe.close();
+      } catch (IOException e) {
+        LOG.error("Problem closing wal stripe " + stripe, e);
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public long append(RegionInfo info, WALKeyImpl key, WALEdit edits, boolean inMemstore)
+      throws IOException {
+    int stripe = getStripe(info);
+    long txid = stripes[stripe].append(info, key, edits, inMemstore);
+    return txid * stripes.length + stripe;
+  }
+
+  @Override
+  public void updateStore(byte[] encodedRegionName, byte[] familyName, Long sequenceid,
+      boolean onlyIfGreater) {
+    // Only stripes holding edits of the store track it, do not make the others believe they do
+    for (WAL stripe : stripes) {
+      if (stripe.getEarliestMemStoreSeqNum(encodedRegionName, familyName)
+          != HConstants.NO_SEQNUM) {
+        stripe.updateStore(encodedRegionName, familyName, sequenceid, onlyIfGreater);
+      }
+    }
+  }
+
+  @Override
+  public void sync() throws IOException {
+    for (WAL stripe : stripes) {
+      stripe.sync();
+    }
+  }
+
+  @Override
+  public void sync(long txid) throws IOException {
+    stripes[(int) (txid % stripes.length)].sync(txid / stripes.length);
+  }
+
+  @Override
+  public Long startCacheFlush(byte[] encodedRegionName, Set<byte[]> families) {
+    Long lowest = HConstants.NO_SEQNUM;
+    for (int i = 0; i < stripes.length; i++) {
+      Long stripeLowest = stripes[i].startCacheFlush(encodedRegionName, families);
+      if (stripeLowest == null) {
+        abortCacheFlush(encodedRegionName, i);
+        return null;
+      }
+      lowest = SequenceIdAccounting.mergeLowestSequenceId(lowest, stripeLowest);
+    }
+    return lowest;
+  }
+
+  @Override
+  public Long startCacheFlush(byte[] encodedRegionName, Map<byte[], Long> familyToSeq) {
+    Long lowest = HConstants.NO_SEQNUM;
+    for (int i = 0; i < stripes.length; i++) {
+      Long stripeLowest = stripes[i].startCacheFlush(encodedRegionName, familyToSeq);
+      if (stripeLowest == null) {
+        abortCacheFlush(encodedRegionName, i);
+        return null;
+      }
+      lowest = SequenceIdAccounting.mergeLowestSequenceId(lowest, stripeLowest);
+    }
+    return lowest;
+  }
+
+  /**
+   * Aborts the flush on the stripes it was started on when a later stripe refused it.
+   */
+  private void abortCacheFlush(byte[] encodedRegionName, int startedStripes) {
+    for (int i = 0; i < startedStripes; i++) {
+      stripes[i].abortCacheFlush(encodedRegionName);
+    }
+  }
+
+  @Override
+  public void completeCacheFlush(byte[] encodedRegionName) {
+    for (WAL stripe : stripes) {
+      stripe.completeCacheFlush(encodedRegionName);
+    }
+  }
+
+  @Override
+  public void abortCacheFlush(byte[] encodedRegionName) {
+    abortCacheFlush(encodedRegionName, stripes.length);
+  }
+
+  @Override
+  public WALCoprocessorHost getCoprocessorHost() {
+    return coprocessorHost;
+  }
+
+  @Override
+  @Deprecated
+  public long getEarliestMemStoreSeqNum(byte[] encodedRegionName) {
+    long lowest = HConstants.NO_SEQNUM;
+    for (WAL stripe : stripes) {
+      lowest = SequenceIdAccounting.mergeLowestSequenceId(lowest,
+        stripe.getEarliestMemStoreSeqNum(encodedRegionName));
+    }
+    return lowest;
+  }
+
+  @Override
+  public long getEarliestMemStoreSeqNum(byte[] encodedRegionName, byte[] familyName) {
+    long lowest = HConstants.NO_SEQNUM;
+    for (WAL stripe : stripes) {
+      lowest = SequenceIdAccounting.mergeLowestSequenceId(lowest,
+        stripe.getEarliestMemStoreSeqNum(encodedRegionName, familyName));
+    }
+    return lowest;
+  }
+
+  @Override
+  public OptionalLong getLogFileSizeIfBeingWritten(Path path) {
+    for (WAL stripe : stripes) {
+      OptionalLong size = stripe.getLogFileSizeIfBeingWritten(path);
+      if (size.isPresent()) {
+        return size;
+      }
+    }
+    return OptionalLong.empty();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("StripedWAL[");
+    for (int i = 0; i < stripes.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(stripes[i]);
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -106,4 +106,14 @@ public interface WALActionsListener {
    * sync.
    */
   default void postSync(final long timeInNanos, final int handlerSyncs) {}
+
+  /**
+   * For notification when a batch of appends is handed to the filesystem sync. Used by metrics
+   * system at least.
+   * @param entries How many WAL entries were appended since the previous sync was issued.
+   * @param bytes How many bytes were written since the previous sync was issued.
+   * @param waitTimeInNanos How long the first entry of the batch waited for this sync to be
+   * issued, in nanoseconds.
+   */
+  default void postSyncBatch(final int entries, final long bytes, final long waitTimeInNanos) {}
 }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.hadoop.hbase.regionserver.BloomType;
 
@@ -50,6 +51,8 @@ public class BloomFilterChunk implements BloomFilterBase {
   protected ByteBuffer bloom;
   /** The type of bloom */
   protected BloomType bloomType;
+  /** Whether all the bits of a key are in one block, see {@link BloomFilterUtil#BLOCK_BYTES} */
+  protected boolean blocked;
 
   /**
    * Loads bloom filter meta data from file input.
@@ -81,13 +84,21 @@ public class BloomFilterChunk implements BloomFilterBase {
    * @return error rate for this particular Bloom filter
    */
   public double actualErrorRate() {
+    if (blocked) {
+      return BloomFilterUtil.blockedErrorRate(keyCount, byteSize * 8, hashCount);
+    }
     return BloomFilterUtil.actualErrorRate(keyCount, byteSize * 8, hashCount);
   }
 
   public BloomFilterChunk(int hashType, BloomType bloomType) {
+    this(hashType, bloomType, false);
+  }
+
+  public BloomFilterChunk(int hashType, BloomType bloomType, boolean blocked) {
     this.hashType = hashType;
     this.hash = Hash.getInstance(hashType);
     this.bloomType = bloomType;
+    this.blocked = blocked;
   }
 
   /**
@@ -127,7 +138,7 @@ public class BloomFilterChunk implements BloomFilterBase {
    * @return a Bloom filter with the same configuration as this
    */
   public BloomFilterChunk createAnother() {
-    BloomFilterChunk bbf = new BloomFilterChunk(hashType, this.bloomType);
+    BloomFilterChunk bbf = new BloomFilterChunk(hashType, this.bloomType, this.blocked);
     bbf.byteSize = byteSize;
     bbf.hashCount = hashCount;
     bbf.maxKeys = maxKeys;
@@ -187,12 +198,13 @@ public class BloomFilterChunk implements BloomFilterBase {
     int hash1;
     int hash2;
     HashKey<Cell> hashKey;
-    if (this.bloomType == BloomType.ROW) {
-      hashKey = new RowBloomHashKey(cell);
+    if (this.bloomType == BloomType.ROWCOL) {
+      hashKey = new RowColBloomHashKey(cell);
       hash1 = this.hash.hash(hashKey, 0);
       hash2 = this.hash.hash(hashKey, hash1);
     } else {
-      hashKey = new RowColBloomHashKey(cell);
+      // the row prefix Bloom filters get a cell with the prefix as row
+      hashKey = new RowBloomHashKey(cell);
       hash1 = this.hash.hash(hashKey, 0);
       hash2 = this.hash.hash(hashKey, hash1);
     }
@@ -200,9 +212,19 @@ public class BloomFilterChunk implements BloomFilterBase {
   }
 
   private void setHashLoc(int hash1, int hash2) {
-    for (int i = 0; i < this.hashCount; i++) {
-      long hashLoc = Math.abs((hash1 + i * hash2) % (this.byteSize * 8));
-      set(hashLoc);
+    if (blocked) {
+      int blockLoc = BloomFilterUtil.blockLoc(hash1, (int) (this.byteSize * 8));
+      int delta = BloomFilterUtil.blockBitDelta(hash2);
+      int bitLoc = hash2;
+      for (int i = 0; i < this.hashCount; i++) {
+        set(blockLoc + (bitLoc & BloomFilterUtil.BLOCK_BIT_MASK));
+        bitLoc += delta;
+      }
+    } else {
+      for (int i = 0; i < this.hashCount; i++) {
+        long hashLoc = Math.abs((hash1 + i * hash2) % (this.byteSize * 8));
+        set(hashLoc);
+      }
     }
 
     ++this.keyCount;
@@ -239,6 +261,16 @@ public class BloomFilterChunk implements BloomFilterBase {
     return (curByte != 0);
   }
 
+  /**
+   * Checks whether the key may have been added to this chunk. Used by blooms that are only kept
+   * in memory, like the row blooms of memstore segments.
+   * @return false if the key was certainly not added
+   */
+  public boolean contains(byte[] buf, int offset, int length) {
+    return BloomFilterUtil.contains(buf, offset, length, new SingleByteBuff(bloom), 0,
+        (int) byteSize, hash, hashCount, blocked);
+  }
+
   @Override
   public long getKeyCount() {
     return keyCount;
@@ -258,6 +290,10 @@ public class BloomFilterChunk implements BloomFilterBase {
     return hashType;
   }
 
+  public boolean isBlocked() {
+    return blocked;
+  }
+
   public void compactBloom() {
     // see if the actual size is exponentially smaller than expected.
     if (this.keyCount > 0 && this.bloom.hasArray()) {
@@ -265,8 +301,11 @@ public class BloomFilterChunk implements BloomFilterBase {
       int newByteSize = (int)this.byteSize;
       int newMaxKeys = this.maxKeys;
 
+      // a block has to stay whole, so a blocked bloom folds block by block
+      int unit = blocked ? BloomFilterUtil.BLOCK_BYTES : 1;
+
       // while exponentially smaller & folding is lossless
-      while ((newByteSize & 1) == 0 && newMaxKeys > (this.keyCount<<1)) {
+      while (((newByteSize / unit) & 1) == 0 && newMaxKeys > (this.keyCount<<1)) {
         pieces <<= 1;
         newByteSize >>= 1;
         newMaxKeys >>= 1;
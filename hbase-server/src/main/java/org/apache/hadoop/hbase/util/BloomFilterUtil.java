@@ -20,7 +20,9 @@ package org.apache.hadoop.hbase.util;
 import java.text.NumberFormat;
 import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.PrivateCellUtil;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.regionserver.BloomType;
@@ -31,6 +33,12 @@ import org.apache.hadoop.hbase.regionserver.BloomType;
 @InterfaceAudience.Private
 public final class BloomFilterUtil {
 
+  /** Length of the row prefix of a {@link BloomType#ROWPREFIX_FIXED_LENGTH} Bloom filter */
+  public static final String PREFIX_LENGTH_KEY = "hbase.bloomfilter.rowprefix.length";
+
+  /** Delimiter ending the row prefix of a {@link BloomType#ROWPREFIX_DELIMITED} Bloom filter */
+  public static final String DELIMITER_KEY = "hbase.bloomfilter.rowprefix.delimiter";
+
   /** Record separator for the Bloom filter statistics human-readable string */
   public static final String STATS_RECORD_SEP = "; ";
   /**
@@ -57,6 +65,19 @@ public final class BloomFilterUtil {
     (byte) 0x80
   };
 
+  /**
+   * Size of the blocks of a blocked Bloom filter, one cache line. A key sets all its bits in the
+   * block picked by its first hash, so a lookup reads a single cache line of the filter instead
+   * of one per hash function, at the cost of a slightly higher error rate for the same size as
+   * the keys are not spread evenly over the blocks.
+   */
+  public static final int BLOCK_BYTES = 64;
+  /** log2 of the number of bits in a block */
+  static final int BLOCK_BITS_SHIFT = 9;
+  static final int BLOCK_BIT_MASK = (1 << BLOCK_BITS_SHIFT) - 1;
+  /** log2 of {@link #BLOCK_BYTES} */
+  private static final int BLOCK_BYTES_SHIFT = 6;
+
   /**
    * Private constructor to keep this class from being instantiated.
    */
@@ -135,6 +156,59 @@ public final class BloomFilterUtil {
         / bitSize)) * functionCount);
   }
 
+  /**
+   * Computes the error rate of a blocked Bloom filter. The number of keys in a block follows a
+   * Poisson distribution, and the error rate is the one of a small Bloom filter the size of a
+   * block averaged over it.
+   *
+   * @param maxKeys
+   * @param bitSize
+   * @param functionCount
+   * @return the actual error rate
+   */
+  public static double blockedErrorRate(long maxKeys, long bitSize, int functionCount) {
+    int blockBits = 1 << BLOCK_BITS_SHIFT;
+    double keysPerBlock = maxKeys * 1.0 * blockBits / bitSize;
+    // Probability of a bit to stay unset for each key added to its block
+    double unset = 1 - 1.0 / blockBits;
+    double logKeysPerBlock = Math.log(keysPerBlock);
+    long last = (long) (keysPerBlock + 12 * Math.sqrt(keysPerBlock)) + 20;
+    double logProbability = -keysPerBlock;
+    double errorRate = 0;
+    for (long keys = 0; keys <= last; keys++) {
+      if (keys > 0) {
+        logProbability += logKeysPerBlock - Math.log(keys);
+      }
+      errorRate += Math.exp(logProbability)
+          * Math.pow(1 - Math.pow(unset, functionCount * keys), functionCount);
+    }
+    return errorRate;
+  }
+
+  /**
+   * The maximum number of keys we can put into a blocked Bloom filter of a certain size to get
+   * the given error rate, with the given number of hash functions.
+   *
+   * @param bitSize
+   * @param errorRate
+   * @param hashCount
+   * @return the maximum number of keys that can be inserted in the Bloom filter
+   */
+  public static long computeBlockedMaxKeys(long bitSize, double errorRate, int hashCount) {
+    // A blocked Bloom filter never does better than a plain one of the same size
+    long low = 0;
+    long high = computeMaxKeys(bitSize, errorRate, hashCount);
+    while (low < high) {
+      long mid = (low + high + 1) >>> 1;
+      if (blockedErrorRate(mid, bitSize, hashCount) <= errorRate) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
   /**
    * Increases the given byte size of a Bloom filter until it can be folded by
    * the given factor.
@@ -180,8 +254,33 @@ public final class BloomFilterUtil {
    */
   public static BloomFilterChunk createBySize(int byteSizeHint,
       double errorRate, int hashType, int foldFactor, BloomType bloomType) {
-    BloomFilterChunk bbf = new BloomFilterChunk(hashType, bloomType);
+    return createBySize(byteSizeHint, errorRate, hashType, foldFactor, bloomType, false);
+  }
 
+  /**
+   * Creates a Bloom filter chunk of the given size.
+   *
+   * @param byteSizeHint the desired number of bytes for the Bloom filter bit
+   *          array. Will be increased so that folding is possible.
+   * @param errorRate target false positive rate of the Bloom filter
+   * @param hashType Bloom filter hash function type
+   * @param foldFactor
+   * @param bloomType
+   * @param blocked whether all the bits of a key are set in one block of
+   *          {@link #BLOCK_BYTES}
+   * @return the new Bloom filter of the desired size
+   */
+  public static BloomFilterChunk createBySize(int byteSizeHint, double errorRate, int hashType,
+      int foldFactor, BloomType bloomType, boolean blocked) {
+    BloomFilterChunk bbf = new BloomFilterChunk(hashType, bloomType, blocked);
+
+    if (blocked) {
+      // A blocked Bloom filter is folded block by block, and small ones can not be folded as
+      // many times without growing them too much.
+      int blockCount = Math.max(1, byteSizeHint >> BLOCK_BYTES_SHIFT);
+      int maxFoldFactor = 31 - Integer.numberOfLeadingZeros(blockCount);
+      foldFactor = Math.min(foldFactor, maxFoldFactor) + BLOCK_BYTES_SHIFT;
+    }
     bbf.byteSize = computeFoldableByteSize(byteSizeHint * 8L, foldFactor);
     long bitSize = bbf.byteSize * 8;
     bbf.maxKeys = (int) idealMaxKeys(bitSize, errorRate);
@@ -190,24 +289,128 @@ public final class BloomFilterUtil {
     // Adjust max keys to bring error rate closer to what was requested,
     // because byteSize was adjusted to allow for folding, and hashCount was
     // rounded.
-    bbf.maxKeys = (int) computeMaxKeys(bitSize, errorRate, bbf.hashCount);
+    if (blocked) {
+      bbf.maxKeys = (int) computeBlockedMaxKeys(bitSize, errorRate, bbf.hashCount);
+    } else {
+      bbf.maxKeys = (int) computeMaxKeys(bitSize, errorRate, bbf.hashCount);
+    }
 
     return bbf;
   }
 
+  /**
+   * @return the first bit of the block where a key of a blocked Bloom filter sets its bits
+   */
+  static int blockLoc(int hash1, int bloomBitSize) {
+    int blockCount = bloomBitSize >>> BLOCK_BITS_SHIFT;
+    return ((hash1 & Integer.MAX_VALUE) % blockCount) << BLOCK_BITS_SHIFT;
+  }
+
+  /**
+   * @return the step between the bits of a key in its block. Odd, so that the bits of a key are
+   *         all different.
+   */
+  static int blockBitDelta(int hash2) {
+    return Integer.rotateLeft(hash2, 15) | 1;
+  }
+
+  /**
+   * Gets the parameter of a row prefix Bloom filter from the configuration, as stored in the file
+   * info of the store files: the prefix length as an int, or the delimiter.
+   *
+   * @param bloomType the type of the Bloom filter
+   * @param conf the configuration of the column family
+   * @return the parameter, or null if the Bloom filter type has none
+   * @throws IllegalArgumentException if the parameter is missing or invalid
+   */
+  public static byte[] getBloomFilterParam(BloomType bloomType, Configuration conf) {
+    switch (bloomType) {
+      case ROWPREFIX_FIXED_LENGTH:
+        String length = conf.get(PREFIX_LENGTH_KEY);
+        int prefixLength;
+        try {
+          prefixLength = length == null ? 0 : Integer.parseInt(length);
+        } catch (NumberFormatException e) {
+          prefixLength = 0;
+        }
+        if (prefixLength <= 0) {
+          throw new IllegalArgumentException(PREFIX_LENGTH_KEY + " must be a positive integer "
+              + "for " + bloomType + " Bloom filters, got " + length);
+        }
+        return Bytes.toBytes(prefixLength);
+      case ROWPREFIX_DELIMITED:
+        String delimiter = conf.get(DELIMITER_KEY);
+        if (delimiter == null || delimiter.isEmpty()) {
+          throw new IllegalArgumentException(DELIMITER_KEY + " must be set for " + bloomType
+              + " Bloom filters");
+        }
+        return Bytes.toBytes(delimiter);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the length of the key a row prefix Bloom filter has for a row. The prefixes are in the
+   * same order as their rows, which is why a delimited prefix includes its delimiter.
+   *
+   * @param row the row
+   * @param bloomType the type of the Bloom filter
+   * @param bloomParam the parameter of the Bloom filter, see
+   *          {@link #getBloomFilterParam(BloomType, Configuration)}
+   * @return the length of the prefix of the row
+   */
+  public static int getRowPrefixLength(byte[] row, BloomType bloomType, byte[] bloomParam) {
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return Math.min(row.length, Bytes.toInt(bloomParam));
+    }
+    int index = Bytes.indexOf(row, bloomParam);
+    return index < 0 ? row.length : index + bloomParam.length;
+  }
+
+  /**
+   * Same as {@link #getRowPrefixLength(byte[], BloomType, byte[])} for the row of a cell, without
+   * copying it.
+   */
+  public static int getRowPrefixLength(Cell cell, BloomType bloomType, byte[] bloomParam) {
+    int rowLength = cell.getRowLength();
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return Math.min(rowLength, Bytes.toInt(bloomParam));
+    }
+    for (int i = 0; i + bloomParam.length <= rowLength; i++) {
+      int j = 0;
+      while (j < bloomParam.length && PrivateCellUtil.getRowByte(cell, i + j) == bloomParam[j]) {
+        j++;
+      }
+      if (j == bloomParam.length) {
+        return i + bloomParam.length;
+      }
+    }
+    return rowLength;
+  }
+
   public static boolean contains(byte[] buf, int offset, int length,
       ByteBuff bloomBuf, int bloomOffset, int bloomSize, Hash hash,
       int hashCount) {
+    return contains(buf, offset, length, bloomBuf, bloomOffset, bloomSize, hash, hashCount,
+        false);
+  }
+
+  public static boolean contains(byte[] buf, int offset, int length, ByteBuff bloomBuf,
+      int bloomOffset, int bloomSize, Hash hash, int hashCount, boolean blocked) {
     HashKey<byte[]> hashKey = new ByteArrayHashKey(buf, offset, length);
-    return contains(bloomBuf, bloomOffset, bloomSize, hash, hashCount, hashKey);
+    return contains(bloomBuf, bloomOffset, bloomSize, hash, hashCount, hashKey, blocked);
   }
 
   private static <T> boolean contains(ByteBuff bloomBuf, int bloomOffset, int bloomSize, Hash hash,
-      int hashCount, HashKey<T> hashKey) {
+      int hashCount, HashKey<T> hashKey, boolean blocked) {
     int hash1 = hash.hash(hashKey, 0);
     int hash2 = hash.hash(hashKey, hash1);
     int bloomBitSize = bloomSize << 3;
 
+    if (blocked) {
+      return containsInBlock(bloomBuf, bloomOffset, bloomBitSize, hashCount, hash1, hash2);
+    }
     if (randomGeneratorForTest == null) {
       // Production mode.
       int compositeHash = hash1;
@@ -230,11 +433,44 @@ public final class BloomFilterUtil {
     return true;
   }
 
+  /**
+   * Checks the bits of a key of a blocked Bloom filter, which are all in the same block.
+   */
+  private static boolean containsInBlock(ByteBuff bloomBuf, int bloomOffset, int bloomBitSize,
+      int hashCount, int hash1, int hash2) {
+    int blockLoc;
+    int bitLoc;
+    int delta;
+    if (randomGeneratorForTest == null) {
+      // Production mode.
+      blockLoc = blockLoc(hash1, bloomBitSize);
+      bitLoc = hash2;
+      delta = blockBitDelta(hash2);
+    } else {
+      // Test mode with "fake lookups" to estimate "ideal false positive rate".
+      blockLoc = blockLoc(randomGeneratorForTest.nextInt(), bloomBitSize);
+      bitLoc = randomGeneratorForTest.nextInt();
+      delta = blockBitDelta(randomGeneratorForTest.nextInt());
+    }
+    for (int i = 0; i < hashCount; i++) {
+      if (!checkBit(blockLoc + (bitLoc & BLOCK_BIT_MASK), bloomBuf, bloomOffset)) {
+        return false;
+      }
+      bitLoc += delta;
+    }
+    return true;
+  }
+
   public static boolean contains(Cell cell, ByteBuff bloomBuf, int bloomOffset, int bloomSize,
       Hash hash, int hashCount, BloomType type) {
-    HashKey<Cell> hashKey = type == BloomType.ROW ? new RowBloomHashKey(cell)
-        : new RowColBloomHashKey(cell);
-    return contains(bloomBuf, bloomOffset, bloomSize, hash, hashCount, hashKey);
+    return contains(cell, bloomBuf, bloomOffset, bloomSize, hash, hashCount, type, false);
+  }
+
+  public static boolean contains(Cell cell, ByteBuff bloomBuf, int bloomOffset, int bloomSize,
+      Hash hash, int hashCount, BloomType type, boolean blocked) {
+    HashKey<Cell> hashKey = type == BloomType.ROWCOL ? new RowColBloomHashKey(cell)
+        : new RowBloomHashKey(cell);
+    return contains(bloomBuf, bloomOffset, bloomSize, hash, hashCount, hashKey, blocked);
   }
 
   /**
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Handles ROWPREFIX_FIXED_LENGTH and ROWPREFIX_DELIMITED bloom related context. The Bloom filter
+ * gets the cells with the prefix of their row as row, so that it works like a ROW one.
+ */
+@InterfaceAudience.Private
+public class RowPrefixBloomContext extends RowBloomContext {
+
+  private final BloomType bloomType;
+  private final byte[] bloomParam;
+
+  public RowPrefixBloomContext(BloomFilterWriter bloomFilterWriter, CellComparator comparator,
+      BloomType bloomType, byte[] bloomParam) {
+    super(bloomFilterWriter, comparator);
+    this.bloomType = bloomType;
+    this.bloomParam = bloomParam;
+  }
+
+  @Override
+  public void writeBloom(Cell cell) throws IOException {
+    int prefixLength = BloomFilterUtil.getRowPrefixLength(cell, bloomType, bloomParam);
+    // The key is only built for the first cell of a prefix, the cells which follow are compared
+    // in place with the last key
+    Cell lastKey = getLastCell();
+    if (lastKey != null && matchingRowPrefix(cell, prefixLength, lastKey)) {
+      return;
+    }
+    byte[] prefix = new byte[prefixLength];
+    if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferUtils.copyFromBufferToArray(prefix,
+        ((ByteBufferExtendedCell) cell).getRowByteBuffer(),
+        ((ByteBufferExtendedCell) cell).getRowPosition(), 0, prefixLength);
+    } else {
+      System.arraycopy(cell.getRowArray(), cell.getRowOffset(), prefix, 0, prefixLength);
+    }
+    super.writeBloom(PrivateCellUtil.createFirstOnRow(prefix));
+  }
+
+  private static boolean matchingRowPrefix(Cell cell, int prefixLength, Cell key) {
+    if (cell instanceof ByteBufferExtendedCell) {
+      return ByteBufferUtils.equals(((ByteBufferExtendedCell) cell).getRowByteBuffer(),
+        ((ByteBufferExtendedCell) cell).getRowPosition(), prefixLength, key.getRowArray(),
+        key.getRowOffset(), key.getRowLength());
+    }
+    return Bytes.equals(cell.getRowArray(), cell.getRowOffset(), prefixLength, key.getRowArray(),
+      key.getRowOffset(), key.getRowLength());
+  }
+}
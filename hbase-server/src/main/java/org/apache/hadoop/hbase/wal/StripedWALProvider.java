@@ -0,0 +1,219 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.apache.hadoop.hbase.wal.AbstractFSWALProvider.META_WAL_PROVIDER_ID;
+import static org.apache.hadoop.hbase.wal.AbstractFSWALProvider.WAL_FILE_NAME_DELIMITER;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+// imports for classes still in regionserver.wal
+import org.apache.hadoop.hbase.regionserver.wal.StripedWAL;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A WAL Provider that returns a single {@link StripedWAL} which spreads appends over several
+ * WALs of the delegate provider, so that the write throughput of a region server with many
+ * written regions is not bound by one ring buffer consumer.
+ *
+ * The number of stripes is configured with "hbase.wal.striped.stripes" and defaults to one per
+ * eight available processors, at least two. The stripes are created by
+ * {@link #DELEGATE_PROVIDER}, each with its own file prefix, and the WAL coprocessors are loaded
+ * once for the striped WAL instead of once per stripe. The hbase:meta WAL is not striped.
+ *
+ * Each region is tied to one stripe, picked by hashing its encoded name, so that its edits stay
+ * in one replication queue. Clusters without replication peers can set {@link #STRIPE_BY_THREAD}
+ * to stripe by handler instead.
+ * <p>
+ * This is the limiting trade-off of the provider. With the default, the throughput of a single
+ * region is still bound by the consumer of its one stripe, as with the static grouping of
+ * {@link RegionGroupingProvider}: striping only helps when the writes are spread over many
+ * regions, and a single hot region does not scale. Striping by thread does spread a hot region
+ * over all stripes, but a region's edits then sit in several replication queues which are
+ * shipped independently, so it is unsafe with replication. Keeping the edits of a region in order
+ * across stripes would need replication to merge the queues by sequence id, which it does not do.
+ */
+@InterfaceAudience.Private
+public class StripedWALProvider implements WALProvider {
+  private static final Logger LOG = LoggerFactory.getLogger(StripedWALProvider.class);
+
+  public static final String NUM_STRIPES = "hbase.wal.striped.stripes";
+
+  /** delegate provider for the WAL of each stripe */
+  public static final String DELEGATE_PROVIDER = "hbase.wal.striped.delegate.provider";
+  public static final String DEFAULT_DELEGATE_PROVIDER = WALFactory.Providers.defaultProvider
+      .name();
+
+  /**
+   * Whether to pick the stripe by appending thread instead of by region. Only for clusters
+   * without replication peers: replication ships each stripe through its own queue, so the edits
+   * of a region spread over several stripes may reach the peers out of order.
+   */
+  public static final String STRIPE_BY_THREAD = "hbase.wal.striped.by.thread";
+  public static final boolean DEFAULT_STRIPE_BY_THREAD = false;
+
+  private static final String STRIPE_NAME = "stripe";
+
+  private final List<WALProvider> providers = new ArrayList<>();
+  private volatile WAL wal;
+  private WALFactory factory;
+  private Configuration conf;
+  private boolean meta;
+
+  @Override
+  public void init(final WALFactory factory, final Configuration conf,
+      final List<WALActionsListener> listeners, final String providerId) throws IOException {
+    if (null != this.factory) {
+      throw new IllegalStateException("WALProvider.init should only be called once.");
+    }
+    this.factory = factory;
+    this.conf = conf;
+    List<WALActionsListener> stripeListeners =
+        null == listeners ? null : Collections.unmodifiableList(listeners);
+    Class<? extends WALProvider> providerClass =
+        factory.getProviderClass(DELEGATE_PROVIDER, DEFAULT_DELEGATE_PROVIDER);
+    if (META_WAL_PROVIDER_ID.equals(providerId)) {
+      providers.add(factory.createProvider(providerClass, stripeListeners, META_WAL_PROVIDER_ID));
+      meta = true;
+      return;
+    }
+    int numStripes = conf.getInt(NUM_STRIPES,
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 8));
+    if (numStripes < 1) {
+      throw new IllegalArgumentException(NUM_STRIPES + " must be positive");
+    }
+    LOG.info("Instantiating StripedWALProvider with " + numStripes + " stripes of " +
+        providerClass);
+    if (conf.getBoolean(STRIPE_BY_THREAD, DEFAULT_STRIPE_BY_THREAD)) {
+      LOG.warn("Striping the WAL by thread, the edits of a region may reach replication peers " +
+          "out of order");
+    }
+    // The striped WAL loads the WAL coprocessors, the stripes must not load them again
+    Configuration stripeConf = new Configuration(conf);
+    stripeConf.unset(CoprocessorHost.WAL_COPROCESSOR_CONF_KEY);
+    for (int i = 0; i < numStripes; i++) {
+      String stripeId = STRIPE_NAME + i;
+      if (providerId != null) {
+        stripeId = providerId + WAL_FILE_NAME_DELIMITER + stripeId;
+      }
+      providers.add(factory.createProvider(providerClass, stripeListeners, stripeId, stripeConf));
+    }
+  }
+
+  @Override
+  public WAL getWAL(RegionInfo region) throws IOException {
+    WAL walCopy = wal;
+    if (walCopy == null) {
+      synchronized (this) {
+        walCopy = wal;
+        if (walCopy == null) {
+          if (meta) {
+            walCopy = providers.get(0).getWAL(region);
+          } else {
+            List<WAL> stripes = new ArrayList<>(providers.size());
+            for (WALProvider provider : providers) {
+              stripes.add(provider.getWAL(region));
+            }
+            walCopy = new StripedWAL(stripes, conf,
+                conf.getBoolean(STRIPE_BY_THREAD, DEFAULT_STRIPE_BY_THREAD));
+          }
+          wal = walCopy;
+        }
+      }
+    }
+    return walCopy;
+  }
+
+  @Override
+  public List<WAL> getWALs() {
+    WAL walCopy = wal;
+    if (walCopy == null) {
+      return Collections.emptyList();
+    }
+    List<WAL> wals = new ArrayList<>(1);
+    wals.add(walCopy);
+    return wals;
+  }
+
+  @Override
+  public void shutdown() throws IOException {
+    // save the last exception and rethrow
+    IOException failure = null;
+    for (WALProvider provider : providers) {
+      try {
+        provider.shutdown();
+      } catch (IOException e) {
+        LOG.error("Problem shutting down wal provider '" + provider + "': " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Details of problem shutting down wal provider '" + provider + "'", e);
+        }
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    // save the last exception and rethrow
+    IOException failure = null;
+    for (WALProvider provider : providers) {
+      try {
+        provider.close();
+      } catch (IOException e) {
+        LOG.error("Problem closing wal provider '" + provider + "': " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Details of problem closing wal provider '" + provider + "'", e);
+        }
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public long getNumLogFiles() {
+    long numLogFiles = 0;
+    for (WALProvider provider : providers) {
+      numLogFiles += provider.getNumLogFiles();
+    }
+    return numLogFiles;
+  }
+
+  @Override
+  public long getLogFileSize() {
+    long logFileSize = 0;
+    for (WALProvider provider : providers) {
+      logFileSize += provider.getLogFileSize();
+    }
+    return logFileSize;
+  }
+}
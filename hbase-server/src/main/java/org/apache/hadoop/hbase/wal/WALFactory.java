@@ -57,6 +57,8 @@ import org.apache.hbase.thirdparty.com.google.common.annotations.VisibleForTesti
  *                             FileSystem interface, normally HDFS.</li>
  *   <li><em>multiwal</em> : a provider that will use multiple "filesystem" wal instances per region
  *                           server.</li>
+ *   <li><em>striped</em> : a provider that stripes the appends of all regions over multiple wal
+ *                          instances, each with its own sync pipeline.</li>
  * </ul>
  *
  * Alternatively, you may provide a custom implementation of {@link WALProvider} by class name.
@@ -73,7 +75,8 @@ public class WALFactory implements WALFileLengthProvider {
     defaultProvider(AsyncFSWALProvider.class),
     filesystem(FSHLogProvider.class),
     multiwal(RegionGroupingProvider.class),
-    asyncfs(AsyncFSWALProvider.class);
+    asyncfs(AsyncFSWALProvider.class),
+    striped(StripedWALProvider.class);
 
     Class<? extends WALProvider> clazz;
     Providers(Class<? extends WALProvider> clazz) {
@@ -137,10 +140,20 @@ public class WALFactory implements WALFileLengthProvider {
 
   WALProvider createProvider(Class<? extends WALProvider> clazz,
       List<WALActionsListener> listeners, String providerId) throws IOException {
+    return createProvider(clazz, listeners, providerId, conf);
+  }
+
+  /**
+   * Like {@link #createProvider(Class, List, String)}, but initializes the provider with the
+   * passed configuration instead of the one of this factory.
+   */
+  WALProvider createProvider(Class<? extends WALProvider> clazz,
+      List<WALActionsListener> listeners, String providerId, Configuration providerConf)
+      throws IOException {
     LOG.info("Instantiating WALProvider of type " + clazz);
     try {
       final WALProvider result = clazz.newInstance();
-      result.init(this, conf, listeners, providerId);
+      result.init(this, providerConf, listeners, providerId);
       return result;
     } catch (InstantiationException exception) {
       LOG.error("couldn't set up WALProvider, the configured class is " + clazz);
@@ -42,6 +42,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.HeapMemoryManager;
 import org.apache.hadoop.hbase.regionserver.Leases;
 import org.apache.hadoop.hbase.regionserver.MetricsRegionServer;
+import org.apache.hadoop.hbase.regionserver.ParallelWorkerPools;
 import org.apache.hadoop.hbase.regionserver.Region;
 import org.apache.hadoop.hbase.regionserver.RegionServerAccounting;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
@@ -76,6 +77,7 @@ public class MockRegionServerServices implements RegionServerServices {
   private volatile boolean abortRequested;
   private volatile boolean stopping = false;
   private final AtomicBoolean running = new AtomicBoolean(true);
+  private ParallelWorkerPools parallelWorkerPools = null;
 
   MockRegionServerServices(ZKWatcher zkw) {
     this(zkw, null);
@@ -204,6 +206,11 @@ public class MockRegionServerServices implements RegionServerServices {
   @Override
   public void stop(String why) {
     this.stopping = true;
+    synchronized (this) {
+      if (parallelWorkerPools != null) {
+        parallelWorkerPools.shutdown();
+      }
+    }
     if (running.compareAndSet(true, false)) {
       LOG.info("Shutting down due to request '" + why + "'");
     }
@@ -290,6 +297,14 @@ public class MockRegionServerServices implements RegionServerServices {
     return 0;
   }
 
+  @Override
+  public synchronized ParallelWorkerPools getParallelWorkerPools() {
+    if (parallelWorkerPools == null) {
+      parallelWorkerPools = new ParallelWorkerPools(conf == null ? new Configuration() : conf);
+    }
+    return parallelWorkerPools;
+  }
+
   @Override
   public ClusterConnection getClusterConnection() {
     return null;
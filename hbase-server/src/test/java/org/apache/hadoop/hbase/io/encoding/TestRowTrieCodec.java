@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseCommonTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests seeking in {@link DataBlockEncoding#ROW_TRIE} blocks, across the restart points of the
+ * block, at its first and last rows and to rows the block does not have.
+ */
+@Category({IOTests.class, SmallTests.class})
+@RunWith(Parameterized.class)
+public class TestRowTrieCodec {
+  private static final byte[] HFILEBLOCK_DUMMY_HEADER =
+      new byte[HConstants.HFILEBLOCK_HEADER_SIZE];
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  // enough rows for several restart intervals and a partial last one
+  private static final int NUM_ROWS = RowTrieEncoder.RESTART_INTERVAL * 4 + 5;
+
+  private final boolean useOffheapData;
+  // cells of the block, in order; rows are even numbered so the odd ones are absent
+  private final List<KeyValue> kvs = new ArrayList<>();
+  // index in kvs of the first cell of each row
+  private final List<Integer> rowStarts = new ArrayList<>();
+  private DataBlockEncoder.EncodedSeeker seeker;
+
+  @Parameters
+  public static Collection<Object[]> parameters() {
+    return HBaseCommonTestingUtility.BOOLEAN_PARAMETERIZED;
+  }
+
+  public TestRowTrieCodec(boolean useOffheapData) {
+    this.useOffheapData = useOffheapData;
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < NUM_ROWS; i++) {
+      rowStarts.add(kvs.size());
+      // one to three columns per row
+      for (int q = 0; q <= i % 3; q++) {
+        kvs.add(new KeyValue(row(i * 2), FAMILY, Bytes.toBytes("q" + q), 1000L + i,
+            Bytes.toBytes("value" + i)));
+      }
+    }
+    DataBlockEncoder encoder = DataBlockEncoding.ROW_TRIE.getEncoder();
+    HFileContext meta = new HFileContextBuilder().withHBaseCheckSum(false)
+        .withIncludesMvcc(false).withIncludesTags(false)
+        .withCompression(Compression.Algorithm.NONE).build();
+    HFileBlockEncodingContext encodingContext = encoder.newDataBlockEncodingContext(
+        DataBlockEncoding.ROW_TRIE, HFILEBLOCK_DUMMY_HEADER, meta);
+    ByteBuffer encodedBuffer = TestDataBlockEncoders.encodeKeyValues(DataBlockEncoding.ROW_TRIE,
+        kvs, encodingContext, useOffheapData);
+    seeker = encoder.createSeeker(CellComparatorImpl.COMPARATOR,
+        encoder.newDataBlockDecodingContext(meta));
+    seeker.setCurrentBuffer(new SingleByteBuff(encodedBuffer));
+  }
+
+  private void assertSeek(Cell key, boolean seekBefore, int expectedResult, KeyValue expected) {
+    seeker.rewind();
+    assertEquals(expectedResult, seeker.seekToKeyInBlock(key, seekBefore));
+    assertEquals(expected, seeker.getCell());
+  }
+
+  @Test
+  public void testSeekToEveryCell() {
+    for (KeyValue kv : kvs) {
+      assertSeek(kv, false, 0, kv);
+    }
+  }
+
+  @Test
+  public void testSeekAcrossRestartPoints() {
+    for (int i = 0; i < NUM_ROWS; i += RowTrieEncoder.RESTART_INTERVAL) {
+      // the rows around each restart point, whose neighbours may be in another restart interval
+      for (int r = Math.max(1, i - 1); r <= Math.min(NUM_ROWS - 1, i + 1); r++) {
+        KeyValue first = kvs.get(rowStarts.get(r));
+        KeyValue previous = kvs.get(rowStarts.get(r) - 1);
+        KeyValue lastOfRow = kvs.get(r + 1 < NUM_ROWS ? rowStarts.get(r + 1) - 1 : kvs.size() - 1);
+        assertSeek(first, false, 0, first);
+        assertSeek(first, true, 1, previous);
+        // the first on row key sorts before the first cell of the row
+        assertSeek(PrivateCellUtil.createFirstOnRow(row(r * 2)), false, 1, previous);
+        assertSeek(PrivateCellUtil.createFirstOnRow(row(r * 2)), true, 1, previous);
+        assertSeek(PrivateCellUtil.createLastOnRow(row(r * 2)), false, 1, lastOfRow);
+        assertSeek(lastOfRow, false, 0, lastOfRow);
+      }
+    }
+  }
+
+  @Test
+  public void testFirstAndLastRows() {
+    KeyValue first = kvs.get(0);
+    assertSeek(first, false, 0, first);
+    seeker.rewind();
+    assertEquals(HConstants.INDEX_KEY_MAGIC,
+        seeker.seekToKeyInBlock(PrivateCellUtil.createFirstOnRow(row(0)), false));
+    assertSeek(PrivateCellUtil.createLastOnRow(row(0)), false, 1,
+        kvs.get(rowStarts.get(1) - 1));
+    seeker.rewind();
+    try {
+      seeker.seekToKeyInBlock(first, true);
+      fail("seekBefore the first key of the block should fail");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    KeyValue last = kvs.get(kvs.size() - 1);
+    assertSeek(last, false, 0, last);
+    assertSeek(last, true, 1, kvs.get(kvs.size() - 2));
+    KeyValue firstOfLastRow = kvs.get(rowStarts.get(NUM_ROWS - 1));
+    assertSeek(firstOfLastRow, false, 0, firstOfLastRow);
+    assertSeek(PrivateCellUtil.createLastOnRow(row((NUM_ROWS - 1) * 2)), false, 1, last);
+  }
+
+  @Test
+  public void testSeekToAbsentRows() {
+    // before the first row of the block
+    seeker.rewind();
+    assertEquals(HConstants.INDEX_KEY_MAGIC,
+        seeker.seekToKeyInBlock(PrivateCellUtil.createFirstOnRow(Bytes.toBytes("a")), false));
+    assertEquals(kvs.get(0), seeker.getCell());
+    // between two rows of the block, lands on the last cell of the row before
+    for (int i = 0; i < NUM_ROWS; i++) {
+      KeyValue lastOfRow = kvs.get(i + 1 < NUM_ROWS ? rowStarts.get(i + 1) - 1 : kvs.size() - 1);
+      assertSeek(PrivateCellUtil.createFirstOnRow(row(i * 2 + 1)), false, 1, lastOfRow);
+      assertSeek(PrivateCellUtil.createFirstOnRow(row(i * 2 + 1)), true, 1, lastOfRow);
+    }
+    // after the last row of the block
+    assertSeek(PrivateCellUtil.createFirstOnRow(Bytes.toBytes("z")), false, 1,
+        kvs.get(kvs.size() - 1));
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex.BlockLocation;
+import org.apache.hadoop.hbase.io.hfile.bucket.AsyncFileIOEngine;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.regionserver.ParallelWorkerPools;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({IOTests.class, MediumTests.class})
+public class TestBlockReadAhead {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int NUM_KV = 5000;
+  private static final int DATA_BLOCK_SIZE = 1024;
+  private static final int READ_AHEAD_BLOCKS = 4;
+  private static final int[] INDEX_CHUNK_SIZES = { 65536, 1024, 256 };
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private ParallelWorkerPools pools;
+
+  @Before
+  public void setUp() {
+    pools = new ParallelWorkerPools(TEST_UTIL.getConfiguration());
+  }
+
+  @After
+  public void tearDown() {
+    pools.shutdown();
+  }
+
+  private static KeyValue kv(int i) {
+    return new KeyValue(Bytes.toBytes(String.format("row%08d", i)), FAMILY, QUALIFIER,
+        Bytes.toBytes("value" + i));
+  }
+
+  /**
+   * Counts the blocks asked for without waiting
+   */
+  private static class AsyncCountingBucketCache extends BucketCache {
+    private final LongAdder asyncLookups = new LongAdder();
+
+    AsyncCountingBucketCache(String ioEngineName, Configuration conf) throws IOException {
+      super(ioEngineName, 32 * 1024 * 1024, DATA_BLOCK_SIZE, null, 1, 64, null, 60 * 1000, conf);
+    }
+
+    @Override
+    public CompletableFuture<Cacheable> getBlockAsync(BlockCacheKey cacheKey, boolean caching,
+        boolean repeat, boolean updateCacheMetrics) {
+      asyncLookups.increment();
+      return super.getBlockAsync(cacheKey, caching, repeat, updateCacheMetrics);
+    }
+  }
+
+  private HFile.Reader writeAndOpen(Configuration conf, String name, int indexChunkSize,
+      DataBlockEncoding encoding) throws IOException {
+    return writeAndOpen(conf, new CacheConfig(conf), name, indexChunkSize, encoding);
+  }
+
+  private HFile.Reader writeAndOpen(Configuration conf, CacheConfig cacheConf, String name,
+      int indexChunkSize, DataBlockEncoding encoding) throws IOException {
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, indexChunkSize);
+    FileSystem fs = FileSystem.get(conf);
+    cacheConf.setReadAheadPool(pools.getReadAheadPool());
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFileContext context = new HFileContextBuilder().withBlockSize(DATA_BLOCK_SIZE)
+        .withDataBlockEncoding(encoding).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, cacheConf).withPath(fs, path)
+        .withFileContext(context).create();
+    for (int i = 0; i < NUM_KV; i++) {
+      writer.append(kv(i));
+    }
+    writer.close();
+    return HFile.createReader(fs, path, cacheConf, true, conf);
+  }
+
+  @Test
+  public void testScanWithReadAhead() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(BlockReadAhead.READ_AHEAD_BLOCKS_KEY, READ_AHEAD_BLOCKS);
+    for (int indexChunkSize : INDEX_CHUNK_SIZES) {
+      for (DataBlockEncoding encoding : new DataBlockEncoding[] { DataBlockEncoding.NONE,
+          DataBlockEncoding.FAST_DIFF }) {
+        HFile.Reader reader = writeAndOpen(conf, "testScanWithReadAhead", indexChunkSize,
+          encoding);
+        try {
+          for (boolean pread : new boolean[] { true, false }) {
+            HFileScanner scanner = reader.getScanner(false, pread);
+            assertTrue(scanner.seekTo());
+            int i = 0;
+            do {
+              assertTrue(CellUtil.equals(kv(i++), scanner.getCell()));
+            } while (scanner.next());
+            assertEquals(NUM_KV, i);
+
+            // Seek around, backwards too, and scan on from there
+            for (int start : new int[] { 3000, 100, 4990, 2500 }) {
+              assertEquals(0, scanner.seekTo(kv(start)));
+              for (i = start; i < Math.min(NUM_KV, start + 400); i++) {
+                assertTrue(CellUtil.equals(kv(i), scanner.getCell()));
+                if (!scanner.next()) {
+                  assertEquals(NUM_KV - 1, i);
+                }
+              }
+            }
+            scanner.close();
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testScanWithReadAheadFromBucketCache() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(BlockReadAhead.READ_AHEAD_BLOCKS_KEY, READ_AHEAD_BLOCKS);
+    conf.setInt(AsyncFileIOEngine.IO_THREADS_KEY, 2);
+    Path cacheFile = new Path(TEST_UTIL.getDataTestDir(), "bucket.cache");
+    AsyncCountingBucketCache bucketCache = new AsyncCountingBucketCache(
+        "file:" + cacheFile.toUri().getPath(), conf);
+    try {
+      // Data blocks are cached on write, and read back through the asynchronous IOEngine
+      CacheConfig cacheConf = new CacheConfig(bucketCache, true, false, true, false, false, false,
+          false, false, false);
+      HFile.Reader reader = writeAndOpen(conf, cacheConf, "testScanWithReadAheadFromBucketCache",
+        INDEX_CHUNK_SIZES[0], DataBlockEncoding.FAST_DIFF);
+      try {
+        for (int round = 0; round < 2; round++) {
+          HFileScanner scanner = reader.getScanner(true, true);
+          assertTrue(scanner.seekTo());
+          int i = 0;
+          do {
+            assertTrue(CellUtil.equals(kv(i++), scanner.getCell()));
+          } while (scanner.next());
+          assertEquals(NUM_KV, i);
+          scanner.close();
+        }
+      } finally {
+        reader.close();
+      }
+      assertTrue(bucketCache.asyncLookups.sum() > 0);
+      assertTrue(bucketCache.getStats().getHitCount() > 0);
+    } finally {
+      bucketCache.shutdown();
+    }
+  }
+
+  @Test
+  public void testDataBlocksAfter() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    for (int indexChunkSize : INDEX_CHUNK_SIZES) {
+      HFile.Reader reader = writeAndOpen(conf, "testDataBlocksAfter", indexChunkSize,
+        DataBlockEncoding.NONE);
+      try {
+        HFileBlockIndex.CellBasedKeyBlockIndexReader indexReader =
+            (HFileBlockIndex.CellBasedKeyBlockIndexReader) reader.getDataBlockIndexReader();
+        // Walk the data blocks one by one and compare with what the index says follows them
+        HFileReaderImpl.HFileScannerImpl scanner =
+            (HFileReaderImpl.HFileScannerImpl) reader.getScanner(false, true);
+        assertTrue(scanner.seekTo());
+        HFileBlock block = scanner.curBlock;
+        int blocks = 1;
+        while (true) {
+          Cell firstKey = scanner.getFirstKeyCellInBlock(block);
+          List<BlockLocation> locations =
+              indexReader.getDataBlocksAfter(firstKey, READ_AHEAD_BLOCKS, true, false);
+          HFileBlock next = scanner.readNextDataBlock(block);
+          if (next == null) {
+            assertTrue(locations.isEmpty());
+            break;
+          }
+          assertFalse(locations.isEmpty());
+          assertEquals(next.getOffset(), locations.get(0).getOffset());
+          assertEquals(next.getOnDiskSizeWithHeader(), locations.get(0).getOnDiskSize());
+          for (int i = 1; i < locations.size(); i++) {
+            assertTrue(locations.get(i).getOffset() > locations.get(i - 1).getOffset());
+          }
+          block = next;
+          blocks++;
+        }
+        assertTrue(blocks > READ_AHEAD_BLOCKS * 10);
+        scanner.close();
+      } finally {
+        reader.close();
+      }
+    }
+  }
+}
@@ -24,6 +24,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -606,6 +608,54 @@ public class TestLruBlockCache {
 
   }
 
+  @Test
+  public void testAdmissionPolicy() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 100);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    // Only admits blocks of the hot files
+    cache.setAdmissionPolicy(new BlockCacheAdmissionPolicy() {
+      @Override
+      public void record(BlockCacheKey key) {
+      }
+
+      @Override
+      public void onEviction(BlockCacheKey key) {
+      }
+
+      @Override
+      public boolean admit(BlockCacheKey key) {
+        return key.getHfileName().startsWith("hot");
+      }
+    });
+
+    // Fill the cache, evicting the oldest hot blocks
+    CachedItem [] hotBlocks = generateFixedBlocks(120, blockSize, "hot");
+    for (CachedItem block : hotBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    long evictions = cache.getStats().getEvictionCount();
+    assertTrue(evictions > 0);
+    List<CachedItem> cached = new ArrayList<>();
+    for (CachedItem block : hotBlocks) {
+      if (cache.getBlock(block.cacheKey, true, false, true) != null) {
+        cached.add(block);
+      }
+    }
+
+    // Once full the cache turns the cold blocks away instead of evicting hot ones for them
+    CachedItem [] coldBlocks = generateFixedBlocks(100, blockSize, "cold");
+    for (CachedItem block : coldBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertTrue(cache.getStats().getRejectedCount() > 0);
+    assertEquals(evictions, cache.getStats().getEvictionCount());
+    for (CachedItem block : cached) {
+      assertEquals(block, cache.getBlock(block.cacheKey, true, false, true));
+    }
+    assertTrue(cache.heapSize() < maxSize * LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR);
+  }
+
   @Test
   public void testMaxBlockSize() throws Exception {
     long maxSize = 100000;
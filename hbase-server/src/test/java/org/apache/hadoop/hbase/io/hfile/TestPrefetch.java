@@ -20,7 +20,12 @@ package org.apache.hadoop.hbase.io.hfile;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -30,6 +35,7 @@ import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 
@@ -79,6 +85,115 @@ public class TestPrefetch {
     readStoreFile(storeFile);
   }
 
+  @Test(timeout=60000)
+  public void testPrefetchProgress() throws Exception {
+    Path storeFile = writeStoreFile();
+    // store files live in <region>/<family>/
+    String region = storeFile.getParent().getParent().getName();
+    long before = PrefetchExecutor.getPrefetchedBytes(region);
+    readStoreFile(storeFile);
+    assertEquals(0, PrefetchExecutor.getPendingFileCount(region));
+    assertTrue(PrefetchExecutor.getPrefetchedBytes(region) > before);
+    PrefetchExecutor.clearRegion(region);
+    assertEquals(0, PrefetchExecutor.getPrefetchedBytes(region));
+  }
+
+  private static PrefetchExecutor.PrefetchTask newTask(String region, long fileTime) {
+    return new PrefetchExecutor.PrefetchTask(
+        new Path("/prefetch/" + region + "/f/" + region + fileTime), fileTime, () -> {});
+  }
+
+  @Test
+  public void testPrefetchOrder() throws Exception {
+    Map<String, Long> readRequests = new HashMap<>();
+    readRequests.put("cold", 1L);
+    readRequests.put("hot", 10L);
+    PrefetchExecutor.PrefetchQueue queue =
+        new PrefetchExecutor.PrefetchQueue(readRequests::get, TimeUnit.HOURS.toNanos(1));
+    PrefetchExecutor.PrefetchTask coldNew = newTask("cold", 3);
+    PrefetchExecutor.PrefetchTask hotOld = newTask("hot", 1);
+    PrefetchExecutor.PrefetchTask hotNew = newTask("hot", 2);
+    queue.add(coldNew);
+    queue.add(hotOld);
+    queue.add(hotNew);
+    readRequests.put("cold", 2L);
+    readRequests.put("hot", 20L);
+    queue.rerank();
+    // the hottest region first, newest file first within a region
+    assertEquals(hotNew.getPath(), queue.take().getPath());
+    assertEquals(hotOld.getPath(), queue.take().getPath());
+    assertEquals(coldNew.getPath(), queue.take().getPath());
+    PrefetchExecutor.clearRegion("cold");
+    PrefetchExecutor.clearRegion("hot");
+  }
+
+  @Test
+  public void testPrefetchRerank() throws Exception {
+    Map<String, Long> readRequests = new HashMap<>();
+    readRequests.put("a", 100L);
+    readRequests.put("b", 1L);
+    PrefetchExecutor.PrefetchQueue cached =
+        new PrefetchExecutor.PrefetchQueue(readRequests::get, TimeUnit.HOURS.toNanos(1));
+    PrefetchExecutor.PrefetchQueue reranked =
+        new PrefetchExecutor.PrefetchQueue(readRequests::get, 0);
+    PrefetchExecutor.PrefetchTask a = newTask("a", 2);
+    PrefetchExecutor.PrefetchTask b = newTask("b", 1);
+    cached.add(a);
+    cached.add(b);
+    reranked.add(newTask("a", 2));
+    reranked.add(newTask("b", 1));
+    readRequests.put("a", 101L);
+    readRequests.put("b", 11L);
+    // regions not ranked yet have no read requests until the rerank interval is over, the newest
+    // file goes first
+    assertEquals(a.getPath(), cached.take().getPath());
+    // ranked by the read requests since they were queued, not by the counts since they opened
+    assertEquals(b.getPath(), reranked.take().getPath());
+    // and a region whose reads stopped cools down at the next ranking
+    reranked.add(newTask("b", 3));
+    readRequests.put("a", 111L);
+    assertEquals(a.getPath(), reranked.take().getPath());
+    PrefetchExecutor.clearRegion("a");
+    PrefetchExecutor.clearRegion("b");
+  }
+
+  @Test
+  public void testPrefetchThrottle() {
+    long now = System.nanoTime();
+    PrefetchExecutor.Throttle throttle = new PrefetchExecutor.Throttle(1000);
+    assertEquals(TimeUnit.SECONDS.toNanos(1), throttle.reserve(1000, now));
+    // reads queue up behind each other
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), throttle.reserve(500, now));
+    // no credit for idle time
+    long later = now + TimeUnit.SECONDS.toNanos(10);
+    assertEquals(TimeUnit.SECONDS.toNanos(1), throttle.reserve(1000, later));
+    assertEquals(0, new PrefetchExecutor.Throttle(0).reserve(1000, now));
+  }
+
+  @Test
+  public void testOnlyClientReadsAreForeground() {
+    // not in a client request, like compactions and flushes
+    assertFalse(PrefetchExecutor.beginRead());
+  }
+
+  @Test
+  public void testForegroundPoolReads() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor(
+      PrefetchExecutor.newForegroundThreadFactory(Threads.newDaemonThreadFactory("foreground")));
+    try {
+      // like the read ahead of a scanner, on behalf of a client out of an RPC handler
+      assertTrue(pool.submit(() -> {
+        boolean foreground = PrefetchExecutor.beginRead();
+        if (foreground) {
+          PrefetchExecutor.endRead();
+        }
+        return foreground;
+      }).get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   private void readStoreFile(Path storeFilePath) throws Exception {
     // Open the file
     HFile.Reader reader = HFile.createReader(fs, storeFilePath, cacheConf, true, conf);
@@ -0,0 +1,104 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the frequency sketch and admission decisions of {@link TinyLfuAdmissionPolicy}.
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestTinyLfuAdmissionPolicy {
+
+  private static void record(TinyLfuAdmissionPolicy policy, BlockCacheKey key, int times) {
+    for (int i = 0; i < times; i++) {
+      policy.record(key);
+    }
+  }
+
+  @Test
+  public void testFrequency() {
+    TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1024, 10);
+    BlockCacheKey key = new BlockCacheKey("file", 65536);
+    record(policy, key, 5);
+    assertEquals(5, policy.frequency(key));
+    assertEquals(0, policy.frequency(new BlockCacheKey("file", 0)));
+    // Counters saturate instead of wrapping around
+    record(policy, key, 20);
+    assertEquals(15, policy.frequency(key));
+  }
+
+  @Test
+  public void testAging() {
+    // Counters are halved after 64 recorded requests
+    TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(64, 1);
+    BlockCacheKey hot = new BlockCacheKey("hot", 0);
+    record(policy, hot, 8);
+    for (int i = 0; i < 55; i++) {
+      policy.record(new BlockCacheKey("other", i * 1024L));
+    }
+    assertTrue(policy.frequency(hot) >= 8);
+    policy.record(new BlockCacheKey("other", 55 * 1024L));
+    int frequency = policy.frequency(hot);
+    assertTrue("frequency=" + frequency, frequency >= 4 && frequency < 8);
+  }
+
+  @Test
+  public void testAdmission() {
+    TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1024, 10);
+    BlockCacheKey candidate = new BlockCacheKey("candidate", 0);
+    policy.record(candidate);
+    // Nothing was evicted yet, so anything requested before beats the victim
+    assertTrue(policy.admit(candidate));
+
+    // The cache keeps evicting blocks that were requested once
+    for (int i = 0; i < 50; i++) {
+      BlockCacheKey victim = new BlockCacheKey("victim", i * 1024L);
+      policy.record(victim);
+      policy.onEviction(victim);
+    }
+    assertEquals(1.0, policy.getVictimFrequency(), 0.2);
+    // A block from a scan does not displace them, a block read again does
+    assertFalse(policy.admit(candidate));
+    policy.record(candidate);
+    assertTrue(policy.admit(candidate));
+    assertFalse(policy.admit(new BlockCacheKey("unknown", 0)));
+  }
+
+  @Test
+  public void testCreate() {
+    Configuration conf = HBaseConfiguration.create();
+    assertNull(BlockCacheAdmissionPolicy.create(conf, 1000));
+    conf.set(BlockCacheAdmissionPolicy.ADMISSION_POLICY_KEY, "tinylfu");
+    assertTrue(BlockCacheAdmissionPolicy.create(conf, 1000) instanceof TinyLfuAdmissionPolicy);
+    conf.set(BlockCacheAdmissionPolicy.ADMISSION_POLICY_KEY,
+        TinyLfuAdmissionPolicy.class.getName());
+    assertTrue(BlockCacheAdmissionPolicy.create(conf, 1000) instanceof TinyLfuAdmissionPolicy);
+  }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.bucket.TestByteBufferIOEngine.BufferGrabbingDeserializer;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link AsyncFileIOEngine}
+ */
+@Category({IOTests.class, SmallTests.class})
+public class TestAsyncFileIOEngine {
+
+  private static final long TOTAL_CAPACITY = 6 * 1024 * 1024; // 6 MB
+  private static final String[] FILE_PATHS = {"testAsyncFileIOEngine1", "testAsyncFileIOEngine2"};
+  private static final int BLOCK_SIZE = 4096;
+
+  private AsyncFileIOEngine engine;
+
+  @Before
+  public void setUp() throws IOException {
+    engine = new AsyncFileIOEngine(TOTAL_CAPACITY, false, 2, 64 * 1024, 1024, FILE_PATHS);
+  }
+
+  @After
+  public void cleanUp() {
+    engine.shutdown();
+    for (String filePath : FILE_PATHS) {
+      File file = new File(filePath);
+      if (file.exists()) {
+        file.delete();
+      }
+    }
+  }
+
+  private static byte[] randomBytes(Random rand, int len) {
+    byte[] data = new byte[len];
+    rand.nextBytes(data);
+    return data;
+  }
+
+  private static byte[] readAsync(CompletableFuture<Cacheable> future,
+      BufferGrabbingDeserializer deserializer) throws Exception {
+    future.get();
+    return deserializer.getDeserializedByteBuff().array();
+  }
+
+  @Test
+  public void testWritesAreMergedAndReadBack() throws Exception {
+    Random rand = new Random(1);
+    int blocks = 48;
+    byte[][] data = new byte[blocks][];
+    for (int i = 0; i < blocks; i++) {
+      data[i] = randomBytes(rand, BLOCK_SIZE);
+    }
+    // Write out of order, the engine sorts before writing
+    for (int i = blocks - 1; i >= 0; i--) {
+      engine.write(ByteBuffer.wrap(data[i]), (long) i * BLOCK_SIZE);
+    }
+    assertEquals(0, engine.getPhysicalWrites());
+    engine.sync();
+    // 192KB of contiguous data in writes of at most 64KB
+    assertEquals(3, engine.getPhysicalWrites());
+
+    List<CompletableFuture<Cacheable>> futures = new ArrayList<>();
+    List<BufferGrabbingDeserializer> deserializers = new ArrayList<>();
+    for (int i = 0; i < blocks; i++) {
+      BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+      deserializers.add(deserializer);
+      futures.add(engine.readAsync((long) i * BLOCK_SIZE, BLOCK_SIZE, deserializer));
+    }
+    for (int i = 0; i < blocks; i++) {
+      assertArrayEquals(data[i], readAsync(futures.get(i), deserializers.get(i)));
+    }
+  }
+
+  @Test
+  public void testReadSeesStagedWrite() throws Exception {
+    Random rand = new Random(2);
+    byte[] data = randomBytes(rand, 100);
+    long offset = 2 * 1024 * 1024 + 7;
+    engine.write(ByteBuffer.wrap(data), offset);
+    BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+    engine.read(offset, data.length, deserializer);
+    assertArrayEquals(data, deserializer.getDeserializedByteBuff().array());
+
+    byte[] data2 = randomBytes(rand, 100);
+    engine.write(ByteBuffer.wrap(data2), offset);
+    deserializer = new BufferGrabbingDeserializer();
+    assertArrayEquals(data2,
+      readAsync(engine.readAsync(offset, data2.length, deserializer), deserializer));
+  }
+
+  @Test
+  public void testRandomReadsAcrossFiles() throws Exception {
+    Random rand = new Random(3);
+    List<long[]> ranges = new ArrayList<>();
+    List<byte[]> contents = new ArrayList<>();
+    long sizePerFile = TOTAL_CAPACITY / FILE_PATHS.length;
+    for (int i = 0; i < 200; i++) {
+      int len = rand.nextInt(BLOCK_SIZE) + 1;
+      // Non overlapping slots, some of them straddling the file boundary
+      long offset = i % 10 == 0 ? sizePerFile - len / 2 - (i / 10) * 2 * BLOCK_SIZE
+          : (long) i * 2 * BLOCK_SIZE + BLOCK_SIZE;
+      byte[] data = randomBytes(rand, len);
+      engine.write(ByteBuffer.wrap(data), offset);
+      ranges.add(new long[] { offset, len });
+      contents.add(data);
+    }
+    engine.sync();
+    List<CompletableFuture<Cacheable>> futures = new ArrayList<>();
+    List<BufferGrabbingDeserializer> deserializers = new ArrayList<>();
+    for (long[] range : ranges) {
+      BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+      deserializers.add(deserializer);
+      futures.add(engine.readAsync(range[0], (int) range[1], deserializer));
+    }
+    for (int i = 0; i < ranges.size(); i++) {
+      assertArrayEquals(contents.get(i), readAsync(futures.get(i), deserializers.get(i)));
+    }
+  }
+
+  /**
+   * Blocks the first write out until released, and fails the writes at a given offset.
+   */
+  private static class ControlledEngine extends AsyncFileIOEngine {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile long failingOffset = -1;
+
+    ControlledEngine() throws IOException {
+      super(TOTAL_CAPACITY, false, 2, 64 * 1024, 1024, FILE_PATHS);
+    }
+
+    @Override
+    void writeFully(ByteBuffer buffer, long offset) throws IOException {
+      if (writing.getCount() > 0) {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (offset == failingOffset) {
+        throw new IOException("Injected failure at " + offset);
+      }
+      super.writeFully(buffer, offset);
+    }
+  }
+
+  @Test
+  public void testSyncWaitsForWritesFlushedByOtherThread() throws Exception {
+    engine.shutdown();
+    ControlledEngine controlled = new ControlledEngine();
+    engine = controlled;
+    Random rand = new Random(4);
+    byte[] data = randomBytes(rand, BLOCK_SIZE);
+    // A sync only covers the writes of its own thread
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      // The writer stages its write, then another thread takes it to write it out
+      writer.submit(() -> {
+        controlled.write(ByteBuffer.wrap(data), 0);
+        return null;
+      }).get();
+      Future<?> flusher = pool.submit(() -> controlled.flushPendingWrites());
+      assertTrue(controlled.writing.await(10, TimeUnit.SECONDS));
+      // The writer syncs while its write is still being written out by the other thread
+      Future<?> sync = writer.submit(() -> {
+        controlled.sync();
+        return null;
+      });
+      try {
+        sync.get(200, TimeUnit.MILLISECONDS);
+        fail("Sync returned before the write was written out");
+      } catch (TimeoutException e) {
+        // expected
+      }
+      // Nor can a read of the range get ahead of the write
+      BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+      Future<?> read = pool.submit(() -> {
+        controlled.read(0, BLOCK_SIZE, deserializer);
+        return null;
+      });
+      controlled.release.countDown();
+      flusher.get();
+      sync.get();
+      read.get();
+      assertArrayEquals(data, deserializer.getDeserializedByteBuff().array());
+    } finally {
+      controlled.release.countDown();
+      writer.shutdownNow();
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailedWritesAreDropped() throws Exception {
+    engine.shutdown();
+    ControlledEngine controlled = new ControlledEngine();
+    controlled.release.countDown();
+    controlled.writing.countDown();
+    engine = controlled;
+    Random rand = new Random(5);
+    byte[] failing = randomBytes(rand, BLOCK_SIZE);
+    byte[] other = randomBytes(rand, BLOCK_SIZE);
+    long failingOffset = 10 * BLOCK_SIZE;
+    controlled.failingOffset = failingOffset;
+    controlled.write(ByteBuffer.wrap(failing), failingOffset);
+    controlled.write(ByteBuffer.wrap(other), 0);
+    try {
+      controlled.sync();
+      fail("Sync of a failed write succeeded");
+    } catch (IOException e) {
+      // expected
+    }
+    long physicalWrites = controlled.getPhysicalWrites();
+
+    // The space of the failed write is reused, and the failed write is not retried over it
+    controlled.failingOffset = -1;
+    byte[] reused = randomBytes(rand, 2 * BLOCK_SIZE);
+    controlled.write(ByteBuffer.wrap(reused), failingOffset - BLOCK_SIZE);
+    controlled.sync();
+    assertEquals(physicalWrites + 1, controlled.getPhysicalWrites());
+    BufferGrabbingDeserializer deserializer = new BufferGrabbingDeserializer();
+    controlled.read(failingOffset - BLOCK_SIZE, reused.length, deserializer);
+    assertArrayEquals(reused, deserializer.getDeserializedByteBuff().array());
+  }
+
+  @Test
+  public void testReadAfterShutdownFails() throws Exception {
+    engine.shutdown();
+    try {
+      engine.readAsync(0, 10, new BufferGrabbingDeserializer()).get();
+      fail("Read from a shut down engine");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+}
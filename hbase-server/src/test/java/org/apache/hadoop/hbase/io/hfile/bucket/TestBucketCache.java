@@ -20,12 +20,15 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -274,6 +277,42 @@ public class TestBucketCache {
     TEST_UTIL.cleanupTestDir();
   }
 
+  @Test
+  public void testValidateRecoveredBlocks() throws Exception {
+    HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+    Path testDir = TEST_UTIL.getDataTestDir();
+    TEST_UTIL.getTestFileSystem().mkdirs(testDir);
+
+    BucketCache bucketCache = new BucketCache("file:" + testDir + "/bucket.cache", capacitySize,
+        constructedBlockSize, constructedBlockSizes, writeThreads, writerQLen, testDir
+            + "/bucket.persistence");
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(constructedBlockSize, 2);
+    for (HFileBlockPair block : blocks) {
+      cacheAndWaitUntilFlushedToBucket(bucketCache, block.getBlockName(), block.getBlock());
+    }
+    bucketCache.shutdown();
+
+    bucketCache = new BucketCache("file:" + testDir + "/bucket.cache", capacitySize,
+        constructedBlockSize, constructedBlockSizes, writeThreads, writerQLen, testDir
+            + "/bucket.persistence");
+    assertEquals(2, bucketCache.getBlockCount());
+    assertTrue(bucketCache.needsRecoveredBlocksValidation());
+    // Only the first hfile is still a store file of the hosted regions, the second is not read
+    // before the validation but must be dropped all the same
+    bucketCache.validateRecoveredBlocks(
+      Collections.singleton(blocks[0].getBlockName().getHfileName()));
+    assertFalse(bucketCache.needsRecoveredBlocksValidation());
+    assertEquals(1, bucketCache.getBlockCount());
+    assertNotNull(bucketCache.getBlock(blocks[0].getBlockName(), false, false, false));
+    assertNull(bucketCache.getBlock(blocks[1].getBlockName(), false, false, false));
+    // The validation only runs once
+    bucketCache.validateRecoveredBlocks(Collections.emptySet());
+    assertEquals(1, bucketCache.getBlockCount());
+    bucketCache.shutdown();
+
+    TEST_UTIL.cleanupTestDir();
+  }
+
   @Test
   public void testBucketAllocatorLargeBuckets() throws BucketAllocatorException {
     long availableSpace = 20 * 1024L * 1024 * 1024;
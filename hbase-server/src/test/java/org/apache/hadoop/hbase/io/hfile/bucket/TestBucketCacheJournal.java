@@ -0,0 +1,233 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests recovery of the {@link BucketCache} backing map from snapshots and journals.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestBucketCacheJournal {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long CAPACITY = 64 * 1024 * 1024;
+  private static final String ENGINE = FileIOEngine.class.getName();
+  private static final int DESERIALISER_ID = 42;
+
+  private File dir;
+  private String path;
+  private final List<Long> freed = new ArrayList<>();
+  private ConcurrentHashMap<BlockCacheKey, BucketEntry> map;
+  private UniqueIndexMap<Integer> deserialiserMap;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = new File(TEST_UTIL.getDataTestDir("journal-" + System.nanoTime()).toString());
+    assertTrue(dir.mkdirs());
+    path = new File(dir, "bucket.persistence").getPath();
+    map = new ConcurrentHashMap<>();
+    deserialiserMap = new UniqueIndexMap<>();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private BucketCacheJournal newJournal() {
+    return new BucketCacheJournal(path, false, freed::add);
+  }
+
+  private BucketCacheJournal openJournal() throws IOException {
+    BucketCacheJournal journal = newJournal();
+    assertNull(journal.recover(CAPACITY, ENGINE));
+    journal.open(map, deserialiserMap, CAPACITY, ENGINE);
+    return journal;
+  }
+
+  private BucketEntry newEntry(long bucketOffset) {
+    BucketEntry entry = new BucketEntry(bucketOffset, 4096, 1, BlockPriority.SINGLE,
+        System.nanoTime());
+    entry.deserialiserIndex = (byte) deserialiserMap.map(DESERIALISER_ID);
+    return entry;
+  }
+
+  private void add(BucketCacheJournal journal, BlockCacheKey key, BucketEntry entry)
+      throws IOException {
+    map.put(key, entry);
+    journal.logAdd(key, entry, DESERIALISER_ID);
+  }
+
+  private void remove(BucketCacheJournal journal, BlockCacheKey key) throws IOException {
+    journal.logRemove(key, map.remove(key));
+  }
+
+  private ConcurrentHashMap<BlockCacheKey, BucketEntry> recover() throws IOException {
+    BucketCacheJournal.RecoveredState state = newJournal().recover(CAPACITY, ENGINE);
+    for (BucketEntry entry : state.backingMap.values()) {
+      assertEquals(DESERIALISER_ID, (int) state.deserialiserMap.unmap(entry.deserialiserIndex));
+    }
+    return state.backingMap;
+  }
+
+  @Test
+  public void testRecoverFromJournal() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    BlockCacheKey k1 = new BlockCacheKey("f1", 0, true, BlockType.DATA);
+    BlockCacheKey k2 = new BlockCacheKey("f2", 100, false, BlockType.LEAF_INDEX);
+    add(journal, k1, newEntry(0));
+    add(journal, k2, newEntry(8192));
+    remove(journal, k1);
+    // The space of a removed block is only released once its removal is on disk
+    assertTrue(freed.isEmpty());
+    journal.flush();
+    assertEquals(1, freed.size());
+    assertEquals(0L, (long) freed.get(0));
+
+    // Recover without closing, as after a crash
+    ConcurrentHashMap<BlockCacheKey, BucketEntry> recovered = recover();
+    assertEquals(map, recovered);
+    BlockCacheKey recoveredKey = recovered.keySet().iterator().next();
+    assertFalse(recoveredKey.isPrimary());
+    assertEquals(BlockType.LEAF_INDEX, recoveredKey.getBlockType());
+  }
+
+  @Test
+  public void testDiscardReleasesSpace() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    BlockCacheKey k1 = new BlockCacheKey("f1", 0);
+    add(journal, k1, newEntry(0));
+    remove(journal, k1);
+    // As after a failed flush, the space is only released once nothing can be recovered
+    journal.discard();
+    assertEquals(1, freed.size());
+    assertFalse(new File(path).exists());
+    assertNull(newJournal().recover(CAPACITY, ENGINE));
+  }
+
+  @Test
+  public void testCheckpointRetiresJournals() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    long generation = journal.getGeneration();
+    for (int i = 0; i < 100; i++) {
+      add(journal, new BlockCacheKey("f", i), newEntry(i * 8192L));
+    }
+    journal.checkpoint(map, deserialiserMap, CAPACITY, ENGINE, true);
+    assertEquals(generation + 1, journal.getGeneration());
+    assertFalse(new File(path + BucketCacheJournal.JOURNAL_SUFFIX + generation).exists());
+    for (int i = 0; i < 50; i++) {
+      remove(journal, new BlockCacheKey("f", i));
+    }
+    add(journal, new BlockCacheKey("g", 0), newEntry(100 * 8192L));
+    journal.flush();
+    assertEquals(map, recover());
+  }
+
+  @Test
+  public void testCleanShutdown() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    add(journal, new BlockCacheKey("f", 0), newEntry(0));
+    journal.checkpoint(map, deserialiserMap, CAPACITY, ENGINE, false);
+    journal.close();
+    // Only the snapshot is left
+    assertEquals(1, dir.listFiles().length);
+
+    BucketCacheJournal reopened = newJournal();
+    BucketCacheJournal.RecoveredState state = reopened.recover(CAPACITY, ENGINE);
+    assertEquals(map, state.backingMap);
+    assertEquals(0, state.replayedRecords);
+    // Journaling resumes at a generation the snapshot does not exclude
+    reopened.open(state.backingMap, state.deserialiserMap, CAPACITY, ENGINE);
+    add(reopened, new BlockCacheKey("f", 1), newEntry(8192));
+    reopened.flush();
+    assertEquals(map, recover());
+  }
+
+  @Test
+  public void testTornTail() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    add(journal, new BlockCacheKey("f", 0), newEntry(0));
+    journal.flush();
+    try (FileOutputStream out =
+        new FileOutputStream(path + BucketCacheJournal.JOURNAL_SUFFIX + journal.getGeneration(),
+            true)) {
+      out.write(new byte[] { 0, 0, 0, 60, 1, 2, 3 });
+    }
+    assertEquals(map, recover());
+  }
+
+  @Test
+  public void testReorderedRecords() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    BlockCacheKey key = new BlockCacheKey("f", 0);
+    BucketEntry entry = newEntry(0);
+    // A removal can reach the journal before the addition it undoes
+    journal.logRemove(key, entry);
+    journal.logAdd(key, entry, DESERIALISER_ID);
+    // A removal of an older entry must not remove a newer one
+    BlockCacheKey other = new BlockCacheKey("f", 1);
+    BucketEntry older = newEntry(8192);
+    add(journal, other, newEntry(16384));
+    journal.logRemove(other, older);
+    journal.flush();
+    assertEquals(map, recover());
+  }
+
+  @Test
+  public void testMismatchedCapacity() throws IOException {
+    BucketCacheJournal journal = openJournal();
+    add(journal, new BlockCacheKey("f", 0), newEntry(0));
+    journal.checkpoint(map, deserialiserMap, CAPACITY, ENGINE, false);
+    try {
+      newJournal().recover(CAPACITY * 2, ENGINE);
+      fail("Recovered a snapshot of a cache with a different capacity");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
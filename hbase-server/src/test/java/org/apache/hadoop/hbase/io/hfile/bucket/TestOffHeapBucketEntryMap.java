@@ -0,0 +1,157 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests {@link OffHeapBucketEntryMap} against a heap map.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestOffHeapBucketEntryMap {
+
+  private static BucketEntry newEntry(long cacheOffset, int length) {
+    return new BucketEntry(cacheOffset << 8, length, cacheOffset, BlockPriority.SINGLE,
+        cacheOffset * 7);
+  }
+
+  private static void assertSameAllocation(BucketEntry expected, BucketEntry actual) {
+    assertEquals(expected.offset(), actual.offset());
+    assertEquals(expected.getLength(), actual.getLength());
+    assertEquals(expected.getAccessCounter(), actual.getAccessCounter());
+    assertEquals(expected.getPriority(), actual.getPriority());
+    assertEquals(expected.getCachedTime(), actual.getCachedTime());
+  }
+
+  @Test
+  public void testBasicOperations() {
+    OffHeapBucketEntryMap map = new OffHeapBucketEntryMap(100);
+    BlockCacheKey key = new BlockCacheKey("file", 1024, false, BlockType.INDEX);
+    BucketEntry entry = newEntry(1, 4096);
+    entry.deserialiserIndex = 3;
+
+    assertNull(map.get(key));
+    assertNull(map.put(key, entry));
+    assertEquals(1, map.size());
+    BucketEntry view = map.get(key);
+    assertSameAllocation(entry, view);
+    assertEquals(3, view.deserialiserIndex);
+    assertEquals(entry, view);
+
+    // Key fields other than name and offset survive the round trip
+    Map.Entry<BlockCacheKey, BucketEntry> e = map.entrySet().iterator().next();
+    assertEquals(key, e.getKey());
+    assertFalse(e.getKey().isPrimary());
+    assertEquals(BlockType.INDEX, e.getKey().getBlockType());
+
+    BucketEntry other = newEntry(2, 4096);
+    assertFalse(map.remove(key, other));
+    assertEquals(entry, map.putIfAbsent(key, other));
+    assertTrue(map.replace(key, entry, other));
+    assertEquals(other, map.get(key));
+    assertTrue(map.remove(key, other));
+    assertTrue(map.isEmpty());
+    assertNull(map.get(key));
+  }
+
+  @Test
+  public void testViewWritesThrough() {
+    OffHeapBucketEntryMap map = new OffHeapBucketEntryMap(100);
+    BlockCacheKey key = new BlockCacheKey("file", 0);
+    map.put(key, newEntry(1, 100));
+
+    BucketEntry view = map.get(key);
+    assertEquals(1, view.incrementRefCount());
+    assertEquals(2, map.get(key).incrementRefCount());
+    assertEquals(1, view.decrementRefCount());
+    assertFalse(map.get(key).isMarkedForEvict());
+    view.markForEvict();
+    assertTrue(map.get(key).isMarkedForEvict());
+
+    view.access(42);
+    assertEquals(42, map.get(key).getAccessCounter());
+    assertEquals(BlockPriority.MULTI, map.get(key).getPriority());
+
+    // Once the key maps to another allocation the old view no longer sees it
+    map.put(key, newEntry(2, 100));
+    assertEquals(0, view.getRefCount());
+    assertFalse(view.isMarkedForEvict());
+    assertEquals(0, view.incrementRefCount());
+    assertEquals(0, map.get(key).getRefCount());
+  }
+
+  @Test
+  public void testRandomOperationsMatchHeapMap() {
+    // Few small segments so that the tables resize and probe chains get long
+    OffHeapBucketEntryMap map = new OffHeapBucketEntryMap(16, 4);
+    Map<BlockCacheKey, BucketEntry> expected = new HashMap<>();
+    Random rand = new Random(12345);
+    for (int i = 0; i < 100000; i++) {
+      BlockCacheKey key = new BlockCacheKey("file" + rand.nextInt(20), rand.nextInt(500) * 64L);
+      if (rand.nextInt(3) == 0) {
+        BucketEntry removed = map.remove(key);
+        BucketEntry removedExpected = expected.remove(key);
+        assertEquals(removedExpected, removed);
+      } else {
+        BucketEntry entry = newEntry(i, rand.nextInt(65536) + 1);
+        assertEquals(expected.put(key, entry), map.put(key, entry));
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<BlockCacheKey, BucketEntry> e : expected.entrySet()) {
+      assertSameAllocation(e.getValue(), map.get(e.getKey()));
+    }
+    int seen = 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> e : map.entrySet()) {
+      assertSameAllocation(expected.get(e.getKey()), e.getValue());
+      seen++;
+    }
+    assertEquals(expected.size(), seen);
+
+    ConcurrentHashMap<BlockCacheKey, BucketEntry> copy = map.toHeapMap();
+    assertEquals(expected, copy);
+
+    Iterator<BlockCacheKey> it = map.keySet().iterator();
+    while (it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+    assertTrue(map.isEmpty());
+    for (BlockCacheKey key : expected.keySet()) {
+      assertNull(map.get(key));
+    }
+  }
+}
@@ -55,6 +55,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.HeapMemoryManager;
 import org.apache.hadoop.hbase.regionserver.Leases;
 import org.apache.hadoop.hbase.regionserver.MetricsRegionServer;
+import org.apache.hadoop.hbase.regionserver.ParallelWorkerPools;
 import org.apache.hadoop.hbase.regionserver.Region;
 import org.apache.hadoop.hbase.regionserver.RegionServerAccounting;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
@@ -609,6 +610,11 @@ ClientProtos.ClientService.BlockingInterface, RegionServerServices {
     return 0;
   }
 
+  @Override
+  public ParallelWorkerPools getParallelWorkerPools() {
+    return null;
+  }
+
   @Override
   public ClusterConnection getClusterConnection() {
     return null;
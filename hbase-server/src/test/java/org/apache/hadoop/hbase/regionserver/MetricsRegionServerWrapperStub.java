@@ -200,6 +200,16 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 0;
   }
 
+  @Override
+  public long getCompactionQueuedSize() {
+    return 0;
+  }
+
+  @Override
+  public String getQueuedCompactions() {
+    return "";
+  }
+
   @Override
   public int getFlushQueueSize() {
     return 412;
@@ -270,6 +280,16 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 36;
   }
 
+  @Override
+  public long getBlockCacheAdmittedCount() {
+    return 37;
+  }
+
+  @Override
+  public long getBlockCacheRejectedCount() {
+    return 38;
+  }
+
   @Override
   public long getL1CacheHitCount() {
     return 200;
@@ -100,6 +100,21 @@ public class MetricsRegionWrapperStub implements MetricsRegionWrapper {
     return 2;
   }
 
+  @Override
+  public double getMaxStoreWriteAmplification() {
+    return 3;
+  }
+
+  @Override
+  public double getMaxStoreSpaceAmplification() {
+    return 1.5;
+  }
+
+  @Override
+  public double getMaxStoreTombstoneRatio() {
+    return 0.25;
+  }
+
   @Override
   public long getWriteRequestCount() {
     return 106;
@@ -162,4 +177,14 @@ public class MetricsRegionWrapperStub implements MetricsRegionWrapper {
   public long getMaxFlushQueueSize() {
     return 6;
   }
+
+  @Override
+  public long getPrefetchPendingFileCount() {
+    return 0;
+  }
+
+  @Override
+  public long getPrefetchedBytes() {
+    return 0;
+  }
 }
@@ -46,6 +46,7 @@ public class MockHStoreFile extends HStoreFile {
   byte[] splitPoint = null;
   TimeRangeTracker timeRangeTracker;
   long entryCount;
+  long tombstoneCount;
   boolean isMajor;
   HDFSBlocksDistribution hdfsBlocksDistribution;
   long modificationTime;
@@ -165,6 +166,7 @@ public class MockHStoreFile extends HStoreFile {
     final long len = this.length;
     final TimeRangeTracker timeRangeTracker = this.timeRangeTracker;
     final long entries = this.entryCount;
+    final long tombstones = this.tombstoneCount;
     return new StoreFileReader() {
       @Override
       public long length() {
@@ -181,6 +183,11 @@ public class MockHStoreFile extends HStoreFile {
         return entries;
       }
 
+      @Override
+      public long getTombstoneCnt() {
+        return tombstones;
+      }
+
       @Override
       public void close(boolean evictOnClose) throws IOException {
         // no-op
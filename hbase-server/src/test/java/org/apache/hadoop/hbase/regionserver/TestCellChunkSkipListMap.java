@@ -0,0 +1,312 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ArrayBackedTag;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.Tag;
+import org.apache.hadoop.hbase.io.util.MemorySizeUtil;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestCellChunkSkipListMap {
+
+  private static final Configuration CONF = new Configuration();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private MemStoreLAB mslab;
+  private CellChunkSkipListMap map;
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    long globalMemStoreLimit = (long) (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+        .getMax() * MemorySizeUtil.getGlobalMemStoreHeapPercent(CONF, false));
+    ChunkCreator.initialize(MemStoreLABImpl.CHUNK_SIZE_DEFAULT, false, globalMemStoreLimit, 0.2f,
+      MemStoreLAB.POOL_INITIAL_SIZE_DEFAULT, null);
+  }
+
+  @Before
+  public void setUp() {
+    mslab = new MemStoreLABImpl(CONF);
+    map = new CellChunkSkipListMap(CellComparator.getInstance());
+  }
+
+  @After
+  public void tearDown() {
+    mslab.close();
+  }
+
+  private Cell cell(int row, long ts) {
+    Cell cell = new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts, Bytes.toBytes(ts));
+    return mslab.copyCellInto(cell);
+  }
+
+  private void put(Cell cell) {
+    map.put(cell, cell);
+  }
+
+  private static int rowOf(Cell cell) {
+    return Bytes.toInt(CellUtil.cloneRow(cell));
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    for (int i = 99; i >= 0; i--) {
+      put(cell(i, 1));
+    }
+    assertEquals(100, map.size());
+    Cell cell = map.get(cell(42, 1));
+    assertTrue(CellUtil.equals(cell(42, 1), cell));
+    assertNull(map.get(cell(100, 1)));
+
+    // Replacing a cell keeps the size and returns the old one
+    Cell newer = cell(42, 1);
+    assertTrue(CellUtil.equals(cell, map.put(newer, newer)));
+    assertEquals(100, map.size());
+
+    assertTrue(CellUtil.equals(cell, map.remove(cell(42, 1))));
+    assertNull(map.get(cell(42, 1)));
+    assertNull(map.remove(cell(42, 1)));
+    assertEquals(99, map.size());
+    // A removed key comes back on put
+    assertNull(map.put(cell(42, 1), cell(42, 1)));
+    assertEquals(100, map.size());
+
+    int expected = 0;
+    for (Cell c : map.values()) {
+      assertEquals(expected++, rowOf(c));
+    }
+    assertEquals(100, expected);
+  }
+
+  @Test
+  public void testSequenceIdAndTags() {
+    KeyValue kv = new KeyValue(Bytes.toBytes(1), FAMILY, QUALIFIER, 1, KeyValue.Type.Put,
+        Bytes.toBytes("v"), new Tag[] { new ArrayBackedTag((byte) 1, Bytes.toBytes("tag")) });
+    kv.setSequenceId(17);
+    Cell withTags = mslab.copyCellInto(kv);
+    put(withTags);
+    Cell noTags = cell(2, 1);
+    put(noTags);
+    Cell found = map.get(withTags);
+    assertEquals(17, found.getSequenceId());
+    assertEquals(withTags.getTagsLength(), found.getTagsLength());
+    assertTrue(CellUtil.equals(withTags, found));
+    assertEquals(0, map.get(noTags).getTagsLength());
+  }
+
+  @Test
+  public void testCellsNotInChunk() {
+    // Cells that are not in the MSLAB, like the ones of upsert, are returned as they are
+    Cell onHeap = new KeyValue(Bytes.toBytes(5), FAMILY, QUALIFIER, 1, Bytes.toBytes("v"));
+    put(onHeap);
+    put(cell(4, 1));
+    put(cell(6, 1));
+    assertSame(onHeap, map.get(onHeap));
+    CellSet set = new CellSet(map, CellSet.UNKNOWN_NUM_UNIQUES);
+    Iterator<Cell> it = set.tailSet(onHeap).iterator();
+    assertSame(onHeap, it.next());
+    it.remove();
+    assertEquals(6, rowOf(it.next()));
+    assertEquals(2, set.size());
+    assertFalse(set.contains(onHeap));
+  }
+
+  @Test
+  public void testNavigation() {
+    for (int i = 0; i < 20; i += 2) {
+      put(cell(i, 1));
+    }
+    assertEquals(0, rowOf(map.firstKey()));
+    assertEquals(18, rowOf(map.lastKey()));
+    assertEquals(6, rowOf(map.ceilingKey(cell(5, 1))));
+    assertEquals(6, rowOf(map.ceilingKey(cell(6, 1))));
+    assertEquals(8, rowOf(map.higherKey(cell(6, 1))));
+    assertEquals(4, rowOf(map.floorKey(cell(5, 1))));
+    assertEquals(4, rowOf(map.lowerKey(cell(6, 1))));
+    assertNull(map.lowerKey(cell(0, 1)));
+    assertNull(map.higherKey(cell(18, 1)));
+
+    NavigableMap<Cell, Cell> sub = map.subMap(cell(3, 1), true, cell(12, 1), true);
+    assertEquals(5, sub.size());
+    assertEquals(4, rowOf(sub.firstKey()));
+    assertEquals(12, rowOf(sub.lastKey()));
+    assertNull(sub.get(cell(2, 1)));
+    assertEquals(4, sub.headMap(cell(12, 1), false).size());
+    // Bounds of a view only get tighter
+    assertEquals(5, sub.tailMap(cell(0, 1), true).size());
+
+    NavigableMap<Cell, Cell> desc = sub.descendingMap();
+    List<Integer> rows = new ArrayList<>();
+    for (Cell c : desc.values()) {
+      rows.add(rowOf(c));
+    }
+    assertEquals(5, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(12 - 2 * i, (int) rows.get(i));
+    }
+    assertEquals(12, rowOf(desc.firstKey()));
+    // headMap of a descending view holds the higher keys
+    assertEquals(2, desc.headMap(cell(8, 1), false).size());
+    assertEquals(8, rowOf(desc.ceilingKey(cell(9, 1))));
+
+    map.remove(cell(12, 1));
+    assertEquals(10, rowOf(desc.firstKey()));
+    assertEquals(4, sub.size());
+  }
+
+  @Test
+  public void testVersionsOrder() {
+    // Versions of a row are sorted newest first
+    for (long ts = 1; ts <= 10; ts++) {
+      put(cell(1, ts));
+    }
+    long expected = 10;
+    for (Cell c : map.values()) {
+      assertEquals(expected--, c.getTimestamp());
+    }
+  }
+
+  @Test
+  public void testKeysComparedInPlace() {
+    // Cells of the chunks are compared where they are, the order must be the comparator's
+    NavigableMap<Cell, Cell> expected = new TreeMap<>(CellComparator.getInstance());
+    byte[][] families = { Bytes.toBytes("a"), FAMILY, Bytes.toBytes("ff") };
+    byte[][] qualifiers = { new byte[0], QUALIFIER, Bytes.toBytes("qq") };
+    KeyValue.Type[] types = { KeyValue.Type.Put, KeyValue.Type.Delete,
+        KeyValue.Type.DeleteColumn };
+    List<Cell> probes = new ArrayList<>();
+    long seqId = 0;
+    for (int row = 0; row < 10; row += 2) {
+      for (byte[] family : families) {
+        for (byte[] qualifier : qualifiers) {
+          for (long ts = 1; ts <= 2; ts++) {
+            for (KeyValue.Type type : types) {
+              KeyValue kv = new KeyValue(Bytes.toBytes(row), family, qualifier, ts, type);
+              kv.setSequenceId(++seqId % 3);
+              Cell cell = mslab.copyCellInto(kv);
+              put(cell);
+              expected.put(cell, cell);
+              probes.add(kv);
+              probes.add(cell);
+            }
+          }
+        }
+      }
+    }
+    for (Cell cell : new ArrayList<>(probes)) {
+      probes.add(PrivateCellUtil.createFirstOnRow(cell));
+      probes.add(PrivateCellUtil.createLastOnRow(cell));
+      probes.add(PrivateCellUtil.createFirstOnRowCol(cell));
+      probes.add(PrivateCellUtil.createLastOnRowCol(cell));
+    }
+    for (int row = -1; row <= 11; row += 2) {
+      probes.add(new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, 1, Bytes.toBytes("v")));
+    }
+    assertEquals(expected.size(), map.size());
+    for (Cell probe : probes) {
+      assertSameCell(expected.ceilingKey(probe), map.ceilingKey(probe));
+      assertSameCell(expected.higherKey(probe), map.higherKey(probe));
+      assertSameCell(expected.floorKey(probe), map.floorKey(probe));
+      assertSameCell(expected.lowerKey(probe), map.lowerKey(probe));
+      assertSameCell(expected.get(probe), map.get(probe));
+    }
+  }
+
+  private static void assertSameCell(Cell expected, Cell actual) {
+    if (expected == null) {
+      assertNull(actual);
+    } else {
+      assertEquals(0, CellComparator.getInstance().compare(expected, actual));
+    }
+  }
+
+  @Test
+  public void testConcurrentPuts() throws Exception {
+    final int threads = 8;
+    final int cellsPerThread = 5000;
+    List<Thread> writers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int start = t;
+      writers.add(new Thread(() -> {
+        // interleave the rows of all threads so that they race for the same places
+        for (int i = 0; i < cellsPerThread; i++) {
+          put(cell(i * threads + start, 1));
+        }
+      }));
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    assertEquals(threads * cellsPerThread, map.size());
+    int expected = 0;
+    for (Cell c : map.values()) {
+      assertEquals(expected++, rowOf(c));
+    }
+    assertEquals(threads * cellsPerThread, expected);
+    Iterator<Cell> it = map.descendingMap().values().iterator();
+    assertEquals(threads * cellsPerThread - 1, rowOf(it.next()));
+  }
+
+  @Test
+  public void testSegmentFactory() {
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(SegmentFactory.CHUNK_SKIPLIST_INDEX_KEY, true);
+    MutableSegment segment =
+        SegmentFactory.instance().createMutableSegment(conf, CellComparator.getInstance());
+    try {
+      MemStoreSizing sizing = new MemStoreSizing();
+      KeyValue kv = new KeyValue(Bytes.toBytes(1), FAMILY, QUALIFIER, 1, Bytes.toBytes("v"));
+      segment.add(kv, true, sizing);
+      assertEquals(1, segment.getCellsCount());
+      assertTrue(CellUtil.equals(kv, segment.last()));
+    } finally {
+      segment.close();
+    }
+  }
+}
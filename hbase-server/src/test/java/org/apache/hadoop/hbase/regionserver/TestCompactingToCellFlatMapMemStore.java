@@ -607,6 +607,42 @@ public class TestCompactingToCellFlatMapMemStore extends TestCompactingMemStore
     assertTrue(chunkCount > 0);
   }
 
+  @Test
+  public void testRowBloomAfterFlattening() throws IOException {
+    conf.set(CompactingMemStore.COMPACTING_MEMSTORE_TYPE_KEY,
+        String.valueOf(MemoryCompactionPolicy.BASIC));
+    conf.setBoolean(CompactingMemStore.IN_MEMORY_ROW_BLOOM_KEY, true);
+    memstore = new MyCompactingMemStore(conf, CellComparatorImpl.COMPARATOR, store,
+        regionServicesForStores, MemoryCompactionPolicy.BASIC);
+    String[] keys = { "A", "B", "C", "D" };
+    addRowsByKeys(memstore, keys);
+    ((CompactingMemStore) memstore).flushInMemory(); // push keys to pipeline and flatten
+    while (((CompactingMemStore) memstore).isMemStoreFlushingInMemory()) {
+      Threads.sleep(10);
+    }
+    Segment flat = null;
+    for (Segment segment : ((CompactingMemStore) memstore).getSegments()) {
+      if (segment.hasRowBloom()) {
+        assertTrue(flat == null);
+        flat = segment;
+      }
+    }
+    assertTrue(flat != null);
+    for (String key : keys) {
+      assertTrue(flat.mayContainRow(Bytes.toBytes(key)));
+    }
+    // the bloom may let a few absent rows through, but not all of them
+    int skipped = 0;
+    for (char c = 'a'; c <= 'z'; c++) {
+      if (!flat.mayContainRow(Bytes.toBytes(String.valueOf(c)))) {
+        skipped++;
+      }
+    }
+    assertTrue("skipped=" + skipped, skipped > 20);
+    // the active segment has no bloom and is always seeked
+    assertTrue(((CompactingMemStore) memstore).getActive().mayContainRow(Bytes.toBytes("a")));
+  }
+
   @Test
   public void testFlatteningToCellChunkMap() throws IOException {
 
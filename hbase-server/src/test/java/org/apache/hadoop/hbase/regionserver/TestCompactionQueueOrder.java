@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the order of the ranked compactions in the queues of {@link CompactSplit}.
+ */
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestCompactionQueueOrder {
+
+  private static final long AGING_PERIOD = 60 * 1000;
+  private static final double TABLE_SHARE = 0.5;
+
+  private static double order(double rank, int priority, long queuedTime, int tableQueued) {
+    return CompactSplit.queueOrder(rank, priority, queuedTime, tableQueued, AGING_PERIOD,
+      TABLE_SHARE);
+  }
+
+  @Test
+  public void testRankOnly() {
+    assertEquals(4.5, CompactSplit.queueOrder(4.5, 7, 10 * AGING_PERIOD, 3, 0, 0), 0);
+    assertEquals(4.5, order(4.5, 7, 0, 0), 0);
+  }
+
+  @Test
+  public void testAging() {
+    // a worse rank queued an aging period earlier goes first
+    assertTrue(order(4.9, 7, 0, 0) < order(4.0, 7, AGING_PERIOD, 0));
+    // but not ahead of a rank better by more than the time it waited
+    assertTrue(order(5.5, 7, 0, 0) > order(4.0, 7, AGING_PERIOD, 0));
+  }
+
+  @Test
+  public void testTablesTakeTurns() {
+    // the fourth queued compaction of a table goes after the first of another table
+    assertTrue(order(4.0, 7, 0, 3) > order(4.9, 7, 0, 0));
+    // unless its store blocks updates
+    assertEquals(-1, order(-1, -1, 0, 3), 0);
+    assertEquals(0, order(0, 0, 0, 3), 0);
+  }
+}
@@ -165,6 +165,17 @@ public class TestCompoundBloomFilter {
     }
   }
 
+  @Test
+  public void testBlockedCompoundBloomFilter() throws IOException {
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, true);
+    try {
+      testCompoundBloomFilter();
+    } finally {
+      conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, false);
+    }
+  }
+
   /**
    * Validates the false positive ratio by computing its z-value and comparing
    * it to the provided threshold.
@@ -227,6 +238,7 @@ public class TestCompoundBloomFilter {
         String fakeLookupModeStr = ", fake lookup is " + (fakeLookupEnabled ?
             "enabled" : "disabled");
         CompoundBloomFilter cbf = (CompoundBloomFilter) r.getGeneralBloomFilter();
+        assertEquals(BloomFilterFactory.isBlockedBloomEnabled(conf), cbf.isBlocked());
         cbf.enableTestingStats();
         int numFalsePos = 0;
         Random rand = new Random(EVALUATION_SEED);
@@ -25,6 +25,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequestImpl;
 import org.apache.hadoop.hbase.regionserver.compactions.RatioBasedCompactionPolicy;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.TimeOffsetEnvironmentEdge;
 import org.junit.Assert;
@@ -161,6 +162,41 @@ public class TestDefaultCompactSelection extends TestCompactionPolicy {
     compactEquals(sfCreate(99,99,99,99, 27,27,27,20,20,20), 20, 20, 20);
   }
 
+  private List<HStoreFile> sfCreateRun(long run, long... sizes) throws IOException {
+    List<HStoreFile> files = sfCreate(sizes);
+    for (HStoreFile file : files) {
+      ((MockHStoreFile) file).setMetadataValue(HStoreFile.COMPACTION_RUN_KEY, Bytes.toBytes(run));
+    }
+    return files;
+  }
+
+  private List<HStoreFile> concat(List<HStoreFile> first, List<HStoreFile> second) {
+    List<HStoreFile> files = new ArrayList<>(first);
+    files.addAll(second);
+    return files;
+  }
+
+  @Test
+  public void testCompactionRunSelectedAsOneFile() throws IOException {
+    RatioBasedCompactionPolicy policy =
+        (RatioBasedCompactionPolicy) store.storeEngine.getCompactionPolicy();
+    // the files of a compaction run and a flush are two files, not enough to compact
+    List<HStoreFile> files = concat(sfCreateRun(1, 100, 100, 100), sfCreate(12));
+    Assert.assertFalse(policy.needsCompaction(files, new ArrayList<>()));
+    compactEquals(files /* empty */);
+    // the run is not in ratio with the flushes
+    files = concat(sfCreateRun(1, 100, 100, 100), sfCreate(12, 12));
+    Assert.assertTrue(policy.needsCompaction(files, new ArrayList<>()));
+    compactEquals(files /* empty */);
+    // a run is selected whole, and all its files count against the max files
+    compactEquals(concat(sfCreateRun(1, 5, 5, 5), sfCreate(12, 12, 12)), 5, 5, 5, 12, 12);
+    // a run is too large as a whole
+    compactEquals(concat(sfCreateRun(1, 800, 800, 800), sfCreate(700, 700, 700)), 700, 700, 700);
+    // two runs next to each other
+    compactEquals(concat(sfCreateRun(1, 5, 5), sfCreateRun(2, 5, 5)) /* empty */);
+    compactEquals(concat(sfCreateRun(1, 5, 5), concat(sfCreateRun(2, 5), sfCreate(5))), 5, 5, 5, 5);
+  }
+
   @Test
   public void testCompactionEmptyHFile() throws IOException {
     // Set TTL
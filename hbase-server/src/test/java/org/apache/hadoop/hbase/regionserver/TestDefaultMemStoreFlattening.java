@@ -0,0 +1,149 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.util.MemorySizeUtil;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.wal.WAL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests freezing and flattening the active segment of a {@link DefaultMemStore}.
+ */
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestDefaultMemStoreFlattening {
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final long FLUSH_SIZE = 1024 * 1024;
+
+  private ChunkCreator chunkCreator;
+  private HRegion region;
+  private DefaultMemStore memstore;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+    conf.setFloat(MemStoreLAB.CHUNK_POOL_MAXSIZE_KEY, 0.2f);
+    conf.setLong(HConstants.HREGION_MEMSTORE_FLUSH_SIZE, FLUSH_SIZE);
+    conf.setBoolean(DefaultMemStore.FLATTEN_KEY, true);
+    HBaseTestingUtility hbaseUtility = HBaseTestingUtility.createLocalHTU(conf);
+    HColumnDescriptor hcd = new HColumnDescriptor(FAMILY);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("flattening"));
+    htd.addFamily(hcd);
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    WAL wal = hbaseUtility.createWal(conf, hbaseUtility.getDataTestDir(), info);
+    this.region = HRegion.createHRegion(info, hbaseUtility.getDataTestDir(), conf, htd, wal, true);
+
+    long globalMemStoreLimit = (long) (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+        .getMax() * MemorySizeUtil.getGlobalMemStoreHeapPercent(conf, false));
+    chunkCreator = ChunkCreator.initialize(MemStoreLABImpl.CHUNK_SIZE_DEFAULT, false,
+        globalMemStoreLimit, 0.4f, MemStoreLAB.POOL_INITIAL_SIZE_DEFAULT, null);
+    this.memstore = new DefaultMemStore(conf, CellComparator.getInstance(),
+        region.getRegionServicesForStores());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+    chunkCreator.clearChunksInPool();
+  }
+
+  private void addRows(int from, int to, int valueSize) {
+    MemStoreSizing sizing = new MemStoreSizing();
+    for (int i = from; i < to; i++) {
+      memstore.add(new KeyValue(Bytes.toBytes(String.format("row%05d", i)), FAMILY, QUALIFIER,
+          i, new byte[valueSize]), sizing);
+    }
+  }
+
+  private static int countCells(List<KeyValueScanner> scanners) throws IOException {
+    int count = 0;
+    for (KeyValueScanner scanner : scanners) {
+      scanner.seek(KeyValueUtil.createFirstOnRow(HConstants.EMPTY_START_ROW));
+      while (scanner.next() != null) {
+        count++;
+      }
+      scanner.close();
+    }
+    return count;
+  }
+
+  @Test
+  public void testFlattenActive() throws IOException {
+    addRows(0, 100, 10);
+    MemStoreSize before = memstore.size();
+    memstore.flattenActive();
+
+    assertEquals(0, memstore.getActive().getCellsCount());
+    List<? extends Segment> frozen = memstore.getFrozenSegments();
+    assertEquals(1, frozen.size());
+    assertTrue(frozen.get(0) instanceof CellChunkImmutableSegment);
+    // the cells stay, the skip list goes
+    assertEquals(before.getDataSize(), memstore.size().getDataSize());
+    assertTrue(memstore.size().getHeapSize() < before.getHeapSize());
+
+    addRows(100, 200, 10);
+    assertEquals(200, countCells(memstore.getScanners(Long.MAX_VALUE)));
+
+    // the snapshot takes both the frozen and the active segment
+    MemStoreSnapshot snapshot = memstore.snapshot();
+    assertEquals(200, snapshot.getCellsCount());
+    assertEquals(200, countCells(snapshot.getScanners()));
+    assertTrue(memstore.getFrozenSegments().isEmpty());
+    assertEquals(0, memstore.size().getDataSize());
+    memstore.clearSnapshot(snapshot.getId());
+    assertEquals(0, memstore.getSnapshotSize().getDataSize());
+  }
+
+  @Test
+  public void testFlattenOnThreshold() throws IOException {
+    // the active segment is frozen once it holds a quarter of the flush size
+    addRows(0, 300, 1024);
+    for (int i = 0; i < 100 && memstore.getFrozenSegments().isEmpty(); i++) {
+      Threads.sleep(100);
+    }
+    assertEquals(1, memstore.getFrozenSegments().size());
+    assertEquals(300, countCells(memstore.getScanners(Long.MAX_VALUE)));
+  }
+}
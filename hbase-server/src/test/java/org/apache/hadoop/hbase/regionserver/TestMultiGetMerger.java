@@ -0,0 +1,230 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestMultiGetMerger {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY_A = Bytes.toBytes("a");
+  private static final byte[] FAMILY_B = Bytes.toBytes("b");
+  private static final int ROWS = 1000;
+
+  private HRegion region;
+  private List<RegionScanner> scanners;
+
+  @Before
+  public void setUp() throws IOException {
+    TableDescriptor htd = TableDescriptorBuilder
+        .newBuilder(TableName.valueOf("TestMultiGetMerger"))
+        .addColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(FAMILY_A)
+            .setBloomFilterType(BloomType.ROW).setBlocksize(1024).build())
+        .addColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(FAMILY_B)
+            .setBloomFilterType(BloomType.NONE).setMaxVersions(3).build())
+        .build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    // no false positives, so that the rows which are skipped are known
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, 0.000001f);
+    region = HBaseTestingUtility.createRegionAndWAL(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    // Only the even rows exist, spread over store files and the memstore, with both families
+    for (int i = 0; i < ROWS; i += 2) {
+      Put put = new Put(row(i));
+      put.setDurability(Durability.SKIP_WAL);
+      put.addColumn(FAMILY_A, Bytes.toBytes("q"), Bytes.toBytes(i));
+      if (i % 3 == 0) {
+        put.addColumn(FAMILY_B, Bytes.toBytes("q1"), 1, Bytes.toBytes(i));
+        put.addColumn(FAMILY_B, Bytes.toBytes("q1"), 2, Bytes.toBytes(i + 1));
+      }
+      put.addColumn(FAMILY_B, Bytes.toBytes("q2"), Bytes.toBytes(i));
+      region.put(put);
+      if (i % 300 == 0) {
+        region.flush(true);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  private Result[] get(List<Get> gets, long maxResultSize) throws IOException {
+    scanners = new ArrayList<>();
+    IOException[] errors = new IOException[gets.size()];
+    try {
+      return MultiGetMerger.get(region, gets, 10, maxResultSize, scanners, errors);
+    } finally {
+      for (RegionScanner scanner : scanners) {
+        scanner.close();
+      }
+      for (IOException error : errors) {
+        assertNull(error);
+      }
+    }
+  }
+
+  private void assertSameResults(List<Get> gets, Result[] results) throws Exception {
+    for (int i = 0; i < gets.size(); i++) {
+      Result expected = region.get(gets.get(i));
+      assertNotNull(results[i]);
+      Result.compareResults(expected, results[i]);
+      assertEquals(expected.getExists(), results[i].getExists());
+    }
+  }
+
+  @Test
+  public void testMergedGets() throws Exception {
+    Random rand = new Random(12345);
+    List<Integer> rows = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      // Unsorted, some missing rows and some rows twice
+      rows.add(rand.nextInt(ROWS));
+    }
+    rows.add(0);
+    rows.add(ROWS - 2);
+    rows.add(ROWS + 10);
+    List<Get> gets = new ArrayList<>();
+    // The store files hold row 0, rows 2 to 300, 302 to 600 and 602 to 900. The rows out of their
+    // key ranges are only looked up in the memstores, by a scan of their own.
+    int memstoreOnly = 0;
+    for (int i : rows) {
+      gets.add(new Get(row(i)));
+      if (i == 1 || i == 301 || i == 601 || i > 900) {
+        memstoreOnly++;
+      }
+    }
+    Result[] results = get(gets, Long.MAX_VALUE);
+    // A single pass for all the others
+    assertEquals(1 + memstoreOnly, scanners.size());
+    assertSameResults(gets, results);
+  }
+
+  @Test
+  public void testGroups() throws Exception {
+    List<Get> gets = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      gets.add(new Get(row(i * 7)));
+      gets.add(new Get(row(i * 5)).addColumn(FAMILY_B, Bytes.toBytes("q1")).readVersions(3));
+      gets.add(new Get(row(i * 3)).addFamily(FAMILY_A).setCheckExistenceOnly(true));
+    }
+    // Not merged, as too few or with a filter
+    Get few = new Get(row(42)).addFamily(FAMILY_B);
+    gets.add(few);
+    Get filtered = new Get(row(42)).setFilter(new KeyOnlyFilter());
+    gets.add(filtered);
+    Collections.shuffle(gets, new Random(42));
+
+    Result[] results = get(gets, Long.MAX_VALUE);
+    // One pass per group, and a scan of their own for the 10 odd rows of family a, which the
+    // bloom filters say are in no store file
+    assertEquals(13, scanners.size());
+    List<Get> merged = new ArrayList<>();
+    List<Result> mergedResults = new ArrayList<>();
+    for (int i = 0; i < gets.size(); i++) {
+      if (gets.get(i) == few || gets.get(i) == filtered) {
+        assertNull(results[i]);
+      } else {
+        merged.add(gets.get(i));
+        mergedResults.add(results[i]);
+      }
+    }
+    assertSameResults(merged, mergedResults.toArray(new Result[mergedResults.size()]));
+    assertTrue(MultiGetMerger.shapeOf(filtered) == null);
+  }
+
+  @Test
+  public void testRowsSkippedByBloom() throws Exception {
+    // Family a has a row bloom, and only the even rows exist
+    List<Get> gets = new ArrayList<>();
+    for (int i = 1; i < 600; i += 20) {
+      gets.add(new Get(row(i)).addFamily(FAMILY_A));
+    }
+    StoreFileScanner.instrument();
+    Result[] results = get(gets, Long.MAX_VALUE);
+    assertEquals(0, StoreFileScanner.getSeekCount());
+    for (Result result : results) {
+      assertTrue(result.isEmpty());
+    }
+
+    gets.clear();
+    for (int i = 0; i < 600; i += 20) {
+      gets.add(new Get(row(i)).addFamily(FAMILY_A));
+    }
+    results = get(gets, Long.MAX_VALUE);
+    assertTrue(StoreFileScanner.getSeekCount() > 0);
+    assertEquals(1, scanners.size());
+    assertSameResults(gets, results);
+  }
+
+  @Test
+  public void testMaxResultSize() throws Exception {
+    List<Get> gets = new ArrayList<>();
+    for (int i = 0; i < 600; i += 20) {
+      gets.add(new Get(row(i)).addFamily(FAMILY_A));
+    }
+    // The gets stop once the first result is over the size
+    Result[] results = get(gets, 1);
+    int run = 0;
+    for (Result result : results) {
+      if (result != null) {
+        assertEquals(1, result.size());
+        run++;
+      }
+    }
+    assertEquals(1, run);
+  }
+}
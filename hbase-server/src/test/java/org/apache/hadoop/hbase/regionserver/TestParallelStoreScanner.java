@@ -0,0 +1,274 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MockRegionServerServices;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.regionserver.ScannerContext.LimitScope;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestParallelStoreScanner {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[][] FAMILIES =
+      { Bytes.toBytes("a"), Bytes.toBytes("b"), Bytes.toBytes("c"), Bytes.toBytes("d") };
+  private static final int ROWS = 300;
+  private static final int QUALIFIERS = 4;
+
+  private MockRegionServerServices rss;
+  private HRegion region;
+  /** All the cells of the region, in scan order */
+  private List<Cell> expected;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(ParallelStoreScanner.PARALLEL_SCAN_KEY, true);
+    conf.setLong(ParallelStoreScanner.PARALLEL_SCAN_MAX_BYTES_KEY, 2048);
+    TableDescriptorBuilder builder =
+        TableDescriptorBuilder.newBuilder(TableName.valueOf("TestParallelStoreScanner"));
+    for (byte[] family : FAMILIES) {
+      builder.addColumnFamily(
+        ColumnFamilyDescriptorBuilder.newBuilder(family).setBlocksize(1024).build());
+    }
+    TableDescriptor htd = builder.build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    // reopen the region with region server services, which own the pool of the fetches
+    HRegion created =
+        HBaseTestingUtility.createRegionAndWAL(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    created.close();
+    rss = new MockRegionServerServices(conf);
+    region = HRegion.openHRegion(TEST_UTIL.getDataTestDir(), info, htd, created.getWAL(), conf,
+      rss, null);
+
+    // Rows spread over two store files and the memstore, with some families missing in some
+    // rows and some deleted cells
+    for (int i = 0; i < ROWS; i++) {
+      Put put = new Put(row(i));
+      put.setDurability(Durability.SKIP_WAL);
+      for (int f = 0; f < FAMILIES.length; f++) {
+        if ((i + f) % 3 == 0) {
+          continue;
+        }
+        for (int q = 0; q < QUALIFIERS; q++) {
+          put.addColumn(FAMILIES[f], Bytes.toBytes(q), Bytes.toBytes(i * q));
+        }
+      }
+      if (!put.isEmpty()) {
+        region.put(put);
+      }
+      if (i == ROWS / 3 || i == 2 * ROWS / 3) {
+        region.flush(true);
+      }
+    }
+    for (int i = 0; i < ROWS; i += 7) {
+      Delete delete = new Delete(row(i));
+      delete.addColumns(FAMILIES[i % FAMILIES.length], Bytes.toBytes(1));
+      region.delete(delete);
+    }
+    expected = scanAll(region.getScanner(scanWithFilter()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+    rss.stop("test");
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  /**
+   * A filter which lets everything through, so that the scan does not run in parallel.
+   */
+  private static Scan scanWithFilter() {
+    return new Scan().setFilter(new FilterBase() {
+      @Override
+      public ReturnCode filterCell(Cell c) {
+        return ReturnCode.INCLUDE;
+      }
+    });
+  }
+
+  private static List<Cell> scanAll(RegionScanner scanner) throws IOException {
+    List<Cell> cells = new ArrayList<>();
+    try {
+      List<Cell> row = new ArrayList<>();
+      boolean more;
+      do {
+        more = scanner.next(row);
+        cells.addAll(row);
+        row.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    return cells;
+  }
+
+  private void assertCells(List<Cell> expected, List<Cell> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(CellUtil.equals(expected.get(i), actual.get(i)));
+    }
+  }
+
+  @Test
+  public void testScan() throws IOException {
+    RegionScanner scanner = region.getScanner(new Scan());
+    for (KeyValueScanner s : ((HRegion.RegionScannerImpl) scanner).storeHeap.getHeap()) {
+      assertTrue(s instanceof ParallelStoreScanner);
+    }
+    assertCells(expected, scanAll(scanner));
+    // A filter disables the parallel fetch
+    scanner = region.getScanner(new Scan().setFilter(new FirstKeyOnlyFilter()));
+    for (KeyValueScanner s : ((HRegion.RegionScannerImpl) scanner).storeHeap.getHeap()) {
+      assertFalse(s instanceof ParallelStoreScanner);
+    }
+    scanner.close();
+  }
+
+  @Test
+  public void testScanWithLimits() throws IOException {
+    // batch limit
+    RegionScanner scanner = region.getScanner(new Scan().setBatch(3));
+    List<Cell> cells = new ArrayList<>();
+    try {
+      List<Cell> batch = new ArrayList<>();
+      boolean more;
+      do {
+        more = scanner.next(batch);
+        assertTrue(batch.size() <= 3);
+        cells.addAll(batch);
+        batch.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    assertCells(expected, cells);
+
+    // size limit between cells, every call returns a part of a row
+    scanner = region.getScanner(new Scan().setAllowPartialResults(true));
+    cells.clear();
+    try {
+      List<Cell> part = new ArrayList<>();
+      boolean more;
+      do {
+        ScannerContext context = ScannerContext.newBuilder()
+            .setSizeLimit(LimitScope.BETWEEN_CELLS, 100, 100).build();
+        more = scanner.nextRaw(part, context);
+        cells.addAll(part);
+        part.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    assertCells(expected, cells);
+  }
+
+  @Test
+  public void testScanWithTimeLimit() throws IOException {
+    // The time limit is always reached, so the store scanners stop as soon as they have no more
+    // fetched cells, and the region scanner returns to send a heartbeat
+    RegionScanner scanner = region.getScanner(new Scan().setAllowPartialResults(true));
+    List<Cell> cells = new ArrayList<>();
+    try {
+      List<Cell> part = new ArrayList<>();
+      boolean more;
+      do {
+        ScannerContext context = ScannerContext.newBuilder()
+            .setTimeLimit(LimitScope.BETWEEN_CELLS, System.currentTimeMillis()).build();
+        more = scanner.nextRaw(part, context);
+        cells.addAll(part);
+        part.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    assertCells(expected, cells);
+  }
+
+  @Test
+  public void testReseekAndFlush() throws IOException {
+    RegionScanner scanner = region.getScanner(new Scan());
+    List<Cell> cells = new ArrayList<>();
+    try {
+      List<Cell> row = new ArrayList<>();
+      scanner.next(row);
+      cells.addAll(row);
+      row.clear();
+      // skip a few rows, some of them already fetched
+      assertTrue(scanner.reseek(row(10)));
+      scanner.next(row);
+      assertTrue(Bytes.equals(row(10), CellUtil.cloneRow(row.get(0))));
+      row.clear();
+      // skip rows far ahead of what was fetched
+      assertTrue(scanner.reseek(row(ROWS - 50)));
+      // a flush while scanning is seen by the store scanners
+      region.flush(true);
+      boolean more;
+      do {
+        more = scanner.next(row);
+        cells.addAll(row);
+        row.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    List<Cell> expectedCells = new ArrayList<>();
+    for (Cell cell : expected) {
+      if (CellUtil.matchingRows(cell, expected.get(0))
+          || Bytes.compareTo(CellUtil.cloneRow(cell), row(ROWS - 50)) >= 0) {
+        expectedCells.add(cell);
+      }
+    }
+    assertCells(expectedCells, cells);
+  }
+}
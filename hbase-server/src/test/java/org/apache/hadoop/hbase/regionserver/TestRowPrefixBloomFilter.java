@@ -0,0 +1,212 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestRowPrefixBloomFilter {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int TENANTS = 1000;
+  private static final int ENTITIES = 5;
+  private static final float ERROR_RATE = 0.01f;
+
+  private Configuration conf;
+  private CacheConfig cacheConf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, ERROR_RATE);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    cacheConf = new CacheConfig(conf);
+    fs = FileSystem.getLocal(conf);
+  }
+
+  /**
+   * Rows of the form tenant|entity|ts, only the even tenants have rows.
+   */
+  private static byte[] row(int tenant, int entity, int ts) {
+    return Bytes.toBytes(String.format("t%05d|e%03d|%d", tenant, entity, ts));
+  }
+
+  private static byte[] tenant(int tenant) {
+    return Bytes.toBytes(String.format("t%05d|", tenant));
+  }
+
+  private StoreFileReader writeStoreFile(String name, BloomType bloomType) throws IOException {
+    Path f = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFileContext meta = new HFileContextBuilder().withBlockSize(8192).build();
+    StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, fs).withFilePath(f)
+        .withBloomType(bloomType).withFileContext(meta).build();
+    for (int t = 0; t < TENANTS; t += 2) {
+      for (int e = 0; e < ENTITIES; e++) {
+        for (int ts = 0; ts < 3; ts++) {
+          writer.append(new KeyValue(row(t, e, ts), FAMILY, QUALIFIER, Bytes.toBytes(ts)));
+        }
+      }
+    }
+    writer.close();
+    StoreFileReader reader =
+        new StoreFileReader(fs, f, cacheConf, true, new AtomicInteger(0), true, conf);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    return reader;
+  }
+
+  private void verify(StoreFileReader reader) throws IOException {
+    try {
+      int falsePositives = 0;
+      for (int t = 0; t < TENANTS; t++) {
+        // a get
+        boolean passes = reader.passesBloomFilter(new Scan().withStartRow(row(t, 1, 1))
+            .withStopRow(row(t, 1, 1), true), null);
+        // a scan of the rows of a tenant
+        byte[] start = tenant(t);
+        byte[] stop = Bytes.add(start, new byte[] { (byte) 0xff });
+        boolean scanPasses =
+            reader.passesBloomFilter(new Scan().withStartRow(start).withStopRow(stop), null);
+        // a scan of the rows of an entity
+        boolean entityScanPasses = reader.passesBloomFilter(
+          new Scan().withStartRow(row(t, 2, 0)).withStopRow(row(t, 2, 9)), null);
+        if (t % 2 == 0) {
+          assertTrue(passes);
+          assertTrue(scanPasses);
+          assertTrue(entityScanPasses);
+        } else {
+          assertEquals(passes, scanPasses);
+          assertEquals(passes, entityScanPasses);
+          if (passes) {
+            falsePositives++;
+          }
+        }
+      }
+      assertTrue("Too many false positives: " + falsePositives,
+        falsePositives <= TENANTS * ERROR_RATE);
+
+      // Scans over many prefixes can not use the Bloom filter
+      assertTrue(reader.passesBloomFilter(
+        new Scan().withStartRow(tenant(1)).withStopRow(tenant(3)), null));
+      assertTrue(reader.passesBloomFilter(new Scan().withStartRow(tenant(1)), null));
+      assertTrue(reader.passesBloomFilter(new Scan(), null));
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testFixedLengthPrefix() throws IOException {
+    conf.setInt(BloomFilterUtil.PREFIX_LENGTH_KEY, tenant(0).length);
+    verify(writeStoreFile("testFixedLengthPrefix", BloomType.ROWPREFIX_FIXED_LENGTH));
+  }
+
+  @Test
+  public void testDelimitedPrefix() throws IOException {
+    conf.set(BloomFilterUtil.DELIMITER_KEY, "|");
+    StoreFileReader reader = writeStoreFile("testDelimitedPrefix", BloomType.ROWPREFIX_DELIMITED);
+    // A row without delimiter is its own prefix
+    assertTrue(reader.passesBloomFilter(
+      new Scan().withStartRow(Bytes.toBytes("t00001")).withStopRow(Bytes.toBytes("t00001~")),
+      null));
+    verify(reader);
+  }
+
+  @Test
+  public void testRowPrefixLength() {
+    byte[] param = Bytes.toBytes("|");
+    assertEquals(3, BloomFilterUtil.getRowPrefixLength(Bytes.toBytes("ab|c|d"),
+      BloomType.ROWPREFIX_DELIMITED, param));
+    assertEquals(2, BloomFilterUtil.getRowPrefixLength(Bytes.toBytes("ab"),
+      BloomType.ROWPREFIX_DELIMITED, param));
+    param = Bytes.toBytes(4);
+    assertEquals(4, BloomFilterUtil.getRowPrefixLength(Bytes.toBytes("ab|c|d"),
+      BloomType.ROWPREFIX_FIXED_LENGTH, param));
+    assertEquals(2, BloomFilterUtil.getRowPrefixLength(Bytes.toBytes("ab"),
+      BloomType.ROWPREFIX_FIXED_LENGTH, param));
+  }
+
+  @Test
+  public void testRowPrefixLengthOfCell() {
+    byte[] param = Bytes.toBytes("|c");
+    for (String row : new String[] { "ab|c|d", "ab|d|c", "ab|", "|c", "ab" }) {
+      KeyValue kv = new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, Bytes.toBytes("v"));
+      ByteBufferKeyValue bbKv =
+          new ByteBufferKeyValue(ByteBuffer.wrap(kv.getBuffer()), kv.getOffset(), kv.getLength());
+      int expected = BloomFilterUtil.getRowPrefixLength(Bytes.toBytes(row),
+        BloomType.ROWPREFIX_DELIMITED, param);
+      assertEquals(expected,
+        BloomFilterUtil.getRowPrefixLength(kv, BloomType.ROWPREFIX_DELIMITED, param));
+      assertEquals(expected,
+        BloomFilterUtil.getRowPrefixLength(bbKv, BloomType.ROWPREFIX_DELIMITED, param));
+    }
+  }
+
+  @Test
+  public void testMissingPrefixConfiguration() throws IOException {
+    // No general Bloom filter is written without a prefix length
+    StoreFileReader reader =
+        writeStoreFile("testMissingPrefixConfiguration", BloomType.ROWPREFIX_FIXED_LENGTH);
+    try {
+      assertEquals(BloomType.NONE, reader.getBloomFilterType());
+      assertNull(reader.getGeneralBloomFilter());
+      assertTrue(reader.passesBloomFilter(new Scan().withStartRow(row(1, 1, 1))
+          .withStopRow(row(1, 1, 1), true), null));
+    } finally {
+      reader.close(true);
+    }
+    assertNull(BloomFilterUtil.getBloomFilterParam(BloomType.ROW, conf));
+    conf.setInt(BloomFilterUtil.PREFIX_LENGTH_KEY, -1);
+    try {
+      BloomFilterUtil.getBloomFilterParam(BloomType.ROWPREFIX_FIXED_LENGTH, conf);
+      fail("Negative prefix lengths are invalid");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
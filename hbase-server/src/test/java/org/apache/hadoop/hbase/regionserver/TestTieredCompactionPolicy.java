@@ -0,0 +1,85 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.regionserver.compactions.TieredCompactionPolicy;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestTieredCompactionPolicy extends TestCompactionPolicy {
+
+  @Override
+  protected void config() {
+    super.config();
+    this.conf.set(DefaultStoreEngine.DEFAULT_COMPACTION_POLICY_CLASS_KEY,
+      TieredCompactionPolicy.class.getName());
+    this.conf.setLong(HStore.BLOCKING_STOREFILES_KEY, 10);
+  }
+
+  @Test
+  public void testTiers() throws IOException {
+    Assert.assertTrue(store.storeEngine.getCompactionPolicy() instanceof TieredCompactionPolicy);
+    // a run of files of the same tier
+    compactEquals(sfCreate(100, 50, 23, 12, 12), 23, 12, 12);
+    compactEquals(sfCreate(100, 5, 5, 5), 5, 5, 5);
+    // each file in its own tier
+    compactEquals(sfCreate(1000, 200, 40, 8) /* empty */);
+    compactEquals(sfCreate(100, 60, 40) /* empty */);
+    // don't exceed max file compact threshold
+    compactEquals(sfCreate(100, 5, 5, 5, 5, 5, 5, 5), 5, 5, 5, 5, 5);
+  }
+
+  @Test
+  public void testWriteAmplification() throws IOException {
+    compactEquals(sfCreate(100, 5, 5, 5, 5), 5, 5, 5, 5);
+    // No more tiers than the write amplification allows, so a larger fanout
+    this.conf.setDouble(TieredCompactionPolicy.MAX_WRITE_AMPLIFICATION_KEY, 2);
+    store.storeEngine.getCompactionPolicy().setConf(conf);
+    try {
+      compactEquals(sfCreate(100, 5, 5, 5, 5) /* empty */);
+      compactEquals(sfCreate(100, 5, 5, 5, 5, 5), 5, 5, 5, 5, 5);
+    } finally {
+      this.conf.setDouble(TieredCompactionPolicy.MAX_WRITE_AMPLIFICATION_KEY,
+        TieredCompactionPolicy.DEFAULT_MAX_WRITE_AMPLIFICATION);
+      store.storeEngine.getCompactionPolicy().setConf(conf);
+    }
+    // Nothing flushed nor compacted yet
+    Assert.assertEquals(1, store.getWriteAmplification(), 0);
+  }
+
+  @Test
+  public void testSpaceAmplification() throws IOException {
+    compactEquals(sfCreate(100, 60, 50), 100, 60, 50);
+    Assert.assertEquals(2.1, StoreUtils.getSpaceAmplification(sfCreate(100, 60, 50)), 0.001);
+    Assert.assertEquals(1, StoreUtils.getSpaceAmplification(sfCreate(100)), 0);
+  }
+
+  @Test
+  public void testStuck() throws IOException {
+    compactEquals(sfCreate(2000, 400, 80, 16, 3, 400, 80, 16, 3) /* empty */);
+    // Compact the smallest files to get below the blocking store file count
+    compactEquals(sfCreate(2000, 400, 80, 16, 3, 400, 80, 16, 3, 90), 80, 16, 3);
+  }
+}
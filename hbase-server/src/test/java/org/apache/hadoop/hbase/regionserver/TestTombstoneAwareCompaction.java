@@ -0,0 +1,222 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionConfiguration;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
+import org.apache.hadoop.hbase.regionserver.compactions.RatioBasedCompactionPolicy;
+import org.apache.hadoop.hbase.regionserver.throttle.NoLimitThroughputController;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestTombstoneAwareCompaction extends TestCompactionPolicy {
+
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Override
+  protected void config() {
+    super.config();
+    this.conf.setDouble(CompactionConfiguration.HBASE_HSTORE_COMPACTION_TOMBSTONE_RATIO_KEY, 0.2);
+  }
+
+  @Test
+  public void testTombstoneCounts() throws IOException {
+    FileSystem fs = TEST_UTIL.getTestFileSystem();
+    CacheConfig cacheConf = new CacheConfig(conf);
+    StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, fs)
+        .withOutputDir(TEST_UTIL.getDataTestDir("testTombstoneCounts"))
+        .withFileContext(new HFileContextBuilder().build())
+        .withMaxVersions(1)
+        .withTtl(60 * 1000)
+        .build();
+    long now = EnvironmentEdgeManager.currentTime();
+    try {
+      // a version beyond the max versions
+      writer.append(new KeyValue(Bytes.toBytes("a"), FAMILY, QUALIFIER, now, Bytes.toBytes(1)));
+      writer.append(new KeyValue(Bytes.toBytes("a"), FAMILY, QUALIFIER, now - 1, Bytes.toBytes(2)));
+      // an expired version beyond the max versions, counted once
+      writer.append(
+        new KeyValue(Bytes.toBytes("a"), FAMILY, QUALIFIER, now - 120 * 1000, Bytes.toBytes(5)));
+      // an expired cell
+      writer.append(
+        new KeyValue(Bytes.toBytes("b"), FAMILY, QUALIFIER, now - 120 * 1000, Bytes.toBytes(3)));
+      // delete markers
+      writer.append(
+        new KeyValue(Bytes.toBytes("c"), FAMILY, null, now, KeyValue.Type.DeleteFamily));
+      writer.append(
+        new KeyValue(Bytes.toBytes("c"), FAMILY, QUALIFIER, now, KeyValue.Type.DeleteColumn));
+      writer.append(new KeyValue(Bytes.toBytes("d"), FAMILY, QUALIFIER, now, Bytes.toBytes(4)));
+    } finally {
+      writer.close();
+    }
+    Path path = writer.getPath();
+
+    HStoreFile sf = new HStoreFile(fs, path, conf, cacheConf, BloomType.NONE, true);
+    sf.initReader();
+    try {
+      StoreFileReader reader = sf.getReader();
+      Assert.assertEquals(7, reader.getEntries());
+      Assert.assertEquals(2, reader.getDeleteCnt());
+      Assert.assertEquals(2, reader.getExpiredCellsCnt());
+      Assert.assertEquals(1, reader.getExtraVersionsCnt());
+      Assert.assertEquals(5, reader.getTombstoneCnt());
+    } finally {
+      sf.closeStoreFile(true);
+    }
+  }
+
+  @Test
+  public void testTombstoneCountsAcrossShipped() throws IOException {
+    FileSystem fs = TEST_UTIL.getTestFileSystem();
+    CacheConfig cacheConf = new CacheConfig(conf);
+    StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, fs)
+        .withOutputDir(TEST_UTIL.getDataTestDir("testTombstoneCountsAcrossShipped"))
+        .withFileContext(new HFileContextBuilder().build())
+        .withMaxVersions(1)
+        .build();
+    long now = EnvironmentEdgeManager.currentTime();
+    try {
+      KeyValue kv = new KeyValue(Bytes.toBytes("a"), FAMILY, QUALIFIER, now, Bytes.toBytes(1));
+      writer.append(kv);
+      writer.beforeShipped();
+      // the scanner reuses the buffer of the shipped cell
+      KeyValue other = new KeyValue(Bytes.toBytes("b"), FAMILY, QUALIFIER, now, Bytes.toBytes(2));
+      System.arraycopy(other.getBuffer(), other.getOffset(), kv.getBuffer(), kv.getOffset(),
+        kv.getLength());
+      writer.append(new KeyValue(Bytes.toBytes("a"), FAMILY, QUALIFIER, now - 1, Bytes.toBytes(3)));
+    } finally {
+      writer.close();
+    }
+
+    HStoreFile sf = new HStoreFile(fs, writer.getPath(), conf, cacheConf, BloomType.NONE, true);
+    sf.initReader();
+    try {
+      Assert.assertEquals(1, sf.getReader().getExtraVersionsCnt());
+    } finally {
+      sf.closeStoreFile(true);
+    }
+  }
+
+  private List<HStoreFile> sfCreate(long entries, long[] tombstones, long... sizes)
+      throws IOException {
+    List<HStoreFile> files = sfCreate(sizes);
+    for (int i = 0; i < files.size(); i++) {
+      MockHStoreFile file = (MockHStoreFile) files.get(i);
+      file.entryCount = entries;
+      file.tombstoneCount = tombstones[i];
+    }
+    return files;
+  }
+
+  @Test
+  public void testMajorCompactDeleteHeavyStore() throws IOException {
+    RatioBasedCompactionPolicy policy =
+        (RatioBasedCompactionPolicy) store.storeEngine.getCompactionPolicy();
+    // Nothing to compact by size
+    List<HStoreFile> files = sfCreate(100, new long[] { 0, 0, 10, 0 }, 100, 50, 25, 12);
+    Assert.assertEquals(0.025, StoreUtils.getTombstoneRatio(files), 0.001);
+    Assert.assertFalse(policy.shouldPerformMajorCompaction(files));
+    compactEquals(files /* empty */);
+
+    // A quarter of the cells are tombstones
+    files = sfCreate(100, new long[] { 0, 0, 40, 60 }, 100, 50, 25, 12);
+    Assert.assertEquals(0.25, StoreUtils.getTombstoneRatio(files), 0.001);
+    Assert.assertTrue(policy.shouldPerformMajorCompaction(files));
+    compactEquals(files, 100, 50, 25, 12);
+
+    // What a major compaction kept does not count
+    for (HStoreFile file : files) {
+      ((MockHStoreFile) file).setIsMajor(true);
+    }
+    Assert.assertEquals(0, StoreUtils.getTombstoneRatio(files), 0);
+    Assert.assertFalse(policy.shouldPerformMajorCompaction(files));
+
+    // Disabled
+    this.conf.setDouble(CompactionConfiguration.HBASE_HSTORE_COMPACTION_TOMBSTONE_RATIO_KEY, 0);
+    policy.setConf(conf);
+    try {
+      files = sfCreate(100, new long[] { 0, 0, 40, 60 }, 100, 50, 25, 12);
+      Assert.assertFalse(policy.shouldPerformMajorCompaction(files));
+    } finally {
+      this.conf.setDouble(CompactionConfiguration.HBASE_HSTORE_COMPACTION_TOMBSTONE_RATIO_KEY,
+        0.2);
+      policy.setConf(conf);
+    }
+  }
+
+  @Test
+  public void testDeleteHeavyStoreNeedsCompactionAfterFlush() throws IOException {
+    HTableDescriptor htd =
+        new HTableDescriptor(TableName.valueOf("testDeleteHeavyStoreNeedsCompactionAfterFlush"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegion region = TEST_UTIL.createLocalHRegion(htd, null, null);
+    try {
+      for (int i = 0; i < 10; i++) {
+        region.put(new Put(Bytes.toBytes(i)).addColumn(FAMILY, QUALIFIER, Bytes.toBytes(i)));
+      }
+      region.flush(true);
+      HStore store = region.getStore(FAMILY);
+      Assert.assertFalse(store.needsCompaction());
+
+      // fewer files than the min files to compact, but 8 of the 18 cells are delete markers
+      for (int i = 0; i < 8; i++) {
+        region.delete(new Delete(Bytes.toBytes(i)));
+      }
+      region.flush(true);
+      Assert.assertEquals(2, store.getStorefilesCount());
+      Assert.assertTrue(store.needsCompaction());
+
+      Optional<CompactionContext> context = store.requestCompaction();
+      Assert.assertTrue(context.isPresent());
+      Assert.assertTrue(context.get().getRequest().isMajor());
+      Assert.assertEquals(2, context.get().getRequest().getFiles().size());
+      store.compact(context.get(), NoLimitThroughputController.INSTANCE, null);
+
+      // the deletes are dropped and nothing needs compacting anymore
+      Assert.assertEquals(1, store.getStorefilesCount());
+      Assert.assertEquals(2, store.getStorefiles().iterator().next().getReader().getEntries());
+      Assert.assertFalse(store.needsCompaction());
+      Assert.assertFalse(store.requestCompaction().isPresent());
+    } finally {
+      HBaseTestingUtility.closeRegionAndWAL(region);
+    }
+  }
+}
@@ -40,11 +40,18 @@ import java.util.TreeMap;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.HStoreFile;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.regionserver.ScannerContext;
 import org.apache.hadoop.hbase.regionserver.StoreFileReader;
 import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
@@ -75,6 +82,55 @@ public class TestCompactor {
     return new CompactionRequestImpl(Arrays.asList(createDummyStoreFile(1L)));
   }
 
+  /**
+   * Writes three versions of the rows of a column over three files, with some deleted rows in
+   * each file.
+   */
+  public static void writeVersionsAndDeletes(HRegion region, byte[] family, int rows)
+      throws IOException {
+    for (int v = 0; v < 3; v++) {
+      for (int i = 0; i < rows; i++) {
+        Put put = new Put(row(i));
+        put.setDurability(Durability.SKIP_WAL);
+        put.addColumn(family, Bytes.toBytes("q"), Bytes.toBytes(i * 10 + v));
+        region.put(put);
+      }
+      for (int i = v; i < rows; i += 11) {
+        region.delete(new Delete(row(i)));
+      }
+      region.flush(true);
+    }
+  }
+
+  public static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  /**
+   * @return all the versions of the cells of the region, with the delete markers if raw
+   */
+  public static List<Cell> scanAllVersions(HRegion region, boolean raw) throws IOException {
+    List<Cell> cells = new ArrayList<>();
+    try (RegionScanner scanner = region.getScanner(new Scan().readAllVersions().setRaw(raw))) {
+      List<Cell> row = new ArrayList<>();
+      boolean more;
+      do {
+        more = scanner.next(row);
+        cells.addAll(row);
+        row.clear();
+      } while (more);
+    }
+    return cells;
+  }
+
+  public static void assertCells(List<Cell> expected, List<Cell> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(CellUtil.equals(expected.get(i), actual.get(i)));
+      assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+    }
+  }
+
   // StoreFile.Writer has private ctor and is unwieldy, so this has to be convoluted.
   public static class StoreFileWritersCapture
       implements Answer<StoreFileWriter>, StripeMultiFileWriter.WriterFactory {
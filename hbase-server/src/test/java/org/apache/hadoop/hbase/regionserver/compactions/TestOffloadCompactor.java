@@ -0,0 +1,192 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.assertCells;
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.scanAllVersions;
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.writeVersionsAndDeletes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MockRegionServerServices;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.coprocessor.RegionObserver;
+import org.apache.hadoop.hbase.regionserver.DefaultStoreEngine;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestOffloadCompactor {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 1000;
+
+  private MockRegionServerServices rss;
+  private HRegion region;
+
+  /**
+   * Counts the compactions which went through the compaction scanner hooks.
+   */
+  public static final class CompactionScannerObserver
+      implements RegionCoprocessor, RegionObserver {
+    static final AtomicInteger COMPACTIONS = new AtomicInteger();
+
+    @Override
+    public Optional<RegionObserver> getRegionObserver() {
+      return Optional.of(this);
+    }
+
+    @Override
+    public InternalScanner preCompact(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+        InternalScanner scanner, ScanType scanType, CompactionLifeCycleTracker tracker,
+        CompactionRequest request) throws IOException {
+      COMPACTIONS.incrementAndGet();
+      return scanner;
+    }
+  }
+
+  private void createRegion(String workerJavaOpts) throws IOException {
+    createRegion(workerJavaOpts, false);
+  }
+
+  private void createRegion(String workerJavaOpts, boolean withScannerObserver)
+      throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY, OffloadCompactor.class.getName());
+    conf.set(LocalProcessCompactionService.WORKER_JAVA_OPTS_KEY, workerJavaOpts);
+    TableDescriptorBuilder builder = TableDescriptorBuilder
+        .newBuilder(TableName.valueOf("TestOffloadCompactor"))
+        .addColumnFamily(
+          ColumnFamilyDescriptorBuilder.newBuilder(FAMILY).setMaxVersions(2).build());
+    if (withScannerObserver) {
+      builder.addCoprocessor(CompactionScannerObserver.class.getName());
+    }
+    TableDescriptor htd = builder.build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    region = HBaseTestingUtility.createRegionAndWAL(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    if (withScannerObserver) {
+      // reopen the region with region server services, which load the coprocessors
+      region.close();
+      rss = new MockRegionServerServices(conf);
+      region = HRegion.openHRegion(TEST_UTIL.getDataTestDir(), info, htd, region.getWAL(), conf,
+        rss, null);
+    }
+
+    writeVersionsAndDeletes(region, FAMILY, ROWS);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+    if (rss != null) {
+      rss.stop("test");
+    }
+  }
+
+  @Test
+  public void testMajorCompaction() throws IOException {
+    createRegion("");
+    HStore store = region.getStore(FAMILY);
+    assertTrue(store.getStoreEngine().getCompactor() instanceof OffloadCompactor);
+    List<Cell> expected = scanAllVersions(region, false);
+
+    region.compact(true);
+    // The worker dropped the deleted rows and the versions beyond the max
+    assertEquals(1, store.getStorefilesCount());
+    assertCells(expected, scanAllVersions(region, true));
+    CompactionProgress progress = store.getCompactionProgress();
+    assertTrue(progress.getTotalCompactingKvs() > expected.size());
+    assertTrue(progress.totalCompactedSize > 0);
+    assertTrue(store.getMajorCompactedCellsSize() > 0);
+  }
+
+  @Test
+  public void testFailedWorker() throws IOException {
+    // The worker JVM does not start
+    createRegion("-XX:+NoSuchOptionForTheCompactionWorker");
+    HStore store = region.getStore(FAMILY);
+    List<Cell> expected = scanAllVersions(region, true);
+    List<Path> paths = new ArrayList<>();
+    for (HStoreFile file : store.getStorefiles()) {
+      paths.add(file.getPath());
+    }
+    try {
+      region.compact(true);
+      fail("The compaction should fail with the worker");
+    } catch (IOException e) {
+      // expected
+    }
+    List<Path> pathsAfter = new ArrayList<>();
+    for (HStoreFile file : store.getStorefiles()) {
+      pathsAfter.add(file.getPath());
+    }
+    assertEquals(paths, pathsAfter);
+    FileSystem fs = region.getRegionFileSystem().getFileSystem();
+    for (Path path : paths) {
+      assertTrue(path + " should still exist", fs.exists(path));
+    }
+    assertCells(expected, scanAllVersions(region, true));
+  }
+
+  @Test
+  public void testCompactionScannerObserver() throws IOException {
+    // The worker JVM would not start, the compaction runs in the region server
+    createRegion("-XX:+NoSuchOptionForTheCompactionWorker", true);
+    HStore store = region.getStore(FAMILY);
+    assertTrue(store.getCoprocessorHost().hasCompactionScannerObservers());
+    List<Cell> expected = scanAllVersions(region, false);
+    int compactions = CompactionScannerObserver.COMPACTIONS.get();
+
+    region.compact(true);
+    assertEquals(compactions + 1, CompactionScannerObserver.COMPACTIONS.get());
+    assertEquals(1, store.getStorefilesCount());
+    assertCells(expected, scanAllVersions(region, true));
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.assertCells;
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.row;
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.scanAllVersions;
+import static org.apache.hadoop.hbase.regionserver.compactions.TestCompactor.writeVersionsAndDeletes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MockRegionServerServices;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.regionserver.DefaultStoreEngine;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestParallelCompactor {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 3000;
+
+  private MockRegionServerServices rss;
+  private HRegion region;
+
+  private void createRegion(long minSize) throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY, ParallelCompactor.class.getName());
+    conf.setInt(ParallelCompactor.PARALLEL_COMPACTION_RANGES_KEY, 3);
+    conf.setLong(ParallelCompactor.PARALLEL_COMPACTION_MIN_SIZE_KEY, minSize);
+    // as many ranges as the min files to compact, and the ratio applies to small files too
+    conf.setInt(CompactionConfiguration.HBASE_HSTORE_COMPACTION_MIN_KEY, 3);
+    conf.setLong(CompactionConfiguration.HBASE_HSTORE_COMPACTION_MIN_SIZE_KEY, 1);
+    TableDescriptor htd = TableDescriptorBuilder
+        .newBuilder(TableName.valueOf("TestParallelCompactor"))
+        .addColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(FAMILY).setBlocksize(1024)
+            .setMaxVersions(2).build())
+        .build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    // reopen the region with region server services, which own the pool of the ranges
+    HRegion created =
+        HBaseTestingUtility.createRegionAndWAL(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    created.close();
+    rss = new MockRegionServerServices(conf);
+    region = HRegion.openHRegion(TEST_UTIL.getDataTestDir(), info, htd, created.getWAL(), conf,
+      rss, null);
+
+    writeVersionsAndDeletes(region, FAMILY, ROWS);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+    rss.stop("test");
+  }
+
+  @Test
+  public void testMajorCompaction() throws IOException {
+    createRegion(0);
+    HStore store = region.getStore(FAMILY);
+    assertTrue(store.getStoreEngine().getCompactor() instanceof ParallelCompactor);
+    List<Cell> expected = scanAllVersions(region, false);
+
+    List<byte[]> boundaries = ((ParallelCompactor) store.getStoreEngine().getCompactor())
+        .getBoundaries(store.getStorefiles(), 3);
+    assertEquals(2, boundaries.size());
+    assertTrue(Bytes.compareTo(boundaries.get(0), boundaries.get(1)) < 0);
+
+    region.compact(true);
+    // One file per range, without the deleted rows nor the versions beyond the max
+    assertEquals(3, store.getStorefilesCount());
+    assertCells(expected, scanAllVersions(region, true));
+    byte[] previousLastRow = null;
+    List<HStoreFile> files = new ArrayList<>(store.getStorefiles());
+    files.sort((a, b) -> Bytes.compareTo(a.getFirstKey().map(CellUtil::cloneRow).get(),
+      b.getFirstKey().map(CellUtil::cloneRow).get()));
+    for (HStoreFile file : files) {
+      // the ranges do not overlap
+      byte[] firstRow = CellUtil.cloneRow(file.getFirstKey().get());
+      if (previousLastRow != null) {
+        assertTrue(Bytes.compareTo(previousLastRow, firstRow) < 0);
+      }
+      previousLastRow = CellUtil.cloneRow(file.getLastKey().get());
+    }
+    CompactionProgress progress = store.getCompactionProgress();
+    assertEquals(progress.getTotalCompactingKvs(), progress.getCurrentCompactedKvs());
+  }
+
+  @Test
+  public void testRangesSelectedAsOneFile() throws IOException {
+    createRegion(0);
+    HStore store = region.getStore(FAMILY);
+    region.compact(true);
+    assertEquals(3, store.getStorefilesCount());
+    OptionalLong run = store.getStorefiles().iterator().next().getCompactionRun();
+    assertTrue(run.isPresent());
+    for (HStoreFile file : store.getStorefiles()) {
+      assertEquals(run, file.getCompactionRun());
+    }
+    // as many files as the min files to compact, but the ranges do not need another compaction
+    assertFalse(store.needsCompaction());
+    assertFalse(store.requestCompaction().isPresent());
+
+    // nor are they compacted again with the next small flushes
+    for (int v = 0; v < 2; v++) {
+      for (int i = 0; i < 10; i++) {
+        region.put(new Put(row(i)).addColumn(FAMILY, Bytes.toBytes("q"), Bytes.toBytes(v)));
+      }
+      region.flush(true);
+    }
+    assertEquals(5, store.getStorefilesCount());
+    assertTrue(store.needsCompaction());
+    assertFalse(store.requestCompaction().isPresent());
+  }
+
+  @Test
+  public void testSmallCompactionNotSplit() throws IOException {
+    createRegion(Long.MAX_VALUE);
+    HStore store = region.getStore(FAMILY);
+    List<Cell> expected = scanAllVersions(region, false);
+    region.compact(true);
+    assertEquals(1, store.getStorefilesCount());
+    assertCells(expected, scanAllVersions(region, true));
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestReadAmplificationCompactionPrioritizer {
+
+  private static final long MB = 1024 * 1024;
+
+  private ManualEnvironmentEdge edge;
+  private ReadAmplificationCompactionPrioritizer prioritizer;
+
+  @Before
+  public void setUp() {
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(ReadAmplificationCompactionPrioritizer.READ_RATE_PERIOD_KEY, 10000);
+    prioritizer = new ReadAmplificationCompactionPrioritizer(conf);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private static CompactionRequestImpl request(int files, long size) {
+    List<HStoreFile> storeFiles = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      storeFiles.add(mock(HStoreFile.class));
+    }
+    CompactionRequestImpl request = mock(CompactionRequestImpl.class);
+    when(request.getFiles()).thenReturn(storeFiles);
+    when(request.getSize()).thenReturn(size);
+    return request;
+  }
+
+  @Test
+  public void testRank() {
+    HRegion cold = mock(HRegion.class);
+    HRegion hot = mock(HRegion.class);
+    HStore store = mock(HStore.class);
+    when(store.getStorefilesCount()).thenReturn(4);
+    when(store.getStorefilesSize()).thenReturn(100 * MB);
+    // first seen
+    assertEquals(0, prioritizer.getReadRate(cold), 0);
+    assertEquals(0, prioritizer.getReadRate(hot), 0);
+
+    edge.incValue(10000);
+    when(hot.getReadRequestsCount()).thenReturn(100000L);
+    assertEquals(10000, prioritizer.getReadRate(hot), 0);
+
+    // Close to blocking writes or requested by a user, in the order of their priority
+    double blocked = prioritizer.rank(cold, store, -1, request(10, 1000 * MB));
+    double user = prioritizer.rank(cold, store, Store.PRIORITY_USER, null);
+    double nearlyBlocked = prioritizer.rank(cold, store,
+      ReadAmplificationCompactionPrioritizer.DEFAULT_BLOCKING_HEADROOM, null);
+    assertTrue(blocked < user);
+    assertTrue(user < nearlyBlocked);
+
+    // Then the most files removed per byte rewritten
+    double manySmall = prioritizer.rank(cold, store, 10, request(10, 10 * MB));
+    double fewBig = prioritizer.rank(cold, store, 10, request(3, 1000 * MB));
+    double nothing = prioritizer.rank(cold, store, 10, request(1, MB));
+    assertTrue(nearlyBlocked < manySmall);
+    assertTrue(manySmall < fewBig);
+    assertTrue(fewBig < nothing);
+
+    // Weighted by the read rate
+    assertTrue(prioritizer.rank(hot, store, 10, request(3, 1000 * MB)) < fewBig);
+    // System compactions without selection are ranked by the files of the store
+    assertEquals(prioritizer.rank(cold, store, 10, request(4, 100 * MB)),
+      prioritizer.rank(cold, store, 10, null), 0);
+  }
+}
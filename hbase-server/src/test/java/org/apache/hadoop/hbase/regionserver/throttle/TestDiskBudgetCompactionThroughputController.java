@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.throttle;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({RegionServerTests.class, SmallTests.class})
+public class TestDiskBudgetCompactionThroughputController {
+
+  private static final long MB = 1024 * 1024;
+
+  @Test
+  public void testTune() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(DiskBudgetCompactionThroughputController.HBASE_REGIONSERVER_DISK_THROUGHPUT_BUDGET,
+      100 * MB);
+    conf.setLong(
+      PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND,
+      10 * MB);
+    DiskBudgetCompactionThroughputController controller =
+        new DiskBudgetCompactionThroughputController();
+    controller.setConf(conf);
+    assertEquals(100 * MB, controller.getMaxThroughput(), 0);
+
+    // no flush rate yet
+    controller.tune(0.5, 1000 * MB, 0);
+    assertEquals(100 * MB, controller.getMaxThroughput(), 0);
+    // 30 MB/s of flushes
+    controller.tune(0.5, 1300 * MB, 10000);
+    assertEquals(70 * MB, controller.getMaxThroughput(), 0);
+    // flushes use all the budget
+    controller.tune(0.5, 2300 * MB, 20000);
+    assertEquals(10 * MB, controller.getMaxThroughput(), 0);
+    // regions closed
+    controller.tune(0.5, 100 * MB, 30000);
+    assertEquals(100 * MB, controller.getMaxThroughput(), 0);
+    // writes about to be blocked
+    controller.tune(1.5, 200 * MB, 40000);
+    assertEquals(Double.MAX_VALUE, controller.getMaxThroughput(), 0);
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestAdaptiveSyncBatchSize {
+
+  private static final long MIN = 4096;
+  private static final long MAX = 1024 * 1024;
+
+  /**
+   * Issues syncs of the given size every millisecond, each taking the given time.
+   */
+  private static void run(AdaptiveSyncBatchSize batchSize, long bytesPerMs, long syncTimeMs,
+      int syncs, long startNs) {
+    for (int i = 0; i < syncs; i++) {
+      batchSize.syncIssued(bytesPerMs, startNs + TimeUnit.MILLISECONDS.toNanos(i));
+      batchSize.syncCompleted(TimeUnit.MILLISECONDS.toNanos(syncTimeMs));
+    }
+  }
+
+  @Test
+  public void testMaxUntilSampled() {
+    AdaptiveSyncBatchSize batchSize = new AdaptiveSyncBatchSize(MIN, MAX);
+    assertEquals(MAX, batchSize.getBatchSize());
+    batchSize.syncCompleted(TimeUnit.MILLISECONDS.toNanos(2));
+    // no append rate yet
+    assertEquals(MAX, batchSize.getBatchSize());
+  }
+
+  @Test
+  public void testFollowsLatencyAndRate() {
+    AdaptiveSyncBatchSize batchSize = new AdaptiveSyncBatchSize(MIN, MAX);
+    // 64KB per ms and syncs of 2ms, about 128KB arrive while a sync is out
+    run(batchSize, 64 * 1024, 2, 100, 0);
+    assertEquals(128 * 1024, batchSize.getBatchSize(), 1024);
+
+    // the pipeline got slower
+    run(batchSize, 64 * 1024, 8, 100, TimeUnit.SECONDS.toNanos(1));
+    assertEquals(512 * 1024, batchSize.getBatchSize(), 4096);
+  }
+
+  @Test
+  public void testBounds() {
+    AdaptiveSyncBatchSize batchSize = new AdaptiveSyncBatchSize(MIN, MAX);
+    // a light load gets the minimum
+    run(batchSize, 100, 1, 100, 0);
+    assertEquals(MIN, batchSize.getBatchSize());
+    // a heavy load on a slow pipeline gets the maximum
+    run(batchSize, 1024 * 1024, 50, 100, TimeUnit.SECONDS.toNanos(1));
+    assertEquals(MAX, batchSize.getBatchSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalBounds() {
+    new AdaptiveSyncBatchSize(MAX, MIN);
+  }
+}
@@ -55,6 +55,15 @@ public class TestMetricsWAL {
     verify(source, times(1)).incrementSyncTime(145);
   }
 
+  @Test
+  public void testPostSyncBatch() throws Exception {
+    long nanos = TimeUnit.MILLISECONDS.toNanos(12);
+    MetricsWALSource source = mock(MetricsWALSourceImpl.class);
+    MetricsWAL metricsWAL = new MetricsWAL(source);
+    metricsWAL.postSyncBatch(30, 4096, nanos);
+    verify(source, times(1)).updateSyncBatch(30, 4096, 12);
+  }
+
   @Test
   public void testSlowAppend() throws Exception {
     MetricsWALSource source = new MetricsWALSourceImpl();
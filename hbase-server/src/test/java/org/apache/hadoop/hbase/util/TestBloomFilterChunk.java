@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import junit.framework.TestCase;
 
 import org.apache.hadoop.hbase.nio.MultiByteBuff;
+import org.apache.hadoop.hbase.regionserver.BloomType;
 import org.apache.hadoop.hbase.testclassification.MiscTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.junit.experimental.categories.Category;
@@ -186,6 +187,54 @@ public class TestBloomFilterChunk extends TestCase {
     assertEquals(640, BloomFilterUtil.computeFoldableByteSize(5001, 4));
   }
 
+  public void testBlockedBloom() throws Exception {
+    float err = (float) 0.01;
+    BloomFilterChunk b = BloomFilterUtil.createBySize(64 * 1024, err, Hash.MURMUR_HASH, 3,
+        BloomType.ROW, true);
+    assertTrue(b.isBlocked());
+    // The blocks stay whole when folding
+    assertEquals(0, b.getByteSize() % (BloomFilterUtil.BLOCK_BYTES << 3));
+    // A bit fewer keys than a plain Bloom filter of the same size to keep the error rate
+    long plainMaxKeys = BloomFilterUtil.computeMaxKeys(b.getByteSize() * 8, err, b.getHashCount());
+    assertTrue(b.getMaxKeys() < plainMaxKeys);
+    assertTrue(b.getMaxKeys() > plainMaxKeys * 0.8);
+    assertTrue(b.actualErrorRate() < err);
+    b.allocBloom();
+
+    int keys = (int) b.getMaxKeys() / 3;
+    for (int i = 0; i < keys; ++i) {
+      byte[] ib = Bytes.toBytes(i);
+      b.add(ib, 0, ib.length);
+    }
+    assertTrue(b.actualErrorRate() < err);
+    long origSize = b.getByteSize();
+    b.compactBloom();
+    assertEquals(origSize >> 1, b.getByteSize());
+
+    int falsePositives = 0;
+    for (int i = 0; i < keys * 10; ++i) {
+      byte[] bytes = Bytes.toBytes(i);
+      if (b.contains(bytes, 0, bytes.length)) {
+        if (i >= keys) {
+          falsePositives++;
+        }
+      } else {
+        assertFalse(i < keys);
+      }
+    }
+    assertTrue(falsePositives <= keys * 9 * err);
+    // The bits of a key are not where a plain Bloom filter expects them
+    int plainPositives = 0;
+    for (int i = 0; i < keys; ++i) {
+      byte[] bytes = Bytes.toBytes(i);
+      if (BloomFilterUtil.contains(bytes, 0, bytes.length, new MultiByteBuff(b.bloom), 0,
+          (int) b.byteSize, b.hash, b.hashCount)) {
+        plainPositives++;
+      }
+    }
+    assertTrue(plainPositives < keys);
+  }
+
 
 }
 
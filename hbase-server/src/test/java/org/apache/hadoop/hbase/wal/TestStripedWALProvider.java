@@ -0,0 +1,216 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.apache.hadoop.hbase.wal.WALFactory.WAL_PROVIDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.coprocessor.SampleRegionWALCoprocessor;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConcurrencyControl;
+// imports for things that haven't moved from regionserver.wal yet.
+import org.apache.hadoop.hbase.regionserver.wal.StripedWAL;
+import org.apache.hadoop.hbase.regionserver.wal.WALCoprocessorHost;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RegionServerTests.class, MediumTests.class })
+public class TestStripedWALProvider {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int NUM_STRIPES = 3;
+
+  private static Configuration CONF;
+  private static FileSystem FS;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    CONF = TEST_UTIL.getConfiguration();
+    // Make block sizes small.
+    CONF.setInt("dfs.blocksize", 1024 * 1024);
+    // faster failover with cluster.shutdown();fs.close() idiom
+    CONF.setInt("hbase.ipc.client.connect.max.retries", 1);
+    CONF.setInt("dfs.client.block.recovery.retries", 1);
+    CONF.setInt("hbase.ipc.client.connection.maxidletime", 500);
+
+    CONF.setClass(WAL_PROVIDER, StripedWALProvider.class, WALProvider.class);
+    CONF.setInt(StripedWALProvider.NUM_STRIPES, NUM_STRIPES);
+
+    TEST_UTIL.startMiniDFSCluster(3);
+    FS = TEST_UTIL.getDFSCluster().getFileSystem();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    FileStatus[] entries = FS.listStatus(new Path("/"));
+    for (FileStatus dir : entries) {
+      FS.delete(dir.getPath(), true);
+    }
+  }
+
+  /**
+   * Write with concurrent threads and verify that all edits were written, in sequence id order
+   * within each file.
+   */
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    int errCode = WALPerformanceEvaluation.innerMain(new Configuration(CONF),
+      new String[] { "-threads", "6", "-verify", "-noclosefs", "-iterations", "3000" });
+    assertEquals(0, errCode);
+  }
+
+  /**
+   * Appends one edit of the region from each of several threads and returns the lowest sequence
+   * id written.
+   */
+  private static long appendFromThreads(WAL wal, RegionInfo hri, byte[] family)
+      throws InterruptedException {
+    byte[] encodedName = hri.getEncodedNameAsBytes();
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    AtomicLong lowest = new AtomicLong(Long.MAX_VALUE);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < NUM_STRIPES * 2; i++) {
+      threads.add(new Thread(() -> {
+        try {
+          long now = System.currentTimeMillis();
+          WALEdit edit = new WALEdit();
+          edit.add(new KeyValue(family, family, family, now, family));
+          WALKeyImpl key = new WALKeyImpl(encodedName, hri.getTable(), now, mvcc,
+              new TreeMap<>(Bytes.BYTES_COMPARATOR));
+          wal.sync(wal.append(hri, key, edit, true));
+          lowest.accumulateAndGet(key.getSequenceId(), Math::min);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return lowest.get();
+  }
+
+  private static int countUsedStripes(StripedWAL wal, byte[] encodedName, byte[] family) {
+    int usedStripes = 0;
+    for (WAL stripe : wal.getStripes()) {
+      if (stripe.getEarliestMemStoreSeqNum(encodedName, family) != HConstants.NO_SEQNUM) {
+        usedStripes++;
+      }
+    }
+    return usedStripes;
+  }
+
+  @Test
+  public void testRegionStaysOnOneStripe() throws Exception {
+    FSUtils.setRootDir(CONF, TEST_UTIL.getDataTestDirOnTestFS());
+    WALFactory wals = new WALFactory(CONF, null, "testRegionStaysOnOneStripe");
+    try {
+      RegionInfo hri = RegionInfoBuilder.newBuilder(TableName.valueOf("pinned")).build();
+      byte[] family = Bytes.toBytes("f");
+      StripedWAL wal = (StripedWAL) wals.getWAL(hri);
+      appendFromThreads(wal, hri, family);
+      // All the edits of the region are in the files of one stripe, so in one replication queue
+      assertEquals(1, countUsedStripes(wal, hri.getEncodedNameAsBytes(), family));
+    } finally {
+      wals.close();
+    }
+  }
+
+  @Test
+  public void testCoprocessorsLoadedOnce() throws Exception {
+    Configuration conf = new Configuration(CONF);
+    conf.set(CoprocessorHost.WAL_COPROCESSOR_CONF_KEY,
+      SampleRegionWALCoprocessor.class.getName());
+    FSUtils.setRootDir(conf, TEST_UTIL.getDataTestDirOnTestFS());
+    WALFactory wals = new WALFactory(conf, null, "testCoprocessorsLoadedOnce");
+    try {
+      RegionInfo hri = RegionInfoBuilder.newBuilder(TableName.valueOf("coprocessors")).build();
+      StripedWAL wal = (StripedWAL) wals.getWAL(hri);
+      WALCoprocessorHost host = wal.getCoprocessorHost();
+      assertEquals(1, host.findCoprocessors(SampleRegionWALCoprocessor.class).size());
+      for (WAL stripe : wal.getStripes()) {
+        assertSame(host, stripe.getCoprocessorHost());
+      }
+    } finally {
+      wals.close();
+    }
+  }
+
+  @Test
+  public void testSequenceIdAccounting() throws Exception {
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(StripedWALProvider.STRIPE_BY_THREAD, true);
+    FSUtils.setRootDir(conf, TEST_UTIL.getDataTestDirOnTestFS());
+    WALFactory wals = new WALFactory(conf, null, "testSequenceIdAccounting");
+    try {
+      RegionInfo hri = RegionInfoBuilder.newBuilder(TableName.valueOf("striped")).build();
+      byte[] encodedName = hri.getEncodedNameAsBytes();
+      byte[] family = Bytes.toBytes("f");
+      StripedWAL wal = (StripedWAL) wals.getWAL(hri);
+      assertEquals(NUM_STRIPES, wal.getStripes().size());
+
+      // Append from several threads so that the edits of the region land on several stripes
+      long lowest = appendFromThreads(wal, hri, family);
+      assertTrue(countUsedStripes(wal, encodedName, family) > 1);
+      // The region level view is the lowest over all stripes
+      assertEquals(lowest, wal.getEarliestMemStoreSeqNum(encodedName, family));
+
+      Set<byte[]> families = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+      families.add(family);
+      assertEquals(HConstants.NO_SEQNUM, (long) wal.startCacheFlush(encodedName, families));
+      wal.completeCacheFlush(encodedName);
+      assertEquals(HConstants.NO_SEQNUM, wal.getEarliestMemStoreSeqNum(encodedName, family));
+    } finally {
+      wals.close();
+    }
+  }
+}